@@ -1,4 +1,51 @@
 package org.oxoo2a.sim4da;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Every node is linked to every other node by a link of cost 1. The links are implicit,
+ * so a complete topology takes no more memory than its names.
+ */
 public class CompleteTopology extends Topology {
+
+    public CompleteTopology ( List<String> names ) {
+        super(names);
+    }
+
+    @Override
+    public Topology withLinkCosts ( IntBinaryOperator cost ) {
+        // Cheapest paths may lead around expensive links, so this needs routing tables
+        GraphTopology.Builder b = new GraphTopology.Builder(Arrays.asList(names));
+        for (int i = 0; i < size(); i++)
+            for (int j = i + 1; j < size(); j++)
+                b.link(i, j);
+        return b.build().withLinkCosts(cost);
+    }
+
+    @Override
+    public int degree ( int node ) {
+        return size() - 1;
+    }
+
+    @Override
+    public int neighbor ( int node, int slot ) {
+        return slot < node ? slot : slot + 1;
+    }
+
+    @Override
+    public int linkCost ( int node, int slot ) {
+        return 1;
+    }
+
+    @Override
+    public int nextHop ( int from, int to ) {
+        return to;
+    }
+
+    @Override
+    protected int slotOf ( int a, int b ) {
+        return a == b ? -1 : (b < a ? b : b - 1);
+    }
 }
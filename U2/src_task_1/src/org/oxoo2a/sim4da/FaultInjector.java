@@ -0,0 +1,400 @@
+package org.oxoo2a.sim4da;
+
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Faults of one network: cut links, partitions, paused nodes and random drops, duplicates
+ * and delays of messages. Every message between nodes of this process passes through it,
+ * whichever protocol sent it; messages to and from other processes are not affected.
+ * <p>
+ * Links are kept in a connectivity matrix with one bit per ordered pair of nodes, so the
+ * check per delivery is one array access. As long as no fault is set, delivery only reads
+ * a flag.
+ * <p>
+ * A paused node stops when it next sends or receives, until it is resumed; messages sent
+ * to it wait in its mailbox, messages its other threads send on its behalf are lost.
+ * <p>
+ * Faults name the nodes they affect; a name the network doesn't host is rejected with an
+ * {@link IllegalArgumentException}. Faults can be set directly or scheduled on a timeline
+ * relative to the start of the simulation:
+ * <pre>
+ * FaultInjector faults = Network.getInstance().getFaults();
+ * faults.at(10, TimeUnit.SECONDS, f -&gt; f.partition(left, right));
+ * faults.at(15, TimeUnit.SECONDS, FaultInjector::heal);
+ * </pre>
+ */
+public class FaultInjector {
+
+    FaultInjector ( String name, MetricsRegistry metrics ) {
+        this.name = name;
+        this.cutDrops = metrics.counter("network.faults.cut");
+        this.randomDrops = metrics.counter("network.faults.dropped");
+        this.duplicates = metrics.counter("network.faults.duplicated");
+        this.delays = metrics.counter("network.faults.delayed");
+    }
+
+    // Assigns the node a row and column of the matrix
+    synchronized int register ( String node ) {
+        Integer known = indices.get(node);
+        if (known != null)
+            return known;
+        int index = size++;
+        if (index >= capacity)
+            grow(Math.max(64, capacity * 2));
+        indices.put(node, index);
+        return index;
+    }
+
+    /**
+     * Cuts every link between nodes of different groups, in both directions. Links within
+     * a group and links of nodes that are in no group stay as they are.
+     */
+    @SafeVarargs
+    public final void partition ( Collection<String>... groups ) {
+        synchronized (this) {
+            // Resolve every name first, so an unknown one cuts nothing
+            int[][] members = new int[groups.length][];
+            for (int g = 0; g < groups.length; g++)
+                members[g] = groups[g].stream().mapToInt(this::index).toArray();
+            for (int g = 0; g < groups.length; g++)
+                for (int h = 0; h < groups.length; h++)
+                    if (g != h)
+                        for (int from : members[g])
+                            for (int to : members[h])
+                                setCut(from, to, true);
+            update();
+        }
+        logger.info("Partitioned network " + name + " into " + groups.length + " groups");
+    }
+
+    /**
+     * Cuts the link in one direction: messages from {@code from} to {@code to} are lost.
+     */
+    public synchronized void cut ( String from, String to ) {
+        setCut(index(from), index(to), true);
+        update();
+    }
+
+    public synchronized void restore ( String from, String to ) {
+        setCut(index(from), index(to), false);
+        update();
+    }
+
+    /**
+     * Cuts all links of the node, in both directions.
+     */
+    public synchronized void isolate ( String node ) {
+        int n = index(node);
+        for (int i = 0; i < size; i++) {
+            if (i != n) {
+                setCut(n, i, true);
+                setCut(i, n, true);
+            }
+        }
+        update();
+    }
+
+    /**
+     * Restores all links; pauses and rates stay.
+     */
+    public synchronized void heal () {
+        if (cutLinks == 0)
+            return;
+        for (int i = 0; i < size; i++)
+            for (int w = 0; w < words; w++)
+                rows[i].set(w, 0);
+        cutLinks = 0;
+        update();
+        logger.info("Healed all links of network " + name);
+    }
+
+    /**
+     * @return true if messages from {@code from} to {@code to} are lost
+     */
+    public boolean isCut ( String from, String to ) {
+        Integer f = indices.get(from), t = indices.get(to);
+        return f != null && t != null && isCut(f, t);
+    }
+
+    boolean isCut ( int from, int to ) {
+        AtomicLongArray[] r = rows;
+        return (r[from].get(to >>> 6) & (1L << to)) != 0;
+    }
+
+    public void pause ( String node ) {
+        setPaused(index(node), true);
+    }
+
+    public void resume ( String node ) {
+        setPaused(index(node), false);
+    }
+
+    public boolean isPaused ( String node ) {
+        Integer n = indices.get(node);
+        return n != null && isPaused(n);
+    }
+
+    boolean isPaused ( int node ) {
+        return (paused.get(node >>> 6) & (1L << node)) != 0;
+    }
+
+    /**
+     * @param rate Probability that a message is lost
+     */
+    public void setDropRate ( double rate ) {
+        this.dropRate = probability(rate);
+        update();
+    }
+
+    /**
+     * @param rate Probability that a message is delivered twice
+     */
+    public void setDuplicateRate ( double rate ) {
+        this.duplicateRate = probability(rate);
+        update();
+    }
+
+    /**
+     * @param rate Probability that a message is held back by a uniformly chosen delay between {@code min} and {@code max}
+     */
+    public void setDelay ( double rate, long min, long max, TimeUnit unit ) {
+        if (min < 0 || max < min)
+            throw new IllegalArgumentException("Invalid delay range " + min + ".." + max);
+        this.minDelayNanos = unit.toNanos(min);
+        this.maxDelayNanos = unit.toNanos(max);
+        this.delayRate = probability(rate);
+        update();
+    }
+
+    /**
+     * Applies a fault at {@code time} after the start of the simulation. Faults scheduled
+     * for a time that has passed apply immediately.
+     */
+    public FaultInjector at ( long time, TimeUnit unit, Consumer<FaultInjector> fault ) {
+        Event event = new Event(unit.toNanos(time), fault);
+        synchronized (this) {
+            timeline.add(event);
+            if (timer != null)
+                schedule(event);
+        }
+        return this;
+    }
+
+    /**
+     * Removes every fault: links are restored, paused nodes resumed and the rates set to 0.
+     */
+    public void clear () {
+        heal();
+        synchronized (this) {
+            for (int i = 0; i < size; i++)
+                setPaused(i, false);
+        }
+        dropRate = duplicateRate = delayRate = 0;
+        update();
+    }
+
+    // Starts the timeline, called when the simulation starts
+    synchronized void start () {
+        if (timer != null)
+            return;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(null, r, "faults-" + name, 0, false);
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        timer = executor;
+        started = System.nanoTime();
+        for (Event e : timeline)
+            schedule(e);
+    }
+
+    // Stops the timeline and removes all faults, nobody stays paused after the simulation
+    void stop () {
+        ScheduledExecutorService t;
+        synchronized (this) {
+            t = timer;
+            timer = null;
+            timeline.clear();
+        }
+        if (t != null)
+            t.shutdownNow();
+        clear();
+    }
+
+    boolean isActive () {
+        return active;
+    }
+
+    // Decides the fate of a message from one node to another: true if it is lost
+    boolean drops ( int from, int to ) {
+        if (isCut(from, to)) {
+            cutDrops.increment();
+            return true;
+        }
+        if (isPaused(from)) {
+            // A paused node's helper threads are paused as well
+            cutDrops.increment();
+            return true;
+        }
+        if (dropRate > 0 && ScheduleJournal.random() < dropRate) {
+            randomDrops.increment();
+            return true;
+        }
+        return false;
+    }
+
+    boolean duplicates () {
+        if (duplicateRate > 0 && ScheduleJournal.random() < duplicateRate) {
+            duplicates.increment();
+            return true;
+        }
+        return false;
+    }
+
+    long extraDelayNanos () {
+        if (delayRate > 0 && ScheduleJournal.random() < delayRate) {
+            delays.increment();
+            return minDelayNanos + (long) (ScheduleJournal.random() * (maxDelayNanos - minDelayNanos));
+        }
+        return 0;
+    }
+
+    /**
+     * Blocks the calling node thread while its node is paused.
+     *
+     * @return false if interrupted while paused
+     */
+    boolean awaitResumed ( int node ) {
+        if (!isPaused(node))
+            return true;
+        synchronized (pauseLock) {
+            try {
+                while (isPaused(node))
+                    pauseLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setPaused ( int node, boolean pause ) {
+        long bit = 1L << node;
+        synchronized (pauseLock) {
+            long word = paused.get(node >>> 6);
+            if (((word & bit) != 0) == pause)
+                return;
+            paused.set(node >>> 6, pause ? word | bit : word & ~bit);
+            pausedNodes += pause ? 1 : -1;
+            pauseLock.notifyAll();
+        }
+        update();
+    }
+
+    // Called with the lock held
+    private void setCut ( int from, int to, boolean cut ) {
+        if (from == to)
+            return;
+        long word = rows[from].get(to >>> 6);
+        long bit = 1L << to;
+        if (((word & bit) != 0) == cut)
+            return;
+        rows[from].set(to >>> 6, cut ? word | bit : word & ~bit);
+        cutLinks += cut ? 1 : -1;
+    }
+
+    private synchronized void update () {
+        active = cutLinks > 0 || pausedNodes > 0 || dropRate > 0 || duplicateRate > 0 || delayRate > 0;
+    }
+
+    // Called with the lock held
+    private void grow ( int new_capacity ) {
+        int new_words = (new_capacity + 63) >>> 6;
+        AtomicLongArray[] grown = new AtomicLongArray[new_capacity];
+        for (int i = 0; i < new_capacity; i++) {
+            grown[i] = new AtomicLongArray(new_words);
+            if (i < capacity)
+                for (int w = 0; w < words; w++)
+                    grown[i].set(w, rows[i].get(w));
+        }
+        AtomicLongArray grown_paused = new AtomicLongArray(new_words);
+        synchronized (pauseLock) {
+            for (int w = 0; w < words; w++)
+                grown_paused.set(w, paused.get(w));
+            paused = grown_paused;
+        }
+        words = new_words;
+        capacity = new_capacity;
+        rows = grown;
+    }
+
+    private int index ( String node ) {
+        Integer n = indices.get(node);
+        if (n == null)
+            throw new IllegalArgumentException("Unknown node " + node + " in network " + name);
+        return n;
+    }
+
+    // Called with the lock held
+    private void schedule ( Event e ) {
+        long delay = Math.max(0, started + e.time - System.nanoTime());
+        timer.schedule(() -> {
+            try {
+                e.fault.accept(this);
+            } catch (RuntimeException ex) {
+                logger.warn("Fault on the timeline of network " + name + " failed: " + ex.getMessage());
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private static double probability ( double rate ) {
+        if (rate < 0 || rate > 1)
+            throw new IllegalArgumentException("Rate must be between 0 and 1, is " + rate);
+        return rate;
+    }
+
+    private record Event ( long time, Consumer<FaultInjector> fault ) {}
+
+    private final Logger logger = LoggerFactory.getLogger(FaultInjector.class);
+    private final String name;
+    private final Counter cutDrops;
+    private final Counter randomDrops;
+    private final Counter duplicates;
+    private final Counter delays;
+    private final Map<String,Integer> indices = new ConcurrentHashMap<>();
+    private final Object pauseLock = new Object();
+    private final List<Event> timeline = new ArrayList<>();
+    private int size = 0;
+    private int capacity = 0;
+    private int words = 0;
+    // rows[from] has the bit of to set if the link from -> to is cut
+    private volatile AtomicLongArray[] rows = new AtomicLongArray[0];
+    private volatile AtomicLongArray paused = new AtomicLongArray(0);
+    private int cutLinks = 0;
+    private volatile int pausedNodes = 0;
+    private volatile boolean active = false;
+    private volatile double dropRate = 0;
+    private volatile double duplicateRate = 0;
+    private volatile double delayRate = 0;
+    private volatile long minDelayNanos = 0;
+    private volatile long maxDelayNanos = 0;
+    private ScheduledExecutorService timer = null;
+    private long started = 0;
+}
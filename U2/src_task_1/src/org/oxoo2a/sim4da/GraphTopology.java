@@ -0,0 +1,273 @@
+package org.oxoo2a.sim4da;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A topology stored in compressed sparse row form: the links of node i are
+ * {@code targets[offsets[i] .. offsets[i+1]-1]} with costs in the same positions of {@code costs}.
+ * <p>
+ * Routing tables are built per destination the first time a message is routed to it: one
+ * shortest path tree, stored as a char per node holding its next hop towards the destination.
+ * A fully populated table of n nodes takes 2*n*n bytes.
+ */
+public class GraphTopology extends Topology {
+
+    static final int MAX_NODES = 0xFFFF;
+    private static final char UNREACHABLE = 0xFFFF;
+
+    private GraphTopology ( List<String> names, int[] offsets, int[] targets, int[] costs ) {
+        super(names);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.costs = costs;
+        boolean uniform = true;
+        for (int c : costs)
+            uniform &= c == 1;
+        this.uniformCosts = uniform;
+        this.routes = new AtomicReferenceArray<>(names.size());
+    }
+
+    @Override
+    public Topology withLinkCosts ( IntBinaryOperator cost ) {
+        int[] new_costs = new int[costs.length];
+        for (int node = 0; node < size(); node++) {
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int other = targets[i];
+                int c = cost.applyAsInt(Math.min(node, other), Math.max(node, other));
+                if (c <= 0)
+                    throw new IllegalArgumentException("Link cost must be positive, is " + c + " for " + node + "-" + other);
+                new_costs[i] = c;
+            }
+        }
+        return new GraphTopology(Arrays.asList(names), offsets, targets, new_costs);
+    }
+
+    @Override
+    public int degree ( int node ) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    @Override
+    public int neighbor ( int node, int slot ) {
+        return targets[offsets[node] + slot];
+    }
+
+    @Override
+    public int linkCost ( int node, int slot ) {
+        return costs[offsets[node] + slot];
+    }
+
+    @Override
+    public int nextHop ( int from, int to ) {
+        if (from == to)
+            return to;
+        char next = routesTo(to)[from];
+        return next == UNREACHABLE ? -1 : next;
+    }
+
+    private char[] routesTo ( int destination ) {
+        char[] row = routes.get(destination);
+        if (row == null) {
+            // Racing threads compute the same row, any of them may win
+            row = uniformCosts ? breadthFirst(destination) : dijkstra(destination);
+            routes.compareAndSet(destination, null, row);
+        }
+        return row;
+    }
+
+    // Links are undirected, so the tree of shortest paths from the destination gives everyone's next hop towards it
+    private char[] breadthFirst ( int destination ) {
+        char[] next = new char[size()];
+        Arrays.fill(next, UNREACHABLE);
+        int[] queue = new int[size()];
+        int head = 0, tail = 0;
+        queue[tail++] = destination;
+        next[destination] = (char) destination;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int v = targets[i];
+                if (next[v] == UNREACHABLE) {
+                    next[v] = (char) u;
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return next;
+    }
+
+    private char[] dijkstra ( int destination ) {
+        int n = size();
+        char[] next = new char[n];
+        Arrays.fill(next, UNREACHABLE);
+        long[] distance = new long[n];
+        Arrays.fill(distance, Long.MAX_VALUE);
+        boolean[] done = new boolean[n];
+        // Binary heap of (distance, node), with stale entries skipped when popped
+        long[] heap_distance = new long[Math.max(16, targets.length + 1)];
+        int[] heap_node = new int[heap_distance.length];
+        int heap_size = 0;
+        distance[destination] = 0;
+        next[destination] = (char) destination;
+        heap_distance[0] = 0;
+        heap_node[heap_size++] = destination;
+        while (heap_size > 0) {
+            int u = heap_node[0];
+            long du = heap_distance[0];
+            heap_size--;
+            siftDown(heap_distance, heap_node, heap_size, heap_distance[heap_size], heap_node[heap_size]);
+            if (done[u] || du > distance[u])
+                continue;
+            done[u] = true;
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int v = targets[i];
+                long dv = du + costs[i];
+                if (!done[v] && dv < distance[v]) {
+                    distance[v] = dv;
+                    next[v] = (char) u;
+                    if (heap_size == heap_distance.length) {
+                        heap_distance = Arrays.copyOf(heap_distance, heap_size * 2);
+                        heap_node = Arrays.copyOf(heap_node, heap_size * 2);
+                    }
+                    siftUp(heap_distance, heap_node, heap_size++, dv, v);
+                }
+            }
+        }
+        return next;
+    }
+
+    private static void siftUp ( long[] d, int[] node, int at, long key, int value ) {
+        while (at > 0) {
+            int parent = (at - 1) >>> 1;
+            if (d[parent] <= key)
+                break;
+            d[at] = d[parent];
+            node[at] = node[parent];
+            at = parent;
+        }
+        d[at] = key;
+        node[at] = value;
+    }
+
+    private static void siftDown ( long[] d, int[] node, int size, long key, int value ) {
+        if (size == 0)
+            return;
+        int at = 0;
+        while (true) {
+            int child = 2 * at + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && d[child + 1] < d[child])
+                child++;
+            if (key <= d[child])
+                break;
+            d[at] = d[child];
+            node[at] = node[child];
+            at = child;
+        }
+        d[at] = key;
+        node[at] = value;
+    }
+
+    /**
+     * Collects undirected links of cost 1 and packs them into a {@link GraphTopology}.
+     */
+    public static class Builder {
+
+        public Builder ( List<String> names ) {
+            if (names.size() > MAX_NODES)
+                throw new IllegalArgumentException("At most " + MAX_NODES + " nodes, got " + names.size());
+            this.names = names;
+            this.links = new int[names.size()][];
+            this.degrees = new int[names.size()];
+        }
+
+        public Builder link ( int a, int b ) {
+            if (a == b)
+                throw new IllegalArgumentException("Node " + a + " cannot be linked to itself");
+            if (linked(a, b))
+                throw new IllegalArgumentException("Nodes " + a + " and " + b + " are already linked");
+            add(a, b);
+            add(b, a);
+            return this;
+        }
+
+        /**
+         * Links a and b unless they are the same node or already linked.
+         */
+        public Builder linkOnce ( int a, int b ) {
+            if (a != b && !linked(a, b)) {
+                add(a, b);
+                add(b, a);
+            }
+            return this;
+        }
+
+        public Builder unlink ( int a, int b ) {
+            remove(a, b);
+            remove(b, a);
+            return this;
+        }
+
+        public boolean linked ( int a, int b ) {
+            int[] l = links[a];
+            for (int i = 0; i < degrees[a]; i++)
+                if (l[i] == b)
+                    return true;
+            return false;
+        }
+
+        public int degree ( int node ) {
+            return degrees[node];
+        }
+
+        public GraphTopology build () {
+            int n = names.size();
+            int[] offsets = new int[n + 1];
+            for (int i = 0; i < n; i++)
+                offsets[i + 1] = offsets[i] + degrees[i];
+            int[] targets = new int[offsets[n]];
+            for (int i = 0; i < n; i++) {
+                if (degrees[i] > 0) {
+                    System.arraycopy(links[i], 0, targets, offsets[i], degrees[i]);
+                    Arrays.sort(targets, offsets[i], offsets[i + 1]);
+                }
+            }
+            int[] costs = new int[targets.length];
+            Arrays.fill(costs, 1);
+            return new GraphTopology(names, offsets, targets, costs);
+        }
+
+        private void add ( int a, int b ) {
+            int[] l = links[a];
+            if (l == null)
+                l = links[a] = new int[4];
+            else if (degrees[a] == l.length)
+                l = links[a] = Arrays.copyOf(l, l.length * 2);
+            l[degrees[a]++] = b;
+        }
+
+        private void remove ( int a, int b ) {
+            int[] l = links[a];
+            for (int i = 0; i < degrees[a]; i++) {
+                if (l[i] == b) {
+                    l[i] = l[--degrees[a]];
+                    return;
+                }
+            }
+        }
+
+        private final List<String> names;
+        private final int[][] links;
+        private final int[] degrees;
+    }
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] costs;
+    private final boolean uniformCosts;
+    private final AtomicReferenceArray<char[]> routes;
+}
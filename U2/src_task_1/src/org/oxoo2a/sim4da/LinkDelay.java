@@ -0,0 +1,78 @@
+package org.oxoo2a.sim4da;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds back messages until their path through the topology has been traversed. One
+ * daemon thread per network hands them to the receiving mailbox when they are due;
+ * messages that are due at the same time keep the order in which they were sent.
+ */
+class LinkDelay {
+
+    interface Receiver {
+        void deliver ( NodeProxy receiver, Message message, NetworkConnection sender );
+    }
+
+    LinkDelay ( String name, Receiver delivery ) {
+        this.name = name;
+        this.delivery = delivery;
+    }
+
+    void deliverLater ( NodeProxy receiver, Message message, NetworkConnection sender, long delay_nanos ) {
+        ensureStarted();
+        pending.add(new Delivery(System.nanoTime() + delay_nanos, order.getAndIncrement(), receiver, message, sender));
+    }
+
+    void shutdown () {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t != null)
+            t.interrupt();
+        pending.clear();
+    }
+
+    private synchronized void ensureStarted () {
+        if (thread != null)
+            return;
+        thread = new Thread(null, this::run, "link-delay-" + name, 0, false);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run () {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Delivery d = pending.take();
+                delivery.deliver(d.receiver, d.message, d.sender);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Delivery ( long due, long order, NodeProxy receiver, Message message, NetworkConnection sender ) implements Delayed {
+        @Override
+        public long getDelay ( TimeUnit unit ) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo ( Delayed other ) {
+            Delivery o = (Delivery) other;
+            int c = Long.compare(due, o.due);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    private final String name;
+    private final Receiver delivery;
+    private final DelayQueue<Delivery> pending = new DelayQueue<>();
+    private final AtomicLong order = new AtomicLong();
+    private Thread thread = null;
+}
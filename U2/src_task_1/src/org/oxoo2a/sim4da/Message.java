@@ -1,11 +1,17 @@
 package org.oxoo2a.sim4da;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonSetter;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.oxoo2a.sim4da.protocol.MessageTypes;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class Message {
 
@@ -21,6 +27,12 @@ public class Message {
             content.put(category,new HashMap<>());
             content.get(category).putAll(other.content.get(category));
         }
+        type_id = other.type_id;
+        if (other.long_count > 0) {
+            long_keys = Arrays.copyOf(other.long_keys,other.long_count);
+            long_values = Arrays.copyOf(other.long_values,other.long_count);
+            long_count = other.long_count;
+        }
     }
     public void addCategory ( String category ) {
         if (content.containsKey(category)) {
@@ -44,6 +56,8 @@ public class Message {
 
     public Message addWithCategory(String category, String key, String value ) {
         content.get(category).put(key,value);
+        if (key.equals("type") && category.equals("Payload"))
+            type_id = MessageTypes.idOf(value);
         return this;
     }
     public Message add ( String key, String value ) {
@@ -54,6 +68,33 @@ public class Message {
         return addWithCategory("Payload",key,String.valueOf(value));
     }
 
+    public Message add ( String key, long value ) {
+        return addWithCategory("Payload",key,String.valueOf(value));
+    }
+
+    /**
+     * Adds a typed number to the payload. It is carried through copies, the JSON form and
+     * the binary transports as a long, so it is never formatted or parsed as text;
+     * {@link #queryLong} returns it as is and {@link #query} formats it on demand.
+     */
+    public Message addLong ( String key, long value ) {
+        for (int i = 0; i < long_count; i++) {
+            if (long_keys[i].equals(key)) {
+                long_values[i] = value;
+                return this;
+            }
+        }
+        if (long_count == long_keys.length) {
+            int capacity = Math.max(4,long_count*2);
+            long_keys = Arrays.copyOf(long_keys,capacity);
+            long_values = Arrays.copyOf(long_values,capacity);
+        }
+        long_keys[long_count] = key;
+        long_values[long_count] = value;
+        long_count++;
+        return this;
+    }
+
     public Message addHeader ( String key, String value ) {
         return addWithCategory("Header",key,value);
     }
@@ -67,13 +108,51 @@ public class Message {
     }
 
     public String query ( String key ) {
-        return queryWithCategory("Payload",key);
+        String value = queryWithCategory("Payload",key);
+        if (value == null) {
+            int i = longIndex(key);
+            if (i >= 0)
+                return Long.toString(long_values[i]);
+        }
+        return value;
     }
 
     public int queryInteger ( String key ) {
         return Integer.parseInt(queryWithCategory("Payload",key));
     }
 
+    public long queryLong ( String key ) {
+        int i = longIndex(key);
+        if (i >= 0)
+            return long_values[i];
+        return Long.parseLong(queryWithCategory("Payload",key));
+    }
+
+    /**
+     * @return true if the payload holds key as a typed number added with {@link #addLong}
+     */
+    public boolean hasLong ( String key ) {
+        return longIndex(key) >= 0;
+    }
+
+    /**
+     * @return The number of typed numbers in the payload
+     */
+    public int longCount () {
+        return long_count;
+    }
+
+    /**
+     * @return The key of the i-th typed number, in the order they were added
+     */
+    public String longKey ( int i ) {
+        return long_keys[i];
+    }
+
+    public long longValue ( int i ) {
+        return long_values[i];
+    }
+
     public String queryHeader ( String key ) {
         return queryWithCategory("Header",key);
     }
@@ -82,6 +161,16 @@ public class Message {
         return Integer.parseInt(queryWithCategory("Header",key));
     }
 
+    /**
+     * @return The {@link MessageTypes} id of the "type" field, resolved when the field is set
+     */
+    public int typeId () {
+        if (type_id == UNRESOLVED)
+            // Deserialized messages fill their maps directly
+            type_id = MessageTypes.idOf(query("type"));
+        return type_id;
+    }
+
     public Map<String,String> getPayload () {
         return content.get("Payload");
     }
@@ -90,6 +179,36 @@ public class Message {
         return content.get("Header");
     }
 
+    public Set<String> categories () {
+        return content.keySet();
+    }
+
+    public Map<String,String> queryCategory ( String category ) {
+        return content.get(category);
+    }
+
+    // The typed numbers in the JSON form, omitted if there are none
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<String,Long> getNumbers () {
+        Map<String,Long> numbers = new LinkedHashMap<>();
+        for (int i = 0; i < long_count; i++)
+            numbers.put(long_keys[i],long_values[i]);
+        return numbers;
+    }
+
+    @JsonSetter("numbers")
+    private void setNumbers ( Map<String,Long> numbers ) {
+        numbers.forEach(this::addLong);
+    }
+
+    private int longIndex ( String key ) {
+        for (int i = 0; i < long_count; i++) {
+            if (long_keys[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
 
     public String toJson () throws JsonProcessingException {
         return serializer.writeValueAsString(this);
@@ -111,5 +230,13 @@ public class Message {
     }
 
     private Map<String, Map<String,String>> content = new HashMap<>();
+    private static final int UNRESOLVED = -2;
+    private int type_id = UNRESOLVED;
+    // Typed numbers of the payload, few per message, so a linear search beats a map
+    private static final String[] NO_KEYS = new String[0];
+    private static final long[] NO_VALUES = new long[0];
+    private String[] long_keys = NO_KEYS;
+    private long[] long_values = NO_VALUES;
+    private int long_count = 0;
     private static final ObjectMapper serializer = new ObjectMapper();
 }
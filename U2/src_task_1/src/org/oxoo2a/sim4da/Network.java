@@ -1,37 +1,209 @@
 package org.oxoo2a.sim4da;
 
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.oxoo2a.sim4da.trace.Tracer;
+import org.oxoo2a.sim4da.transport.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class Network {
 
-    private Network() {
+    Network ( SimulationContext context ) {
+        this.metrics = context.getMetrics();
+        this.journal = context.getJournal();
+        this.tracer = context.getTracer();
+        this.link_delay = new LinkDelay(context.getName(), this::deliverTo);
+        this.unroutable = metrics.counter("network.unroutable");
+        this.faults = new FaultInjector(context.getName(), metrics);
+        this.snapshots = new SnapshotService(this, context);
     }
 
-    private record Node ( NetworkConnection nc, NodeProxy np ) {}
-    private final Map<String,Node> nodes = new HashMap<>();
+    // index is the node's row and column in the fault injector's connectivity matrix
+    private record Node ( NetworkConnection nc, NodeProxy np, int index ) {}
+    private final Map<String,Node> nodes = new ConcurrentHashMap<>();
+    private volatile Transport transport = null;
     private final Logger logger = LoggerFactory.getLogger(Network.class);
-    private static Network instance = null;
+    private final MetricsRegistry metrics;
+    private final ScheduleJournal journal;
+    private final Tracer tracer;
+    private final LinkDelay link_delay;
+    private final Counter unroutable;
+    private final FaultInjector faults;
+    private final SnapshotService snapshots;
+    private volatile Topology topology = null;
+    private volatile long link_delay_nanos = 0;
+    private volatile boolean neighbor_broadcast = false;
+    // -Dsim4da.mailbox.capacity=<n> [-Dsim4da.mailbox.policy=BLOCK|DROP_NEWEST|DROP_OLDEST|REJECT] bounds all mailboxes
+    private volatile int mailbox_capacity = Integer.getInteger("sim4da.mailbox.capacity", Integer.MAX_VALUE);
+    private volatile OverflowPolicy mailbox_policy = OverflowPolicy.valueOf(System.getProperty("sim4da.mailbox.policy", "BLOCK"));
+
+    /**
+     * @return The network of the current {@link SimulationContext}
+     */
     public static Network getInstance() {
-        if (instance == null) {
-            synchronized (Network.class) {
-                if (instance == null) {
-                    instance = new Network();
-                }
-            }
-        }
-        return instance;
+        return SimulationContext.current().getNetwork();
     }
 
     public void registerConnection(NetworkConnection networkConnection, NodeProxy nodeProxy) {
         logger.debug("Registering connection for " + networkConnection.NodeName());
-        Node n = new Node(networkConnection, nodeProxy);
+        nodeProxy.setLimit(mailbox_capacity, mailbox_policy);
+        Node n = new Node(networkConnection, nodeProxy, faults.register(networkConnection.NodeName()));
         nodes.put(networkConnection.NodeName(), n);
+        if (transport != null)
+            transport.announce(networkConnection.NodeName());
+    }
+
+    /**
+     * Bounds the mailbox of every node, present and future, to {@code capacity} messages.
+     * With {@link OverflowPolicy#BLOCK}, senders wait for space; two nodes that fill each
+     * other's mailboxes while blocked on sending deadlock, so protocols with request/response
+     * cycles are better off with one of the dropping policies.
+     */
+    public void setMailboxLimit ( int capacity, OverflowPolicy policy ) {
+        this.mailbox_capacity = capacity;
+        this.mailbox_policy = policy;
+        for (Node n : nodes.values())
+            n.np.setLimit(capacity, policy);
+    }
+
+    /**
+     * Releases every node waiting in receive() and every sender waiting for mailbox space.
+     */
+    public void closeMailboxes () {
+        faults.stop();
+        snapshots.stop();
+        link_delay.shutdown();
+        for (Node n : nodes.values())
+            n.np.close();
+    }
+
+    /**
+     * @return The faults of this network: partitions, cut links, paused nodes, message loss,
+     * duplication and delay
+     */
+    public FaultInjector getFaults () {
+        return faults;
+    }
+
+    /**
+     * @return The global snapshots of this network's nodes
+     */
+    public SnapshotService getSnapshots () {
+        return snapshots;
+    }
+
+    // Starts the fault timeline with the simulation
+    void startFaults () {
+        faults.start();
+    }
+
+    /**
+     * Connects this network to the networks of other processes. Nodes that are not
+     * registered locally are looked up in the transport's directory of remote nodes.
+     */
+    public void setTransport ( Transport transport ) throws IOException {
+        transport.start(this::deliverRemote);
+        this.transport = transport;
+        for (String node_name : nodes.keySet())
+            transport.announce(node_name);
+    }
+
+    /**
+     * Restricts which nodes are linked. Messages between nodes that are not linked are routed
+     * along a cheapest path; messages to nodes without a path are dropped and counted as
+     * network.unroutable. Nodes that are not part of the topology can reach and be reached
+     * by everyone. null removes the restriction.
+     */
+    public void setTopology ( Topology topology ) {
+        this.topology = topology;
+    }
+
+    public Topology getTopology () {
+        return topology;
+    }
+
+    /**
+     * Delays every message by the cost of its path through the topology times {@code per_cost_unit}.
+     * Without a topology or with a delay of 0, messages are delivered immediately.
+     */
+    public void setLinkDelay ( long per_cost_unit, TimeUnit unit ) {
+        this.link_delay_nanos = unit.toNanos(per_cost_unit);
+    }
+
+    /**
+     * @param neighbors_only true if a broadcast only reaches the sender's neighbors in the topology
+     */
+    public void setNeighborBroadcast ( boolean neighbors_only ) {
+        this.neighbor_broadcast = neighbors_only;
+    }
+
+    /**
+     * @return The nodes linked to {@code node_name} in the topology, all other nodes without one
+     */
+    public List<String> neighbors ( String node_name ) {
+        Topology topo = topology;
+        if (topo != null && topo.contains(node_name))
+            return topo.neighbors(node_name);
+        List<String> names = nodeNames();
+        names.remove(node_name);
+        return names;
+    }
+
+    /**
+     * @return true if the node is registered in this process
+     */
+    public boolean hosts ( String node_name ) {
+        return nodes.containsKey(node_name);
+    }
+
+    /**
+     * @return true if a message sent from {@code from} to {@code to} would currently arrive:
+     * both are nodes of this process, the link between them is not cut and the topology,
+     * if any, has a path between them
+     */
+    public boolean isReachable ( String from, String to ) {
+        Node a = nodes.get(from), b = nodes.get(to);
+        if (a == null || b == null)
+            return false;
+        if (faults.isActive() && faults.isCut(a.index, b.index))
+            return false;
+        Topology topo = topology;
+        int f, t;
+        if (topo == null || (f = topo.indexOf(from)) < 0 || (t = topo.indexOf(to)) < 0)
+            return true;
+        return topo.pathCost(f, t) >= 0;
+    }
+
+    /**
+     * @return true while the node's thread runs, is not paused and its mailbox accepts messages
+     */
+    public boolean isRunning ( String node_name ) {
+        Node n = nodes.get(node_name);
+        return n != null && n.nc.isAlive() && !n.np.isClosed() && !faults.isPaused(n.index);
+    }
+
+    // Messages from other processes, called on the transport's thread; receiver_name null is a broadcast
+    private void deliverRemote ( String receiver_name, Message message ) {
+        if (receiver_name == null) {
+            for (Node n : nodes.values())
+                deliverTo(n.np, new Message(message), null);
+            return;
+        }
+        Node n = nodes.get(receiver_name);
+        if (n == null) {
+            logger.warn("Remote message for unknown node " + receiver_name + " dropped");
+            return;
+        }
+        deliverTo(n.np, message, null);
     }
 
     public List<NetworkConnection> getAllNetworkConnections () {
@@ -42,43 +214,211 @@ public class Network {
         return ncs;
     }
 
+    /**
+     * @return The names of all nodes, including nodes of other processes
+     */
+    public List<String> nodeNames () {
+        List<String> names = new ArrayList<>(nodes.keySet());
+        Transport t = transport;
+        if (t != null)
+            names.addAll(t.remoteNodes());
+        return names;
+    }
+
     public int numberOfNodes() {
-        return nodes.size();
+        Transport t = transport;
+        return nodes.size() + (t != null ? t.remoteNodes().size() : 0);
     }
 
     public void send ( Message message, NetworkConnection sender, String receiver_name ) throws UnknownNodeException {
-        if (!nodes.containsKey(receiver_name)) {
+        Node local = nodes.get(receiver_name);
+        Transport t = transport;
+        boolean remote = local == null && t != null && t.hosts(receiver_name);
+        if (local == null && !remote) {
             logger.error("Attempt to send message to non-existent node " + receiver_name);
             throw new UnknownNodeException(receiver_name);
         }
+        awaitResumed(sender);
         Message copy = new Message(message);
         copy.addHeader("sender", sender.NodeName());
-        NodeProxy receiver = nodes.get(receiver_name).np;
-        receiver.deliver(copy, sender);
+        if (journal.mode() != ScheduleJournal.Mode.OFF)
+            copy.addHeader(ScheduleJournal.SEQUENCE_HEADER, journal.nextSequence(sender.NodeName()));
+        metrics.messageCounter(MetricsRegistry.Direction.SENT, sender.NodeName(), message.query("type")).increment();
+        snapshots.onSend(copy, sender.NodeName());
+        tracer.onSend(copy, sender.NodeName(), receiver_name);
+        if (remote)
+            t.send(receiver_name, copy);
+        else
+            deliverLocal(local, copy, sender);
     }
 
     public void send ( Message message, NetworkConnection sender ) {
+        awaitResumed(sender);
+        Counter sent = metrics.messageCounter(MetricsRegistry.Direction.SENT, sender.NodeName(), message.query("type"));
+        String sequence = journal.mode() != ScheduleJournal.Mode.OFF ? journal.nextSequence(sender.NodeName()) : null;
+        Transport t = transport;
+        Topology topo = topology;
+        if (neighbor_broadcast && topo != null && topo.contains(sender.NodeName())) {
+            for (String neighbor : topo.neighbors(sender.NodeName())) {
+                Node n = nodes.get(neighbor);
+                boolean remote = n == null && t != null && t.hosts(neighbor);
+                if (n == null && !remote)
+                    continue;
+                Message copy = new Message(message);
+                copy.addHeader("sender", sender.NodeName());
+                if (sequence != null)
+                    copy.addHeader(ScheduleJournal.SEQUENCE_HEADER, sequence);
+                sent.increment();
+                snapshots.onSend(copy, sender.NodeName());
+                tracer.onSend(copy, sender.NodeName(), neighbor);
+                if (remote)
+                    t.send(neighbor, copy);
+                else
+                    deliverLocal(n, copy, sender);
+            }
+            return;
+        }
         for (Node n : nodes.values()) {
             if (n.nc != sender) { 
                 Message copy = new Message(message); 
                 copy.addHeader("sender", sender.NodeName()); 
-                n.np.deliver(copy, sender);
+                if (sequence != null)
+                    copy.addHeader(ScheduleJournal.SEQUENCE_HEADER, sequence);
+                sent.increment();
+                snapshots.onSend(copy, sender.NodeName());
+                tracer.onSend(copy, sender.NodeName(), n.nc.NodeName());
+                deliverLocal(n, copy, sender);
             }
         }
+        if (t != null && !t.remoteNodes().isEmpty()) {
+            Message copy = new Message(message);
+            copy.addHeader("sender", sender.NodeName());
+            if (sequence != null)
+                copy.addHeader(ScheduleJournal.SEQUENCE_HEADER, sequence);
+            sent.add(t.remoteNodes().size());
+            snapshots.onSend(copy, sender.NodeName());
+            tracer.onSend(copy, sender.NodeName(), "*");
+            t.broadcast(copy);
+        }
+    }
+
+    // Applies the faults, if any, then routes through the topology
+    private void deliverLocal ( Node receiver, Message message, NetworkConnection sender ) {
+        if (!faults.isActive()) {
+            deliverRouted(receiver, message, sender, 0);
+            return;
+        }
+        Node origin = nodes.get(sender.NodeName());
+        // Snapshots observe the simulation, a partition must not keep them from completing
+        if (origin != null && !SnapshotService.isMarker(message) && faults.drops(origin.index, receiver.index))
+            return;
+        long delay = faults.extraDelayNanos();
+        if (faults.duplicates())
+            deliverRouted(receiver, new Message(message), sender, delay);
+        deliverRouted(receiver, message, sender, delay);
+    }
+
+    // Routes through the topology, if the sender and the receiver are part of it
+    private void deliverRouted ( Node receiver, Message message, NetworkConnection sender, long extra_delay ) {
+        Topology topo = topology;
+        int from, to;
+        if (topo == null || (from = topo.indexOf(sender.NodeName())) < 0 || (to = topo.indexOf(receiver.nc.NodeName())) < 0) {
+            if (extra_delay > 0)
+                link_delay.deliverLater(receiver.np, message, sender, extra_delay);
+            else
+                deliverTo(receiver.np, message, sender);
+            return;
+        }
+        long cost = topo.pathCost(from, to);
+        if (cost < 0) {
+            unroutable.increment();
+            logger.debug("No route from " + sender.NodeName() + " to " + receiver.nc.NodeName() + ", message dropped");
+            return;
+        }
+        long delay = cost * link_delay_nanos + extra_delay;
+        if (delay > 0)
+            link_delay.deliverLater(receiver.np, message, sender, delay);
+        else
+            deliverTo(receiver.np, message, sender);
+    }
+
+    // Puts the message into the mailbox, and tells the sender if the mailbox rejects it
+    private void deliverTo ( NodeProxy receiver, Message message, NetworkConnection sender ) {
+        if (receiver.deliver(message, sender) || sender == null || receiver.getPolicy() != OverflowPolicy.REJECT)
+            return;
+        Node origin = nodes.get(sender.NodeName());
+        if (origin == null)
+            return;
+        Message notice = new Message()
+                .add("type", OverflowPolicy.REJECTED_TYPE)
+                .add("receiver", receiver.getNodeName())
+                .add("rejected_type", String.valueOf(message.query("type")));
+        notice.addHeader("sender", receiver.getNodeName());
+        origin.np.deliverNotice(notice);
+    }
+
+    // Puts a message from outside the network into a node's mailbox
+    boolean inject ( String receiver_name, Message message ) {
+        Node n = nodes.get(receiver_name);
+        if (n == null || n.np.isClosed())
+            return false;
+        n.np.deliverNotice(message);
+        return true;
+    }
+
+    // Puts a message into a node's mailbox as if it had just arrived from the sender
+    boolean inject ( String receiver_name, Message message, NetworkConnection sender ) {
+        Node n = nodes.get(receiver_name);
+        return n != null && n.np.deliver(message, sender);
     }
 
     public Message receive(NetworkConnection receiver) {
+        return receive(receiver, -1);
+    }
+
+    /**
+     * @param timeout_ms How long to wait for a message, -1 waits until one arrives
+     */
+    public Message receive(NetworkConnection receiver, long timeout_ms) {
         Node n = nodes.get(receiver.NodeName());
         if (n == null || n.np == null) {
             logger.error("NodeProxy not found for receiver: " + receiver.NodeName() + ". This might happen if shutdown occurred.");
             return null;
         }
-        Message m = n.np.receive();
+        if (faults.isActive() && !faults.awaitResumed(n.index))
+            return null;
+        Message m = n.np.receive(timeout_ms);
         return m;
     }
 
+    /**
+     * @return false once the receiver's mailbox was closed or the network shut down
+     */
+    public boolean isOpen(NetworkConnection receiver) {
+        Node n = nodes.get(receiver.NodeName());
+        return n != null && !n.np.isClosed();
+    }
+
+    // A paused node's thread stops here until the node is resumed
+    private void awaitResumed ( NetworkConnection sender ) {
+        if (!faults.isActive() || !sender.isNodeThread())
+            return;
+        Node n = nodes.get(sender.NodeName());
+        if (n != null)
+            faults.awaitResumed(n.index);
+    }
+
     public void shutdown() {
+        faults.stop();
+        snapshots.stop();
+        link_delay.shutdown();
+        for (Node n : nodes.values())
+            n.nc.networkShutdown();
         nodes.clear(); 
+        if (transport != null) {
+            transport.close();
+            transport = null;
+        }
         logger.info("Network shutdown and nodes cleared.");
     }
 }
@@ -1,5 +1,6 @@
 package org.oxoo2a.sim4da;
 
+import org.oxoo2a.sim4da.random.RandomStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -7,6 +8,13 @@ public class NetworkConnection {
 
 
     public NetworkConnection(String node_name ) {
+        this(SimulationContext.current(), node_name);
+    }
+
+    public NetworkConnection(SimulationContext context, String node_name ) {
+        this.context = context;
+        this.simulator = context.getSimulator();
+        this.network = context.getNetwork();
         this.node_name = node_name;
         logger = LoggerFactory.getLogger(node_name);
         peer = new NodeProxy(this);
@@ -24,7 +32,10 @@ public class NetworkConnection {
     }
 
     private void node_main_base() {
+        context.bindCurrentThread();
         simulator.awaitSimulationStart();
+        context.getJournal().attach(node_name);
+        RandomStreams.attach(node_name);
         if (simulator.isSimulating())
             node_main.run();
     }
@@ -37,11 +48,39 @@ public class NetworkConnection {
     }
 
     public Message receive () {
-        Message m = network.receive(this);
-        logger.debug("Received message from "+m.queryHeader("sender"));
+        return receive(-1);
+    }
+
+    /**
+     * @param timeout_ms How long to wait for a message, -1 waits until one arrives
+     * @return The message, null if none arrived in time
+     */
+    public Message receive ( long timeout_ms ) {
+        Message m = network.receive(this, timeout_ms);
+        if (m != null)
+            logger.debug("Received message from "+m.queryHeader("sender"));
         return m;
     }
 
+    public boolean isOpen () {
+        return network.isOpen(this);
+    }
+
+    /**
+     * @return true from engage() until the node's main method returned
+     */
+    public boolean isAlive () {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+
+    /**
+     * @return true if called on this connection's node thread
+     */
+    public boolean isNodeThread () {
+        return Thread.currentThread() == thread;
+    }
+
     public void send ( Message message, String to_node_name ) throws UnknownNodeException {
         logger.debug("Sending message to "+to_node_name);
         network.send(message, this, to_node_name);
@@ -59,17 +98,34 @@ public class NetworkConnection {
         network.send(message, this);
     }
 
+    // Runs when the network is torn down, before this node is removed from it
+    void onNetworkShutdown ( Runnable hook ) {
+        shutdown_hook = hook;
+    }
+
+    void networkShutdown () {
+        Runnable hook = shutdown_hook;
+        if (hook != null)
+            hook.run();
+    }
+
+    public SimulationContext getContext() {
+        return context;
+    }
+
     public Logger getLogger() {
         return logger;
     }
 
     private final String node_name;
-    private final Simulator simulator = Simulator.getInstance();
-    private final Network network = Network.getInstance();
-    private Thread thread = null;
+    private final SimulationContext context;
+    private final Simulator simulator;
+    private final Network network;
+    private volatile Thread thread = null;
     private final NodeProxy peer;
     private final Logger logger;
     private Runnable node_main = null;
+    private volatile Runnable shutdown_hook = null;
 
     public void interrupt() {
         thread.interrupt();
@@ -1,8 +1,31 @@
 package org.oxoo2a.sim4da;
 
+import org.oxoo2a.sim4da.dissemination.DisseminationHost;
+import org.oxoo2a.sim4da.dissemination.DisseminationLayer;
+import org.oxoo2a.sim4da.dissemination.DisseminationStrategy;
 import org.oxoo2a.sim4da.dsm.*;
+import org.oxoo2a.sim4da.protocol.MessageHandler;
+import org.oxoo2a.sim4da.protocol.Protocol;
+import org.oxoo2a.sim4da.protocol.ProtocolRegistry;
+import org.oxoo2a.sim4da.random.RandomStreams;
+import org.oxoo2a.sim4da.rpc.Rpc;
+import org.oxoo2a.sim4da.rpc.RpcHost;
+import org.oxoo2a.sim4da.snapshot.Checkpointable;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
 public abstract class Node implements DSMNode {
     private final NetworkConnection nc;
     private final String name;
@@ -12,18 +35,102 @@ public abstract class Node implements DSMNode {
     private CPDistributedSharedMemory cpDsm;
     private CADistributedSharedMemory caDsm;
 
+    // Handlers of the protocols running on this node, indexed by message type id
+    private final ProtocolRegistry protocols = new ProtocolRegistry();
+
+    // Broadcast strategies per message type, all-to-all for types without one
+    private final DisseminationLayer dissemination;
+
+    // Request/response calls, and the messages received while this node waited for a reply
+    private final Rpc rpc;
+    private final ArrayDeque<Message> deferred = new ArrayDeque<>();
+
+    // What this node got back from the checkpoint the simulation resumed from, if any
+    private Map<String, String> restoredState = null;
+    private Map<String, byte[]> restoredParts = new HashMap<>();
+
+    // What receiving a message amounted to
+    private enum Disposition { CONSUMED, HANDLED, UNHANDLED }
+
     public Node(String name) {
+        this(SimulationContext.current(), name);
+    }
+
+    public Node(SimulationContext context, String name) {
         this.name = name;
-        this.nc = new NetworkConnection(name); // NetworkConnection is created here
+        this.nc = new NetworkConnection(context, name); // NetworkConnection is created here
+        this.dissemination = new DisseminationLayer(new DisseminationHost() {
+            @Override
+            public String name() {
+                return Node.this.name;
+            }
+
+            @Override
+            public List<String> peers() {
+                List<String> peers = nc.getContext().getNetwork().nodeNames();
+                peers.remove(Node.this.name);
+                return peers;
+            }
+
+            @Override
+            public void send(Message message, String to) {
+                nc.sendBlindly(message, to);
+            }
+
+            @Override
+            public void sendToAll(Message message) {
+                nc.send(message);
+            }
+        });
+        // Timers of the disseminators send on behalf of this node, they stop before the network goes
+        this.nc.onNetworkShutdown(dissemination::close);
+        this.rpc = new Rpc(new RpcHost() {
+            @Override
+            public String name() {
+                return Node.this.name;
+            }
+
+            @Override
+            public void send(Message message, String to) {
+                nc.sendBlindly(message, to);
+            }
+
+            @Override
+            public boolean pump(long timeoutMillis) {
+                if (!nc.isNodeThread() || !nc.isOpen())
+                    return false;
+                Message message = nc.receive(timeoutMillis);
+                if (message != null && process(message) == Disposition.UNHANDLED)
+                    deferred.add(message);
+                return true;
+            }
+        }, context.getMetrics());
+        context.getNetwork().getSnapshots().join(nc, this::checkpointParts);
         // The engage method, which you implement in SimulatedProcessNode,
         // will be called by NetworkConnection after the simulation starts.
-        this.nc.engage(this::engage);
+        this.nc.engage(() -> {
+            try {
+                rpc.attach();
+                restore();
+                dissemination.start();
+                engage();
+            } finally {
+                dissemination.close();
+            }
+        });
     }
 
     public String NodeName() {
         return this.name;
     }
 
+    /**
+     * @return The simulation this node belongs to.
+     */
+    public SimulationContext getContext() {
+        return this.nc.getContext();
+    }
+
     /**
      * This method is implemented by the user's specific node class (e.g., SimulatedProcessNode).
      * It contains the main logic of the node.
@@ -43,73 +150,42 @@ public abstract class Node implements DSMNode {
      * @return The received message, or null if interrupted or simulation ends.
      */
     protected Message receive() {
+        if (!deferred.isEmpty())
+            return deferred.poll();
         Message message = this.nc.receive();
-        
-        // Process DSM-related messages if applicable
-        if (message != null) {
-            String type = message.query("type");
-            
-            // Handle AP DSM messages
-            if (apDsm != null && "DSM_AP_UPDATE".equals(type)) {
-                apDsm.processUpdateMessage(message);
-            }
-            
-            // Handle CP DSM messages
-            if (cpDsm != null) {
-                switch (type) {
-                    case "DSM_CP_WRITE_REQUEST":
-                        cpDsm.processWriteRequest(message);
-                        break;
-                    case "DSM_CP_WRITE_ACK":
-                        String writeAckRequestId = message.query("requestId");
-                        String writeAckSender = message.queryHeader("sender");
-                        cpDsm.processWriteAck(writeAckRequestId, writeAckSender);
-                        break;
-                    case "DSM_CP_WRITE_NACK":
-                        cpDsm.processWriteNack(message);
-                        break;
-                    case "DSM_CP_READ_REQUEST":
-                        cpDsm.processReadRequest(message);
-                        break;
-                    case "DSM_CP_READ_RESPONSE":
-                        String readResponseRequestId = message.query("requestId");
-                        String readResponseSender = message.queryHeader("sender");
-                        String readResponseKey = message.query("key");
-                        String readResponseValue = message.query("value");
-                        if (readResponseValue.isEmpty()) readResponseValue = null;
-                        cpDsm.processReadResponse(readResponseRequestId, readResponseSender, readResponseKey, readResponseValue);
-                        break;
-                    case "DSM_CP_READ_ERROR":
-                        cpDsm.processReadError(message);
-                        break;
-                }
-            }
-            
-            // Handle CA DSM messages
-            if (caDsm != null) {
-                switch (type) {
-                    case "DSM_CA_WRITE_REQUEST":
-                        caDsm.processWriteRequest(message);
-                        break;
-                    case "DSM_CA_READ_REQUEST":
-                        caDsm.processReadRequest(message);
-                        break;
-                    case "DSM_CA_UPDATE":
-                        caDsm.processUpdate(message);
-                        break;
-                    case "DSM_CA_READ_RESPONSE":
-                        caDsm.processReadResponse(message);
-                        break;
-                    case "DSM_CA_ERROR":
-                        caDsm.processError(message);
-                        break;
-                }
-            }
-        }
-        
+        while (message != null && process(message) == Disposition.CONSUMED)
+            message = this.nc.receive();
         return message;
     }
 
+    /**
+     * Processes the messages waiting in the mailbox without blocking, as {@link Rpc#await}
+     * does while it waits. Nodes that never wait, e.g. in a closed loop of local operations,
+     * call this to let their protocol handlers run; messages no handler took are returned
+     * by later calls of {@link #receive()}.
+     */
+    protected void processPending() {
+        Message message;
+        while ((message = this.nc.receive(0)) != null)
+            if (process(message) == Disposition.UNHANDLED)
+                deferred.add(message);
+    }
+
+    // Runs a received message through the dissemination layer, pending calls and protocol handlers
+    private Disposition process(Message message) {
+        nc.getContext().getTracer().onReceive(message, name);
+        // Snapshot markers never reach the node, and its state may be recorded before this message
+        if (nc.getContext().getNetwork().getSnapshots().onReceive(message, nc))
+            return Disposition.CONSUMED;
+        // Dissemination control messages and duplicates never reach the application
+        if (!dissemination.accept(message))
+            return Disposition.CONSUMED;
+        if (rpc.onReceive(message))
+            return Disposition.HANDLED;
+        // Protocols such as the DSMs process their messages before the application sees them
+        return protocols.dispatch(message) ? Disposition.HANDLED : Disposition.UNHANDLED;
+    }
+
     /**
      * Sends a message to a specific node.
      * @param message The message to send.
@@ -131,14 +207,160 @@ public abstract class Node implements DSMNode {
     }
 
     /**
-     * Broadcasts a message to all other nodes in the network.
+     * Broadcasts a message to all other nodes in the network, or only to the node's
+     * neighbors if the network is set up for neighbor broadcasts.
      * The message is not sent to the sender itself.
+     * If a dissemination strategy was selected for the message type, the strategy
+     * spreads the message; otherwise it is sent directly to every node.
      * @param message The message to broadcast.
      */
     protected void broadcast(Message message) {
-        this.nc.send(message); // NetworkConnection's send(Message) is broadcast
+        if (!dissemination.broadcast(message)) {
+            this.nc.send(message); // NetworkConnection's send(Message) is broadcast
+        }
+    }
+
+    /**
+     * @return The names of the nodes linked to this node in the network's topology,
+     * all other nodes if the network has no topology.
+     */
+    protected List<String> neighbors() {
+        return this.nc.getContext().getNetwork().neighbors(this.name);
+    }
+
+    /**
+     * Selects how broadcasts of a message type are spread, e.g. by gossip instead of
+     * all-to-all. All nodes have to select the same strategy for a type, before the
+     * simulation starts.
+     * @param type The message type (the "type" field of the payload).
+     * @param strategy The dissemination strategy.
+     */
+    protected void useDissemination(String type, DisseminationStrategy strategy) {
+        dissemination.use(type, strategy);
     }
     
+    /**
+     * The node's request/response calls. Protocols answer requests with {@link Rpc#reply};
+     * while the node's thread waits in {@link Rpc#await}, incoming messages are processed and
+     * those no handler took are returned by later calls of {@link #receive()}.
+     * @return The RPC endpoint of this node.
+     */
+    public Rpc getRpc() {
+        return rpc;
+    }
+
+    /**
+     * Asks the simulation's failure detector whether this node suspects another one to
+     * have crashed or to be cut off. The first query about a node starts monitoring it.
+     * @param node_name The other node.
+     * @return true if the node is suspected.
+     */
+    @Override
+    public boolean isSuspected(String node_name) {
+        return getContext().getFailureDetector().isSuspected(this.name, node_name);
+    }
+
+    /**
+     * Runs a protocol on this node: received messages of the types it registers handlers
+     * for are handed to it in {@link #receive()}, before they are returned.
+     * @param protocol The protocol, e.g. a DSM implementation.
+     */
+    protected void addProtocol(Protocol protocol) {
+        protocols.add(protocol);
+    }
+
+    protected void removeProtocol(Protocol protocol) {
+        protocols.remove(protocol);
+    }
+
+    /**
+     * Sets the state this node records in global snapshots (see {@link SnapshotService}).
+     * @param state Called on this node's thread when the node records its state.
+     */
+    protected void setSnapshotState(Supplier<Map<String, String>> state) {
+        nc.getContext().getNetwork().getSnapshots().setState(name, state);
+    }
+
+    /**
+     * @return The state this node recorded (see {@link #setSnapshotState}) in the checkpoint
+     * the simulation resumed from, null if it did not resume. {@link #engage()} runs from its
+     * beginning after a resume, and uses this to skip the node's initialization.
+     */
+    protected Map<String, String> getRestoredState() {
+        return restoredState;
+    }
+
+    // The parts of this node that a checkpoint saves, called on the node's thread
+    private Map<String, byte[]> checkpointParts() throws IOException {
+        Map<String, byte[]> parts = new HashMap<>();
+        parts.put("random", ByteBuffer.allocate(8).putLong(RandomStreams.fork()).array());
+        if (apDsm != null)
+            parts.put("dsm.AP", checkpoint(apDsm));
+        if (cpDsm != null)
+            parts.put("dsm.CP", checkpoint(cpDsm));
+        if (caDsm != null)
+            parts.put("dsm.CA", checkpoint(caDsm));
+        if (!deferred.isEmpty()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(deferred.size());
+            for (Message m : deferred)
+                out.writeUTF(m.toJson());
+            parts.put("deferred", bytes.toByteArray());
+        }
+        return parts;
+    }
+
+    private static byte[] checkpoint(Checkpointable state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        state.checkpoint(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    // Takes back the state saved by checkpointParts(), on the node's thread before engage()
+    private void restore() {
+        SnapshotService.Restored restored = nc.getContext().getNetwork().getSnapshots().restored(name);
+        if (restored == null)
+            return;
+        restoredState = restored.state();
+        restoredParts = new HashMap<>(restored.parts());
+        byte[] random = restoredParts.remove("random");
+        if (random != null)
+            RandomStreams.restore(ByteBuffer.wrap(random).getLong());
+        byte[] waiting = restoredParts.remove("deferred");
+        if (waiting != null) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(waiting));
+                for (int n = in.readInt(); n > 0; n--)
+                    deferred.add(Message.fromJson(in.readUTF()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // DSM instances are created on first use, and get their saved state then
+    private void restore(Checkpointable dsm, String part) {
+        byte[] bytes = restoredParts.remove(part);
+        if (bytes == null)
+            return;
+        try {
+            dsm.restore(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Registers a handler that {@link #receive()} calls for every message of the type.
+     * @param type The message type (the "type" field of the payload).
+     * @param handler The handler.
+     * @throws IllegalStateException If another handler or protocol already handles the type.
+     */
+    protected void onMessage(String type, MessageHandler handler) {
+        protocols.on(type, handler);
+    }
+
     /**
      * Gets a DSM instance of the specified type.
      * 
@@ -151,18 +373,24 @@ public abstract class Node implements DSMNode {
                 if (apDsm == null) {
                     apDsm = (APDistributedSharedMemory) DSMFactory.createDSM(DSMFactory.DSMType.AP, this);
                     apDsm.initialize(this.name);
+                    restore(apDsm, "dsm.AP");
+                    protocols.add(apDsm);
                 }
                 return apDsm;
             case CP:
                 if (cpDsm == null) {
                     cpDsm = (CPDistributedSharedMemory) DSMFactory.createDSM(DSMFactory.DSMType.CP, this);
                     cpDsm.initialize(this.name);
+                    restore(cpDsm, "dsm.CP");
+                    protocols.add(cpDsm);
                 }
                 return cpDsm;
             case CA:
                 if (caDsm == null) {
                     caDsm = (CADistributedSharedMemory) DSMFactory.createDSM(DSMFactory.DSMType.CA, this);
                     caDsm.initialize(this.name);
+                    restore(caDsm, "dsm.CA");
+                    protocols.add(caDsm);
                 }
                 return caDsm;
             default:
@@ -176,14 +404,17 @@ public abstract class Node implements DSMNode {
     protected void shutdownDSM() {
         if (apDsm != null) {
             apDsm.shutdown();
+            protocols.remove(apDsm);
             apDsm = null;
         }
         if (cpDsm != null) {
             cpDsm.shutdown();
+            protocols.remove(cpDsm);
             cpDsm = null;
         }
         if (caDsm != null) {
             caDsm.shutdown();
+            protocols.remove(caDsm);
             caDsm = null;
         }
     }
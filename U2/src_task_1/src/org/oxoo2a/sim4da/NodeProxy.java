@@ -1,39 +1,271 @@
 package org.oxoo2a.sim4da;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import org.oxoo2a.sim4da.delivery.Envelope;
+import org.oxoo2a.sim4da.delivery.MailboxQueue;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
 
 public class NodeProxy {
     public NodeProxy ( NetworkConnection nc ) {
         this.nc = nc;
+        this.behavior = nc.getContext().getBehavior();
+        this.metrics = nc.getContext().getMetrics();
+        this.journal = nc.getContext().getJournal();
+        this.mailboxWait = metrics.histogram("network.mailbox.wait");
+        this.senderBlocked = metrics.histogram("network.mailbox.blocked");
+        String prefix = "node." + nc.NodeName() + ".mailbox.";
+        this.dropped = metrics.counter(prefix + "dropped");
+        this.rejected = metrics.counter(prefix + "rejected");
+        metrics.registerGauge(prefix + "depth", () -> depth);
+        metrics.registerGauge(prefix + "peak", () -> peak);
     }
 
-    public void deliver ( Message message, NetworkConnection sender ) {
-        synchronized (messages) {
-            messages.add(new ReceivedMessage(message, sender));
-            messages.notify();
+    /**
+     * Bounds the mailbox; messages beyond {@code capacity} are handled according to {@code policy}.
+     */
+    public void setLimit ( int capacity, OverflowPolicy policy ) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Mailbox capacity must be positive, is " + capacity);
+        synchronized (lock) {
+            this.capacity = capacity;
+            this.policy = policy;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isClosed () {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    public String getNodeName () {
+        return nc.NodeName();
+    }
+
+    public OverflowPolicy getPolicy () {
+        return policy;
+    }
+
+    /**
+     * @return false if the message was not put into the mailbox, because the mailbox is full
+     * and the policy drops or rejects it, or because the mailbox was closed
+     */
+    public boolean deliver ( Message message, NetworkConnection sender ) {
+        synchronized (lock) {
+            if (closed)
+                return false;
+            if (queue().size() >= capacity) {
+                switch (policy) {
+                    case BLOCK:
+                        if (!awaitSpace())
+                            return false;
+                        break;
+                    case DROP_NEWEST:
+                        dropped.increment();
+                        return false;
+                    case DROP_OLDEST:
+                        messages.removeOldest();
+                        dropped.increment();
+                        break;
+                    case REJECT:
+                        rejected.increment();
+                        return false;
+                }
+            }
+            enqueue(message, sender != null ? sender.NodeName() : "");
+        }
+        return true;
+    }
+
+    // Notices about rejected messages must not be rejected themselves, they ignore the capacity
+    void deliverNotice ( Message notice ) {
+        synchronized (lock) {
+            if (closed)
+                return;
+            enqueue(notice, "");
+        }
+    }
+
+    // Called with the lock held
+    private void enqueue ( Message message, String sender ) {
+        // Messages that didn't come through Network.send are numbered here, so a replay can force them as well
+        if (journal.mode() != ScheduleJournal.Mode.OFF && message.queryHeader(ScheduleJournal.SEQUENCE_HEADER) == null) {
+            String from = !sender.isEmpty() ? sender : message.queryHeader("sender");
+            message = new Message(message);
+            message.addHeader(ScheduleJournal.SEQUENCE_HEADER, journal.arrivalSequence(nc.NodeName(), from != null ? from : ""));
+        }
+        MailboxQueue q = queue();
+        q.add(new Envelope(message, sender, System.nanoTime(), arrivals++));
+        depth = q.size();
+        peak = Math.max(peak, depth);
+        lock.notifyAll();
+    }
+
+    // Called with the lock held; the queue of the current delivery policy, which takes over the waiting messages
+    private MailboxQueue queue () {
+        int version = behavior.getPolicyVersion();
+        if (version != policy_version) {
+            MailboxQueue q = behavior.getDeliveryPolicy(nc.NodeName()).newQueue(nc.NodeName());
+            while (messages != null && !messages.isEmpty())
+                q.add(messages.removeOldest());
+            messages = q;
+            policy_version = version;
+        }
+        return messages;
+    }
+
+    // Called with the lock held; false if the mailbox was closed or the sender interrupted while waiting
+    private boolean awaitSpace () {
+        long start = System.nanoTime();
+        try {
+            while (queue().size() >= capacity && policy == OverflowPolicy.BLOCK && !closed)
+                lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            senderBlocked.recordSince(start);
+        }
+        if (closed)
+            return false;
+        if (messages.size() >= capacity) {
+            // The policy was changed while waiting, take the new one
+            if (policy != OverflowPolicy.DROP_OLDEST)
+                return false;
+            messages.removeOldest();
+            dropped.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Wakes up the receiver and all blocked senders; afterwards receive() returns null
+     * once the mailbox is empty and no more messages are accepted.
+     */
+    public void close () {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
         }
     }
 
     public Message receive () {
-        synchronized (messages) {
-            while (messages.isEmpty()) {
-                try {
-                    messages.wait();
-                } catch (InterruptedException e) {
-                    // Signal that the thread was interrupted
-                    Thread.currentThread().interrupt();
+        return receive(-1);
+    }
+
+    /**
+     * @param timeout_ms How long to wait for a message, -1 waits until one arrives
+     * @return The next message, null if none arrived in time or the mailbox is closed
+     */
+    public Message receive ( long timeout_ms ) {
+        long deadline = timeout_ms < 0 ? 0 : System.nanoTime() + timeout_ms * 1_000_000L;
+        Envelope candidate = null;
+        int candidate_index = 0;
+        synchronized (lock) {
+            ScheduleJournal.Expectation expected = journal.expectedReceive(nc.NodeName());
+            if (expected != null && expected.takesNothing()) {
+                if (timeout_ms >= 0)
+                    return awaitNothing(deadline);
+                journal.giveUp(expected, nc.NodeName() + " waits for a message where the recorded run timed out");
+                expected = null;
+            }
+            if (expected != null) {
+                candidate = awaitExpected(expected);
+                if (candidate != null) {
+                    // Consume the same random draws as the recorded run, but take the recorded message
+                    messages.skipChoice();
+                    candidate_index = messages.lastPosition();
+                }
+                else if (Thread.currentThread().isInterrupted() || closed)
                     return null;
+            }
+            if (candidate == null) {
+                while (queue().isEmpty()) {
+                    if (closed)
+                        return null;
+                    long remaining = timeout_ms < 0 ? 0 : (deadline - System.nanoTime()) / 1_000_000L;
+                    if (timeout_ms >= 0 && remaining <= 0) {
+                        journal.onNothingReceived(nc.NodeName());
+                        return null;
+                    }
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        // Signal that the thread was interrupted
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
                 }
+                candidate = messages.take();
+                candidate_index = messages.lastPosition();
+            }
+            depth = messages.size();
+            // Blocked senders wait for the space that just became free
+            lock.notifyAll();
+            journal.onReceive(nc.NodeName(), candidate.message(), candidate_index);
+        }
+        mailboxWait.recordSince(candidate.enqueued());
+        metrics.messageCounter(MetricsRegistry.Direction.RECEIVED, nc.NodeName(), candidate.message().query("type")).increment();
+        return candidate.message();
+    }
+    // The recorded receive timed out: waits out the timeout and takes nothing, as in the recorded run
+    private Message awaitNothing ( long deadline ) {
+        long remaining;
+        while (!closed && (remaining = (deadline - System.nanoTime()) / 1_000_000L) > 0) {
+            try {
+                lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (!closed)
+            journal.onNothingReceived(nc.NodeName());
+        return null;
+    }
+
+    // Waits until the message the replayed schedule expects is in the mailbox and takes it; null if it doesn't show up
+    private Envelope awaitExpected ( ScheduleJournal.Expectation expected ) {
+        long deadline = System.currentTimeMillis() + ScheduleJournal.REPLAY_TIMEOUT_MS;
+        while (true) {
+            Envelope found = queue().remove(expected::matches);
+            if (found != null)
+                return found;
+            long remaining = deadline - System.currentTimeMillis();
+            if (closed)
+                return null;
+            if (remaining <= 0) {
+                journal.giveUp(expected, nc.NodeName() + " never received message " + expected.sequence() + " from " + expected.origin());
+                return null;
+            }
+            try {
+                lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
             }
-            int candidate_index = SimulationBehavior.selectMessageInQueue(messages.size());
-            Message candidate = messages.remove(candidate_index).message;
-            return candidate;
         }
     }
-    private record ReceivedMessage ( Message message, NetworkConnection sender ) {};
 
-    private final List<ReceivedMessage> messages = Collections.synchronizedList(new ArrayList<>());
+    private final Object lock = new Object();
+    // Waiting messages, in the structure of the delivery policy; replaced when the policy changes
+    private MailboxQueue messages = null;
+    private int policy_version = -1;
+    private long arrivals = 0;
+    private volatile int depth = 0;
     private final NetworkConnection nc;
+    private final SimulationBehavior behavior;
+    private final MetricsRegistry metrics;
+    private final ScheduleJournal journal;
+    private final LatencyHistogram mailboxWait;
+    private final LatencyHistogram senderBlocked;
+    private final Counter dropped;
+    private final Counter rejected;
+    private int capacity = Integer.MAX_VALUE;
+    private volatile OverflowPolicy policy = OverflowPolicy.BLOCK;
+    private boolean closed = false;
+    private volatile int peak = 0;
 }
@@ -0,0 +1,20 @@
+package org.oxoo2a.sim4da;
+
+/**
+ * What happens to a message that arrives at a full mailbox, see {@link Network#setMailboxLimit}.
+ */
+public enum OverflowPolicy {
+    /** The sender waits until the receiver has taken a message out of its mailbox. */
+    BLOCK,
+    /** The arriving message is dropped. */
+    DROP_NEWEST,
+    /** The message that has waited longest in the mailbox is dropped to make room. */
+    DROP_OLDEST,
+    /**
+     * The arriving message is dropped and the sender receives a message of type
+     * {@link #REJECTED_TYPE} with the fields "receiver" and "rejected_type".
+     */
+    REJECT;
+
+    public static final String REJECTED_TYPE = "MAILBOX_REJECTED";
+}
@@ -1,42 +1,44 @@
 package org.oxoo2a.sim4da;
 
-import java.util.function.Supplier;
+import org.oxoo2a.sim4da.random.Distributions;
 
+import java.util.function.DoubleSupplier;
+
+/**
+ * Scales the values of a distribution function in [0, 1] to a range. For distributions
+ * with other ranges use {@link Distributions} directly.
+ */
 public class RandomValues {
 
-    public RandomValues ( Supplier<Double> distributionFunction ) {
+    public RandomValues ( DoubleSupplier distributionFunction ) {
         this.distributionFunction = distributionFunction;
     }
 
     public double getDouble( double min_value, double max_value ) {
-        double v = distributionFunction.get();
-        if (v < 0 || v > 1) {
-            System.err.println("Distribution function must return a value between 0 and 1");
-            System.exit(-1);
-        }
-        return min_value + Math.random() * (max_value - min_value);
+        double v = distributionFunction.getAsDouble();
+        if (v < 0 || v > 1)
+            throw new IllegalStateException("Distribution function must return a value between 0 and 1, returned " + v);
+        return min_value + v * (max_value - min_value);
     }
 
+    /**
+     * @return A value between {@code min_value} and {@code max_value}, both inclusive
+     */
     public long getLong ( long min_value, long max_value ) {
-        return (long) getDouble(min_value, max_value);
+        double v = distributionFunction.getAsDouble();
+        if (v < 0 || v > 1)
+            throw new IllegalStateException("Distribution function must return a value between 0 and 1, returned " + v);
+        long range = max_value - min_value;
+        return min_value + Math.min((long) (v * (range + 1)), range);
     }
 
-    public static Supplier<Double> getUniformDistribution() {
-        return Math::random;
+    public static DoubleSupplier getUniformDistribution() {
+        return Distributions.uniform();
     }
-    public static Supplier<Double> getNormalDistribution(double mean, double stdDev) {
-        // Using the Box-Muller transform
-        return () -> {
-            double u, v, s;
-            do {
-                u = Math.random() * 2 - 1;
-                v = Math.random() * 2 - 1;
-                s = u * u + v * v;
-            } while (s >= 1 || s == 0);
-            double mul = Math.sqrt(-2.0 * Math.log(s) / s);
-            return mean + stdDev * u * mul;
-        };
+
+    public static DoubleSupplier getNormalDistribution(double mean, double stdDev) {
+        return Distributions.normal(mean, stdDev);
     }
 
-    private Supplier<Double> distributionFunction;
-}
\ No newline at end of file
+    private final DoubleSupplier distributionFunction;
+}
@@ -1,9 +1,11 @@
 package org.oxoo2a.sim4da;
 
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.oxoo2a.sim4da.termination.SafraTerminationDetector;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -17,7 +19,8 @@ public class SimulatedProcessNode extends Node {
     private final String nextNodeName;
     private boolean hasToken = false;
     private final AtomicBoolean terminateSignal = new AtomicBoolean(false);
-    private final Random random = new Random();
+    // FIREWORK messages are the basic messages, the TOKEN carries the counters
+    private final SafraTerminationDetector detector = new SafraTerminationDetector();
 
     // P0 specific fields
     private int consecutiveRoundsWithoutFirework = 0;
@@ -26,9 +29,22 @@ public class SimulatedProcessNode extends Node {
     private long roundStartTimeNanos = 0;
     private final List<Double> roundTimesMillis = Collections.synchronizedList(new ArrayList<>());
 
-    public static volatile SimulatedProcessNode P0_INSTANCE = null;
-    public static final AtomicInteger totalFireworksInSystem = new AtomicInteger(0);
+    private final RunState runState;
+
+    /**
+     * State shared by all nodes of one simulation run, kept in the run's {@link SimulationContext}.
+     */
+    public static class RunState {
+        private volatile SimulatedProcessNode p0 = null;
+        private final AtomicInteger totalFireworks = new AtomicInteger(0);
 
+        public SimulatedProcessNode getP0() { return p0; }
+        public int getTotalFireworks() { return totalFireworks.get(); }
+    }
+
+    public static RunState runState(SimulationContext context) {
+        return context.attribute(RunState.class, RunState::new);
+    }
 
     public SimulatedProcessNode(int processId, int nProcesses, int kRoundsNoFirework, double initialP) {
         super("Node_" + processId);
@@ -38,9 +54,10 @@ public class SimulatedProcessNode extends Node {
         this.initialP = initialP;
         this.p = initialP;
         this.nextNodeName = "Node_" + ((processId + 1) % nProcesses);
+        this.runState = runState(getContext());
 
         if (processId == 0) {
-            P0_INSTANCE = this;
+            runState.p0 = this;
             hasToken = true;
         }
     }
@@ -53,15 +70,14 @@ public class SimulatedProcessNode extends Node {
         if (processId == 0 && hasToken) {
             getLogger().info("P{}: Starting with the token.", processId);
             roundStartTimeNanos = System.nanoTime();
-            Message tokenMsg = new Message().add("type", "TOKEN");
-            sendBlindly(tokenMsg, nextNodeName);
+            sendBlindly(detector.startProbe(newToken(false)), nextNodeName);
             hasToken = false;
         }
 
         while (!terminateSignal.get()) {
             Message receivedMsg = receive();
 
-            if (receivedMsg == null && !Simulator.getInstance().isSimulating()) {
+            if (receivedMsg == null && !getContext().getSimulator().isSimulating()) {
                 getLogger().warn("P{}: Received null message and simulator is not running, likely shutdown. Terminating.", processId);
                 break;
             }
@@ -81,8 +97,9 @@ public class SimulatedProcessNode extends Node {
 
             if ("TOKEN".equals(msgType)) {
                 hasToken = true;
-                processToken();
+                processToken(receivedMsg);
             } else if ("FIREWORK".equals(msgType)) {
+                detector.onReceive();
                 if (processId == 0) {
                     fireworkSeenInCurrentRound = true;
                     getLogger().debug("P0: Noted a FIREWORK broadcast during this round's observation window.");
@@ -97,13 +114,34 @@ public class SimulatedProcessNode extends Node {
         getLogger().info("P{}: Exited engage loop. Terminated.", processId);
     }
 
-    private void processToken() {
+    private static Message newToken(boolean probeOnly) {
+        return new Message().add("type", "TOKEN").add("probe", probeOnly ? 1 : 0);
+    }
+
+    private void processToken(Message token) {
         if (terminateSignal.get()) return;
 
+        if (token.queryInteger("probe") != 0 && processId != 0) {
+            // Detection lap of P0, not a new round
+            sendBlindly(detector.forward(token), nextNodeName);
+            hasToken = false;
+            return;
+        }
+
         getLogger().debug("P{}: Processing token. Current p={}", processId, p);
 
         if (processId == 0) {
-            if (roundStartTimeNanos != 0) { 
+            if (roundStartTimeNanos != 0) {
+                // A round can only be judged once all fireworks sent so far have arrived here.
+                // Until then the token makes detection laps that don't start a new round.
+                if (!detector.isQuiescent(token)) {
+                    getLogger().debug("P0: Fireworks still in flight (counter sum {}), sending detection lap.",
+                            token.queryLong(SafraTerminationDetector.COUNT_KEY) + detector.counter());
+                    sendBlindly(detector.startProbe(newToken(true)), nextNodeName);
+                    hasToken = false;
+                    return;
+                }
+
                 long roundEndTimeNanos = System.nanoTime();
                 double durationMillis = (roundEndTimeNanos - roundStartTimeNanos) / 1_000_000.0;
                 roundTimesMillis.add(durationMillis);
@@ -111,19 +149,6 @@ public class SimulatedProcessNode extends Node {
                 getLogger().info("P0: Token returned. Round {} completed in {} ms.",
                         totalRoundsCompleted, durationMillis);
 
-                // ---- TASK 4 MODIFICATION: Mechanism to potentially avoid inconsistency ----
-                if (nProcesses > 1) {
-                    final int SETTLING_TIME_MS = 5; 
-                    getLogger().debug("P0 (Task 4): Pausing for {}ms to allow concurrent firework messages to be processed before round evaluation.", SETTLING_TIME_MS);
-                    try {
-                        Thread.sleep(SETTLING_TIME_MS);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        getLogger().warn("P0 (Task 4): Sleep interrupted during settling time.");
-                    }
-                }
-                // ---- END TASK 4 MODIFICATION ----
-
                 if (!fireworkSeenInCurrentRound) {
                     consecutiveRoundsWithoutFirework++;
                     getLogger().info("P0: Round {} assessed as firework-free. Consecutive no-firework rounds: {}/{}",
@@ -145,7 +170,7 @@ public class SimulatedProcessNode extends Node {
             roundStartTimeNanos = System.nanoTime(); 
         }
 
-        if (random.nextDouble() < p) {
+        if (ScheduleJournal.random() < p) {
             launchFirework();
         }
 
@@ -156,7 +181,7 @@ public class SimulatedProcessNode extends Node {
 
         if (terminateSignal.get()) return; 
 
-        Message tokenMsg = new Message().add("type", "TOKEN");
+        Message tokenMsg = processId == 0 ? detector.startProbe(newToken(false)) : detector.forward(token);
         getLogger().debug("P{}: Sending TOKEN to {}", processId, nextNodeName);
         sendBlindly(tokenMsg, nextNodeName);
         hasToken = false;
@@ -164,10 +189,11 @@ public class SimulatedProcessNode extends Node {
 
     private void launchFirework() {
         getLogger().info("P{}: Launching FIREWORK! (current p={})", processId, p);
-        totalFireworksInSystem.incrementAndGet();
+        runState.totalFireworks.incrementAndGet();
 
         Message fireworkMsg = new Message().add("type", "FIREWORK");
         broadcast(fireworkMsg);
+        detector.onSend(nProcesses - 1);
 
         if (processId == 0) {
             fireworkSeenInCurrentRound = true;
@@ -1,21 +1,30 @@
 package org.oxoo2a.sim4da;
 
-import java.util.function.Supplier;
+import org.oxoo2a.sim4da.delivery.DeliveryPolicy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
 
 public class SimulationBehavior {
 
     // Distribution function for the selection of the next message in a message queue
-    private static RandomValues r_message_queue_selection = null;
-    public static void setMessageQueueSelectionDistributionFunction ( Supplier<Double> df_message_queue_selection ) {
-        if (r_message_queue_selection == null) {
+    private volatile RandomValues r_message_queue_selection = null;
+    // Delivery policies, per receiving node and for all others
+    private final Map<String,DeliveryPolicy> node_policies = new ConcurrentHashMap<>();
+    private volatile DeliveryPolicy default_policy = null;
+    private volatile int policy_version = 0;
+
+    public void setQueueSelectionDistributionFunction ( DoubleSupplier df_message_queue_selection ) throws OverwriteDistributionFunctionException {
+        synchronized (this) {
+            if (r_message_queue_selection != null)
+                throw new OverwriteDistributionFunctionException("Distribution function for message queue selection has already been set");
             r_message_queue_selection = new RandomValues(df_message_queue_selection);
-        }
-        else {
-            System.err.println("Distribution function for message queue selection has already been set.");
-            System.exit(-1);
+            policy_version++;
         }
     }
-    public static int selectMessageInQueue ( int queue_size ) {
+
+    public int selectIndex ( int queue_size ) {
         assert(queue_size > 0);
         if (r_message_queue_selection == null) {
             return 0;
@@ -24,4 +33,52 @@ public class SimulationBehavior {
             return (int) r_message_queue_selection.getLong(0, queue_size-1);
         }
     }
+
+    /**
+     * Sets the order in which all nodes without a policy of their own receive their messages.
+     * Mailboxes switch to the new policy when they are next used, keeping their messages.
+     */
+    public synchronized void setDeliveryPolicy ( DeliveryPolicy policy ) {
+        default_policy = policy;
+        policy_version++;
+    }
+
+    /**
+     * Sets the order in which {@code node} receives its messages; null reverts to the policy of all nodes.
+     */
+    public synchronized void setDeliveryPolicy ( String node, DeliveryPolicy policy ) {
+        if (policy == null)
+            node_policies.remove(node);
+        else
+            node_policies.put(node, policy);
+        policy_version++;
+    }
+
+    /**
+     * @return The policy of the node, else the one set for all nodes, else random selection by
+     * the distribution function if one is set, else FIFO
+     */
+    public DeliveryPolicy getDeliveryPolicy ( String node ) {
+        DeliveryPolicy policy = node_policies.get(node);
+        if (policy == null)
+            policy = default_policy;
+        if (policy == null)
+            policy = r_message_queue_selection != null ? DeliveryPolicy.indexed(this::selectIndex) : DeliveryPolicy.fifo();
+        return policy;
+    }
+
+    // Changes whenever a policy changes, mailboxes compare it to rebuild their queue
+    int getPolicyVersion () {
+        return policy_version;
+    }
+
+    // Static access to the behavior of the current simulation context
+
+    public static void setMessageQueueSelectionDistributionFunction ( DoubleSupplier df_message_queue_selection ) throws OverwriteDistributionFunctionException {
+        SimulationContext.current().getBehavior().setQueueSelectionDistributionFunction(df_message_queue_selection);
+    }
+
+    public static int selectMessageInQueue ( int queue_size ) {
+        return SimulationContext.current().getBehavior().selectIndex(queue_size);
+    }
 }
@@ -0,0 +1,187 @@
+package org.oxoo2a.sim4da;
+
+import org.oxoo2a.sim4da.failure.PhiAccrualFailureDetector;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.random.RandomStreams;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.oxoo2a.sim4da.trace.Tracer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * One independent simulation: its network, simulator, simulation behavior, metrics,
+ * schedule journal and tracer.
+ *
+ * Nodes and network connections bind to a context when they are created, either the one
+ * passed explicitly or the current context of the creating thread. Node threads run with
+ * their context as current context, and so do threads they start and tasks they schedule on
+ * shared threads (see {@link TaskBinding}). The static accessors
+ * like {@link Simulator#getInstance()} and {@link Network#getInstance()} return the parts
+ * of the current context, so code written for a single simulation per JVM keeps working
+ * on the default context.
+ *
+ * To run simulations in parallel, give every run its own context:
+ * <pre>
+ * SimulationContext context = new SimulationContext("run-7");
+ * context.run(() -> {
+ *     for (int i = 0; i &lt; n; i++) new SimulatedProcessNode(i, n, k, p);
+ *     context.getSimulator().simulate();
+ *     context.getSimulator().shutdown();
+ * });
+ * </pre>
+ */
+public class SimulationContext {
+    private static volatile SimulationContext default_context = null;
+    private static final InheritableThreadLocal<SimulationContext> current = new InheritableThreadLocal<>();
+
+    private final String name;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final SimulationBehavior behavior = new SimulationBehavior();
+    private final RandomStreams random = new RandomStreams();
+    private final ScheduleJournal journal = new ScheduleJournal();
+    private final Tracer tracer = new Tracer();
+    private final Network network;
+    private final Simulator simulator;
+    private final PhiAccrualFailureDetector failure_detector;
+    private final ConcurrentHashMap<Class<?>, Object> attributes = new ConcurrentHashMap<>();
+
+    public SimulationContext ( String name ) {
+        this.name = name;
+        this.network = new Network(this);
+        this.simulator = new Simulator(this);
+        this.failure_detector = new PhiAccrualFailureDetector(name, network, metrics);
+    }
+
+    /**
+     * @return The context used by threads that are not bound to a context
+     */
+    public static SimulationContext getDefault () {
+        if (default_context == null) {
+            synchronized (SimulationContext.class) {
+                if (default_context == null) {
+                    default_context = new SimulationContext("default");
+                }
+            }
+        }
+        return default_context;
+    }
+
+    /**
+     * @return The context of the calling thread, or the default context
+     */
+    public static SimulationContext current () {
+        SimulationContext context = current.get();
+        return context != null ? context : getDefault();
+    }
+
+    /**
+     * Runs the task with this context as current context of the calling thread.
+     */
+    public void run ( Runnable task ) {
+        SimulationContext previous = current.get();
+        current.set(this);
+        try {
+            task.run();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Runs the task with this context as current context of the calling thread.
+     */
+    public <T> T call ( Callable<T> task ) throws Exception {
+        SimulationContext previous = current.get();
+        current.set(this);
+        try {
+            return task.call();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    boolean isDefault () {
+        return this == default_context;
+    }
+
+    // Binds the calling thread (a node thread) to this context for its whole lifetime
+    void bindCurrentThread () {
+        current.set(this);
+    }
+
+    // The context the calling thread is bound to, null if none
+    static SimulationContext bound () {
+        return current.get();
+    }
+
+    // Binds the calling thread to a context, or unbinds it for null
+    static void bind ( SimulationContext context ) {
+        current.set(context);
+    }
+
+    /**
+     * Returns per-simulation state of a component, creating it on first use. Node classes
+     * use this instead of static fields so that parallel simulations don't share state.
+     *
+     * @param key Identifies the state, usually its class
+     * @param factory Creates the state on first use
+     */
+    public <T> T attribute ( Class<T> key, Supplier<T> factory ) {
+        return key.cast(attributes.computeIfAbsent(key, k -> factory.get()));
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public Network getNetwork () {
+        return network;
+    }
+
+    public Simulator getSimulator () {
+        return simulator;
+    }
+
+    /**
+     * @return The failure detector the nodes of this simulation use to suspect each other
+     */
+    public PhiAccrualFailureDetector getFailureDetector () {
+        return failure_detector;
+    }
+
+    public SimulationBehavior getBehavior () {
+        return behavior;
+    }
+
+    /**
+     * @return The random number streams of this simulation; set their seed to repeat a run
+     */
+    public RandomStreams getRandom () {
+        return random;
+    }
+
+    public MetricsRegistry getMetrics () {
+        return metrics;
+    }
+
+    /**
+     * @return The journal recording or replaying the schedule of this simulation
+     */
+    public ScheduleJournal getJournal () {
+        return journal;
+    }
+
+    /**
+     * @return The tracer of the messages of this simulation
+     */
+    public Tracer getTracer () {
+        return tracer;
+    }
+
+    @Override
+    public String toString () {
+        return "SimulationContext " + name;
+    }
+}
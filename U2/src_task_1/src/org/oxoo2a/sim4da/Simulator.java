@@ -1,29 +1,30 @@
 package org.oxoo2a.sim4da;
 
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.oxoo2a.sim4da.trace.Tracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 public class Simulator {
     private final String version = "sim4da Summer 2025";
-    private  Simulator () {
+    Simulator ( SimulationContext context ) {
+        this.context = context;
         System.setProperty("PID", String.valueOf(ProcessHandle.current().pid())); 
         logger = LoggerFactory.getLogger(sim4da.class); 
         System.out.println(version);
-        logger.info(version + " - Simulation instance created.");
+        logger.info(version + " - Simulation instance created for " + context.getName() + ".");
     }
 
+    /**
+     * @return The simulator of the current {@link SimulationContext}
+     */
     public static Simulator getInstance() {
-        if (instance == null) {
-            synchronized (Simulator.class) {
-                if (instance == null) {
-                    instance = new Simulator();
-                }
-            }
-        }
-        return instance;
+        return SimulationContext.current().getSimulator();
     }
 
     private void prepareForSimulation() {
@@ -31,7 +32,10 @@ public class Simulator {
             startSignal = new CountDownLatch(1);
         }
         simulating = true;
-        logger.info("Simulator prepared for new simulation run.");
+        context.getNetwork().startFaults();
+        startJournal();
+        startTracing();
+        logger.info("Simulator prepared for new simulation run with random seed " + context.getRandom().getSeed() + ".");
     }
 
     public void simulate ( long duration_in_seconds ) {
@@ -54,7 +58,7 @@ public class Simulator {
         logger.info("Starting simulation. Waiting for all nodes to complete.");
         startSignal.countDown(); 
 
-        List<NetworkConnection> ncs = Network.getInstance().getAllNetworkConnections();
+        List<NetworkConnection> ncs = context.getNetwork().getAllNetworkConnections();
         if (ncs.isEmpty()) {
             logger.warn("Simulate called with no registered network connections (nodes). Simulation will end immediately.");
             simulating = false;
@@ -72,12 +76,14 @@ public class Simulator {
         logger.info("Shutting down simulation environment.");
         simulating = false;
 
-        List<NetworkConnection> ncs = Network.getInstance().getAllNetworkConnections();
+        List<NetworkConnection> ncs = context.getNetwork().getAllNetworkConnections();
         if (!ncs.isEmpty()) {
             logger.info("Interrupting " + ncs.size() + " node threads.");
             for (NetworkConnection nc : ncs) {
                 nc.interrupt();
             }
+            // Nodes that swallowed the interrupt are still released from receive()
+            context.getNetwork().closeMailboxes();
             logger.info("Joining node threads with timeout.");
             for (NetworkConnection nc : ncs) {
                 nc.join();
@@ -86,16 +92,80 @@ public class Simulator {
             logger.info("No active node threads to interrupt or join.");
         }
         
-        Network.getInstance().shutdown(); 
+        context.getFailureDetector().stop();
+        context.getNetwork().shutdown(); 
+        stopTracing();
+        stopJournal();
         
         startSignal = new CountDownLatch(1);
         logger.info(version + " - Simulation environment shut down and reset.");
     }
 
+    // Tracing is switched on with -Dsim4da.trace.file=<file> [-Dsim4da.trace.rate=<0..1>]
+    private void startTracing() {
+        String trace_file = System.getProperty("sim4da.trace.file");
+        Tracer tracer = context.getTracer();
+        if (trace_file == null || tracer.isEnabled())
+            return;
+        double rate = Double.parseDouble(System.getProperty("sim4da.trace.rate", "0.01"));
+        try {
+            tracer.start(contextFile(trace_file), rate);
+        } catch (IOException e) {
+            logger.warn("Cannot write trace file " + trace_file + ": " + e.getMessage());
+        }
+    }
+
+    // -Dsim4da.journal.record=<file> records the schedule of a run, -Dsim4da.journal.replay=<file> replays it.
+    // Nodes attach to the journal when the simulation starts, so every run of this context records or replays.
+    private void startJournal() {
+        ScheduleJournal journal = context.getJournal();
+        String record_file = System.getProperty("sim4da.journal.record");
+        String replay_file = System.getProperty("sim4da.journal.replay");
+        if (journal.mode() != ScheduleJournal.Mode.OFF)
+            return;
+        try {
+            if (replay_file != null)
+                journal.startReplay(contextFile(replay_file));
+            else if (record_file != null)
+                journal.startRecording(contextFile(record_file));
+        } catch (IOException e) {
+            logger.warn("Cannot replay schedule from " + replay_file + ": " + e.getMessage());
+        }
+    }
+
+    // The default context uses the configured file, other contexts add their name: trace.bin becomes trace-run-7.bin
+    private Path contextFile ( String configured ) {
+        Path file = Path.of(configured);
+        if (context.isDefault())
+            return file;
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String own = dot > 0
+                ? name.substring(0, dot) + "-" + context.getName() + name.substring(dot)
+                : name + "-" + context.getName();
+        return file.resolveSibling(own);
+    }
+
+    private void stopJournal() {
+        try {
+            context.getJournal().stop();
+        } catch (IOException e) {
+            logger.warn("Failed to write schedule journal: " + e.getMessage());
+        }
+    }
+
+    private void stopTracing() {
+        try {
+            context.getTracer().stop();
+        } catch (IOException e) {
+            logger.warn("Failed to write trace file: " + e.getMessage());
+        }
+    }
+
     public boolean isSimulating() {
         return simulating;
     }
-    private static Simulator instance = null;
+    private final SimulationContext context;
     private final Logger logger;
     private boolean simulating = false;
     private CountDownLatch startSignal = new CountDownLatch(1);
@@ -0,0 +1,354 @@
+package org.oxoo2a.sim4da;
+
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.snapshot.GlobalSnapshot;
+import org.oxoo2a.sim4da.snapshot.SnapshotWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Global snapshots of the nodes of one network with the algorithm of Chandy and Lamport:
+ * a consistent cut of the nodes' states together with the messages in flight across it,
+ * taken while the simulation keeps running.
+ * <p>
+ * The initiator records its state and sends a marker to every other node. A node records
+ * its state when the first marker reaches it and sends markers on in turn; after that, it
+ * records every message from a node until that node's marker arrives, which are the
+ * messages in flight on that channel. Messages sent after the sender recorded its state
+ * carry the snapshot id, and a node that receives one records its state before the
+ * message, as if the marker had come first. So no message sent after the cut is ever
+ * received before it, even on links that reorder. Markers travel the same links as all
+ * other messages and are delayed like them, but cut links and message loss don't drop
+ * them, so snapshots complete during partitions. A message sent before the cut that a
+ * marker overtakes on a reordering link is lost to the snapshot and counted as
+ * snapshot.late.
+ * <p>
+ * States and channel contents go to the snapshot file as they are recorded (see
+ * {@link SnapshotWriter}); {@link GlobalSnapshot#read} reads it back. Nodes record their
+ * state on their own thread while processing a message, so a node that never receives
+ * holds the snapshot up. Nodes set what they record with {@link Node#setSnapshotState}:
+ * <pre>
+ * setSnapshotState(() -&gt; Map.of("count", String.valueOf(count)));
+ * ...
+ * Network.getInstance().getSnapshots().take("node0", Path.of("cut.snapshot"));
+ * </pre>
+ * One snapshot is taken at a time. Nodes of other processes take no part.
+ * <p>
+ * A {@link #checkpoint} is a snapshot that also holds the binary state of every node: its
+ * DSM stores and clocks, the position of its random stream, the messages it received but
+ * has not yet handled, and the master seed. {@link #resume} loads a checkpoint into a new
+ * simulation with nodes of the same names, before it starts: the nodes get their state
+ * back and the messages in flight are put into their mailboxes. The threads of the nodes
+ * can't be saved, so {@link Node#engage} runs again from its beginning; nodes find their
+ * recorded state in {@link Node#getRestoredState} and skip their initialization. The same
+ * checkpoint can be resumed any number of times, e.g. to fork a warmed-up run into several
+ * variants.
+ */
+public class SnapshotService {
+
+    /**
+     * Header field with the id of the snapshot whose cut the sender has passed.
+     */
+    public static final String HEADER = "snapshot";
+    public static final String MARKER_TYPE = "SNAPSHOT_MARKER";
+
+    /**
+     * What a snapshot amounted to; the states and messages themselves are in the file.
+     */
+    public record Summary ( long id, Path file, int nodes, long messages, long millis ) {}
+
+    SnapshotService ( Network network, SimulationContext context ) {
+        MetricsRegistry metrics = context.getMetrics();
+        this.network = network;
+        this.context = context;
+        this.name = context.getName();
+        this.taken = metrics.counter("snapshot.taken");
+        this.late = metrics.counter("snapshot.late");
+    }
+
+    // What a node saves in a checkpoint beyond its snapshot state, by part name
+    interface Checkpointed {
+        // Called on the node's thread
+        Map<String,byte[]> save () throws IOException;
+    }
+
+    // The recorded state and parts of a node, handed back when it starts after resume()
+    record Restored ( Map<String,String> state, Map<String,byte[]> parts ) {}
+
+    // Called by every node when it is created
+    void join ( NetworkConnection nc, Checkpointed parts ) {
+        participants.put(nc.NodeName(), nc);
+        checkpointed.put(nc.NodeName(), parts);
+    }
+
+    /**
+     * Sets what the node records; nodes without a state record an empty one. The supplier
+     * is called on the node's thread.
+     */
+    public void setState ( String node, Supplier<Map<String,String>> state ) {
+        states.put(node, state);
+    }
+
+    /**
+     * Starts a snapshot at {@code initiator}, which records its state when it next processes
+     * a message.
+     *
+     * @return Completes when every node recorded its state and all channels are closed, and
+     * fails if the simulation ends first
+     * @throws IllegalStateException If a snapshot is being taken
+     */
+    public CompletableFuture<Summary> take ( String initiator, Path file ) throws IOException {
+        return start(initiator, file, false);
+    }
+
+    /**
+     * Starts a checkpoint at {@code initiator}: a snapshot with everything {@link #resume}
+     * needs to continue the simulation from it.
+     *
+     * @return Completes when the checkpoint is written, and fails if the simulation ends first
+     * @throws IllegalStateException If a snapshot is being taken
+     */
+    public CompletableFuture<Summary> checkpoint ( String initiator, Path file ) throws IOException {
+        return start(initiator, file, true);
+    }
+
+    /**
+     * Loads a checkpoint into this simulation. Its nodes must have been created with the
+     * names of the checkpoint's nodes, and it must not have started yet.
+     *
+     * @return The checkpoint
+     * @throws IOException If the file can't be read or is no complete checkpoint
+     */
+    public GlobalSnapshot resume ( Path file ) throws IOException {
+        if (context.getSimulator().isSimulating())
+            throw new IllegalStateException("Simulation " + name + " is already running");
+        GlobalSnapshot checkpoint = GlobalSnapshot.read(file);
+        if (!checkpoint.complete() || !checkpoint.isCheckpoint())
+            throw new IOException(file + " is no complete checkpoint");
+        for (String node : checkpoint.states().keySet())
+            if (!participants.containsKey(node))
+                throw new IllegalStateException("Node " + node + " of the checkpoint does not exist");
+        byte[] seed = checkpoint.parts().getOrDefault("", Map.of()).get(SEED_PART);
+        if (seed != null)
+            context.getRandom().setSeed(ByteBuffer.wrap(seed).getLong());
+        synchronized (this) {
+            last_id = Math.max(last_id, checkpoint.id());
+        }
+        checkpoint.states().forEach((node, state) ->
+                restored.put(node, new Restored(state, checkpoint.parts().getOrDefault(node, Map.of()))));
+        for (GlobalSnapshot.InFlight m : checkpoint.channels())
+            network.inject(m.to(), m.message(), participants.get(m.from()));
+        logger.info("Resumed network " + name + " from checkpoint " + checkpoint.id() + " with "
+                + checkpoint.states().size() + " nodes and " + checkpoint.channels().size() + " messages in flight");
+        return checkpoint;
+    }
+
+    // The state of a node resumed from a checkpoint, once; null if there is none
+    Restored restored ( String node ) {
+        return restored.remove(node);
+    }
+
+    private CompletableFuture<Summary> start ( String initiator, Path file, boolean checkpoint ) throws IOException {
+        NetworkConnection nc = participants.get(initiator);
+        if (nc == null)
+            throw new IllegalArgumentException("Unknown node " + initiator);
+        Run run;
+        synchronized (this) {
+            if (active != null)
+                throw new IllegalStateException("Snapshot " + active.id + " is still being taken");
+            long id = ++last_id;
+            run = new Run(id, new SnapshotWriter(file, id), Set.copyOf(participants.keySet()), checkpoint);
+            active = run;
+        }
+        if (checkpoint)
+            run.writer.part("", SEED_PART, ByteBuffer.allocate(8).putLong(context.getRandom().getSeed()).array());
+        logger.info("Taking " + (checkpoint ? "checkpoint " : "snapshot ") + run.id + " of network " + name + " from " + initiator);
+        Message marker = new Message().add("type", MARKER_TYPE);
+        marker.addHeader(HEADER, String.valueOf(run.id));
+        if (!network.inject(initiator, marker))
+            fail(run, new IllegalStateException("Mailbox of " + initiator + " is closed"));
+        return run.done;
+    }
+
+    /**
+     * @return true while a snapshot is being taken
+     */
+    public boolean isActive () {
+        return active != null;
+    }
+
+    static boolean isMarker ( Message message ) {
+        return MARKER_TYPE.equals(message.query("type"));
+    }
+
+    // Tags a message with the snapshot id if its sender has recorded its state
+    void onSend ( Message copy, String sender ) {
+        Run run = active;
+        if (run == null)
+            return;
+        Participant p = run.participants.get(sender);
+        if (p != null && p.recorded)
+            copy.addHeader(HEADER, String.valueOf(run.id));
+    }
+
+    /**
+     * Called on the receiver's thread for every message before anything else sees it.
+     *
+     * @return true if the message was a marker, which only the snapshot sees
+     */
+    boolean onReceive ( Message message, NetworkConnection receiver ) {
+        Run run = active;
+        boolean marker = isMarker(message);
+        if (run == null)
+            return marker;
+        Participant p = run.participants.get(receiver.NodeName());
+        if (p == null)
+            return marker;
+        String tag = message.queryHeader(HEADER);
+        boolean after_cut = tag != null && tag.equals(String.valueOf(run.id));
+        String sender = message.queryHeader("sender");
+        synchronized (p) {
+            // Markers carry the id as well; those of earlier snapshots are dropped
+            if (!p.recorded && after_cut)
+                record(run, p, receiver);
+            if (marker) {
+                // The initiator's own marker comes from outside and closes no channel
+                if (after_cut && sender != null && !sender.isEmpty() && p.open.remove(sender) && p.open.isEmpty())
+                    finished(run);
+                return true;
+            }
+            if (sender == null || after_cut || !p.recorded)
+                return false;
+            if (p.open.contains(sender))
+                run.writer.message(sender, receiver.NodeName(), message);
+            else if (run.participants.containsKey(sender))
+                late.increment();
+        }
+        return false;
+    }
+
+    // Fails the snapshot being taken, called when the network shuts down
+    void stop () {
+        Run run = active;
+        if (run != null)
+            fail(run, new IllegalStateException("Simulation ended before snapshot " + run.id + " was complete"));
+    }
+
+    // Called with the participant's lock held
+    private void record ( Run run, Participant p, NetworkConnection receiver ) {
+        Supplier<Map<String,String>> state = states.get(p.node);
+        run.writer.state(p.node, state != null ? state.get() : Map.of());
+        if (run.checkpoint) {
+            try {
+                Checkpointed parts = checkpointed.get(p.node);
+                if (parts != null)
+                    parts.save().forEach((part, bytes) -> run.writer.part(p.node, part, bytes));
+            } catch (IOException | UncheckedIOException e) {
+                logger.warn("Node " + p.node + " could not save its state: " + e.getMessage());
+                fail(run, e instanceof UncheckedIOException u ? u.getCause() : (IOException) e);
+                return;
+            }
+        }
+        p.open.addAll(run.participants.keySet());
+        p.open.remove(p.node);
+        p.recorded = true;
+        Message marker = new Message().add("type", MARKER_TYPE);
+        for (String other : p.open)
+            receiver.sendBlindly(marker, other);
+        if (p.open.isEmpty())
+            finished(run);
+    }
+
+    // Counts a node whose state and channels are all recorded
+    private void finished ( Run run ) {
+        if (run.remaining.decrementAndGet() > 0)
+            return;
+        synchronized (this) {
+            if (active == run)
+                active = null;
+        }
+        try {
+            run.writer.finish();
+        } catch (IOException e) {
+            run.done.completeExceptionally(e);
+            return;
+        }
+        taken.increment();
+        Summary summary = new Summary(run.id, run.writer.getFile(), run.writer.getNodes(), run.writer.getMessages(),
+                (System.nanoTime() - run.started) / 1_000_000);
+        logger.info("Snapshot " + run.id + " of network " + name + " complete: " + summary.nodes() + " nodes, "
+                + summary.messages() + " messages in flight, " + summary.millis() + " ms");
+        run.done.complete(summary);
+    }
+
+    private void fail ( Run run, Exception cause ) {
+        synchronized (this) {
+            if (active == run)
+                active = null;
+        }
+        try {
+            run.writer.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        run.done.completeExceptionally(cause);
+    }
+
+    private static final class Participant {
+        final String node;
+        // Nodes whose marker has not arrived yet
+        final Set<String> open = new HashSet<>();
+        volatile boolean recorded = false;
+
+        Participant ( String node ) {
+            this.node = node;
+        }
+    }
+
+    private static final class Run {
+        final long id;
+        final SnapshotWriter writer;
+        final Map<String,Participant> participants = new ConcurrentHashMap<>();
+        final AtomicInteger remaining;
+        final CompletableFuture<Summary> done = new CompletableFuture<>();
+        final long started = System.nanoTime();
+        final boolean checkpoint;
+
+        Run ( long id, SnapshotWriter writer, Set<String> nodes, boolean checkpoint ) {
+            this.id = id;
+            this.writer = writer;
+            this.checkpoint = checkpoint;
+            for (String node : nodes)
+                participants.put(node, new Participant(node));
+            this.remaining = new AtomicInteger(nodes.size());
+        }
+    }
+
+    private static final String SEED_PART = "random.seed";
+
+    private final Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+    private final SimulationContext context;
+    private final String name;
+    private final Counter taken;
+    private final Counter late;
+    private final Map<String,NetworkConnection> participants = new ConcurrentHashMap<>();
+    private final Map<String,Supplier<Map<String,String>>> states = new ConcurrentHashMap<>();
+    private final Map<String,Checkpointed> checkpointed = new ConcurrentHashMap<>();
+    private final Map<String,Restored> restored = new ConcurrentHashMap<>();
+    private final Network network;
+    private volatile Run active = null;
+    private long last_id = 0;
+}
@@ -0,0 +1,66 @@
+package org.oxoo2a.sim4da;
+
+import org.oxoo2a.sim4da.random.RandomStreams;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+
+/**
+ * What a thread started by the capturing thread would inherit: its simulation context,
+ * and child streams of its random stream and journal stream, named {@code <stream>/<n>}
+ * like those of the threads it starts.
+ *
+ * Shared timer and pool threads serve the nodes of every simulation, so they are created
+ * without inheriting anything from the thread that happens to start them. Code that hands
+ * a task to such a thread captures a binding on the thread the task belongs to, usually
+ * the node's, and runs the task with it; the task then draws, journals and sends like a
+ * thread of that node, in whichever simulation it belongs to. The tasks run with one
+ * binding draw from one stream and must not run at the same time.
+ */
+public final class TaskBinding {
+    private final SimulationContext context;
+    private final RandomStreams.Binding random;
+    private final ScheduleJournal.Binding journal;
+
+    private TaskBinding ( SimulationContext context, RandomStreams.Binding random, ScheduleJournal.Binding journal ) {
+        this.context = context;
+        this.random = random;
+        this.journal = journal;
+    }
+
+    /**
+     * Captures the binding of a new child of the calling thread.
+     */
+    public static TaskBinding capture () {
+        return new TaskBinding(SimulationContext.bound(), RandomStreams.child(), ScheduleJournal.child());
+    }
+
+    /**
+     * Runs a task on the calling thread with this binding, restoring the thread's own afterwards.
+     */
+    public void run ( Runnable task ) {
+        SimulationContext previous_context = SimulationContext.bound();
+        SimulationContext.bind(context);
+        RandomStreams.Binding previous_random = RandomStreams.bind(random);
+        ScheduleJournal.Binding previous_journal = ScheduleJournal.bind(journal);
+        try {
+            task.run();
+        } finally {
+            ScheduleJournal.bind(previous_journal);
+            RandomStreams.bind(previous_random);
+            SimulationContext.bind(previous_context);
+        }
+    }
+
+    /**
+     * @return A task running the given one with this binding
+     */
+    public Runnable wrap ( Runnable task ) {
+        return () -> run(task);
+    }
+
+    /**
+     * @return The task bound to a new child of the calling thread, see {@link #capture}
+     */
+    public static Runnable bind ( Runnable task ) {
+        return capture().wrap(task);
+    }
+}
@@ -1,4 +1,270 @@
 package org.oxoo2a.sim4da;
 
-public class Topology {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * The links between the nodes of a simulation. Nodes are numbered 0..size()-1 in the order
+ * of the names the topology was built from; links are undirected and carry a positive cost.
+ * Messages between nodes that are not linked are routed along a cheapest path, and the
+ * network delays them by the cost of that path (see {@link Network#setLinkDelay}).
+ * <p>
+ * The factory methods build the common shapes. All of them except {@link #complete} store
+ * the links as compact int arrays, see {@link GraphTopology}.
+ */
+public abstract class Topology {
+
+    protected Topology ( List<String> names ) {
+        this.names = names.toArray(new String[0]);
+        this.index = new HashMap<>(names.size() * 2);
+        for (int i = 0; i < this.names.length; i++) {
+            if (index.put(this.names[i], i) != null)
+                throw new IllegalArgumentException("Duplicate node name " + this.names[i]);
+        }
+    }
+
+    /**
+     * @return Every node linked to every other node, all links of cost 1
+     */
+    public static Topology complete ( List<String> names ) {
+        return new CompleteTopology(names);
+    }
+
+    /**
+     * @return Node i linked to nodes i-1 and i+1, wrapping around
+     */
+    public static Topology ring ( List<String> names ) {
+        int n = names.size();
+        GraphTopology.Builder b = new GraphTopology.Builder(names);
+        if (n == 2)
+            b.link(0, 1);
+        else if (n > 2)
+            for (int i = 0; i < n; i++)
+                b.link(i, (i + 1) % n);
+        return b.build();
+    }
+
+    /**
+     * A two dimensional torus; node i sits in row i / width and column i % width and is
+     * linked to its four neighbors, wrapping around at the edges.
+     */
+    public static Topology torus ( List<String> names, int width ) {
+        int n = names.size();
+        if (width <= 0 || n % width != 0)
+            throw new IllegalArgumentException("Torus width " + width + " does not divide " + n + " nodes");
+        int height = n / width;
+        GraphTopology.Builder b = new GraphTopology.Builder(names);
+        for (int i = 0; i < n; i++) {
+            int row = i / width, column = i % width;
+            b.linkOnce(i, row * width + (column + 1) % width);
+            b.linkOnce(i, ((row + 1) % height) * width + column);
+        }
+        return b.build();
+    }
+
+    /**
+     * A complete k-ary tree rooted at node 0; the children of node i are k*i+1 .. k*i+k.
+     */
+    public static Topology tree ( List<String> names, int k ) {
+        if (k < 1)
+            throw new IllegalArgumentException("Tree arity must be positive, is " + k);
+        GraphTopology.Builder b = new GraphTopology.Builder(names);
+        for (int i = 1; i < names.size(); i++)
+            b.link(i, (i - 1) / k);
+        return b.build();
+    }
+
+    /**
+     * A random graph in which every node has exactly {@code degree} links, without self
+     * links or parallel links. The same seed gives the same graph.
+     */
+    public static Topology randomRegular ( List<String> names, int degree, long seed ) {
+        int n = names.size();
+        if (degree < 0 || degree >= n || (n * degree) % 2 != 0)
+            throw new IllegalArgumentException("No " + degree + "-regular graph on " + n + " nodes");
+        Random random = new Random(seed);
+        // Pairing model: pair up n*degree stubs at random, start over when the last stubs can't be paired
+        for (int attempt = 0; attempt < 1000; attempt++) {
+            GraphTopology.Builder b = new GraphTopology.Builder(names);
+            int[] stubs = new int[n * degree];
+            for (int i = 0; i < stubs.length; i++)
+                stubs[i] = i / degree;
+            int remaining = stubs.length;
+            boolean stuck = false;
+            while (remaining > 0 && !stuck) {
+                stuck = true;
+                for (int tries = 0; tries < 100; tries++) {
+                    int x = random.nextInt(remaining), y = random.nextInt(remaining);
+                    int u = stubs[x], v = stubs[y];
+                    if (x == y || u == v || b.linked(u, v))
+                        continue;
+                    b.link(u, v);
+                    // Remove both stubs by moving the last ones into their slots
+                    int hi = Math.max(x, y), lo = Math.min(x, y);
+                    stubs[hi] = stubs[--remaining];
+                    stubs[lo] = stubs[--remaining];
+                    stuck = false;
+                    break;
+                }
+            }
+            if (!stuck)
+                return b.build();
+        }
+        throw new IllegalStateException("Failed to build a random " + degree + "-regular graph on " + n + " nodes");
+    }
+
+    /**
+     * A Watts-Strogatz small world: a ring in which every node is linked to its {@code k}
+     * nearest nodes ({@code k}/2 on each side), after which every link is moved to a random
+     * node with probability {@code beta}. The same seed gives the same graph.
+     */
+    public static Topology smallWorld ( List<String> names, int k, double beta, long seed ) {
+        int n = names.size();
+        if (k < 2 || k % 2 != 0 || k >= n)
+            throw new IllegalArgumentException("Small world needs an even k in [2, " + n + "), is " + k);
+        Random random = new Random(seed);
+        GraphTopology.Builder b = new GraphTopology.Builder(names);
+        for (int i = 0; i < n; i++)
+            for (int j = 1; j <= k / 2; j++)
+                b.link(i, (i + j) % n);
+        for (int j = 1; j <= k / 2; j++) {
+            for (int i = 0; i < n; i++) {
+                if (random.nextDouble() >= beta)
+                    continue;
+                int old_target = (i + j) % n;
+                if (b.degree(i) >= n - 1)
+                    continue;
+                int target;
+                do {
+                    target = random.nextInt(n);
+                } while (target == i || b.linked(i, target));
+                b.unlink(i, old_target);
+                b.link(i, target);
+            }
+        }
+        return b.build();
+    }
+
+    /**
+     * @return A topology with the same links but with the cost of the link between
+     * nodes i and j given by {@code cost.applyAsInt(i, j)} with i &lt; j
+     */
+    public abstract Topology withLinkCosts ( IntBinaryOperator cost );
+
+    public int size () {
+        return names.length;
+    }
+
+    public String name ( int node ) {
+        return names[node];
+    }
+
+    /**
+     * @return The number of the node, -1 if the node is not part of this topology
+     */
+    public int indexOf ( String name ) {
+        Integer i = index.get(name);
+        return i != null ? i : -1;
+    }
+
+    public boolean contains ( String name ) {
+        return index.containsKey(name);
+    }
+
+    public abstract int degree ( int node );
+
+    /**
+     * @return The node at the other end of link {@code slot} (0..degree-1) of {@code node}
+     */
+    public abstract int neighbor ( int node, int slot );
+
+    public abstract int linkCost ( int node, int slot );
+
+    /**
+     * @return The next node on a cheapest path from {@code from} to {@code to},
+     * {@code to} itself if it is a neighbor, -1 if there is no path
+     */
+    public abstract int nextHop ( int from, int to );
+
+    public List<String> neighbors ( String name ) {
+        int node = checkedIndex(name);
+        List<String> neighbors = new ArrayList<>(degree(node));
+        for (int slot = 0; slot < degree(node); slot++)
+            neighbors.add(names[neighbor(node, slot)]);
+        return neighbors;
+    }
+
+    public boolean linked ( int a, int b ) {
+        return slotOf(a, b) >= 0;
+    }
+
+    /**
+     * @return The sum of the link costs along the route from {@code from} to {@code to},
+     * 0 for the node itself, -1 if there is no path
+     */
+    public long pathCost ( int from, int to ) {
+        long cost = 0;
+        int at = from;
+        while (at != to) {
+            int next = nextHop(at, to);
+            if (next < 0)
+                return -1;
+            cost += linkCost(at, slotOf(at, next));
+            at = next;
+        }
+        return cost;
+    }
+
+    /**
+     * @return The number of links along the route from {@code from} to {@code to}, -1 if there is no path
+     */
+    public int hops ( int from, int to ) {
+        int hops = 0;
+        for (int at = from; at != to; hops++) {
+            at = nextHop(at, to);
+            if (at < 0)
+                return -1;
+        }
+        return hops;
+    }
+
+    /**
+     * @return The nodes along the route, starting with {@code from} and ending with {@code to};
+     * empty if there is no path
+     */
+    public List<String> route ( String from, String to ) {
+        int at = checkedIndex(from), target = checkedIndex(to);
+        List<String> route = new ArrayList<>();
+        route.add(from);
+        while (at != target) {
+            at = nextHop(at, target);
+            if (at < 0)
+                return Collections.emptyList();
+            route.add(names[at]);
+        }
+        return route;
+    }
+
+    // Position of b in the links of a, -1 if they are not linked
+    protected int slotOf ( int a, int b ) {
+        for (int slot = 0; slot < degree(a); slot++)
+            if (neighbor(a, slot) == b)
+                return slot;
+        return -1;
+    }
+
+    private int checkedIndex ( String name ) {
+        int i = indexOf(name);
+        if (i < 0)
+            throw new IllegalArgumentException("Node " + name + " is not part of the topology");
+        return i;
+    }
+
+    protected final String[] names;
+    private final Map<String,Integer> index;
 }
@@ -94,9 +94,9 @@ public class ConcurrentWriteDemo {
         private final int nodeId;
         
         // Store local expectation of counter values based on the last successful write
-        private final Map<String, Integer> apLastWrittenValue = new HashMap<>();
-        private final Map<String, Integer> cpLastWrittenValue = new HashMap<>();
-        private final Map<String, Integer> caLastWrittenValue = new HashMap<>();
+        private final Map<String, Long> apLastWrittenValue = new HashMap<>();
+        private final Map<String, Long> cpLastWrittenValue = new HashMap<>();
+        private final Map<String, Long> caLastWrittenValue = new HashMap<>();
         
         public ConcurrentWriteNode(String name, int nodeId) {
             super(name);
@@ -170,18 +170,18 @@ public class ConcurrentWriteDemo {
                     String counterKey = "shared_counter_" + i;
                     
                     // Initialize our expectations
-                    apLastWrittenValue.put(counterKey, 0);
-                    cpLastWrittenValue.put(counterKey, 0);
-                    caLastWrittenValue.put(counterKey, 0);
+                    apLastWrittenValue.put(counterKey, 0L);
+                    cpLastWrittenValue.put(counterKey, 0L);
+                    caLastWrittenValue.put(counterKey, 0L);
                     
                     // Node 0 initializes all counters to 0
                     if (nodeId == 0) {
                         try {
-                            getDSM(DSMFactory.DSMType.AP).write(counterKey, "0");
+                            getDSM(DSMFactory.DSMType.AP).writeLong(counterKey, 0);
                             Thread.sleep(100);
-                            getDSM(DSMFactory.DSMType.CP).write(counterKey, "0");
+                            getDSM(DSMFactory.DSMType.CP).writeLong(counterKey, 0);
                             Thread.sleep(100);
-                            getDSM(DSMFactory.DSMType.CA).write(counterKey, "0");
+                            getDSM(DSMFactory.DSMType.CA).writeLong(counterKey, 0);
                             logger.info("Initialized counter {}", counterKey);
                             Thread.sleep(200); // Extra delay between counters
                         } catch (DSMException e) {
@@ -217,12 +217,11 @@ public class ConcurrentWriteDemo {
         
         private void incrementAP(String counterKey) {
             try {
-                String currentValueStr = getDSM(DSMFactory.DSMType.AP).read(counterKey);
-                int currentValue = currentValueStr != null ? Integer.parseInt(currentValueStr) : 0;
+                long currentValue = getDSM(DSMFactory.DSMType.AP).readLong(counterKey, 0);
                 
                 // A conflict occurs if the value we read is not what we last wrote.
                 // This means another node has updated the value since our last write.
-                int lastWritten = apLastWrittenValue.getOrDefault(counterKey, 0);
+                long lastWritten = apLastWrittenValue.getOrDefault(counterKey, 0L);
                 if (currentValue != lastWritten) {
                     logger.warn("\u001B[33mAP CONFLICT\u001B[0m: Read {} for {} but expected our last write of {} (EXPECTED in AP model)",
                             currentValue, counterKey, lastWritten);
@@ -230,8 +229,8 @@ public class ConcurrentWriteDemo {
                 }
                 
                 // Increment based on the value we just read
-                int newValue = currentValue + 1;
-                getDSM(DSMFactory.DSMType.AP).write(counterKey, String.valueOf(newValue));
+                long newValue = currentValue + 1;
+                getDSM(DSMFactory.DSMType.AP).writeLong(counterKey, newValue);
                 apLastWrittenValue.put(counterKey, newValue); // Update our last written value
                 
                 logger.debug("AP: Incremented {} from {} to {}", counterKey, currentValue, newValue);
@@ -243,11 +242,10 @@ public class ConcurrentWriteDemo {
         
         private void incrementCP(String counterKey) {
             try {
-                String currentValueStr = getDSM(DSMFactory.DSMType.CP).read(counterKey);
-                int currentValue = currentValueStr != null ? Integer.parseInt(currentValueStr) : 0;
+                long currentValue = getDSM(DSMFactory.DSMType.CP).readLong(counterKey, 0);
 
                 // With CP, we expect to read the value we last wrote due to strong consistency.
-                int lastWritten = cpLastWrittenValue.getOrDefault(counterKey, 0);
+                long lastWritten = cpLastWrittenValue.getOrDefault(counterKey, 0L);
                 if (currentValue != lastWritten) {
                     logger.warn("\u001B[33mCP CONFLICT\u001B[0m: Read {} for {} but expected our last write of {} (UNUSUAL in CP model)",
                             currentValue, counterKey, lastWritten);
@@ -255,8 +253,8 @@ public class ConcurrentWriteDemo {
                 }
 
                 // Increment based on the value we just read
-                int newValue = currentValue + 1;
-                getDSM(DSMFactory.DSMType.CP).write(counterKey, String.valueOf(newValue));
+                long newValue = currentValue + 1;
+                getDSM(DSMFactory.DSMType.CP).writeLong(counterKey, newValue);
                 cpLastWrittenValue.put(counterKey, newValue); // Update our last written value
 
                 logger.debug("CP: Incremented {} from {} to {}", counterKey, currentValue, newValue);
@@ -269,11 +267,10 @@ public class ConcurrentWriteDemo {
         
         private void incrementCA(String counterKey) {
             try {
-                String currentValueStr = getDSM(DSMFactory.DSMType.CA).read(counterKey);
-                int currentValue = currentValueStr != null ? Integer.parseInt(currentValueStr) : 0;
+                long currentValue = getDSM(DSMFactory.DSMType.CA).readLong(counterKey, 0);
 
                 // With CA, we expect to read the value we last wrote due to strong consistency.
-                int lastWritten = caLastWrittenValue.getOrDefault(counterKey, 0);
+                long lastWritten = caLastWrittenValue.getOrDefault(counterKey, 0L);
                 if (currentValue != lastWritten) {
                     logger.warn("\u001B[33mCA CONFLICT\u001B[0m: Read {} for {} but expected our last write of {} (UNUSUAL in CA model)",
                             currentValue, counterKey, lastWritten);
@@ -281,8 +278,8 @@ public class ConcurrentWriteDemo {
                 }
 
                 // Increment based on the value we just read
-                int newValue = currentValue + 1;
-                getDSM(DSMFactory.DSMType.CA).write(counterKey, String.valueOf(newValue));
+                long newValue = currentValue + 1;
+                getDSM(DSMFactory.DSMType.CA).writeLong(counterKey, newValue);
                 caLastWrittenValue.put(counterKey, newValue); // Update our last written value
 
                 logger.debug("CA: Incremented {} from {} to {}", counterKey, currentValue, newValue);
@@ -335,16 +332,12 @@ public class ConcurrentWriteDemo {
                 
                 // Check for divergence between implementations
                 try {
-                    String apValue = getDSM(DSMFactory.DSMType.AP).read(counterKey);
-                    String cpValue = getDSM(DSMFactory.DSMType.CP).read(counterKey);
-                    String caValue = getDSM(DSMFactory.DSMType.CA).read(counterKey);
+                    long apVal = getDSM(DSMFactory.DSMType.AP).readLong(counterKey, -1);
+                    long cpVal = getDSM(DSMFactory.DSMType.CP).readLong(counterKey, -1);
+                    long caVal = getDSM(DSMFactory.DSMType.CA).readLong(counterKey, -1);
                     
-                    if (apValue != null && cpValue != null && caValue != null) {
-                        int apVal = Integer.parseInt(apValue);
-                        int cpVal = Integer.parseInt(cpValue);
-                        int caVal = Integer.parseInt(caValue);
-                        
-                        int maxDiff = Math.max(Math.abs(apVal - cpVal), 
+                    if (apVal >= 0 && cpVal >= 0 && caVal >= 0) {
+                        long maxDiff = Math.max(Math.abs(apVal - cpVal), 
                                  Math.max(Math.abs(apVal - caVal), 
                                           Math.abs(cpVal - caVal)));
                         
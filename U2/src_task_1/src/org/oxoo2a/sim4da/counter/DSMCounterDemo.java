@@ -3,9 +3,14 @@ package org.oxoo2a.sim4da.counter;
 import org.oxoo2a.sim4da.Node;
 import org.oxoo2a.sim4da.Simulator;
 import org.oxoo2a.sim4da.dsm.*;
+import org.oxoo2a.sim4da.metrics.CsvMetricsExporter;
+import org.oxoo2a.sim4da.metrics.HistogramSnapshot;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -46,6 +51,17 @@ public class DSMCounterDemo {
     public static void main(String[] args) {
         logger.info("Starting DSM Counter Demo with {} nodes", NUM_NODES);
         
+        // Optionally export metrics every second, e.g. -Dsim4da.metrics.csv=counter-metrics.csv
+        CsvMetricsExporter csvExporter = null;
+        String metricsFile = System.getProperty("sim4da.metrics.csv");
+        if (metricsFile != null) {
+            try {
+                csvExporter = CsvMetricsExporter.start(MetricsRegistry.getInstance(), Path.of(metricsFile), 1000);
+            } catch (IOException e) {
+                logger.warn("Cannot write metrics to {}: {}", metricsFile, e.getMessage());
+            }
+        }
+        
         // Create the counter nodes
         for (int i = 0; i < NUM_NODES; i++) {
             new CounterNode("Node_" + i, i);
@@ -78,6 +94,20 @@ public class DSMCounterDemo {
                 caFailures.get(), caOperations.get() > 0 ? (caFailures.get() * 100.0 / caOperations.get()) : 0);
         logger.info("\u001B[33m====================================\u001B[0m");
         
+        // Latency distribution of the DSM operations
+        for (Map.Entry<String, HistogramSnapshot> entry : MetricsRegistry.getInstance().snapshot().histograms().entrySet()) {
+            HistogramSnapshot h = entry.getValue();
+            logger.info("{}: n={}, p50={}us, p99={}us, max={}us", entry.getKey(), h.count(),
+                    h.percentile(50) / 1000, h.percentile(99) / 1000, h.max() / 1000);
+        }
+        if (csvExporter != null) {
+            try {
+                csvExporter.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close metrics file: {}", e.getMessage());
+            }
+        }
+        
         simulator.shutdown();
     }
     
@@ -99,9 +129,9 @@ public class DSMCounterDemo {
         private int caCounter = 0;
         
         // Maps to track the last seen value of each counter from each node
-        private final Map<String, Integer> lastSeenApValues = new HashMap<>();
-        private final Map<String, Integer> lastSeenCpValues = new HashMap<>();
-        private final Map<String, Integer> lastSeenCaValues = new HashMap<>();
+        private final Map<String, Long> lastSeenApValues = new HashMap<>();
+        private final Map<String, Long> lastSeenCpValues = new HashMap<>();
+        private final Map<String, Long> lastSeenCaValues = new HashMap<>();
         
         public CounterNode(String name, int nodeId) {
             super(name);
@@ -174,7 +204,7 @@ public class DSMCounterDemo {
                 String myKey = "counter_" + nodeId;
                 if (key.equals(myKey)) {
                     // Initialize my own counter to 0
-                    dsm.write(key, "0");
+                    dsm.writeLong(key, 0);
                 }
             } catch (DSMException e) {
                 logger.warn("Failed to initialize counter {}: {}", key, e.getMessage());
@@ -216,7 +246,7 @@ public class DSMCounterDemo {
             try {
                 caCounter++;
                 logger.info("CA: Attempting to increment {} to {}", key, caCounter);
-                caDsm.write(key, String.valueOf(caCounter));
+                caDsm.writeLong(key, caCounter);
                 caOperations.incrementAndGet();
                 logger.info("CA: Successfully incremented {} to {}", key, caCounter);
             } catch (DSMException e) {
@@ -230,7 +260,7 @@ public class DSMCounterDemo {
             // AP DSM increment
             try {
                 apCounter++;
-                apDsm.write(key, String.valueOf(apCounter));
+                apDsm.writeLong(key, apCounter);
                 apOperations.incrementAndGet();
                 logger.debug("AP: Incremented {} to {}", key, apCounter);
             } catch (DSMException e) {
@@ -244,7 +274,7 @@ public class DSMCounterDemo {
             // CP DSM increment
             try {
                 cpCounter++;
-                cpDsm.write(key, String.valueOf(cpCounter));
+                cpDsm.writeLong(key, cpCounter);
                 cpOperations.incrementAndGet();
                 logger.debug("CP: Incremented {} to {}", key, cpCounter);
             } catch (DSMException e) {
@@ -263,11 +293,10 @@ public class DSMCounterDemo {
                 
                 // AP DSM read
                 try {
-                    String valueStr = apDsm.read(counterKey);
-                    int value = valueStr != null ? Integer.parseInt(valueStr) : 0;
+                    long value = apDsm.readLong(counterKey, 0);
                     
                     // Check for inconsistencies
-                    Integer lastValue = lastSeenApValues.get(counterKey);
+                    Long lastValue = lastSeenApValues.get(counterKey);
                     if (lastValue != null && value < lastValue) {
                         logger.warn("\u001B[31mAP INCONSISTENCY\u001B[0m: Value rollback for {} - was {}, now {}", 
                                 counterKey, lastValue, value);
@@ -289,11 +318,10 @@ public class DSMCounterDemo {
                 
                 // CP DSM read
                 try {
-                    String valueStr = cpDsm.read(counterKey);
-                    int value = valueStr != null ? Integer.parseInt(valueStr) : 0;
+                    long value = cpDsm.readLong(counterKey, 0);
                     
                     // Check for inconsistencies
-                    Integer lastValue = lastSeenCpValues.get(counterKey);
+                    Long lastValue = lastSeenCpValues.get(counterKey);
                     if (lastValue != null && value < lastValue) {
                         logger.warn("\u001B[31mCP INCONSISTENCY\u001B[0m: Value rollback for {} - was {}, now {}", 
                                 counterKey, lastValue, value);
@@ -314,12 +342,11 @@ public class DSMCounterDemo {
                 // CA DSM read
                 try {
                     logger.info("CA: Attempting to read {}", counterKey);
-                    String valueStr = caDsm.read(counterKey);
-                    logger.info("CA: Successfully read {} = {}", counterKey, valueStr);
-                    int value = valueStr != null ? Integer.parseInt(valueStr) : 0;
+                    long value = caDsm.readLong(counterKey, 0);
+                    logger.info("CA: Successfully read {} = {}", counterKey, value);
                     
                     // Check for inconsistencies
-                    Integer lastValue = lastSeenCaValues.get(counterKey);
+                    Long lastValue = lastSeenCaValues.get(counterKey);
                     if (lastValue != null && value < lastValue) {
                         logger.warn("\u001B[31mCA INCONSISTENCY\u001B[0m: Value rollback for {} - was {}, now {}", 
                                 counterKey, lastValue, value);
@@ -343,9 +370,9 @@ public class DSMCounterDemo {
             for (int i = 0; i < NUM_NODES; i++) {
                 String counterKey = "counter_" + i;
                 
-                Integer apValue = lastSeenApValues.get(counterKey);
-                Integer cpValue = lastSeenCpValues.get(counterKey);
-                Integer caValue = lastSeenCaValues.get(counterKey);
+                Long apValue = lastSeenApValues.get(counterKey);
+                Long cpValue = lastSeenCpValues.get(counterKey);
+                Long caValue = lastSeenCaValues.get(counterKey);
                 
                 if (apValue != null && cpValue != null && Math.abs(apValue - cpValue) > 5) {
                     logger.info("\u001B[36mDIVERGENCE\u001B[0m: AP vs CP for {} - AP={}, CP={} (diff={})", 
@@ -368,9 +395,9 @@ public class DSMCounterDemo {
             String myCounterKey = "counter_" + nodeId;
             
             // Report current counter values
-            Integer apValue = lastSeenApValues.get(myCounterKey);
-            Integer cpValue = lastSeenCpValues.get(myCounterKey);
-            Integer caValue = lastSeenCaValues.get(myCounterKey);
+            Long apValue = lastSeenApValues.get(myCounterKey);
+            Long cpValue = lastSeenCpValues.get(myCounterKey);
+            Long caValue = lastSeenCaValues.get(myCounterKey);
             
             logger.info("STATUS: AP={}, CP={}, CA={}, Expected={}", 
                     apValue != null ? apValue : "N/A", 
@@ -1,16 +1,22 @@
 package org.oxoo2a.sim4da.counter;
 
-import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.FaultInjector;
 import org.oxoo2a.sim4da.Network;
 import org.oxoo2a.sim4da.Node;
 import org.oxoo2a.sim4da.Simulator;
+import org.oxoo2a.sim4da.SnapshotService;
 import org.oxoo2a.sim4da.dsm.*;
+import org.oxoo2a.sim4da.random.RandomStreams;
+import org.oxoo2a.sim4da.rpc.RpcException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -20,9 +26,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class PartitionSimulator {
     private static final Logger logger = LoggerFactory.getLogger(PartitionSimulator.class);
-    private static final int NUM_NODES = 16;
-    // private static final int NUM_NODES = 64;
-    // private static final int NUM_NODES = 128;
+    // Number of nodes, -Dsim4da.nodes=<n> (e.g. 16, 64, 128)
+    private static final int NUM_NODES = Integer.getInteger("sim4da.nodes", 16);
     private static final int SIMULATION_DURATION_SECONDS = 60;
     
     // Partition simulation parameters
@@ -30,6 +35,12 @@ public class PartitionSimulator {
     private static final int PARTITION_DURATION_SEC = 5;    // How long partitions last
     private static final int PARTITION_INTERVAL_SEC = 15;   // Time between partitions
     
+    // -Dsim4da.checkpoint=<file> [-Dsim4da.checkpoint.at=<seconds>] saves a checkpoint during the run,
+    // -Dsim4da.resume=<file> continues from one; the resumed run lasts the full duration again
+    private static final String CHECKPOINT_FILE = System.getProperty("sim4da.checkpoint");
+    private static final int CHECKPOINT_AT_SEC = Integer.getInteger("sim4da.checkpoint.at", 30);
+    private static final String RESUME_FILE = System.getProperty("sim4da.resume");
+    
     // Track whether a partition is active
     private static final AtomicBoolean partitionActive = new AtomicBoolean(false);
     // Track which nodes are in which partition
@@ -58,8 +69,32 @@ public class PartitionSimulator {
             new PartitionedNode("Node_" + i);
         }
         
-        // Start partition controller
-        new Thread(PartitionSimulator::runPartitionController).start();
+        SnapshotService snapshots = Network.getInstance().getSnapshots();
+        if (RESUME_FILE != null) {
+            try {
+                snapshots.resume(Path.of(RESUME_FILE));
+            } catch (IOException e) {
+                logger.error("Cannot resume from {}: {}", RESUME_FILE, e.getMessage());
+                return;
+            }
+        }
+        if (CHECKPOINT_FILE != null) {
+            CompletableFuture.delayedExecutor(CHECKPOINT_AT_SEC, TimeUnit.SECONDS).execute(() -> {
+                try {
+                    snapshots.checkpoint("Node_0", Path.of(CHECKPOINT_FILE)).whenComplete((summary, e) -> {
+                        if (e != null)
+                            logger.error("Checkpoint failed: {}", e.getMessage());
+                        else
+                            logger.info("Checkpoint of {} nodes saved to {}", summary.nodes(), summary.file());
+                    });
+                } catch (IOException e) {
+                    logger.error("Cannot write checkpoint {}: {}", CHECKPOINT_FILE, e.getMessage());
+                }
+            });
+        }
+        
+        // Schedule the partitions on the network's fault timeline
+        schedulePartitions(Network.getInstance().getFaults());
         
         // Run the simulation
         Simulator simulator = Simulator.getInstance();
@@ -107,38 +142,20 @@ public class PartitionSimulator {
     }
     
     /**
-     * Controls the creation and healing of network partitions.
+     * Schedules the creation and healing of network partitions for the whole simulation.
      */
-    private static void runPartitionController() {
-        try {
-            // Wait for initial delay
-            Thread.sleep(PARTITION_START_DELAY_SEC * 1000);
-            
-            while (Simulator.getInstance().isSimulating()) {
-                // Create a partition
-                createPartition();
-                
-                // Wait for partition duration
-                Thread.sleep(PARTITION_DURATION_SEC * 1000);
-                
-                // Heal the partition
-                healPartition();
-                
-                // Wait before next partition
-                Thread.sleep(PARTITION_INTERVAL_SEC * 1000);
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.info("Partition controller interrupted");
+    private static void schedulePartitions(FaultInjector faults) {
+        for (int start = PARTITION_START_DELAY_SEC; start < SIMULATION_DURATION_SECONDS;
+                start += PARTITION_DURATION_SEC + PARTITION_INTERVAL_SEC) {
+            faults.at(start, TimeUnit.SECONDS, PartitionSimulator::createPartition);
+            faults.at(start + PARTITION_DURATION_SEC, TimeUnit.SECONDS, PartitionSimulator::healPartition);
         }
     }
     
     /**
      * Creates a network partition by dividing nodes into two groups.
      */
-    private static void createPartition() {
-        if (!Simulator.getInstance().isSimulating()) return;
-        
+    private static void createPartition(FaultInjector faults) {
         // Clear previous partition groups
         partition1.clear();
         partition2.clear();
@@ -153,6 +170,7 @@ public class PartitionSimulator {
             }
         }
         
+        faults.partition(partition1, partition2);
         partitionPhases.incrementAndGet();
         partitionActive.set(true);
         logger.info("\u001B[35m==== NETWORK PARTITION {} CREATED ====\u001B[0m", partitionPhases.get());
@@ -163,24 +181,12 @@ public class PartitionSimulator {
     /**
      * Heals the network partition.
      */
-    private static void healPartition() {
+    private static void healPartition(FaultInjector faults) {
+        faults.heal();
         partitionActive.set(false);
         logger.info("\u001B[35m==== NETWORK PARTITION HEALED ====\u001B[0m");
     }
     
-    /**
-     * Checks if a message can be delivered between two nodes based on the current partition.
-     */
-    public static boolean canDeliver(String fromNode, String toNode) {
-        if (!partitionActive.get()) {
-            return true; // No partition active, deliver all messages
-        }
-        
-        // Check if both nodes are in the same partition
-        return (partition1.contains(fromNode) && partition1.contains(toNode)) ||
-               (partition2.contains(fromNode) && partition2.contains(toNode));
-    }
-    
     /**
      * Node that operates in a potentially partitioned network.
      */
@@ -188,7 +194,7 @@ public class PartitionSimulator {
         private final Logger logger;
         private final String counterKey;
         private final Map<DSMFactory.DSMType, Integer> expectedValues = new EnumMap<>(DSMFactory.DSMType.class);
-        private final Map<String, Map<DSMFactory.DSMType, Integer>> lastSeenValues = new HashMap<>();
+        private final Map<String, Map<DSMFactory.DSMType, Long>> lastSeenValues = new HashMap<>();
         
         public PartitionedNode(String name) {
             super(name);
@@ -199,6 +205,13 @@ public class PartitionSimulator {
             for (DSMFactory.DSMType type : DSMFactory.DSMType.values()) {
                 expectedValues.put(type, 0);
             }
+            
+            // Checkpoints save the counts, the counters themselves are in the DSM stores
+            setSnapshotState(() -> {
+                Map<String, String> state = new HashMap<>();
+                expectedValues.forEach((type, value) -> state.put(type.name(), String.valueOf(value)));
+                return state;
+            });
         }
         
         @Override
@@ -206,13 +219,22 @@ public class PartitionSimulator {
             logger.info("Partitioned node {} started", NodeName());
             
             try {
-                // Initialize counters
-                for (DSMFactory.DSMType type : DSMFactory.DSMType.values()) {
-                    try {
-                        DSM dsm = getDSM(type);
-                        dsm.write(counterKey, "0");
-                    } catch (DSMException e) {
-                        logger.warn("Failed to initialize counter for {}: {}", type, e.getMessage());
+                Map<String, String> restored = getRestoredState();
+                if (restored != null) {
+                    // Resumed from a checkpoint: the counters are in the restored DSM stores
+                    restored.forEach((type, value) -> expectedValues.put(DSMFactory.DSMType.valueOf(type), Integer.parseInt(value)));
+                    for (DSMFactory.DSMType type : DSMFactory.DSMType.values()) {
+                        getDSM(type);
+                    }
+                } else {
+                    // Initialize counters
+                    for (DSMFactory.DSMType type : DSMFactory.DSMType.values()) {
+                        try {
+                            DSM dsm = getDSM(type);
+                            dsm.writeLong(counterKey, 0);
+                        } catch (DSMException e) {
+                            logger.warn("Failed to initialize counter for {}: {}", type, e.getMessage());
+                        }
                     }
                 }
                 
@@ -225,9 +247,12 @@ public class PartitionSimulator {
                         // Read other nodes' counters
                         readOtherCounters();
                         
-                        // Add some randomness to the timing
-                        Thread.sleep(ThreadLocalRandom.current().nextInt(500, 1500));
-                    } catch (InterruptedException e) {
+                        // Add some randomness to the timing; the node keeps processing messages
+                        // meanwhile, so AP updates and snapshot markers don't wait for the next call
+                        int pause = RandomStreams.current().nextInt(500, 1500);
+                        getRpc().await(new CompletableFuture<Void>().completeOnTimeout(null, pause, TimeUnit.MILLISECONDS));
+                    } catch (RpcException e) {
+                        // Interrupted while pausing
                         Thread.currentThread().interrupt();
                     } catch (Exception e) {
                         // Don't treat CP failures during partitions as errors
@@ -255,7 +280,7 @@ public class PartitionSimulator {
                 try {
                     DSM dsm = getDSM(type);
                     int newValue = expectedValues.get(type) + 1;
-                    dsm.write(counterKey, String.valueOf(newValue));
+                    dsm.writeLong(counterKey, newValue);
                     expectedValues.put(type, newValue);
                     
                     // Track successful operations - explicitly use class reference
@@ -324,7 +349,7 @@ public class PartitionSimulator {
                 for (DSMFactory.DSMType type : DSMFactory.DSMType.values()) {
                     try {
                         DSM dsm = getDSM(type);
-                        String valueStr = dsm.read(nodeCounterKey);
+                        long value = dsm.readLong(nodeCounterKey, -1);
                         
                         // Track successful operations - explicitly use class reference
                         if (type == DSMFactory.DSMType.AP) {
@@ -335,9 +360,8 @@ public class PartitionSimulator {
                             PartitionSimulator.caOperations.incrementAndGet();
                         }
                         
-                        if (valueStr != null) {
-                            int value = Integer.parseInt(valueStr);
-                            Integer lastValue = lastSeenValues.get(nodeCounterKey).get(type);
+                        if (value >= 0) {
+                            Long lastValue = lastSeenValues.get(nodeCounterKey).get(type);
                             
                             // Check for inconsistencies
                             if (lastValue != null) {
@@ -381,7 +405,7 @@ public class PartitionSimulator {
             }
             
             // Log own counter status occasionally
-            if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            if (RandomStreams.current().nextInt(10) == 0) {
                 logCounterStatus();
             }
         }
@@ -393,8 +417,7 @@ public class PartitionSimulator {
             for (DSMFactory.DSMType type : DSMFactory.DSMType.values()) {
                 try {
                     DSM dsm = getDSM(type);
-                    String valueStr = dsm.read(counterKey);
-                    int actualValue = valueStr != null ? Integer.parseInt(valueStr) : -1;
+                    long actualValue = dsm.readLong(counterKey, -1);
                     int expectedValue = expectedValues.get(type);
                     
                     status.append(type).append("=").append(actualValue);
@@ -414,45 +437,5 @@ public class PartitionSimulator {
             
             logger.info(status.toString());
         }
-        
-        @Override
-        public void sendDSMBroadcast(Message message) {
-            // Override to simulate network partitions
-            if (!partitionActive.get()) {
-                // No partition, normal operation
-                super.sendDSMBroadcast(message);
-                return;
-            }
-            
-            // Simulate partitioned broadcast by only sending to nodes in the same partition
-            String senderName = NodeName();
-            
-            if (partition1.contains(senderName)) {
-                // Only broadcast to nodes in partition 1
-                for (String nodeName : partition1) {
-                    if (!nodeName.equals(senderName)) {
-                        super.sendDSMMessage(message, nodeName);
-                    }
-                }
-            } else if (partition2.contains(senderName)) {
-                // Only broadcast to nodes in partition 2
-                for (String nodeName : partition2) {
-                    if (!nodeName.equals(senderName)) {
-                        super.sendDSMMessage(message, nodeName);
-                    }
-                }
-            }
-        }
-        
-        @Override
-        public void sendDSMMessage(Message message, String toNodeName) {
-            // Override to simulate network partitions
-            if (!partitionActive.get() || canDeliver(NodeName(), toNodeName)) {
-                super.sendDSMMessage(message, toNodeName);
-            } else {
-                // Message is dropped due to partition
-                logger.debug("Message from {} to {} dropped due to partition", NodeName(), toNodeName);
-            }
-        }
     }
 }
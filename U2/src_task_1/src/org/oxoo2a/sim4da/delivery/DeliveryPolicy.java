@@ -0,0 +1,85 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToLongBiFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Decides in which order a node receives the messages waiting in its mailbox, by providing
+ * the data structure of the mailbox. Policies are set per simulation, for all nodes or for
+ * single receivers, with {@link org.oxoo2a.sim4da.SimulationBehavior#setDeliveryPolicy}.
+ * <p>
+ * The policies here take O(log n) or less per message, n being the number of waiting messages.
+ */
+@FunctionalInterface
+public interface DeliveryPolicy {
+
+    /**
+     * @param receiver The node whose mailbox the queue is for
+     */
+    MailboxQueue newQueue(String receiver);
+
+    /**
+     * Messages are received in the order they arrived. O(1).
+     */
+    static DeliveryPolicy fifo() {
+        return receiver -> new DequeQueue(false);
+    }
+
+    /**
+     * The message that arrived last is received first. O(1).
+     */
+    static DeliveryPolicy lifo() {
+        return receiver -> new DequeQueue(true);
+    }
+
+    /**
+     * Receives the message at a chosen position in arrival order. O(log n).
+     *
+     * @param selector Maps the number of waiting messages n to a position in [0, n)
+     */
+    static DeliveryPolicy indexed(IntUnaryOperator selector) {
+        return receiver -> new IndexedQueue(selector);
+    }
+
+    /**
+     * Any waiting message is received next with the same probability. O(log n).
+     */
+    static DeliveryPolicy random() {
+        return indexed(n -> (int) (ScheduleJournal.random() * n));
+    }
+
+    /**
+     * Messages of one sender are received in order, the sender is chosen at random among
+     * those with waiting messages. O(log s) for s senders.
+     */
+    static DeliveryPolicy perSenderFifo() {
+        return receiver -> new PerSenderQueue();
+    }
+
+    /**
+     * Every message is held for a simulated link latency and received in order of the time
+     * it would have arrived, arrival plus latency, so messages on slow links are overtaken.
+     * The messages are not actually held back: a receiver that finds only one message gets
+     * it immediately. O(log n).
+     *
+     * @param latency Latency in nanoseconds of a message from sender to receiver, called once per message
+     */
+    static DeliveryPolicy delaySorted(ToLongBiFunction<String, String> latency) {
+        return receiver -> new KeyedQueue(e -> e.enqueued() + latency.applyAsLong(e.sender(), receiver));
+    }
+
+    /**
+     * An adversary decides: the message it rates highest is received first, among equally
+     * rated ones the one that arrived first. Rating, say, acknowledgements lowest holds
+     * them back as long as other messages are waiting. O(log n).
+     *
+     * @param rating Rating of a message, computed once when it arrives
+     */
+    static DeliveryPolicy adversarial(ToLongFunction<Message> rating) {
+        return receiver -> new KeyedQueue(e -> -rating.applyAsLong(e.message()));
+    }
+}
@@ -0,0 +1,56 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * FIFO and LIFO delivery, O(1) per operation.
+ */
+final class DequeQueue implements MailboxQueue {
+    private final ArrayDeque<Envelope> queue = new ArrayDeque<>();
+    private final boolean lifo;
+
+    DequeQueue(boolean lifo) {
+        this.lifo = lifo;
+    }
+
+    @Override
+    public void add(Envelope envelope) {
+        queue.addLast(envelope);
+    }
+
+    @Override
+    public Envelope take() {
+        return lifo ? queue.pollLast() : queue.pollFirst();
+    }
+
+    @Override
+    public Envelope removeOldest() {
+        return queue.pollFirst();
+    }
+
+    @Override
+    public Envelope remove(Predicate<Message> which) {
+        for (Iterator<Envelope> i = queue.iterator(); i.hasNext(); ) {
+            Envelope e = i.next();
+            if (which.test(e.message())) {
+                i.remove();
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int lastPosition() {
+        return lifo ? queue.size() : 0;
+    }
+}
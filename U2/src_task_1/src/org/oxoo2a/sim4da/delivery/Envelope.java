@@ -0,0 +1,14 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * A message waiting in a mailbox.
+ *
+ * @param message  The message
+ * @param sender   Name of the sending node, "" if unknown
+ * @param enqueued When the message arrived, in {@link System#nanoTime()} nanoseconds
+ * @param sequence Arrival number within the mailbox, increasing
+ */
+public record Envelope(Message message, String sender, long enqueued, long sequence) {
+}
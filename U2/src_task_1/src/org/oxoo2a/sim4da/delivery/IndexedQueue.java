@@ -0,0 +1,120 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Delivery of the message at a chosen position in arrival order. The messages sit in an
+ * array in arrival order, with gaps where messages were taken; a Fenwick tree over the
+ * array counts the messages up to each slot, so the k-th waiting message is found and
+ * removed in O(log n). When the array is used up, the messages are moved to its front
+ * (and the array doubled if it is more than half full), which costs O(1) per message
+ * amortized.
+ */
+final class IndexedQueue implements MailboxQueue {
+    private final IntUnaryOperator selector;
+    private Envelope[] slots = new Envelope[16];
+    // tree[i] counts the messages in slots (i - lowbit(i), i], 1-based
+    private int[] tree = new int[17];
+    private int next = 0;
+    private int count = 0;
+    private int last = 0;
+
+    /**
+     * @param selector Maps the number of waiting messages n to the position in [0, n) to deliver
+     */
+    IndexedQueue(IntUnaryOperator selector) {
+        this.selector = selector;
+    }
+
+    @Override
+    public void add(Envelope envelope) {
+        if (next == slots.length)
+            compact();
+        slots[next] = envelope;
+        update(next, 1);
+        next++;
+        count++;
+    }
+
+    @Override
+    public Envelope take() {
+        int k = Math.min(Math.max(selector.applyAsInt(count), 0), count - 1);
+        last = k;
+        return removeAt(select(k));
+    }
+
+    @Override
+    public Envelope removeOldest() {
+        return removeAt(select(0));
+    }
+
+    @Override
+    public Envelope remove(Predicate<Message> which) {
+        for (int i = 0; i < next; i++)
+            if (slots[i] != null && which.test(slots[i].message()))
+                return removeAt(i);
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void skipChoice() {
+        selector.applyAsInt(count + 1);
+    }
+
+    @Override
+    public int lastPosition() {
+        return last;
+    }
+
+    private Envelope removeAt(int slot) {
+        Envelope e = slots[slot];
+        slots[slot] = null;
+        update(slot, -1);
+        count--;
+        return e;
+    }
+
+    // Slot of the k-th (0-based) message, by descending the tree
+    private int select(int k) {
+        int pos = 0;
+        for (int step = Integer.highestOneBit(slots.length); step > 0; step >>= 1) {
+            if (pos + step <= slots.length && tree[pos + step] <= k) {
+                pos += step;
+                k -= tree[pos];
+            }
+        }
+        return pos;
+    }
+
+    private void update(int slot, int delta) {
+        for (int i = slot + 1; i <= slots.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    private void compact() {
+        Envelope[] compacted = new Envelope[count > slots.length / 2 ? slots.length * 2 : slots.length];
+        int n = 0;
+        for (int i = 0; i < next; i++)
+            if (slots[i] != null)
+                compacted[n++] = slots[i];
+        slots = compacted;
+        next = n;
+        // Linear construction of the tree
+        tree = new int[slots.length + 1];
+        for (int i = 1; i <= slots.length; i++) {
+            if (slots[i - 1] != null)
+                tree[i]++;
+            int parent = i + (i & -i);
+            if (parent <= slots.length)
+                tree[parent] += tree[i];
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Delivery in order of a key computed when a message arrives, smallest first; ties go to
+ * the message that arrived first. A binary heap gives the next message in O(log n). An
+ * arrival queue finds the oldest message for overflow handling; messages removed through
+ * one structure are only marked and skipped when they come up in the other.
+ */
+final class KeyedQueue implements MailboxQueue {
+
+    private static final class Entry {
+        final Envelope envelope;
+        final long key;
+        boolean removed = false;
+
+        Entry(Envelope envelope, long key) {
+            this.envelope = envelope;
+            this.key = key;
+        }
+    }
+
+    private final ToLongFunction<Envelope> keyOf;
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>((a, b) -> {
+        int c = Long.compare(a.key, b.key);
+        return c != 0 ? c : Long.compare(a.envelope.sequence(), b.envelope.sequence());
+    });
+    private final ArrayDeque<Entry> arrivals = new ArrayDeque<>();
+    private int count = 0;
+
+    KeyedQueue(ToLongFunction<Envelope> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    @Override
+    public void add(Envelope envelope) {
+        Entry e = new Entry(envelope, keyOf.applyAsLong(envelope));
+        heap.add(e);
+        arrivals.addLast(e);
+        count++;
+    }
+
+    @Override
+    public Envelope take() {
+        Entry e;
+        while ((e = heap.poll()).removed) {
+        }
+        return removed(e);
+    }
+
+    @Override
+    public Envelope removeOldest() {
+        Entry e;
+        while ((e = arrivals.pollFirst()).removed) {
+        }
+        return removed(e);
+    }
+
+    @Override
+    public Envelope remove(Predicate<Message> which) {
+        for (Entry e : arrivals)
+            if (!e.removed && which.test(e.envelope.message()))
+                return removed(e);
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    private Envelope removed(Entry e) {
+        e.removed = true;
+        count--;
+        // Drop the marked entries at the front of the arrival queue, the heap drops its own when
+        // polling; entries marked deep inside the heap are cleared out once they dominate it
+        while (!arrivals.isEmpty() && arrivals.peekFirst().removed)
+            arrivals.pollFirst();
+        if (heap.size() > 2 * count + 64)
+            heap.removeIf(x -> x.removed);
+        return e.envelope;
+    }
+}
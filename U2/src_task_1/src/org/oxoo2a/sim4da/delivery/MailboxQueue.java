@@ -0,0 +1,57 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.function.Predicate;
+
+/**
+ * The messages waiting in one mailbox, in the data structure of a {@link DeliveryPolicy}.
+ * The mailbox calls all methods with its lock held, so implementations need no
+ * synchronization of their own.
+ */
+public interface MailboxQueue {
+
+    void add(Envelope envelope);
+
+    /**
+     * Removes the message the receiver gets next. Only called if the queue is not empty.
+     */
+    Envelope take();
+
+    /**
+     * Removes the message that arrived first, to make room in a full mailbox. Only called
+     * if the queue is not empty.
+     */
+    Envelope removeOldest();
+
+    /**
+     * Removes a particular message, e.g. the one a replayed schedule expects. May take
+     * linear time, it is not on the path of regular deliveries.
+     *
+     * @return The message, null if none matches
+     */
+    Envelope remove(Predicate<Message> which);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Draws the random numbers {@link #take()} would draw, without taking a message. A
+     * replayed node takes the recorded message with {@link #remove} instead, but has to
+     * consume the same draws; it calls this right afterwards, so the queue holds one
+     * message less than {@link #take()} would have seen.
+     */
+    default void skipChoice() {
+    }
+
+    /**
+     * @return Position of the message taken last among the messages that were waiting, in
+     * order of arrival, as far as the queue knows it; it is recorded in schedule journals
+     */
+    default int lastPosition() {
+        return 0;
+    }
+}
@@ -0,0 +1,102 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * FIFO per sender, with a uniformly chosen sender each time: messages of one sender
+ * arrive in order, messages of different senders interleave randomly. The senders with
+ * waiting messages are kept in an array for the O(1) random choice, and ordered by the
+ * arrival of their oldest message for {@link #removeOldest()} in O(log s).
+ */
+final class PerSenderQueue implements MailboxQueue {
+
+    private static final class Lane {
+        final ArrayDeque<Envelope> queue = new ArrayDeque<>();
+        int active = -1;
+    }
+
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final ArrayList<Lane> active = new ArrayList<>();
+    private final TreeSet<Lane> byOldest = new TreeSet<>(Comparator.comparingLong(l -> l.queue.peekFirst().sequence()));
+    private int count = 0;
+
+    @Override
+    public void add(Envelope envelope) {
+        Lane lane = lanes.computeIfAbsent(envelope.sender(), s -> new Lane());
+        lane.queue.addLast(envelope);
+        if (lane.queue.size() == 1) {
+            lane.active = active.size();
+            active.add(lane);
+            byOldest.add(lane);
+        }
+        count++;
+    }
+
+    @Override
+    public Envelope take() {
+        return poll(active.get(choose()));
+    }
+
+    @Override
+    public Envelope removeOldest() {
+        return poll(byOldest.first());
+    }
+
+    @Override
+    public Envelope remove(Predicate<Message> which) {
+        for (Lane lane : active) {
+            for (Iterator<Envelope> i = lane.queue.iterator(); i.hasNext(); ) {
+                Envelope e = i.next();
+                if (which.test(e.message())) {
+                    if (e == lane.queue.peekFirst())
+                        return poll(lane);
+                    i.remove();
+                    count--;
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public void skipChoice() {
+        choose();
+    }
+
+    private int choose() {
+        return Math.min((int) (ScheduleJournal.random() * active.size()), active.size() - 1);
+    }
+
+    // Takes the oldest message of the lane; its position in byOldest changes with its oldest message
+    private Envelope poll(Lane lane) {
+        byOldest.remove(lane);
+        Envelope e = lane.queue.pollFirst();
+        if (lane.queue.isEmpty()) {
+            Lane moved = active.get(active.size() - 1);
+            active.set(lane.active, moved);
+            moved.active = lane.active;
+            active.remove(active.size() - 1);
+            lane.active = -1;
+        }
+        else
+            byOldest.add(lane);
+        count--;
+        return e;
+    }
+}
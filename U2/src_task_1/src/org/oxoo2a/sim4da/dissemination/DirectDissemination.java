@@ -0,0 +1,24 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * Sends every broadcast directly to all other nodes: one hop, n - 1 messages.
+ */
+public class DirectDissemination implements Disseminator {
+    private final DisseminationHost host;
+
+    public DirectDissemination(DisseminationHost host) {
+        this.host = host;
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        host.sendToAll(message);
+    }
+
+    @Override
+    public boolean accept(Message message) {
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * Wire format of disseminated messages.
+ *
+ * Data messages keep their original type and payload; the dissemination protocol adds a
+ * message category {@value #CATEGORY} with the message id, the originating node and the
+ * number of hops. Control messages of the protocols (digests, IHAVE, PRUNE, GRAFT) carry the
+ * same category and are never delivered to the application.
+ *
+ * Note that the "sender" header of a relayed message names the last hop; use
+ * {@link #origin(Message)} for the node that broadcast it.
+ */
+public final class Dissemination {
+    public static final String CATEGORY = "Dissemination";
+    static final String CHANNEL = "channel";
+    static final String KIND = "kind";
+    static final String ID = "id";
+    static final String ORIGIN = "origin";
+    static final String HOPS = "hops";
+    static final String IDS = "ids";
+
+    static final String DATA = "data";
+
+    private Dissemination() {
+    }
+
+    public static boolean isDisseminated(Message message) {
+        return message.categories().contains(CATEGORY);
+    }
+
+    /**
+     * @return The node that broadcast the message, or null for messages that weren't disseminated
+     */
+    public static String origin(Message message) {
+        return isDisseminated(message) ? message.queryWithCategory(CATEGORY, ORIGIN) : null;
+    }
+
+    /**
+     * @return The number of network hops from the origin to the receiver, 1 for a direct message
+     */
+    public static int hops(Message message) {
+        return isDisseminated(message) ? Integer.parseInt(message.queryWithCategory(CATEGORY, HOPS)) : 1;
+    }
+
+    static String channel(Message message) {
+        return message.queryWithCategory(CATEGORY, CHANNEL);
+    }
+
+    static String kind(Message message) {
+        return message.queryWithCategory(CATEGORY, KIND);
+    }
+
+    static String id(Message message) {
+        return message.queryWithCategory(CATEGORY, ID);
+    }
+}
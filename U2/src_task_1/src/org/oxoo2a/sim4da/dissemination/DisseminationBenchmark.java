@@ -0,0 +1,187 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.Node;
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.experiment.Cell;
+import org.oxoo2a.sim4da.experiment.CellResult;
+import org.oxoo2a.sim4da.experiment.ParameterGrid;
+import org.oxoo2a.sim4da.experiment.SweepRunner;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compares the dissemination strategies: one node broadcasts a series of messages, all
+ * other nodes record when each message arrives. Every trial reports
+ * <ul>
+ * <li>messages_per_broadcast: network messages of all kinds (data, relays, control) per broadcast</li>
+ * <li>busiest_node_per_broadcast: messages per broadcast sent by the node sending the most,
+ * for all-to-all this is the origin with n - 1</li>
+ * <li>completion_ms: mean time from a broadcast until the last node received it</li>
+ * <li>coverage: fraction of (node, message) pairs delivered before the timeout</li>
+ * <li>max_hops: longest relay path</li>
+ * </ul>
+ * Settings are system properties:
+ * <pre>
+ * -Dbench.n=128,512,1024,4096        node counts
+ * -Dbench.strategies=direct,gossip,plumtree
+ * -Dbench.fanout=0                   0 chooses ceil(ln n) + 1 for gossip, ceil(ln n / 2) + 1 for plumtree
+ * -Dbench.messages=20                broadcasts per trial
+ * -Dbench.interval=2                 milliseconds between broadcasts
+ * -Dbench.timeout=30                 seconds to wait for full coverage
+ * -Dbench.repetitions=3 -Dbench.workers=1 -Dbench.csv=dissemination_benchmark.csv
+ * </pre>
+ */
+public class DisseminationBenchmark {
+    private static final String TYPE = "BENCH";
+    private static final long PULL_INTERVAL_MS = 100;
+    private static final long GRAFT_TIMEOUT_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        ParameterGrid grid = new ParameterGrid()
+                .intAxis("n", System.getProperty("bench.n", "128,512,1024,4096"))
+                .axis("strategy", List.of(System.getProperty("bench.strategies", "direct,gossip,plumtree").split(",")));
+        int repetitions = Integer.getInteger("bench.repetitions", 3);
+        int workers = Integer.getInteger("bench.workers", 1);
+        Path csv = Path.of(System.getProperty("bench.csv", "dissemination_benchmark.csv"));
+
+        List<CellResult> results = new SweepRunner(grid, repetitions, workers).run(DisseminationBenchmark::runTrial, csv);
+        for (CellResult result : results) {
+            System.out.printf("%-24s messages/broadcast %10.1f   busiest node %8.1f   completion %8.2f ms   coverage %.4f%n",
+                    result.cell(), result.metric("messages_per_broadcast").mean(),
+                    result.metric("busiest_node_per_broadcast").mean(),
+                    result.metric("completion_ms").mean(), result.metric("coverage").mean());
+        }
+    }
+
+    static DisseminationStrategy strategy(String name, int n) {
+        int fanout = Integer.getInteger("bench.fanout", 0);
+        switch (name.trim()) {
+            case "direct":
+                return DisseminationStrategy.direct();
+            case "gossip":
+                // Push alone has to reach almost every node
+                return DisseminationStrategy.gossip(fanout > 0 ? fanout : (int) Math.ceil(Math.log(n)) + 1, PULL_INTERVAL_MS);
+            case "plumtree":
+                // Links become symmetric, so half the fanout already gives a connected overlay
+                return DisseminationStrategy.plumtree(fanout > 0 ? fanout : (int) Math.ceil(Math.log(n) / 2) + 1, GRAFT_TIMEOUT_MS);
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + name);
+        }
+    }
+
+    static Map<String, Double> runTrial(Cell cell, int repetition, SimulationContext context) throws InterruptedException {
+        int n = cell.getInt("n");
+        int messages = Integer.getInteger("bench.messages", 20);
+        long interval = Long.getLong("bench.interval", 2);
+        long timeout = Long.getLong("bench.timeout", 30);
+        DisseminationStrategy strategy = strategy(cell.getString("strategy"), n);
+
+        Run run = new Run(n, messages, interval);
+        for (int i = 0; i < n; i++) {
+            new BenchNode("Node_" + i, i == 0, strategy, run);
+        }
+        Thread simulation = new Thread(context.getSimulator()::simulate, context.getName() + "-simulate");
+        simulation.start();
+        run.complete.await(timeout, TimeUnit.SECONDS);
+        context.getSimulator().shutdown();
+        simulation.join();
+
+        long sent = 0;
+        Map<String, Long> sentByNode = new HashMap<>();
+        for (Map.Entry<String, Long> counter : context.getMetrics().snapshot().counters().entrySet()) {
+            String name = counter.getKey();
+            int direction = name.indexOf(".sent.");
+            if (direction >= 0) {
+                sent += counter.getValue();
+                sentByNode.merge(name.substring(0, direction), counter.getValue(), Long::sum);
+            }
+        }
+        long busiest = sentByNode.values().stream().mapToLong(Long::longValue).max().orElse(0);
+        double completion = 0;
+        for (int i = 0; i < messages; i++) {
+            completion += Math.max(0, run.lastDelivery.get(i) - run.sentAt.get(i)) / 1_000_000.0;
+        }
+        return Map.of(
+                "messages_per_broadcast", (double) sent / messages,
+                "busiest_node_per_broadcast", (double) busiest / messages,
+                "completion_ms", completion / messages,
+                "coverage", (double) run.deliveries.get() / ((long) (n - 1) * messages),
+                "max_hops", (double) run.maxHops.get());
+    }
+
+    // Measurements of one trial, shared by its nodes
+    private static class Run {
+        final int messages;
+        final long intervalMillis;
+        final AtomicLongArray sentAt;
+        final AtomicLongArray lastDelivery;
+        final AtomicLong deliveries = new AtomicLong();
+        final AtomicInteger maxHops = new AtomicInteger();
+        final CountDownLatch complete;
+        // Broadcasting starts when all nodes run; a late node would find its neighbors done already
+        final CountDownLatch ready;
+
+        Run(int n, int messages, long intervalMillis) {
+            this.messages = messages;
+            this.intervalMillis = intervalMillis;
+            this.sentAt = new AtomicLongArray(messages);
+            this.lastDelivery = new AtomicLongArray(messages);
+            this.complete = new CountDownLatch((n - 1) * messages);
+            this.ready = new CountDownLatch(n);
+        }
+    }
+
+    private static class BenchNode extends Node {
+        private final boolean origin;
+        private final Run run;
+
+        BenchNode(String name, boolean origin, DisseminationStrategy strategy, Run run) {
+            super(name);
+            this.origin = origin;
+            this.run = run;
+            useDissemination(TYPE, strategy);
+        }
+
+        @Override
+        protected void engage() {
+            run.ready.countDown();
+            if (origin) {
+                try {
+                    run.ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < run.messages; i++) {
+                    run.sentAt.set(i, System.nanoTime());
+                    broadcast(new Message().add("type", TYPE).add("seq", i));
+                    try {
+                        Thread.sleep(run.intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            // The origin keeps receiving as well, it has to answer pulls and grafts
+            Message message;
+            while ((message = receive()) != null) {
+                if (!TYPE.equals(message.query("type"))) {
+                    continue;
+                }
+                int seq = message.queryInteger("seq");
+                run.lastDelivery.accumulateAndGet(seq, System.nanoTime(), Math::max);
+                run.maxHops.accumulateAndGet(Dissemination.hops(message), Math::max);
+                run.deliveries.incrementAndGet();
+                run.complete.countDown();
+            }
+        }
+    }
+}
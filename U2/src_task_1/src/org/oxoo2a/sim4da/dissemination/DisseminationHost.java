@@ -0,0 +1,31 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.List;
+
+/**
+ * The node a {@link Disseminator} works for.
+ */
+public interface DisseminationHost {
+
+    /**
+     * @return The name of the node
+     */
+    String name();
+
+    /**
+     * @return The names of all other nodes of the simulation
+     */
+    List<String> peers();
+
+    /**
+     * Sends a message to one node; unknown nodes are ignored.
+     */
+    void send(Message message, String to);
+
+    /**
+     * Sends a message directly to all other nodes.
+     */
+    void sendToAll(Message message);
+}
@@ -0,0 +1,73 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The disseminators of one node, selected per message type.
+ *
+ * Message types without a configured strategy are not handled here; the node sends them
+ * all-to-all as before.
+ */
+public class DisseminationLayer {
+    private final DisseminationHost host;
+    private final Map<String, Disseminator> disseminators = new ConcurrentHashMap<>();
+
+    public DisseminationLayer(DisseminationHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Selects the strategy for broadcasts of a message type. All nodes have to use the same
+     * strategy for a type.
+     */
+    public void use(String type, DisseminationStrategy strategy) {
+        Disseminator previous = disseminators.put(type, strategy.create(host, type));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Broadcasts a message if a strategy is configured for its type.
+     *
+     * @return false if the message type has no strategy
+     */
+    public boolean broadcast(Message message) {
+        Disseminator disseminator = disseminators.get(String.valueOf(message.query("type")));
+        if (disseminator == null) {
+            return false;
+        }
+        disseminator.broadcast(message);
+        return true;
+    }
+
+    /**
+     * Passes a received message to its disseminator.
+     *
+     * @return true if the application gets to see the message
+     */
+    public boolean accept(Message message) {
+        if (!Dissemination.isDisseminated(message)) {
+            return true;
+        }
+        Disseminator disseminator = disseminators.get(Dissemination.channel(message));
+        // Without a disseminator for the type the node can't relay, but still sees data messages once
+        return disseminator != null ? disseminator.accept(message)
+                : Dissemination.DATA.equals(Dissemination.kind(message));
+    }
+
+    public void start() {
+        for (Disseminator disseminator : disseminators.values()) {
+            disseminator.start();
+        }
+    }
+
+    public void close() {
+        for (Disseminator disseminator : disseminators.values()) {
+            disseminator.close();
+        }
+    }
+}
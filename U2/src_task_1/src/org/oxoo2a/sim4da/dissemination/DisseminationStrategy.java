@@ -0,0 +1,35 @@
+package org.oxoo2a.sim4da.dissemination;
+
+/**
+ * Creates the {@link Disseminator} of one node for one message type.
+ */
+@FunctionalInterface
+public interface DisseminationStrategy {
+
+    /**
+     * @param host The node
+     * @param channel The message type the disseminator is responsible for
+     */
+    Disseminator create(DisseminationHost host, String channel);
+
+    /**
+     * All-to-all broadcast with n - 1 direct messages, the behavior of {@code Node.broadcast}.
+     */
+    static DisseminationStrategy direct() {
+        return (host, channel) -> new DirectDissemination(host);
+    }
+
+    /**
+     * @see PushPullGossip
+     */
+    static DisseminationStrategy gossip(int fanout, long pullIntervalMillis) {
+        return (host, channel) -> new PushPullGossip(host, channel, fanout, pullIntervalMillis);
+    }
+
+    /**
+     * @see Plumtree
+     */
+    static DisseminationStrategy plumtree(int fanout, long graftTimeoutMillis) {
+        return (host, channel) -> new Plumtree(host, channel, fanout, graftTimeoutMillis);
+    }
+}
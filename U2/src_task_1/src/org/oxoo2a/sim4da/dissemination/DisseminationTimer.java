@@ -0,0 +1,49 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.TaskBinding;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timer thread for periodic pulls and repair timeouts of the disseminators of one
+ * simulation. Timer tasks only decide what to send; the sending is done by the sender of
+ * each disseminator, so a node blocked on a full mailbox doesn't hold up the timers of the
+ * others. The thread inherits nothing from the thread that starts it, a task runs with the
+ * {@link TaskBinding} of the thread that scheduled it, and the thread ends when no task has
+ * been due for a while.
+ */
+final class DisseminationTimer {
+    private static final long IDLE_SECONDS = 5;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    private DisseminationTimer(String name) {
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(null, r, "dissemination-timer-" + name, 0, false);
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        timer.setKeepAliveTime(IDLE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The timer of the simulation the calling thread belongs to
+     */
+    static DisseminationTimer current() {
+        SimulationContext context = SimulationContext.current();
+        return context.attribute(DisseminationTimer.class, () -> new DisseminationTimer(context.getName()));
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return timer.schedule(TaskBinding.bind(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelayMillis, long periodMillis) {
+        return timer.scheduleAtFixedRate(TaskBinding.bind(task), initialDelayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+}
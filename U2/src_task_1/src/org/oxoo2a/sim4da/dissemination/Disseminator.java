@@ -0,0 +1,38 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * Spreads broadcast messages of one message type from a node to all other nodes.
+ *
+ * A disseminator exists per node and message type. It receives every dissemination message
+ * of its type arriving at the node, data as well as its own control messages, and decides
+ * whether the application gets to see it.
+ */
+public interface Disseminator {
+
+    /**
+     * Called on the node's thread when the simulation starts, after all nodes are registered.
+     */
+    default void start() {
+    }
+
+    /**
+     * Starts spreading a message originating at this node.
+     */
+    void broadcast(Message message);
+
+    /**
+     * Handles a message carrying the {@link Dissemination#CATEGORY} category.
+     *
+     * @return true if the message is delivered to the application, false for duplicates and control messages
+     */
+    boolean accept(Message message);
+
+    /**
+     * Stops background activity; called when the node finishes and again before the
+     * network is torn down.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,233 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.TaskBinding;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Common parts of the relaying protocols: message ids, duplicate detection, a bounded
+ * cache of recent messages to answer pull and graft requests, random peer selection, and
+ * timer tasks that stop with the disseminator and send from a sender thread of their own.
+ */
+abstract class EpidemicDisseminator implements Disseminator {
+    // Ids remembered for duplicate detection, and messages kept for repair
+    private static final int SEEN_CAPACITY = 16384;
+    private static final int CACHE_CAPACITY = 1024;
+    // How long close() waits for the sender to finish
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+    // How long the sender thread stays around without work; its tasks don't depend on the thread
+    private static final long SENDER_IDLE_SECONDS = 5;
+
+    protected final DisseminationHost host;
+    protected final String channel;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Boolean> seen = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    };
+    private final Map<String, CachedMessage> cache = new LinkedHashMap<>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedMessage> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+    private String[] peers = null;
+    protected volatile boolean closed = false;
+    private final ThreadPoolExecutor sender;
+    private volatile TaskBinding sending = null;
+
+    protected record CachedMessage(Message message, long storedMillis) {}
+
+    protected EpidemicDisseminator(DisseminationHost host, String channel) {
+        this.host = host;
+        this.channel = channel;
+        this.sender = new ThreadPoolExecutor(1, 1, SENDER_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(null, r, "dissemination-sender-" + host.name(), 0, false);
+            t.setDaemon(true);
+            return t;
+        });
+        sender.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Copies an application message and tags it as the next data message of this node.
+     */
+    protected Message stamp(Message message) {
+        Message data = new Message(message);
+        if (Dissemination.isDisseminated(data)) {
+            data.removeCategory(Dissemination.CATEGORY);
+        }
+        data.addCategory(Dissemination.CATEGORY);
+        data.addWithCategory(Dissemination.CATEGORY, Dissemination.CHANNEL, channel);
+        data.addWithCategory(Dissemination.CATEGORY, Dissemination.KIND, Dissemination.DATA);
+        data.addWithCategory(Dissemination.CATEGORY, Dissemination.ID, host.name() + ":" + sequence.incrementAndGet());
+        data.addWithCategory(Dissemination.CATEGORY, Dissemination.ORIGIN, host.name());
+        data.addWithCategory(Dissemination.CATEGORY, Dissemination.HOPS, "0");
+        return data;
+    }
+
+    /**
+     * @return A copy of a data message with the hop count incremented, ready to relay
+     */
+    protected static Message relayed(Message data) {
+        Message copy = new Message(data);
+        int hops = Integer.parseInt(data.queryWithCategory(Dissemination.CATEGORY, Dissemination.HOPS));
+        copy.addWithCategory(Dissemination.CATEGORY, Dissemination.HOPS, String.valueOf(hops + 1));
+        return copy;
+    }
+
+    /**
+     * Creates a control message of this protocol.
+     */
+    protected Message control(String kind) {
+        Message message = new Message().add("type", "DISSEMINATION_" + kind.toUpperCase());
+        message.addCategory(Dissemination.CATEGORY);
+        message.addWithCategory(Dissemination.CATEGORY, Dissemination.CHANNEL, channel);
+        message.addWithCategory(Dissemination.CATEGORY, Dissemination.KIND, kind);
+        message.addWithCategory(Dissemination.CATEGORY, Dissemination.HOPS, "0");
+        return message;
+    }
+
+    /**
+     * Records a data message.
+     *
+     * @return false if the message was seen before
+     */
+    protected synchronized boolean remember(Message data) {
+        String id = Dissemination.id(data);
+        if (seen.put(id, Boolean.TRUE) != null) {
+            return false;
+        }
+        cache.put(id, new CachedMessage(data, System.currentTimeMillis()));
+        return true;
+    }
+
+    protected synchronized boolean hasSeen(String id) {
+        return seen.containsKey(id);
+    }
+
+    protected synchronized Message cached(String id) {
+        CachedMessage entry = cache.get(id);
+        return entry != null ? entry.message() : null;
+    }
+
+    /**
+     * @return The cached messages stored at or after the given time, oldest first
+     */
+    protected synchronized List<CachedMessage> cachedSince(long millis) {
+        List<CachedMessage> recent = new ArrayList<>();
+        for (CachedMessage entry : cache.values()) {
+            if (entry.storedMillis() >= millis) {
+                recent.add(entry);
+            }
+        }
+        return recent;
+    }
+
+    /**
+     * Picks distinct random peers.
+     *
+     * @param count Number of peers wanted
+     * @param exclude A peer not to pick, or null
+     * @return Up to count peers
+     */
+    protected List<String> randomPeers(int count, String exclude) {
+        String[] candidates = peers();
+        List<String> picked = new ArrayList<>(count);
+        // Partial Fisher-Yates shuffle on a copy
+        String[] pool = candidates.clone();
+        int remaining = pool.length;
+        while (picked.size() < count && remaining > 0) {
+            int index = (int) (ScheduleJournal.random() * remaining);
+            String peer = pool[index];
+            pool[index] = pool[--remaining];
+            if (!peer.equals(exclude)) {
+                picked.add(peer);
+            }
+        }
+        return picked;
+    }
+
+    // The nodes are all registered when the simulation starts, so the list is taken once on first use
+    protected synchronized String[] peers() {
+        if (peers == null) {
+            peers = host.peers().toArray(new String[0]);
+        }
+        return peers;
+    }
+
+    /**
+     * Binds the sender's tasks to a child of the calling thread, like a thread it started.
+     * Subclasses call this first when they start; until then the sender's tasks run unbound.
+     */
+    @Override
+    public void start() {
+        sending = TaskBinding.capture();
+    }
+
+    /**
+     * Schedules a task on the dissemination timer of the simulation. The task doesn't run
+     * once the disseminator is closed. Timer tasks send with {@link #sendLater}.
+     */
+    protected ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return DisseminationTimer.current().schedule(guarded(task), delayMillis);
+    }
+
+    /**
+     * Schedules a periodic task on the dissemination timer, see {@link #schedule}.
+     */
+    protected ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelayMillis, long periodMillis) {
+        return DisseminationTimer.current().scheduleAtFixedRate(guarded(task), initialDelayMillis, periodMillis);
+    }
+
+    private Runnable guarded(Runnable task) {
+        return () -> {
+            if (!closed) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * Sends a message from the sender thread of this disseminator, so that a send blocking
+     * on a full mailbox doesn't hold up the timer of the simulation. Messages are sent in
+     * the order they are handed over; once the disseminator is closed they are dropped.
+     */
+    protected void sendLater(Message message, String to) {
+        TaskBinding b = sending;
+        Runnable send = () -> host.send(message, to);
+        try {
+            sender.execute(b != null ? b.wrap(send) : send);
+        } catch (RejectedExecutionException e) {
+            // Closed, the network is going away
+        }
+    }
+
+    /**
+     * Stops the timer tasks and waits for the sends already handed over, so that nothing is
+     * sent once the network is torn down.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        sender.shutdown();
+        try {
+            sender.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Epidemic broadcast tree (Plumtree, Leitão et al. 2007).
+ *
+ * Every node starts with {@code fanout} random eager peers and tells them, so that links are
+ * symmetric and no node is left without neighbors. Messages are pushed eagerly
+ * along those links; a node receiving a duplicate answers with PRUNE and both ends move the
+ * link to their lazy set. After the first broadcast the eager links form a spanning tree, so
+ * later broadcasts cost about n - 1 data messages.
+ *
+ * Lazy peers receive batched IHAVE announcements of the message ids instead. A node that
+ * learns about a message by IHAVE but doesn't receive it within {@code graftTimeoutMillis}
+ * sends GRAFT to the announcer, which makes that link eager again and resends the message.
+ * This repairs the tree when links or nodes drop messages.
+ */
+public class Plumtree extends EpidemicDisseminator {
+    static final String IHAVE = "ihave";
+    static final String PRUNE = "prune";
+    static final String GRAFT = "graft";
+    static final String NEIGHBOR = "neighbor";
+    // IHAVE announcements are collected for this long and sent as one message per peer
+    private static final long IHAVE_BATCH_MILLIS = 20;
+
+    private final int fanout;
+    private final long graftTimeoutMillis;
+    private Set<String> eager = null;
+    private final Set<String> lazy = new LinkedHashSet<>();
+    private final Map<String, List<String>> pendingAnnouncements = new HashMap<>();
+    private ScheduledFuture<?> announcementFlush = null;
+    // Ids announced by IHAVE but not received, with the nodes that announced them
+    private final Map<String, Missing> missing = new HashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(Plumtree.class);
+
+    private static class Missing {
+        final List<String> announcers = new ArrayList<>();
+        ScheduledFuture<?> timer;
+    }
+
+    /**
+     * @param host The node
+     * @param channel The message type
+     * @param fanout Number of initial eager peers
+     * @param graftTimeoutMillis Time to wait for an announced message before grafting
+     */
+    public Plumtree(DisseminationHost host, String channel, int fanout, long graftTimeoutMillis) {
+        super(host, channel);
+        if (fanout < 1) {
+            throw new IllegalArgumentException("fanout must be positive");
+        }
+        this.fanout = fanout;
+        this.graftTimeoutMillis = graftTimeoutMillis;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        List<String> neighbors;
+        synchronized (this) {
+            neighbors = new ArrayList<>(eagerPeers());
+        }
+        for (String peer : neighbors) {
+            host.send(control(NEIGHBOR), peer);
+        }
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        Message data = stamp(message);
+        remember(data);
+        forward(data, null);
+    }
+
+    @Override
+    public boolean accept(Message message) {
+        String sender = message.queryHeader("sender");
+        String kind = Dissemination.kind(message);
+        switch (kind) {
+            case Dissemination.DATA:
+                return receiveData(message, sender);
+            case IHAVE:
+                for (String id : message.queryWithCategory(Dissemination.CATEGORY, Dissemination.IDS).split(",")) {
+                    announced(id, sender);
+                }
+                return false;
+            case PRUNE:
+                synchronized (this) {
+                    eagerPeers().remove(sender);
+                    lazy.add(sender);
+                }
+                return false;
+            case NEIGHBOR:
+                synchronized (this) {
+                    eagerPeers().add(sender);
+                    lazy.remove(sender);
+                }
+                return false;
+            case GRAFT:
+                synchronized (this) {
+                    eagerPeers().add(sender);
+                    lazy.remove(sender);
+                }
+                Message data = cached(message.queryWithCategory(Dissemination.CATEGORY, Dissemination.ID));
+                if (data != null) {
+                    host.send(relayed(data), sender);
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private boolean receiveData(Message data, String sender) {
+        if (!remember(data)) {
+            synchronized (this) {
+                eagerPeers().remove(sender);
+                lazy.add(sender);
+            }
+            host.send(control(PRUNE), sender);
+            return false;
+        }
+        synchronized (this) {
+            Missing m = missing.remove(Dissemination.id(data));
+            if (m != null && m.timer != null) {
+                m.timer.cancel(false);
+            }
+            eagerPeers().add(sender);
+            lazy.remove(sender);
+        }
+        forward(data, sender);
+        return true;
+    }
+
+    private void forward(Message data, String from) {
+        List<String> eagerTargets;
+        synchronized (this) {
+            eagerTargets = new ArrayList<>(eagerPeers());
+            String id = Dissemination.id(data);
+            for (String peer : lazy) {
+                if (!peer.equals(from)) {
+                    pendingAnnouncements.computeIfAbsent(peer, p -> new ArrayList<>()).add(id);
+                }
+            }
+            if (!pendingAnnouncements.isEmpty() && announcementFlush == null && !closed) {
+                announcementFlush = schedule(this::flushAnnouncements, IHAVE_BATCH_MILLIS);
+            }
+        }
+        for (String peer : eagerTargets) {
+            if (!peer.equals(from)) {
+                host.send(relayed(data), peer);
+            }
+        }
+    }
+
+    private void flushAnnouncements() {
+        Map<String, List<String>> batch;
+        synchronized (this) {
+            batch = new HashMap<>(pendingAnnouncements);
+            pendingAnnouncements.clear();
+            announcementFlush = null;
+        }
+        for (Map.Entry<String, List<String>> entry : batch.entrySet()) {
+            Message ihave = control(IHAVE);
+            ihave.addWithCategory(Dissemination.CATEGORY, Dissemination.IDS, String.join(",", entry.getValue()));
+            sendLater(ihave, entry.getKey());
+        }
+    }
+
+    private synchronized void announced(String id, String announcer) {
+        if (hasSeen(id) || closed) {
+            return;
+        }
+        Missing m = missing.computeIfAbsent(id, k -> new Missing());
+        m.announcers.add(announcer);
+        if (m.timer == null) {
+            m.timer = schedule(() -> graft(id), graftTimeoutMillis);
+        }
+    }
+
+    // The message didn't arrive in time: ask the first announcer for it and wait for the next one
+    private void graft(String id) {
+        String announcer;
+        synchronized (this) {
+            Missing m = missing.get(id);
+            if (m == null || closed || hasSeen(id)) {
+                missing.remove(id);
+                return;
+            }
+            announcer = m.announcers.remove(0);
+            eagerPeers().add(announcer);
+            lazy.remove(announcer);
+            m.timer = m.announcers.isEmpty() ? null
+                    : schedule(() -> graft(id), Math.max(1, graftTimeoutMillis / 2));
+            if (m.timer == null) {
+                missing.remove(id);
+            }
+        }
+        logger.debug("{} grafts {} for message {}", host.name(), announcer, id);
+        Message graft = control(GRAFT);
+        graft.addWithCategory(Dissemination.CATEGORY, Dissemination.ID, id);
+        sendLater(graft, announcer);
+    }
+
+    private Set<String> eagerPeers() {
+        if (eager == null) {
+            eager = new LinkedHashSet<>(randomPeers(fanout, null));
+        }
+        return eager;
+    }
+
+    /**
+     * @return The current number of eager links, for tests and statistics
+     */
+    public synchronized int eagerPeerCount() {
+        return eagerPeers().size();
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+        for (Missing m : missing.values()) {
+            if (m.timer != null) {
+                m.timer.cancel(false);
+            }
+        }
+        missing.clear();
+        if (announcementFlush != null) {
+            announcementFlush.cancel(false);
+        }
+    }
+}
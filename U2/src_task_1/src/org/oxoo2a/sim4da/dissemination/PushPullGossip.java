@@ -0,0 +1,134 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Push-pull gossip.
+ *
+ * Push: a node that sees a message for the first time forwards it to {@code fanout}
+ * random peers, so every node relays each message once and a broadcast costs about
+ * {@code n * fanout} messages instead of {@code n * (n - 1)} for all nodes together.
+ * With a fanout around ln(n) almost all nodes are reached in O(log n) hops.
+ *
+ * Pull: every {@code pullIntervalMillis} a node sends the ids of its recent messages to a
+ * random peer, which answers with the recent messages missing from that digest. This
+ * repairs the few nodes the push phase missed. Messages are recent for
+ * {@value #RETENTION_INTERVALS} pull intervals.
+ */
+public class PushPullGossip extends EpidemicDisseminator {
+    static final String DIGEST = "digest";
+    private static final int RETENTION_INTERVALS = 20;
+
+    private final int fanout;
+    private final long pullIntervalMillis;
+    private ScheduledFuture<?> pullTask = null;
+    private final Logger logger = LoggerFactory.getLogger(PushPullGossip.class);
+
+    /**
+     * @param host The node
+     * @param channel The message type
+     * @param fanout Peers a message is pushed to by every node
+     * @param pullIntervalMillis Interval between two pulls, 0 disables pulling
+     */
+    public PushPullGossip(DisseminationHost host, String channel, int fanout, long pullIntervalMillis) {
+        super(host, channel);
+        if (fanout < 1) {
+            throw new IllegalArgumentException("fanout must be positive");
+        }
+        this.fanout = fanout;
+        this.pullIntervalMillis = pullIntervalMillis;
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        if (pullTask != null || pullIntervalMillis <= 0 || closed) {
+            return;
+        }
+        long initialDelay = 1 + (long) (ScheduleJournal.random() * pullIntervalMillis);
+        pullTask = scheduleAtFixedRate(this::pull, initialDelay, pullIntervalMillis);
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        Message data = stamp(message);
+        remember(data);
+        push(data, null);
+    }
+
+    @Override
+    public boolean accept(Message message) {
+        String kind = Dissemination.kind(message);
+        if (Dissemination.DATA.equals(kind)) {
+            if (!remember(message)) {
+                return false;
+            }
+            push(message, message.queryHeader("sender"));
+            return true;
+        }
+        if (DIGEST.equals(kind)) {
+            answerDigest(message);
+        }
+        return false;
+    }
+
+    private void push(Message data, String from) {
+        for (String peer : randomPeers(fanout, from)) {
+            host.send(relayed(data), peer);
+        }
+    }
+
+    private void pull() {
+        if (closed) {
+            return;
+        }
+        try {
+            List<String> peer = randomPeers(1, null);
+            if (peer.isEmpty()) {
+                return;
+            }
+            StringBuilder ids = new StringBuilder();
+            for (CachedMessage entry : cachedSince(System.currentTimeMillis() - RETENTION_INTERVALS * pullIntervalMillis)) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(Dissemination.id(entry.message()));
+            }
+            Message digest = control(DIGEST);
+            digest.addWithCategory(Dissemination.CATEGORY, Dissemination.IDS, ids.toString());
+            sendLater(digest, peer.get(0));
+        } catch (RuntimeException e) {
+            logger.warn("Pull of {} failed: {}", host.name(), e.toString());
+        }
+    }
+
+    private void answerDigest(Message digest) {
+        String requester = digest.queryHeader("sender");
+        String ids = digest.queryWithCategory(Dissemination.CATEGORY, Dissemination.IDS);
+        Set<String> known = new HashSet<>();
+        if (ids != null && !ids.isEmpty()) {
+            known.addAll(List.of(ids.split(",")));
+        }
+        for (CachedMessage entry : cachedSince(System.currentTimeMillis() - RETENTION_INTERVALS * pullIntervalMillis)) {
+            if (!known.contains(Dissemination.id(entry.message()))) {
+                host.send(relayed(entry.message()), requester);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (pullTask != null) {
+            pullTask.cancel(false);
+        }
+    }
+}
@@ -3,12 +3,25 @@ package org.oxoo2a.sim4da.dsm;
 import org.oxoo2a.sim4da.Message;
 import org.oxoo2a.sim4da.Network;
 import org.oxoo2a.sim4da.Node;
+import org.oxoo2a.sim4da.TaskBinding;
 import org.oxoo2a.sim4da.UnknownNodeException;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.protocol.Protocol;
+import org.oxoo2a.sim4da.protocol.ProtocolRegistry;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+import org.oxoo2a.sim4da.snapshot.Checkpointable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -18,8 +31,8 @@ import java.util.concurrent.atomic.AtomicLong;
  * asynchronously propagated to other nodes. Read operations are always performed locally.
  * This approach ensures high availability but sacrifices consistency.
  */
-public class APDistributedSharedMemory implements DSM {
-    private final Map<String, ValueWithTimestamp> localStore = new ConcurrentHashMap<>();
+public class APDistributedSharedMemory implements DSM, Protocol, Checkpointable {
+    private final KeyValueStore localStore;
     private String nodeName;
     private final Node node;
     private Logger logger;
@@ -27,99 +40,211 @@ public class APDistributedSharedMemory implements DSM {
     // A simple timestamp generator for implementing Last-Write-Wins
     private final AtomicLong timestampGenerator = new AtomicLong(0);
     
+    // Updates waiting for their replication delay, which a checkpoint has to keep
+    private final Set<Message> pendingUpdates = ConcurrentHashMap.newKeySet();
+    
+    // Broadcasts the updates when their delay is over, with the binding of a thread started by
+    // the thread of the first write, so it journals its draws and sends like a thread of the node
+    private final ScheduledThreadPoolExecutor propagation;
+    private TaskBinding propagationBinding = null;
+    
+    // Latency of local operations, including the simulated stale read delay
+    private final LatencyHistogram readLatency = MetricsRegistry.getInstance().histogram("dsm.AP.read");
+    private final LatencyHistogram writeLatency = MetricsRegistry.getInstance().histogram("dsm.AP.write");
+    
+    // Convergence and staleness of the replicas, shared by all AP instances of the simulation
+    private final ConvergenceTracker convergence;
+    
+    // Range of the delay before an update is propagated, in milliseconds
+    private volatile long minReplicationDelayMs = Long.getLong("sim4da.dsm.ap.delay.min", 300);
+    private volatile long maxReplicationDelayMs = Long.getLong("sim4da.dsm.ap.delay.max", 700);
+    
     public APDistributedSharedMemory(Node node) {
+        this(node, DSMFactory.createStore());
+    }
+    
+    public APDistributedSharedMemory(Node node, KeyValueStore localStore) {
         this.node = node;
+        this.localStore = localStore;
+        this.convergence = ConvergenceTracker.of(node.getContext());
+        this.propagation = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(null, r, "ap-propagation", 0, false);
+            t.setDaemon(true);
+            return t;
+        });
+        propagation.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     }
     
     @Override
     public void initialize(String nodeName) {
         this.nodeName = nodeName;
         this.logger = LoggerFactory.getLogger(nodeName + "-AP-DSM");
+        convergence.addReplica();
         logger.info("AP DSM initialized for node {}", nodeName);
     }
     
+    /**
+     * Sets the range of the random delay before a write is propagated to the other nodes,
+     * 300 to 700 ms by default (system properties {@code sim4da.dsm.ap.delay.min} and
+     * {@code sim4da.dsm.ap.delay.max}). The effect shows in the convergence and staleness
+     * histograms of {@link ConvergenceTracker}.
+     */
+    public void setReplicationDelay(long minMs, long maxMs) {
+        if (minMs < 0 || maxMs < minMs) {
+            throw new IllegalArgumentException("Invalid replication delay " + minMs + ".." + maxMs + " ms");
+        }
+        this.minReplicationDelayMs = minMs;
+        this.maxReplicationDelayMs = maxMs;
+    }
+
+    @Override
+    public void registerHandlers(ProtocolRegistry registry) {
+        registry.on("DSM_AP_UPDATE", this::processUpdateMessage);
+    }
+    
     @Override
     public void write(String key, String value) {
+        long start = System.nanoTime();
         // Get current timestamp for Last-Write-Wins conflict resolution
         long timestamp = timestampGenerator.incrementAndGet();
         
         // Update local store
-        localStore.put(key, new ValueWithTimestamp(value, timestamp));
+        localStore.put(key, value, timestamp);
+        convergence.written(key, timestamp, nodeName);
         logger.debug("Node {} wrote {}={} locally with timestamp {}", nodeName, key, value, timestamp);
         
         // Asynchronously propagate to other nodes with significant delay
-        final Message updateMsg = new Message()
+        propagate(new Message()
                 .add("type", "DSM_AP_UPDATE")
                 .add("key", key)
                 .add("value", value)
-                .add("timestamp", String.valueOf(timestamp));
+                .addLong("timestamp", timestamp)
+                .add("origin", nodeName));
+        writeLatency.recordSince(start);
+    }
+    
+    @Override
+    public void writeLong(String key, long value) {
+        long start = System.nanoTime();
+        long timestamp = timestampGenerator.incrementAndGet();
         
-        // In a real AP system, replication happens with significant delay
-        // This makes the eventual consistency behavior more obvious
-        new Thread(() -> {
-            try {
-                // Add a much longer random delay (300-700ms) to properly simulate eventual consistency
-                // This will ensure that AP shows more conflicts
-                Thread.sleep(300 + (long)(Math.random() * 400));
-                
-                // Then broadcast the update
-                try {
-                    broadcastMessage(updateMsg);
-                    logger.debug("Node {} broadcast update of {}={} with significant delay", nodeName, key, value);
-                } catch (Exception e) {
-                    logger.warn("Failed to broadcast update: {}", e.getMessage());
-                    // In AP model, we continue even if broadcasting fails
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }).start();
+        // Update the primitive slot in the local store
+        localStore.putLong(key, value, timestamp);
+        convergence.written(key, timestamp, nodeName);
+        logger.debug("Node {} wrote {}={} locally with timestamp {}", nodeName, key, value, timestamp);
+        
+        propagate(numericUpdate(key, value, timestamp));
+        writeLatency.recordSince(start);
     }
     
+    /**
+     * Atomically adds delta to the local value and propagates the result like a write.
+     * Concurrent increments on different nodes are still resolved by Last-Write-Wins.
+     */
     @Override
-    public String read(String key) {
-        // Simulate the AP characteristic of sometimes reading stale data
-        // This should happen roughly 20% of the time in a concurrent environment
-        if (Math.random() < 0.2) {
-            try {
-                // Add a small delay to make stale reads more likely
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    public long addLong(String key, long delta) throws DSMException {
+        long start = System.nanoTime();
+        long timestamp = timestampGenerator.incrementAndGet();
+        long value;
+        try {
+            value = localStore.addLong(key, delta, timestamp);
+        } catch (NumberFormatException e) {
+            throw new DSMException("Value of key " + key + " is not numeric", e);
         }
+        convergence.written(key, timestamp, nodeName);
+        logger.debug("Node {} added {} to {} locally (now {}) with timestamp {}", nodeName, delta, key, value, timestamp);
+        
+        propagate(numericUpdate(key, value, timestamp));
+        writeLatency.recordSince(start);
+        return value;
+    }
+    
+    @Override
+    public String read(String key) {
+        long start = System.nanoTime();
+        simulateStaleRead();
         
-        ValueWithTimestamp valueWithTimestamp = localStore.get(key);
-        if (valueWithTimestamp == null) {
+        String value = localStore.get(key);
+        convergence.read(key, localStore.version(key));
+        readLatency.recordSince(start);
+        if (value == null) {
             logger.debug("Node {} read key {} (not found)", nodeName, key);
             return null;
         }
         
-        logger.debug("Node {} read {}={} (timestamp: {})", 
-                nodeName, key, valueWithTimestamp.value, valueWithTimestamp.timestamp);
-        return valueWithTimestamp.value;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Node {} read {}={} (timestamp: {})", 
+                    nodeName, key, value, localStore.version(key));
+        }
+        return value;
+    }
+    
+    @Override
+    public long readLong(String key, long defaultValue) throws DSMException {
+        long start = System.nanoTime();
+        simulateStaleRead();
+        
+        try {
+            // Primitive slots are returned directly, without any String in between
+            long value = localStore.getLong(key, defaultValue);
+            convergence.read(key, localStore.version(key));
+            return value;
+        } catch (NumberFormatException e) {
+            throw new DSMException("Value of key " + key + " is not numeric", e);
+        } finally {
+            readLatency.recordSince(start);
+        }
     }
     
     @Override
     public void shutdown() {
-        localStore.clear();
+        propagation.shutdownNow();
+        localStore.close();
         logger.info("AP DSM shut down for node {}", nodeName);
     }
     
+    /**
+     * Saves the clock, the local store and the updates not yet propagated.
+     */
+    @Override
+    public void checkpoint(DataOutput out) throws IOException {
+        out.writeLong(timestampGenerator.get());
+        localStore.writeTo(out);
+        Message[] pending = pendingUpdates.toArray(new Message[0]);
+        out.writeInt(pending.length);
+        for (Message update : pending) {
+            BinaryStrings.write(out, update.toJson());
+        }
+    }
+    
+    /**
+     * Restores a checkpoint; the saved updates are propagated again after a new delay.
+     */
+    @Override
+    public void restore(DataInput in) throws IOException {
+        timestampGenerator.set(in.readLong());
+        localStore.clear();
+        localStore.readFrom(in);
+        int pending = in.readInt();
+        for (int i = 0; i < pending; i++) {
+            propagate(Message.fromJson(BinaryStrings.read(in)));
+        }
+    }
+    
     /**
      * Process an update message from another node
      */
     public void processUpdateMessage(Message message) {
         String key = message.query("key");
-        String value = message.query("value");
-        long receivedTimestamp = Long.parseLong(message.query("timestamp"));
+        long receivedTimestamp = message.queryLong("timestamp");
         
         // Implement Last-Write-Wins conflict resolution
-        ValueWithTimestamp currentValue = localStore.get(key);
-        if (currentValue == null || receivedTimestamp > currentValue.timestamp) {
-            localStore.put(key, new ValueWithTimestamp(value, receivedTimestamp));
-            logger.debug("Node {} updated local store with remote value {}={} (timestamp: {})", 
-                    nodeName, key, value, receivedTimestamp);
+        boolean applied = message.hasLong("value")
+                ? localStore.putLongIfNewer(key, message.queryLong("value"), receivedTimestamp)
+                : localStore.putIfNewer(key, message.query("value"), receivedTimestamp);
+        if (applied) {
+            logger.debug("Node {} updated local store with remote value of {} (timestamp: {})", 
+                    nodeName, key, receivedTimestamp);
             
             // Update local timestamp generator if needed
             long currentMax = timestampGenerator.get();
@@ -128,8 +253,77 @@ public class APDistributedSharedMemory implements DSM {
             }
         } else {
             logger.debug("Node {} ignored outdated update for key {} (local ts: {}, received ts: {})", 
-                    nodeName, key, currentValue.timestamp, receivedTimestamp);
+                    nodeName, key, localStore.version(key), receivedTimestamp);
         }
+        // Either way this replica now holds this version or a newer one
+        convergence.applied(key, receivedTimestamp, message.query("origin"));
+    }
+    
+    /**
+     * Simulate the AP characteristic of sometimes reading stale data.
+     * This should happen roughly 20% of the time in a concurrent environment.
+     */
+    private void simulateStaleRead() {
+        if (ScheduleJournal.random() < 0.2) {
+            try {
+                // Add a small delay to make stale reads more likely
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Builds an update message for a value held in a primitive slot, carried as a typed long.
+     */
+    private Message numericUpdate(String key, long value, long timestamp) {
+        return new Message()
+                .add("type", "DSM_AP_UPDATE")
+                .add("key", key)
+                .addLong("value", value)
+                .addLong("timestamp", timestamp)
+                .add("origin", nodeName);
+    }
+    
+    /**
+     * Broadcasts an update after a random delay from a background thread.
+     * In a real AP system, replication happens with significant delay.
+     * This makes the eventual consistency behavior more obvious.
+     */
+    private void propagate(Message updateMsg) {
+        pendingUpdates.add(updateMsg);
+        // Add a much longer random delay (300-700ms by default) to properly simulate eventual consistency
+        // This will ensure that AP shows more conflicts. Drawn by the writing node's thread,
+        // so that a schedule journal records and replays it
+        long minDelay = minReplicationDelayMs;
+        long delay = minDelay + (long)(ScheduleJournal.random() * (maxReplicationDelayMs - minDelay));
+        try {
+            propagation.schedule(propagationBinding().wrap(() -> {
+                try {
+                    broadcastMessage(updateMsg);
+                    logger.debug("Node {} broadcast update of {} with significant delay", 
+                            nodeName, updateMsg.query("key"));
+                } catch (Exception e) {
+                    logger.warn("Failed to broadcast update: {}", e.getMessage());
+                    // In AP model, we continue even if broadcasting fails
+                } finally {
+                    // Removed only after sending: an update in flight and still pending at a
+                    // checkpoint is applied twice after resuming, which Last-Write-Wins ignores
+                    pendingUpdates.remove(updateMsg);
+                }
+            }), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down, the update is never propagated
+            pendingUpdates.remove(updateMsg);
+        }
+    }
+    
+    private synchronized TaskBinding propagationBinding() {
+        if (propagationBinding == null) {
+            propagationBinding = TaskBinding.capture();
+        }
+        return propagationBinding;
     }
     
     /**
@@ -144,17 +338,4 @@ public class APDistributedSharedMemory implements DSM {
             logger.warn("Error during broadcast: {}", e.getMessage());
         }
     }
-    
-    /**
-     * Value class with timestamp for Last-Write-Wins conflict resolution
-     */
-    private static class ValueWithTimestamp {
-        final String value;
-        final long timestamp;
-        
-        ValueWithTimestamp(String value, long timestamp) {
-            this.value = value;
-            this.timestamp = timestamp;
-        }
-    }
 }
@@ -0,0 +1,33 @@
+package org.oxoo2a.sim4da.dsm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Strings in the binary state of the DSM: an int length followed by the UTF-8 bytes.
+ * Unlike {@link DataOutput#writeUTF}, this has no 64 KB limit, so large values and the
+ * JSON of the updates that carry them can be saved too.
+ */
+final class BinaryStrings {
+
+    private BinaryStrings() {
+    }
+
+    static void write(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String read(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -3,14 +3,22 @@ package org.oxoo2a.sim4da.dsm;
 import org.oxoo2a.sim4da.Message;
 import org.oxoo2a.sim4da.Network;
 import org.oxoo2a.sim4da.Node;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.protocol.Protocol;
+import org.oxoo2a.sim4da.protocol.ProtocolRegistry;
+import org.oxoo2a.sim4da.rpc.CallOptions;
+import org.oxoo2a.sim4da.rpc.Rpc;
+import org.oxoo2a.sim4da.rpc.RpcException;
+import org.oxoo2a.sim4da.snapshot.Checkpointable;
+import org.oxoo2a.sim4da.trace.Tracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * CA (Consistency & Availability) implementation of DSM.
@@ -21,28 +29,46 @@ import java.util.concurrent.atomic.AtomicReference;
  * 
  * This approach provides strong consistency and availability but doesn't handle partitions.
  */
-public class CADistributedSharedMemory implements DSM {
-    private final ConcurrentHashMap<String, String> localStore = new ConcurrentHashMap<>();
+public class CADistributedSharedMemory implements DSM, Protocol, Checkpointable {
+    private final KeyValueStore localStore;
     private String nodeName;
     private final Node node;
+    private final Tracer tracer;
     private Logger logger;
     
     // The name of the coordinator node (using Node_0 as coordinator)
     private static final String COORDINATOR_NODE = "Node_0";
     
-    // For tracking responses to operations
-    private final ConcurrentHashMap<String, OperationState> pendingOperations = new ConcurrentHashMap<>();
-    private final AtomicInteger operationIdCounter = new AtomicInteger(0);
+    // Node that answers hedged reads from its copy, which the coordinator's updates keep current
+    private static final String BACKUP_NODE = "Node_1";
     
-    // Timeout for operations (ms)
-    private static final int OPERATION_TIMEOUT = 5000; // Increased from 2000ms to 5000ms
+    // Writes are sent once and not repeated: a repeated write could overtake a later one at the coordinator
+    private static final CallOptions WRITE_OPTIONS = new CallOptions(5000, 0);
+    // Reads are repeated, with a timeout that follows the round trips to the coordinator
+    private static final CallOptions READ_OPTIONS = CallOptions.adaptive(5000, 2);
+    
+    // -Dsim4da.dsm.ca.hedge=true sends reads to the backup as well when the coordinator is slower than usual
+    private volatile boolean hedgedReads = Boolean.getBoolean("sim4da.dsm.ca.hedge");
     
     // Add a throttling mechanism for coordinator
-    private static final Object coordinatorLock = new Object();
+    private final Object coordinatorLock = new Object();
     private static final long COORDINATOR_PROCESSING_TIME_MS = 10; // Small delay for coordinator processing
     
+    // Operation latency as seen by the caller, and time requests wait for the coordinator lock
+    private final LatencyHistogram readLatency = MetricsRegistry.getInstance().histogram("dsm.CA.read");
+    private final LatencyHistogram writeLatency = MetricsRegistry.getInstance().histogram("dsm.CA.write");
+    private final LatencyHistogram coordinatorQueueing = MetricsRegistry.getInstance().histogram("dsm.CA.coordinator.queue");
+    // Operations failed without waiting, because the coordinator is suspected
+    private final Counter failFast = MetricsRegistry.getInstance().counter("dsm.CA.failfast");
+    
     public CADistributedSharedMemory(Node node) {
+        this(node, DSMFactory.createStore());
+    }
+    
+    public CADistributedSharedMemory(Node node, KeyValueStore localStore) {
         this.node = node;
+        this.tracer = node.getContext().getTracer();
+        this.localStore = localStore;
     }
     
     @Override
@@ -51,66 +77,90 @@ public class CADistributedSharedMemory implements DSM {
         this.logger = LoggerFactory.getLogger(nodeName + "-CA-DSM");
         logger.info("CA DSM initialized for node {}", nodeName);
     }
+
+    // Replies of the coordinator (the requester's DSM_CA_UPDATE, READ_RESPONSE, ERROR) go to the pending calls of the node's Rpc
+    @Override
+    public void registerHandlers(ProtocolRegistry registry) {
+        registry.on("DSM_CA_WRITE_REQUEST", this::processWriteRequest);
+        registry.on("DSM_CA_READ_REQUEST", this::processReadRequest);
+        registry.on("DSM_CA_UPDATE", this::processUpdate);
+    }
     
     @Override
     public void write(String key, String value) throws DSMException {
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CA_WRITE", nodeName);
+        try {
+            writeValue(key, value, 0, false);
+        } finally {
+            writeLatency.recordSince(start);
+            span.close();
+        }
+    }
+    
+    @Override
+    public void writeLong(String key, long value) throws DSMException {
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CA_WRITE", nodeName);
+        try {
+            writeValue(key, null, value, true);
+        } finally {
+            writeLatency.recordSince(start);
+            span.close();
+        }
+    }
+    
+    /**
+     * Writes a value through the coordinator. Numeric values are kept in a primitive
+     * slot of the local stores and carried as a typed long on the wire.
+     */
+    private void writeValue(String key, String value, long number, boolean numeric) throws DSMException {
         if (isCoordinator()) {
             // Coordinator writes directly to local store
-            localStore.put(key, value);
-            logger.debug("Coordinator wrote {}={} to central store", key, value);
+            storeLocally(key, value, number, numeric);
+            logger.debug("Coordinator wrote {} to central store", key);
             
             // Notify all nodes of the update
-            Message updateMsg = new Message()
-                    .add("type", "DSM_CA_UPDATE")
-                    .add("key", key)
-                    .add("value", value);
+            Message updateMsg = valueMessage("DSM_CA_UPDATE", key, value, number, numeric);
             
             broadcastMessage(updateMsg);
             return;
         }
         
         // Non-coordinator nodes need to send write request to coordinator
-        String operationId = nodeName + "-write-" + operationIdCounter.incrementAndGet();
-        OperationState opState = new OperationState();
-        pendingOperations.put(operationId, opState);
-        
+        requireCoordinatorReachable("Write", key);
         try {
-            logger.debug("Node {} sending write request for {}={} to coordinator", nodeName, key, value);
-            
-            Message writeRequestMsg = new Message()
-                    .add("type", "DSM_CA_WRITE_REQUEST")
-                    .add("operationId", operationId)
-                    .add("key", key)
-                    .add("value", value);
-            
-            sendMessage(writeRequestMsg, COORDINATOR_NODE);
+            logger.debug("Node {} sending write request for {} to coordinator", nodeName, key);
+            Message writeRequestMsg = valueMessage("DSM_CA_WRITE_REQUEST", key, value, number, numeric);
             
             // Wait for acknowledgment from coordinator
-            boolean completed = opState.latch.await(OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+            Rpc rpc = ((DSMNode)node).getRpc();
+            rpc.await(rpc.call(COORDINATOR_NODE, writeRequestMsg, WRITE_OPTIONS));
             
-            if (!completed) {
+            // Update local cache upon successful write
+            storeLocally(key, value, number, numeric);
+            logger.debug("Node {} write operation for {} completed successfully", nodeName, key);
+        } catch (RpcException e) {
+            if (e.isTimeout()) {
                 throw new DSMException("Write operation timed out for key " + key);
             }
-            
-            if (opState.error.get() != null) {
-                throw new DSMException("Write operation failed: " + opState.error.get());
-            }
-            
-            // Update local cache upon successful write
-            localStore.put(key, value);
-            logger.debug("Node {} write operation for {}={} completed successfully", nodeName, key, value);
-            
-        } catch (DSMException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new DSMException("Error during write operation: " + e.getMessage(), e);
-        } finally {
-            pendingOperations.remove(operationId);
+            throw new DSMException("Write operation failed: " + e.getMessage());
         }
     }
     
     @Override
     public String read(String key) throws DSMException {
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CA_READ", nodeName);
+        try {
+            return readValue(key);
+        } finally {
+            readLatency.recordSince(start);
+            span.close();
+        }
+    }
+    
+    private String readValue(String key) throws DSMException {
         if (isCoordinator()) {
             // Coordinator reads directly from its store
             String value = localStore.get(key);
@@ -126,76 +176,108 @@ public class CADistributedSharedMemory implements DSM {
         }
         
         // If not in cache, request from coordinator
-        String operationId = nodeName + "-read-" + operationIdCounter.incrementAndGet();
-        OperationState opState = new OperationState();
-        pendingOperations.put(operationId, opState);
-        
+        requireCoordinatorReachable("Read", key);
         try {
             logger.debug("Node {} sending read request for {} to coordinator", nodeName, key);
-            
             Message readRequestMsg = new Message()
                     .add("type", "DSM_CA_READ_REQUEST")
-                    .add("operationId", operationId)
                     .add("key", key);
             
-            // Send with retry logic
-            boolean sent = false;
-            int maxRetries = 3;
-            for (int i = 0; i < maxRetries && !sent; i++) {
-                try {
-                    sendMessage(readRequestMsg, COORDINATOR_NODE);
-                    sent = true;
-                } catch (Exception e) {
-                    logger.warn("Retry {}/{}: Error sending read request to coordinator: {}", 
-                            i+1, maxRetries, e.getMessage());
-                    if (i < maxRetries - 1) {
-                        Thread.sleep(50); // Short delay before retry
-                    }
-                }
-            }
-            
-            if (!sent) {
-                logger.info("CAP THEOREM INSIGHT: CA system cannot reach coordinator - this demonstrates why CA systems cannot be partition tolerant");
-                throw new DSMException("Failed to send read request to coordinator after multiple attempts");
-            }
-            
-            // Wait for response from coordinator
-            boolean completed = opState.latch.await(OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
-            
-            if (!completed) {
-                logger.info("CAP THEOREM INSIGHT: Read timed out waiting for coordinator - in a network partition, CA systems cannot maintain both consistency and availability");
-                throw new DSMException("Read operation timed out for key " + key);
-            }
+            // Wait for response from coordinator, or the backup if the read is hedged
+            Rpc rpc = ((DSMNode)node).getRpc();
+            Message response = rpc.await(hedgedReads && !isBackup()
+                    ? rpc.hedged(COORDINATOR_NODE, BACKUP_NODE, readRequestMsg, READ_OPTIONS)
+                    : rpc.call(COORDINATOR_NODE, readRequestMsg, READ_OPTIONS));
             
-            if (opState.error.get() != null) {
-                throw new DSMException("Read operation failed: " + opState.error.get());
+            String value = response.query("value");
+            if (value.isEmpty()) {
+                value = null;
             }
-            
-            String value = opState.value.get();
             if (value != null) {
                 // Update local cache
                 localStore.put(key, value);
             }
-            
             logger.debug("Node {} read operation for {} returned {}", nodeName, key, value);
             return value;
+        } catch (RpcException e) {
+            if (e.isTimeout()) {
+                logger.info("CAP THEOREM INSIGHT: Read timed out waiting for coordinator - in a network partition, CA systems cannot maintain both consistency and availability");
+                throw new DSMException("Read operation timed out for key " + key);
+            }
+            throw new DSMException("Read operation failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Reads a numeric value. Values held by the coordinator or in the local cache are
+     * returned from their primitive slot; others are asked from the coordinator, which
+     * answers with a typed long that is cached in a primitive slot, so no String is
+     * created either way.
+     */
+    @Override
+    public long readLong(String key, long defaultValue) throws DSMException {
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CA_READ", nodeName);
+        try {
+            if (isCoordinator() || localStore.version(key) != KeyValueStore.NO_VERSION) {
+                return localStore.getLong(key, defaultValue);
+            }
             
-        } catch (DSMException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new DSMException("Error during read operation: " + e.getMessage(), e);
+            requireCoordinatorReachable("Read", key);
+            Message readRequestMsg = new Message()
+                    .add("type", "DSM_CA_READ_REQUEST")
+                    .add("key", key)
+                    .add("valueType", "long");
+            Rpc rpc = ((DSMNode)node).getRpc();
+            Message response = rpc.await(hedgedReads && !isBackup()
+                    ? rpc.hedged(COORDINATOR_NODE, BACKUP_NODE, readRequestMsg, READ_OPTIONS)
+                    : rpc.call(COORDINATOR_NODE, readRequestMsg, READ_OPTIONS));
+            if (!response.hasLong("value")) {
+                return defaultValue;
+            }
+            long value = response.queryLong("value");
+            localStore.putLong(key, value);
+            return value;
+        } catch (NumberFormatException e) {
+            throw new DSMException("Value of key " + key + " is not numeric", e);
+        } catch (RpcException e) {
+            if (e.isTimeout()) {
+                throw new DSMException("Read operation timed out for key " + key);
+            }
+            throw new DSMException("Read operation failed: " + e.getMessage());
         } finally {
-            pendingOperations.remove(operationId);
+            readLatency.recordSince(start);
+            span.close();
         }
     }
     
+    /**
+     * Switches hedged reads on or off. A hedged read that the coordinator doesn't answer
+     * within the 95th percentile of its recent round trips is sent to the backup node too,
+     * and the first answer wins. The backup's copy may lack a write whose update is still
+     * on its way, so hedged reads trade a little consistency for a shorter tail latency.
+     */
+    public void setHedgedReads(boolean hedged) {
+        this.hedgedReads = hedged;
+    }
+    
     @Override
     public void shutdown() {
-        localStore.clear();
-        pendingOperations.clear();
+        localStore.close();
         logger.info("CA DSM shut down for node {}", nodeName);
     }
     
+    @Override
+    public void checkpoint(DataOutput out) throws IOException {
+        localStore.writeTo(out);
+    }
+    
+    @Override
+    public void restore(DataInput in) throws IOException {
+        localStore.clear();
+        localStore.readFrom(in);
+    }
+    
     /**
      * Process a write request from another node (coordinator only)
      */
@@ -205,39 +287,36 @@ public class CADistributedSharedMemory implements DSM {
             return;
         }
         
-        String operationId = message.query("operationId");
         String key = message.query("key");
-        String value = message.query("value");
+        boolean numeric = message.hasLong("value");
+        String value = numeric ? null : message.query("value");
+        long number = numeric ? message.queryLong("value") : 0;
         String sender = message.queryHeader("sender");
+        Rpc rpc = ((DSMNode)node).getRpc();
         
         try {
             // Throttle coordinator processing to prevent overload
+            long queued = System.nanoTime();
             synchronized (coordinatorLock) {
+                coordinatorQueueing.recordSince(queued);
                 // Update the central store
-                localStore.put(key, value);
-                logger.debug("Coordinator processed write request for {}={} from {}", key, value, sender);
+                storeLocally(key, value, number, numeric);
+                logger.debug("Coordinator processed write request for {} from {}", key, sender);
                 
                 // Simulate some processing time
                 Thread.sleep(COORDINATOR_PROCESSING_TIME_MS);
                 
                 // Send direct acknowledgment to the sender first to prevent timeout
-                Message ackMsg = new Message()
-                        .add("type", "DSM_CA_UPDATE")
-                        .add("key", key)
-                        .add("value", value)
-                        .add("operationId", operationId);
+                Message ackMsg = valueMessage("DSM_CA_UPDATE", key, value, number, numeric);
                 
                 // First send directly to requester to ensure they get a fast response
-                sendMessage(ackMsg, sender);
+                rpc.reply(message, ackMsg);
             }
             
             // Then broadcast to everyone else in the background
             new Thread(() -> {
                 try {
-                    Message broadcastMsg = new Message()
-                            .add("type", "DSM_CA_UPDATE")
-                            .add("key", key)
-                            .add("value", value);
+                    Message broadcastMsg = valueMessage("DSM_CA_UPDATE", key, value, number, numeric);
                     
                     // Broadcast to everyone except the original sender
                     broadcastMessageExcept(broadcastMsg, sender);
@@ -250,58 +329,54 @@ public class CADistributedSharedMemory implements DSM {
             logger.error("Error processing write request: {}", e.getMessage());
             
             // Send error response to sender
-            Message errorMsg = new Message()
-                    .add("type", "DSM_CA_ERROR")
-                    .add("operationId", operationId)
-                    .add("error", e.getMessage());
-            
-            sendMessage(errorMsg, sender);
+            rpc.fail(message, new Message().add("type", "DSM_CA_ERROR"), e.getMessage());
         }
     }
     
     /**
-     * Process a read request from another node (coordinator only)
+     * Process a read request from another node (coordinator, or backup for hedged reads)
      */
     public void processReadRequest(Message message) {
+        if (isBackup()) {
+            // Answer from the copy kept by the coordinator's updates, without the coordinator's throttling
+            try {
+                ((DSMNode)node).getRpc().reply(message, readResponse(message.query("key"), isNumeric(message)));
+            } catch (NumberFormatException e) {
+                ((DSMNode)node).getRpc().fail(message, new Message().add("type", "DSM_CA_ERROR"), e.getMessage());
+            }
+            return;
+        }
         if (!isCoordinator()) {
             logger.warn("Non-coordinator node received read request, ignoring");
             return;
         }
         
-        String operationId = message.query("operationId");
         String key = message.query("key");
         String sender = message.queryHeader("sender");
+        Rpc rpc = ((DSMNode)node).getRpc();
         
         try {
             // Throttle coordinator processing to prevent overload
+            long queued = System.nanoTime();
             synchronized (coordinatorLock) {
+                coordinatorQueueing.recordSince(queued);
                 // Read from the central store
-                String value = localStore.get(key);
-                logger.debug("Coordinator processed read request for {} (value: {}) from {}", key, value, sender);
+                Message responseMsg = readResponse(key, isNumeric(message));
+                logger.debug("Coordinator processed read request for {} from {}", key, sender);
                 
                 // Simulate some processing time
                 Thread.sleep(COORDINATOR_PROCESSING_TIME_MS);
                 
                 // Send response to sender
-                Message responseMsg = new Message()
-                        .add("type", "DSM_CA_READ_RESPONSE")
-                        .add("operationId", operationId)
-                        .add("key", key)
-                        .add("value", value != null ? value : "");
                 
                 // Make sure the response is sent directly to the requester and not lost
-                sendMessage(responseMsg, sender);
+                rpc.reply(message, responseMsg);
             }
         } catch (Exception e) {
             logger.error("Error processing read request: {}", e.getMessage());
             
             // Send error response to sender
-            Message errorMsg = new Message()
-                    .add("type", "DSM_CA_ERROR")
-                    .add("operationId", operationId)
-                    .add("error", e.getMessage());
-            
-            sendMessage(errorMsg, sender);
+            rpc.fail(message, new Message().add("type", "DSM_CA_ERROR"), e.getMessage());
         }
     }
     
@@ -310,72 +385,81 @@ public class CADistributedSharedMemory implements DSM {
      */
     public void processUpdate(Message message) {
         String key = message.query("key");
-        String value = message.query("value");
-        String operationId = message.query("operationId");
         String sender = message.queryHeader("sender");
         
         // Update local cache
-        localStore.put(key, value);
-        logger.debug("Node {} received update for {}={} from {}", nodeName, key, value, sender);
-        
-        // If this was in response to our operation, complete it
-        if (operationId != null && pendingOperations.containsKey(operationId)) {
-            OperationState opState = pendingOperations.get(operationId);
-            if (opState != null) {
-                opState.value.set(value);
-                opState.latch.countDown();
-                logger.debug("Node {} completed operation {} in response to update", nodeName, operationId);
-            }
+        if (message.hasLong("value")) {
+            localStore.putLong(key, message.queryLong("value"));
+        } else {
+            localStore.put(key, message.query("value"));
         }
+        logger.debug("Node {} received update for {} from {}", nodeName, key, sender);
     }
     
     /**
-     * Process a read response from the coordinator
+     * Fails the operation right away if the failure detector suspects the coordinator,
+     * instead of waiting for the request to time out.
      */
-    public void processReadResponse(Message message) {
-        String operationId = message.query("operationId");
-        String key = message.query("key");
-        String value = message.query("value");
-        
-        logger.debug("Node {} received read response for {} (value: {})", nodeName, key, value);
-        
-        OperationState opState = pendingOperations.get(operationId);
-        if (opState != null) {
-            opState.value.set(value.isEmpty() ? null : value);
-            opState.latch.countDown();
+    private void requireCoordinatorReachable(String operation, String key) throws DSMException {
+        if (((DSMNode)node).isSuspected(COORDINATOR_NODE)) {
+            failFast.increment();
+            throw new DSMException(operation + " operation failed for key " + key + ": coordinator " + COORDINATOR_NODE + " is suspected to be unreachable");
         }
     }
     
     /**
-     * Process an error message from the coordinator
+     * Check if this node is the coordinator
      */
-    public void processError(Message message) {
-        String operationId = message.query("operationId");
-        String error = message.query("error");
-        
-        logger.warn("Node {} received error for operation {}: {}", nodeName, operationId, error);
-        
-        OperationState opState = pendingOperations.get(operationId);
-        if (opState != null) {
-            opState.error.set(error);
-            opState.latch.countDown();
+    private boolean isCoordinator() {
+        return nodeName.equals(COORDINATOR_NODE);
+    }
+    
+    private boolean isBackup() {
+        return nodeName.equals(BACKUP_NODE);
+    }
+    
+    /**
+     * Stores a value in the local store, using a primitive slot for numeric values.
+     */
+    private void storeLocally(String key, String value, long number, boolean numeric) {
+        if (numeric) {
+            localStore.putLong(key, number);
+        } else {
+            localStore.put(key, value);
         }
     }
     
     /**
-     * Check if this node is the coordinator
+     * Builds a message carrying a value, numeric values as a typed long.
      */
-    private boolean isCoordinator() {
-        return nodeName.equals(COORDINATOR_NODE);
+    private static Message valueMessage(String type, String key, String value, long number, boolean numeric) {
+        Message message = new Message()
+                .add("type", type)
+                .add("key", key);
+        return numeric ? message.addLong("value", number) : message.add("value", value);
     }
     
     /**
-     * Tracks the state of an operation
+     * Answers a read from the local store. Numeric reads get the primitive slot as a typed
+     * long, or no value if the key is absent; other reads get the String, or "" if absent.
      */
-    private static class OperationState {
-        final CountDownLatch latch = new CountDownLatch(1);
-        final AtomicReference<String> value = new AtomicReference<>();
-        final AtomicReference<String> error = new AtomicReference<>();
+    private Message readResponse(String key, boolean numeric) {
+        Message response = new Message()
+                .add("type", "DSM_CA_READ_RESPONSE")
+                .add("key", key);
+        if (numeric) {
+            if (localStore.version(key) != KeyValueStore.NO_VERSION) {
+                response.addLong("value", localStore.getLong(key, 0));
+            }
+            return response;
+        }
+        String value = localStore.get(key);
+        return response.add("value", value != null ? value : "");
+    }
+    
+    // Numeric reads ask for a typed long
+    private static boolean isNumeric(Message request) {
+        return "long".equals(request.query("valueType"));
     }
     
     /**
@@ -1,18 +1,24 @@
 package org.oxoo2a.sim4da.dsm;
 
 import org.oxoo2a.sim4da.Message;
-import org.oxoo2a.sim4da.Network;
 import org.oxoo2a.sim4da.Node;
-import org.oxoo2a.sim4da.Simulator;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.protocol.Protocol;
+import org.oxoo2a.sim4da.protocol.ProtocolRegistry;
+import org.oxoo2a.sim4da.rpc.CallOptions;
+import org.oxoo2a.sim4da.rpc.Rpc;
+import org.oxoo2a.sim4da.rpc.RpcException;
+import org.oxoo2a.sim4da.snapshot.Checkpointable;
+import org.oxoo2a.sim4da.trace.Tracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * CP (Consistency & Partition Tolerance) implementation of DSM.
@@ -21,19 +27,32 @@ import java.util.concurrent.atomic.AtomicReference;
  * a majority of nodes. Operations will block or fail if a quorum cannot be reached.
  * This approach prioritizes consistency over availability.
  */
-public class CPDistributedSharedMemory implements DSM {
-    private final Map<String, String> localStore = new ConcurrentHashMap<>();
+public class CPDistributedSharedMemory implements DSM, Protocol, Checkpointable {
+    private final KeyValueStore localStore;
     private String nodeName;
     private final Node node;
+    private final Tracer tracer;
     private Logger logger;
-    private final int timeoutMs = 5000; // Increased from 1000ms to 5000ms
+    // A quorum waits as long as the round trips to its peers suggest and asks the nodes that
+    // haven't replied again, doubling the wait each time up to 2500ms. Peers that are merely
+    // slow still make it within about 5s; lost requests are repeated after a few round trips.
+    private static final CallOptions QUORUM_OPTIONS = CallOptions.adaptive(2500, 4);
     
-    // For tracking responses to quorum requests
-    private final Map<String, QuorumState> pendingQuorums = new ConcurrentHashMap<>();
-    private final AtomicInteger requestIdCounter = new AtomicInteger(0);
+    // End-to-end operation latency and the part of it spent waiting for the quorum
+    private final LatencyHistogram readLatency = MetricsRegistry.getInstance().histogram("dsm.CP.read");
+    private final LatencyHistogram writeLatency = MetricsRegistry.getInstance().histogram("dsm.CP.write");
+    private final LatencyHistogram quorumWait = MetricsRegistry.getInstance().histogram("dsm.CP.quorum.wait");
+    // Operations failed without waiting, because too many peers are suspected for a quorum
+    private final Counter failFast = MetricsRegistry.getInstance().counter("dsm.CP.failfast");
     
     public CPDistributedSharedMemory(Node node) {
+        this(node, DSMFactory.createStore());
+    }
+    
+    public CPDistributedSharedMemory(Node node, KeyValueStore localStore) {
         this.node = node;
+        this.tracer = node.getContext().getTracer();
+        this.localStore = localStore;
     }
     
     @Override
@@ -42,221 +61,202 @@ public class CPDistributedSharedMemory implements DSM {
         this.logger = LoggerFactory.getLogger(nodeName + "-CP-DSM");
         logger.info("CP DSM initialized for node {}", nodeName);
     }
+
+    // Replies (ACK, NACK, READ_RESPONSE, READ_ERROR) go to the pending calls of the node's Rpc
+    @Override
+    public void registerHandlers(ProtocolRegistry registry) {
+        registry.on("DSM_CP_WRITE_REQUEST", this::processWriteRequest);
+        registry.on("DSM_CP_READ_REQUEST", this::processReadRequest);
+    }
     
     @Override
     public void write(String key, String value) throws DSMException {
-        int totalNodes = Network.getInstance().numberOfNodes();
-        int requiredQuorum = (totalNodes / 2) + 1; // Majority quorum
-        
-        String requestId = nodeName + "-write-" + requestIdCounter.incrementAndGet();
-        QuorumState quorumState = new QuorumState(requiredQuorum);
-        pendingQuorums.put(requestId, quorumState);
+        writeValue(key, value, 0, false);
+    }
+    
+    @Override
+    public void writeLong(String key, long value) throws DSMException {
+        writeValue(key, null, value, true);
+    }
+    
+    /**
+     * Writes a value with a majority quorum. Numeric values are kept in a primitive
+     * slot of the local stores and carried as a typed long on the wire.
+     */
+    private void writeValue(String key, String value, long number, boolean numeric) throws DSMException {
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CP_WRITE", nodeName);
+        List<String> peers = peers();
+        int requiredQuorum = ((peers.size() + 1) / 2) + 1; // Majority quorum
         
-        logger.debug("Node {} attempting to write {}={} (request: {}, quorum needed: {})", 
-                nodeName, key, value, requestId, requiredQuorum);
+        logger.debug("Node {} attempting to write {} (quorum needed: {})", 
+                nodeName, key, requiredQuorum);
         
         try {
-            // First, update local copy immediately
-            localStore.put(key, value);
+            requireQuorumReachable("write", key, peers, requiredQuorum);
             
-            // Then broadcast to other nodes
             Message writeRequestMsg = new Message()
                     .add("type", "DSM_CP_WRITE_REQUEST")
-                    .add("requestId", requestId)
-                    .add("key", key)
-                    .add("value", value);
-            
-            broadcastMessage(writeRequestMsg);
-            
-            // Local node participates in quorum
-            processWriteAck(requestId, nodeName);
-            
-            // Wait for quorum with better handling of concurrent requests
-            boolean quorumReached = quorumState.latch.await(timeoutMs, TimeUnit.MILLISECONDS);
-            
-            // Reduce the chance of quorum failures
-            if (!quorumReached) {
-                // Make a second attempt with a shorter timeout
-                logger.debug("First quorum attempt failed, retrying with 1000ms timeout");
-                quorumReached = quorumState.latch.await(1000, TimeUnit.MILLISECONDS);
+                    .add("key", key);
+            if (numeric) {
+                writeRequestMsg.addLong("value", number);
+            } else {
+                writeRequestMsg.add("value", value);
             }
             
-            if (!quorumReached) {
-                int responsesReceived = quorumState.responses.get();
-                throw new DSMException(String.format(
-                        "Failed to reach write quorum for key %s (got %d of %d required responses)",
-                        key, responsesReceived, requiredQuorum));
-            }
+            // First, update local copy immediately
+            storeLocally(key, writeRequestMsg);
             
-            if (quorumState.error.get() != null) {
-                throw new DSMException("Error during write quorum: " + quorumState.error.get());
+            // The local node is part of the quorum
+            Rpc rpc = ((DSMNode)node).getRpc();
+            long waitStart = System.nanoTime();
+            try {
+                rpc.await(rpc.quorum(peers, writeRequestMsg, requiredQuorum - 1, QUORUM_OPTIONS));
+            } catch (RpcException e) {
+                if (e.isTimeout()) {
+                    throw new DSMException(String.format(
+                            "Failed to reach write quorum for key %s (got %d of %d required responses)",
+                            key, e.getReplies() + 1, requiredQuorum));
+                }
+                throw new DSMException("Error during write quorum: " + e.getMessage());
+            } finally {
+                quorumWait.recordSince(waitStart);
             }
             
-            logger.debug("Node {} successfully wrote {}={} with quorum", nodeName, key, value);
+            logger.debug("Node {} successfully wrote {} with quorum", nodeName, key);
             
-        } catch (DSMException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new DSMException("Error during write operation: " + e.getMessage(), e);
         } finally {
-            pendingQuorums.remove(requestId);
+            writeLatency.recordSince(start);
+            span.close();
         }
     }
     
     @Override
     public String read(String key) throws DSMException {
-        int totalNodes = Network.getInstance().numberOfNodes();
-        int requiredQuorum = (totalNodes / 2) + 1; // Majority quorum
-        
-        String requestId = nodeName + "-read-" + requestIdCounter.incrementAndGet();
-        QuorumState quorumState = new QuorumState(requiredQuorum);
-        pendingQuorums.put(requestId, quorumState);
-        
-        logger.debug("Node {} attempting to read {} (request: {}, quorum needed: {})", 
-                nodeName, key, requestId, requiredQuorum);
-        
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CP_READ", nodeName);
         try {
-            // First, query all nodes for their values
-            Message readRequestMsg = new Message()
-                    .add("type", "DSM_CP_READ_REQUEST")
-                    .add("requestId", requestId)
-                    .add("key", key);
+            // Local node also responds
+            String result = localStore.get(key);
             
-            // Use a retry mechanism for broadcast
-            int maxRetries = 3;
-            for (int i = 0; i < maxRetries; i++) {
-                try {
-                    broadcastMessage(readRequestMsg);
-                    break; // Success
-                } catch (Exception e) {
-                    logger.warn("Retry {}/{}: Error broadcasting read request: {}", 
-                            i+1, maxRetries, e.getMessage());
-                    if (i < maxRetries - 1) {
-                        Thread.sleep(50); // Short delay before retry
-                    }
+            // In a more advanced implementation, we could handle conflicting values
+            // by using versioning, but for simplicity we just take any non-null value
+            for (Message response : readQuorum(key, false)) {
+                String value = response.query("value");
+                if (!value.isEmpty()) {
+                    result = value;
                 }
             }
             
-            // Local node also responds
-            String localValue = localStore.get(key);
-            processReadResponse(requestId, nodeName, key, localValue);
-            
-            // Wait for quorum with periodic logging of progress
-            long startTime = System.currentTimeMillis();
-            long deadline = startTime + timeoutMs;
-            boolean quorumReached = false;
+            logger.debug("Node {} successfully read {}={} with quorum", nodeName, key, result);
+            return result;
             
-            while (System.currentTimeMillis() < deadline && !quorumReached) {
-                quorumReached = quorumState.latch.await(500, TimeUnit.MILLISECONDS);
-                
-                if (!quorumReached) {
-                    // Log progress if still waiting
-                    int currentResponses = quorumState.responses.get();
-                    if (currentResponses > 0) {
-                        logger.debug("Still waiting for quorum: have {} of {} required responses for request {}", 
-                                currentResponses, requiredQuorum, requestId);
-                    }
+        } finally {
+            readLatency.recordSince(start);
+            span.close();
+        }
+    }
+    
+    /**
+     * Reads a numeric value with a majority quorum. The peers answer with a typed long
+     * from their primitive slots, so the value is never formatted or parsed.
+     */
+    @Override
+    public long readLong(String key, long defaultValue) throws DSMException {
+        long start = System.nanoTime();
+        Tracer.Scope span = tracer.startSpan("DSM_CP_READ", nodeName);
+        try {
+            long result = localStore.getLong(key, defaultValue);
+            for (Message response : readQuorum(key, true)) {
+                if (response.hasLong("value")) {
+                    result = response.queryLong("value");
                 }
             }
-            
-            if (!quorumReached) {
-                int responsesReceived = quorumState.responses.get();
+            return result;
+        } catch (NumberFormatException e) {
+            throw new DSMException("Value of key " + key + " is not numeric", e);
+        } finally {
+            readLatency.recordSince(start);
+            span.close();
+        }
+    }
+    
+    /**
+     * Asks a majority of the peers for their value of the key.
+     *
+     * @param numeric Whether the peers answer with a typed long instead of a String
+     * @return The responses of the peers; the local node's value is not among them
+     */
+    private List<Message> readQuorum(String key, boolean numeric) throws DSMException {
+        List<String> peers = peers();
+        int requiredQuorum = ((peers.size() + 1) / 2) + 1; // Majority quorum
+        
+        logger.debug("Node {} attempting to read {} (quorum needed: {})", 
+                nodeName, key, requiredQuorum);
+        
+        requireQuorumReachable("read", key, peers, requiredQuorum);
+        
+        Message readRequestMsg = new Message()
+                .add("type", "DSM_CP_READ_REQUEST")
+                .add("key", key);
+        if (numeric) {
+            readRequestMsg.add("valueType", "long");
+        }
+        
+        Rpc rpc = ((DSMNode)node).getRpc();
+        long waitStart = System.nanoTime();
+        try {
+            return rpc.await(rpc.quorum(peers, readRequestMsg, requiredQuorum - 1, QUORUM_OPTIONS));
+        } catch (RpcException e) {
+            if (e.isTimeout()) {
                 throw new DSMException(String.format(
                         "Failed to reach read quorum for key %s (got %d of %d required responses)",
-                        key, responsesReceived, requiredQuorum));
+                        key, e.getReplies() + 1, requiredQuorum));
             }
-            
-            if (quorumState.error.get() != null) {
-                throw new DSMException("Error during read quorum: " + quorumState.error.get());
-            }
-            
-            String result = quorumState.value.get();
-            logger.debug("Node {} successfully read {}={} with quorum", nodeName, key, result);
-            return result;
-            
-        } catch (DSMException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new DSMException("Error during read operation: " + e.getMessage(), e);
+            throw new DSMException("Error during read quorum: " + e.getMessage());
         } finally {
-            pendingQuorums.remove(requestId);
+            quorumWait.recordSince(waitStart);
         }
     }
     
     @Override
     public void shutdown() {
-        localStore.clear();
-        pendingQuorums.clear();
+        localStore.close();
         logger.info("CP DSM shut down for node {}", nodeName);
     }
     
+    @Override
+    public void checkpoint(DataOutput out) throws IOException {
+        localStore.writeTo(out);
+    }
+    
+    @Override
+    public void restore(DataInput in) throws IOException {
+        localStore.clear();
+        localStore.readFrom(in);
+    }
+    
     /**
      * Process a write request message from another node
      */
     public void processWriteRequest(Message message) {
-        String requestId = message.query("requestId");
         String key = message.query("key");
-        String value = message.query("value");
         String sender = message.queryHeader("sender");
+        Rpc rpc = ((DSMNode)node).getRpc();
         
         try {
             // Update local store
-            localStore.put(key, value);
-            logger.debug("Node {} processing write request for {}={} from {} (concurrent requests: {})", 
-                    nodeName, key, value, sender, pendingQuorums.size());
-            
-            // If this node is busy with its own quorum operations, there might be delays
-            if (pendingQuorums.size() > 1) {
-                logger.warn("Node {} is busy with {} pending quorums while handling write request from {}", 
-                        nodeName, pendingQuorums.size(), sender);
-            }
+            storeLocally(key, message);
+            logger.debug("Node {} processing write request for {} from {} (concurrent requests: {})", 
+                    nodeName, key, sender, rpc.pending());
             
             // Send acknowledgment
-            Message ackMsg = new Message()
-                    .add("type", "DSM_CP_WRITE_ACK")
-                    .add("requestId", requestId);
-            
-            sendMessage(ackMsg, sender);
+            rpc.reply(message, new Message().add("type", "DSM_CP_WRITE_ACK"));
             
         } catch (Exception e) {
             logger.warn("Error processing write request: {}", e.getMessage());
             // In case of error, send negative acknowledgment
-            Message nackMsg = new Message()
-                    .add("type", "DSM_CP_WRITE_NACK")
-                    .add("requestId", requestId)
-                    .add("error", e.getMessage());
-            
-            sendMessage(nackMsg, sender);
-        }
-    }
-    
-    /**
-     * Process a write acknowledgment from another node
-     */
-    public void processWriteAck(String requestId, String sender) {
-        QuorumState state = pendingQuorums.get(requestId);
-        if (state != null) {
-            logger.debug("Node {} received write ACK for request {} from {}", nodeName, requestId, sender);
-            int current = state.acknowledgeResponse();
-            logger.debug("Request {} has {} responses out of {} required for quorum", 
-                    requestId, current, state.requiredQuorum);
-        }
-    }
-    
-    /**
-     * Process a write negative acknowledgment from another node
-     */
-    public void processWriteNack(Message message) {
-        String requestId = message.query("requestId");
-        String error = message.query("error");
-        String sender = message.queryHeader("sender");
-        
-        QuorumState state = pendingQuorums.get(requestId);
-        if (state != null) {
-            logger.warn("Node {} received write NACK for request {} from {}: {}", 
-                    nodeName, requestId, sender, error);
-            state.error.set(error);
-            state.latch.countDown(); // Allow early completion with error
+            rpc.fail(message, new Message().add("type", "DSM_CP_WRITE_NACK"), e.getMessage());
         }
     }
     
@@ -264,133 +264,75 @@ public class CPDistributedSharedMemory implements DSM {
      * Process a read request message from another node
      */
     public void processReadRequest(Message message) {
-        String requestId = message.query("requestId");
         String key = message.query("key");
         String sender = message.queryHeader("sender");
+        Rpc rpc = ((DSMNode)node).getRpc();
         
         try {
+            if ("long".equals(message.query("valueType"))) {
+                // Numeric reads are answered from the primitive slot; an absent key has no value
+                Message response = new Message()
+                        .add("type", "DSM_CP_READ_RESPONSE")
+                        .add("key", key);
+                if (localStore.version(key) != KeyValueStore.NO_VERSION) {
+                    response.addLong("value", localStore.getLong(key, 0));
+                }
+                rpc.reply(message, response);
+                return;
+            }
+            
             // Read from local store
             String value = localStore.get(key);
             logger.debug("Node {} processing read request for {} (value: {}) from {} (concurrent requests: {})", 
-                    nodeName, key, value, sender, pendingQuorums.size());
-            
-            // If this node is busy with its own quorum operations, there might be delays
-            if (pendingQuorums.size() > 1) {
-                logger.warn("Node {} is busy with {} pending quorums while handling read request from {}", 
-                        nodeName, pendingQuorums.size(), sender);
-            }
+                    nodeName, key, value, sender, rpc.pending());
             
             // Send response
-            Message responseMsg = new Message()
+            rpc.reply(message, new Message()
                     .add("type", "DSM_CP_READ_RESPONSE")
-                    .add("requestId", requestId)
                     .add("key", key)
-                    .add("value", value != null ? value : "");
-            
-            sendMessage(responseMsg, sender);
+                    .add("value", value != null ? value : ""));
             
         } catch (Exception e) {
             logger.warn("Error processing read request: {}", e.getMessage());
             // In case of error, send error response
-            Message errorMsg = new Message()
-                    .add("type", "DSM_CP_READ_ERROR")
-                    .add("requestId", requestId)
-                    .add("error", e.getMessage());
-            
-            sendMessage(errorMsg, sender);
+            rpc.fail(message, new Message().add("type", "DSM_CP_READ_ERROR"), e.getMessage());
         }
     }
     
     /**
-     * Process a read response from another node
+     * Fails the operation right away if the failure detector suspects so many peers
+     * that the quorum can't be reached, instead of waiting for the quorum to time out.
      */
-    public void processReadResponse(String requestId, String sender, String key, String value) {
-        QuorumState state = pendingQuorums.get(requestId);
-        if (state != null) {
-            logger.debug("Node {} received read response for {} (value: {}) from {}", 
-                    nodeName, key, value, sender);
-            
-            // In a more advanced implementation, we could handle conflicting values
-            // by using versioning, but for simplicity we just take any non-null value
-            if (value != null) {
-                state.value.set(value);
+    private void requireQuorumReachable(String operation, String key, List<String> peers, int requiredQuorum) throws DSMException {
+        int reachable = 1; // The local node
+        for (String peer : peers) {
+            if (!((DSMNode)node).isSuspected(peer)) {
+                reachable++;
             }
-            
-            int current = state.acknowledgeResponse();
-            logger.debug("Request {} has {} responses out of {} required for quorum", 
-                    requestId, current, state.requiredQuorum);
-        }
-    }
-    
-    /**
-     * Process a read error response from another node
-     */
-    public void processReadError(Message message) {
-        String requestId = message.query("requestId");
-        String error = message.query("error");
-        String sender = message.queryHeader("sender");
-        
-        QuorumState state = pendingQuorums.get(requestId);
-        if (state != null) {
-            logger.warn("Node {} received read ERROR for request {} from {}: {}", 
-                    nodeName, requestId, sender, error);
-            state.error.set(error);
-            state.latch.countDown(); // Allow early completion with error
         }
-    }
-    
-    /**
-     * Broadcasts a message to all nodes via the associated Node object.
-     * This method delegates to the appropriate broadcasting method in Node.
-     */
-    private void broadcastMessage(Message message) {
-        try {
-            ((DSMNode)node).sendDSMBroadcast(message);
-        } catch (Exception e) {
-            logger.warn("Error during broadcast: {}", e.getMessage());
-            throw new RuntimeException("Broadcast failed: " + e.getMessage(), e);
+        if (reachable < requiredQuorum) {
+            failFast.increment();
+            throw new DSMException(String.format(
+                    "Failed to reach %s quorum for key %s (%d of %d required nodes are not suspected)",
+                    operation, key, reachable, requiredQuorum));
         }
     }
     
-    /**
-     * Sends a message to a specific node via the associated Node object.
-     * This method delegates to the appropriate sending method in Node.
-     */
-    private void sendMessage(Message message, String toNodeName) {
-        try {
-            ((DSMNode)node).sendDSMMessage(message, toNodeName);
-        } catch (Exception e) {
-            logger.warn("Error sending message to {}: {}", toNodeName, e.getMessage());
-        }
+    private List<String> peers() {
+        List<String> peers = node.getContext().getNetwork().nodeNames();
+        peers.remove(nodeName);
+        return peers;
     }
     
     /**
-     * Tracks the state of a quorum operation
+     * Stores the value of a write request in the local store, using a primitive slot for
+     * typed numbers.
      */
-    private static class QuorumState {
-        final CountDownLatch latch;
-        final AtomicInteger responses = new AtomicInteger(0);
-        final AtomicReference<String> value = new AtomicReference<>();
-        final AtomicReference<String> error = new AtomicReference<>();
-        final int requiredQuorum;
-        
-        QuorumState(int requiredQuorum) {
-            this.requiredQuorum = requiredQuorum;
-            this.latch = new CountDownLatch(1); // We count down once when the quorum is reached
-        }
-        
-        /**
-         * Acknowledges a response and returns the current number of responses.
-         * If the required quorum is reached, it will release the latch.
-         * 
-         * @return the current number of responses
-         */
-        int acknowledgeResponse() {
-            int current = responses.incrementAndGet();
-            if (current >= requiredQuorum) {
-                latch.countDown(); // Release the latch when quorum is reached
-            }
-            return current;
+    private void storeLocally(String key, Message request) {
+        if (request.hasLong("value")) {
+            localStore.putLong(key, request.queryLong("value"));
+        } else {
+            localStore.put(key, request.query("value"));
         }
     }
 }
@@ -0,0 +1,192 @@
+package org.oxoo2a.sim4da.dsm;
+
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how far the replicas of the AP DSM lag behind the writes, shared by all AP
+ * instances of a simulation.
+ * <ul>
+ * <li>{@code dsm.AP.convergence}: time from a write until every other replica applied it
+ * or a newer version of the key</li>
+ * <li>{@code dsm.AP.staleness.versions}: per read, the number of versions of the key
+ * written anywhere that are newer than the one the replica returned (recorded as a count,
+ * not in nanoseconds)</li>
+ * <li>{@code dsm.AP.staleness.time}: per stale read, how long ago the oldest of those newer
+ * versions was written</li>
+ * <li>counters {@code dsm.AP.reads.stale}, and {@code dsm.AP.convergence.evicted} for writes
+ * dropped from tracking before they converged</li>
+ * </ul>
+ * Memory is bounded: at most {@link #DEFAULT_CAPACITY} writes are tracked until they
+ * converge, the oldest are evicted first. Recent versions are kept only for keys with a
+ * tracked write, so for at most that many keys: once every write of a key converged, no
+ * replica can be behind on it. Per key only the last {@link #RECENT_VERSIONS} versions are
+ * kept, so a read further behind counts as that many versions behind.
+ */
+public class ConvergenceTracker {
+
+    public static final int DEFAULT_CAPACITY = 65_536;
+    static final int RECENT_VERSIONS = 32;
+
+    // A write until all other replicas applied it
+    private static final class Pending {
+        final long writtenAt;
+        final AtomicInteger missing;
+
+        Pending(long writtenAt, int missing) {
+            this.writtenAt = writtenAt;
+            this.missing = new AtomicInteger(missing);
+        }
+    }
+
+    private record Version(String key, long timestamp, String origin) {
+    }
+
+    // The last versions of a key, in a ring ordered by write time, while writes of the key are tracked
+    private static final class Recent {
+        final long[] timestamps = new long[RECENT_VERSIONS];
+        final long[] writtenAt = new long[RECENT_VERSIONS];
+        int next = 0;
+        int size = 0;
+        // Tracked writes of the key; changed only inside the map's compute functions
+        int tracked = 0;
+
+        synchronized void add(long timestamp, long now) {
+            timestamps[next] = timestamp;
+            writtenAt[next] = now;
+            next = (next + 1) % RECENT_VERSIONS;
+            size = Math.min(size + 1, RECENT_VERSIONS);
+        }
+
+        // Records how far behind a replica at the given version is
+        synchronized void behind(long version, long now, LatencyHistogram versions, LatencyHistogram time, Counter stale) {
+            int newer = 0;
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (timestamps[i] > version) {
+                    newer++;
+                    oldest = Math.min(oldest, writtenAt[i]);
+                }
+            }
+            versions.record(newer);
+            if (newer > 0) {
+                stale.increment();
+                time.record(now - oldest);
+            }
+        }
+    }
+
+    private final int capacity;
+    private final AtomicInteger replicas = new AtomicInteger();
+    private final Map<Version, Pending> pending = new ConcurrentHashMap<>();
+    // Tracked writes in the order they were written, including some that converged since
+    private final ConcurrentLinkedQueue<Version> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Map<String, Recent> recent = new ConcurrentHashMap<>();
+    private final LatencyHistogram convergence;
+    private final LatencyHistogram stalenessVersions;
+    private final LatencyHistogram stalenessTime;
+    private final Counter staleReads;
+    private final Counter evicted;
+
+    public ConvergenceTracker(MetricsRegistry metrics, int capacity) {
+        this.capacity = capacity;
+        this.convergence = metrics.histogram("dsm.AP.convergence");
+        this.stalenessVersions = metrics.histogram("dsm.AP.staleness.versions");
+        this.stalenessTime = metrics.histogram("dsm.AP.staleness.time");
+        this.staleReads = metrics.counter("dsm.AP.reads.stale");
+        this.evicted = metrics.counter("dsm.AP.convergence.evicted");
+    }
+
+    /**
+     * @return The tracker of the simulation, created on first use
+     */
+    public static ConvergenceTracker of(SimulationContext context) {
+        return context.attribute(ConvergenceTracker.class,
+                () -> new ConvergenceTracker(context.getMetrics(), DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Counts one more replica, called when an AP instance is initialized.
+     */
+    public void addReplica() {
+        replicas.incrementAndGet();
+    }
+
+    /**
+     * Called by the replica that wrote a version.
+     */
+    public void written(String key, long timestamp, String origin) {
+        long now = System.nanoTime();
+        int others = replicas.get() - 1;
+        // A single replica is never behind
+        if (others <= 0)
+            return;
+        recent.compute(key, (k, r) -> {
+            if (r == null)
+                r = new Recent();
+            r.add(timestamp, now);
+            r.tracked++;
+            return r;
+        });
+        Version version = new Version(key, timestamp, origin);
+        pending.put(version, new Pending(now, others));
+        order.add(version);
+        queued.incrementAndGet();
+        // Converged writes leave the queue when they reach its head. Beyond the capacity the
+        // oldest writes are evicted, whether they are pending or not, which bounds the queue
+        // even if a write never converges
+        Version oldest;
+        while ((oldest = order.peek()) != null && (!pending.containsKey(oldest) || queued.get() > capacity)) {
+            if (order.remove(oldest)) {
+                queued.decrementAndGet();
+                if (pending.remove(oldest) != null) {
+                    evicted.increment();
+                    untrack(oldest.key());
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a replica that received a version, whether it applied it or already had a newer one.
+     */
+    public void applied(String key, long timestamp, String origin) {
+        Version version = new Version(key, timestamp, origin);
+        Pending p = pending.get(version);
+        if (p != null && p.missing.decrementAndGet() == 0 && pending.remove(version) != null) {
+            convergence.recordSince(p.writtenAt);
+            untrack(key);
+        }
+    }
+
+    // A write of the key converged or was evicted; the key's versions go with its last tracked write
+    private void untrack(String key) {
+        recent.computeIfPresent(key, (k, r) -> --r.tracked > 0 ? r : null);
+    }
+
+    /**
+     * Called by a replica that read a key, with the version it returned.
+     */
+    public void read(String key, long version) {
+        Recent r = recent.get(key);
+        if (r != null)
+            r.behind(version, System.nanoTime(), stalenessVersions, stalenessTime, staleReads);
+        else
+            stalenessVersions.record(0);
+    }
+
+    /**
+     * @return The number of keys whose recent versions are kept, for tests
+     */
+    int trackedKeys() {
+        return recent.size();
+    }
+}
@@ -23,6 +23,55 @@ public interface DSM {
      */
     String read(String key) throws DSMException;
     
+    /**
+     * Writes a numeric value to the specified key. Implementations keep the value in a
+     * primitive slot of their local store instead of a decimal String.
+     * 
+     * @param key The key to write to
+     * @param value The value to store
+     * @throws DSMException If the operation cannot be completed due to implementation-specific constraints
+     */
+    default void writeLong(String key, long value) throws DSMException {
+        write(key, Long.toString(value));
+    }
+    
+    /**
+     * Reads a numeric value for the specified key.
+     * 
+     * @param key The key to read
+     * @param defaultValue The value to return if the key doesn't exist
+     * @return The value associated with the key, or defaultValue if the key doesn't exist
+     * @throws DSMException If the operation cannot be completed or the stored value is not numeric
+     */
+    default long readLong(String key, long defaultValue) throws DSMException {
+        String value = read(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new DSMException("Value of key " + key + " is not numeric: " + value, e);
+        }
+    }
+    
+    /**
+     * Adds delta to the numeric value of the specified key. Absent keys are treated as 0.
+     * 
+     * The default implementation is a read followed by a write; implementations document
+     * whether the update is atomic.
+     * 
+     * @param key The key to update
+     * @param delta The amount to add
+     * @return The new value
+     * @throws DSMException If the operation cannot be completed or the stored value is not numeric
+     */
+    default long addLong(String key, long delta) throws DSMException {
+        long value = readLong(key, 0) + delta;
+        writeLong(key, value);
+        return value;
+    }
+    
     /**
      * Initializes this DSM instance for a specific node.
      * 
@@ -2,6 +2,8 @@ package org.oxoo2a.sim4da.dsm;
 
 import org.oxoo2a.sim4da.Node;
 
+import java.util.function.Supplier;
+
 /**
  * Factory for creating DSM implementations.
  */
@@ -15,6 +17,29 @@ public class DSMFactory {
         CA  // Consistency & Availability
     }
     
+    // Storage backend used for the local store of newly created DSM instances
+    private static volatile Supplier<KeyValueStore> storeSupplier = OffHeapKeyValueStore::new;
+    
+    /**
+     * Replaces the storage backend used by DSM instances created afterwards.
+     * The default backend is {@link OffHeapKeyValueStore}; {@link HeapKeyValueStore}
+     * restores the original on-heap behavior.
+     * 
+     * @param supplier Creates one store per DSM instance
+     */
+    public static void setStoreSupplier(Supplier<KeyValueStore> supplier) {
+        storeSupplier = supplier;
+    }
+    
+    /**
+     * Creates a new local store using the configured storage backend.
+     * 
+     * @return An empty store
+     */
+    public static KeyValueStore createStore() {
+        return storeSupplier.get();
+    }
+    
     /**
      * Creates a DSM instance of the specified type.
      * 
@@ -1,6 +1,7 @@
 package org.oxoo2a.sim4da.dsm;
 
 import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.rpc.Rpc;
 
 /**
  * Interface that defines DSM-specific operations that a Node must support.
@@ -24,4 +25,19 @@ public interface DSMNode {
      * @param toNodeName The name of the target node
      */
     void sendDSMMessage(Message message, String toNodeName);
+    
+    /**
+     * Gives access to the node's request/response calls.
+     * 
+     * @return The RPC endpoint of the node
+     */
+    Rpc getRpc();
+    
+    /**
+     * Tells whether the failure detector suspects another node to have crashed or to be unreachable.
+     * 
+     * @param nodeName The name of the other node
+     * @return true if the node is suspected
+     */
+    boolean isSuspected(String nodeName);
 }
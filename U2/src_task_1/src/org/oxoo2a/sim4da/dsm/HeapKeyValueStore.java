@@ -0,0 +1,119 @@
+package org.oxoo2a.sim4da.dsm;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-heap storage backend based on a {@link ConcurrentHashMap}.
+ *
+ * This is the layout the DSM implementations used originally: one boxed entry per key.
+ * It is simple and fast for small key spaces, but puts pressure on the garbage collector
+ * when millions of keys are stored. See {@link OffHeapKeyValueStore} for the default backend.
+ */
+public class HeapKeyValueStore implements KeyValueStore {
+    private final ConcurrentHashMap<String, VersionedValue> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public String get(String key) {
+        VersionedValue entry = entries.get(key);
+        return entry != null ? entry.asString() : null;
+    }
+
+    @Override
+    public long version(String key) {
+        VersionedValue entry = entries.get(key);
+        return entry != null ? entry.version : NO_VERSION;
+    }
+
+    @Override
+    public void put(String key, String value, long version) {
+        entries.put(key, new VersionedValue(value, version));
+    }
+
+    @Override
+    public boolean putIfNewer(String key, String value, long version) {
+        VersionedValue candidate = new VersionedValue(value, version);
+        VersionedValue result = entries.merge(key, candidate,
+                (current, update) -> update.version > current.version ? update : current);
+        return result == candidate;
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        VersionedValue entry = entries.get(key);
+        return entry != null ? entry.asLong() : defaultValue;
+    }
+
+    @Override
+    public void putLong(String key, long value, long version) {
+        entries.put(key, new VersionedValue(value, version));
+    }
+
+    @Override
+    public boolean putLongIfNewer(String key, long value, long version) {
+        VersionedValue candidate = new VersionedValue(value, version);
+        VersionedValue result = entries.merge(key, candidate,
+                (current, update) -> update.version > current.version ? update : current);
+        return result == candidate;
+    }
+
+    @Override
+    public long addLong(String key, long delta, long version) {
+        return entries.merge(key, new VersionedValue(delta, version),
+                (current, update) -> new VersionedValue(current.asLong() + update.number, update.version)).number;
+    }
+
+    @Override
+    public boolean remove(String key) {
+        return entries.remove(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        entries.forEach((key, v) -> visitor.visit(key, v.value, v.number, v.version));
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+    }
+
+    /**
+     * Value class with version for Last-Write-Wins conflict resolution.
+     * Holds either a string value or, if value is null, a primitive long.
+     */
+    private static class VersionedValue {
+        final String value;
+        final long number;
+        final long version;
+
+        VersionedValue(String value, long version) {
+            this.value = value;
+            this.number = 0;
+            this.version = version;
+        }
+
+        VersionedValue(long number, long version) {
+            this.value = null;
+            this.number = number;
+            this.version = version;
+        }
+
+        String asString() {
+            return value != null ? value : Long.toString(number);
+        }
+
+        long asLong() {
+            return value != null ? Long.parseLong(value) : number;
+        }
+    }
+}
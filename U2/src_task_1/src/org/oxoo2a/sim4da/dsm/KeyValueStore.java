@@ -0,0 +1,228 @@
+package org.oxoo2a.sim4da.dsm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Storage backend for the local copy of the data held by a DSM instance.
+ *
+ * Every entry consists of a key, a value and a version. The version is used by
+ * implementations that resolve conflicts by comparing versions (e.g. Last-Write-Wins
+ * in the AP DSM); implementations that don't need versioning simply store 0.
+ *
+ * Implementations must be safe for concurrent use by the node thread and the
+ * background threads spawned by the DSM implementations.
+ */
+public interface KeyValueStore {
+    /**
+     * Version returned by {@link #version(String)} for keys that are not present.
+     */
+    long NO_VERSION = -1L;
+
+    /**
+     * Receives the entries of a store, see {@link #forEach}.
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+        /**
+         * @param key The key
+         * @param value The string value, or null if the value was stored with {@link #putLong}
+         * @param number The value stored with {@link #putLong}, 0 for string values
+         * @param version The version of the value
+         */
+        void visit(String key, String value, long number, long version);
+    }
+
+    /**
+     * Returns the value stored for the given key.
+     *
+     * @param key The key to look up
+     * @return The stored value, or null if the key doesn't exist
+     */
+    String get(String key);
+
+    /**
+     * Returns the version stored for the given key.
+     *
+     * @param key The key to look up
+     * @return The stored version, or {@link #NO_VERSION} if the key doesn't exist
+     */
+    long version(String key);
+
+    /**
+     * Stores a value unconditionally, replacing any previous value and version.
+     *
+     * @param key The key to write to
+     * @param value The value to store (must not be null)
+     * @param version The version to store with the value
+     */
+    void put(String key, String value, long version);
+
+    /**
+     * Stores a value with version 0, for DSMs that don't use versioning.
+     *
+     * @param key The key to write to
+     * @param value The value to store (must not be null)
+     */
+    default void put(String key, String value) {
+        put(key, value, 0L);
+    }
+
+    /**
+     * Atomically stores a value only if the key is absent or its current version is
+     * strictly lower than the given version (Last-Write-Wins).
+     *
+     * @param key The key to write to
+     * @param value The value to store (must not be null)
+     * @param version The version of the value
+     * @return true if the value was stored, false if the stored version was newer or equal
+     */
+    boolean putIfNewer(String key, String value, long version);
+
+    /**
+     * Returns the value stored for the given key as a primitive long. Values stored
+     * with {@link #putLong} are returned without any conversion, string values are parsed.
+     *
+     * @param key The key to look up
+     * @param defaultValue The value to return if the key doesn't exist
+     * @return The stored value, or defaultValue if the key doesn't exist
+     * @throws NumberFormatException If the stored value is a string that isn't a decimal long
+     */
+    long getLong(String key, long defaultValue);
+
+    /**
+     * Stores a primitive long value unconditionally, replacing any previous value and version.
+     *
+     * @param key The key to write to
+     * @param value The value to store
+     * @param version The version to store with the value
+     */
+    void putLong(String key, long value, long version);
+
+    /**
+     * Stores a primitive long value with version 0, for DSMs that don't use versioning.
+     *
+     * @param key The key to write to
+     * @param value The value to store
+     */
+    default void putLong(String key, long value) {
+        putLong(key, value, 0L);
+    }
+
+    /**
+     * Atomically stores a primitive long value only if the key is absent or its current
+     * version is strictly lower than the given version (Last-Write-Wins).
+     *
+     * @param key The key to write to
+     * @param value The value to store
+     * @param version The version of the value
+     * @return true if the value was stored, false if the stored version was newer or equal
+     */
+    boolean putLongIfNewer(String key, long value, long version);
+
+    /**
+     * Atomically adds delta to the value stored for the given key and sets its version.
+     * Absent keys are treated as 0.
+     *
+     * @param key The key to update
+     * @param delta The amount to add
+     * @param version The version to store with the new value
+     * @return The new value
+     * @throws NumberFormatException If the stored value is a string that isn't a decimal long
+     */
+    long addLong(String key, long delta, long version);
+
+    /**
+     * Removes the entry for the given key.
+     *
+     * @param key The key to remove
+     * @return true if an entry was removed
+     */
+    boolean remove(String key);
+
+    /**
+     * @return The number of entries in this store
+     */
+    int size();
+
+    /**
+     * Calls the visitor for every entry, in no particular order. Entries written while the
+     * visit runs may or may not be seen; the visitor itself must not write to the store.
+     *
+     * @param visitor Called once per entry
+     */
+    void forEach(EntryVisitor visitor);
+
+    /**
+     * Writes all entries in a compact binary form that {@link #readFrom} reads back, e.g.
+     * into a checkpoint. Primitive values stay primitive.
+     *
+     * @param out The stream to write to
+     * @throws IOException If writing fails
+     */
+    default void writeTo(DataOutput out) throws IOException {
+        try {
+            forEach((key, value, number, version) -> {
+                try {
+                    if (value != null) {
+                        out.writeByte(1);
+                        BinaryStrings.write(out, key);
+                        BinaryStrings.write(out, value);
+                    } else {
+                        out.writeByte(2);
+                        BinaryStrings.write(out, key);
+                        out.writeLong(number);
+                    }
+                    out.writeLong(version);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(0);
+    }
+
+    /**
+     * Adds the entries written by {@link #writeTo}, replacing entries with the same keys.
+     *
+     * @param in The stream to read from
+     * @throws IOException If reading fails or the data wasn't written by {@link #writeTo}
+     */
+    default void readFrom(DataInput in) throws IOException {
+        while (true) {
+            byte kind = in.readByte();
+            switch (kind) {
+                case 0:
+                    return;
+                case 1: {
+                    String key = BinaryStrings.read(in);
+                    String value = BinaryStrings.read(in);
+                    put(key, value, in.readLong());
+                    break;
+                }
+                case 2: {
+                    String key = BinaryStrings.read(in);
+                    long value = in.readLong();
+                    putLong(key, value, in.readLong());
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown entry kind " + kind);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries but keeps the store usable.
+     */
+    void clear();
+
+    /**
+     * Releases all resources held by this store. The store must not be used afterwards.
+     */
+    void close();
+}
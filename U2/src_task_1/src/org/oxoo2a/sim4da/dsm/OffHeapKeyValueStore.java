@@ -0,0 +1,581 @@
+package org.oxoo2a.sim4da.dsm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Off-heap storage backend based on an open-addressing hash table.
+ *
+ * All keys, values and versions are kept inline in direct {@link ByteBuffer}s, so the
+ * garbage collector only sees two buffer objects per store no matter how many keys are
+ * stored. The table consists of two regions:
+ *
+ * - The slot region holds one long per slot: the upper 32 bits contain the spread hash
+ *   of the key, the lower 32 bits the offset of the record in the data region plus one.
+ *   A slot of 0 is empty, a slot with a hash but no record is a tombstone. Collisions
+ *   are resolved by linear probing.
+ * - The data region holds the records, appended at 8-byte aligned offsets:
+ *   [key length (chars)][value capacity (bytes)][version][value type][value length (bytes)]
+ *   followed by the key as UTF-16 chars and the value bytes. String values are stored as
+ *   UTF-16 chars, long values stored with {@link #putLong} as a primitive 8-byte slot.
+ *
+ * Keys are compared char by char against the buffer, so lookups and all long operations
+ * don't allocate. Values that fit into the capacity of their record are overwritten in
+ * place without touching the rest of the data region, larger values are appended as a new
+ * record. The space of replaced and removed records is reclaimed by compacting the data
+ * region once an append finds it full and at least half of it is garbage.
+ *
+ * Direct buffers are released by the garbage collector once the store has been closed.
+ */
+public class OffHeapKeyValueStore implements KeyValueStore {
+    private static final int DEFAULT_INITIAL_SLOTS = 256;
+    private static final int DEFAULT_INITIAL_DATA_BYTES = 16 * 1024;
+    private static final int MAX_SLOTS = 1 << 27;
+    private static final int MAX_DATA_BYTES = Integer.MAX_VALUE - 8;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    // Slot encoding
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = 0xFFFF_FFFF_0000_0000L;
+
+    // Record layout
+    private static final int KEY_LENGTH_OFFSET = 0;
+    private static final int VALUE_CAPACITY_OFFSET = 4;
+    private static final int VERSION_OFFSET = 8;
+    private static final int VALUE_TYPE_OFFSET = 16;
+    private static final int VALUE_LENGTH_OFFSET = 20;
+    private static final int HEADER_BYTES = 24;
+
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_LONG = 1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ByteBuffer slots;
+    private int slotMask;
+    private int usedSlots; // live entries and tombstones
+    private int liveEntries;
+
+    private ByteBuffer data;
+    private int dataEnd;
+    private int garbageBytes;
+
+    public OffHeapKeyValueStore() {
+        this(DEFAULT_INITIAL_SLOTS, DEFAULT_INITIAL_DATA_BYTES);
+    }
+
+    /**
+     * Creates a store with the given initial sizes. Both regions grow on demand.
+     *
+     * @param initialSlots Initial number of slots, rounded up to a power of two
+     * @param initialDataBytes Initial size of the data region in bytes
+     */
+    public OffHeapKeyValueStore(int initialSlots, int initialDataBytes) {
+        int slotCount = Integer.highestOneBit(Math.max(16, Math.min(initialSlots, MAX_SLOTS)) - 1) << 1;
+        this.slots = allocate(slotCount * 8);
+        this.slotMask = slotCount - 1;
+        this.data = allocate(Math.max(HEADER_BYTES * 4, initialDataBytes));
+    }
+
+    @Override
+    public String get(String key) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            if (index < 0) {
+                return null;
+            }
+            int record = recordOf(index);
+            if (data.getInt(record + VALUE_TYPE_OFFSET) == TYPE_LONG) {
+                return Long.toString(data.getLong(valueStart(record)));
+            }
+            return readString(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long version(String key) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            if (index < 0) {
+                return NO_VERSION;
+            }
+            return data.getLong(recordOf(index) + VERSION_OFFSET);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value, long version) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            storeString(key, value, version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfNewer(String key, String value, long version) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            if (index >= 0 && data.getLong(recordOf(index) + VERSION_OFFSET) >= version) {
+                return false;
+            }
+            storeString(key, value, version);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            if (index < 0) {
+                return defaultValue;
+            }
+            return readLong(recordOf(index));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putLong(String key, long value, long version) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            storeLong(key, value, version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putLongIfNewer(String key, long value, long version) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            if (index >= 0 && data.getLong(recordOf(index) + VERSION_OFFSET) >= version) {
+                return false;
+            }
+            storeLong(key, value, version);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long addLong(String key, long delta, long version) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            long value = (index >= 0 ? readLong(recordOf(index)) : 0L) + delta;
+            storeLong(key, value, version);
+            return value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String key) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int index = findSlot(key, hash(key));
+            if (index < 0) {
+                return false;
+            }
+            garbageBytes += recordSize(recordOf(index));
+            slots.putLong(index << 3, TOMBSTONE);
+            liveEntries--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveEntries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (int i = 0; i <= slotMask; i++) {
+                int ref = (int) slots.getLong(i << 3);
+                if (ref == 0) {
+                    continue;
+                }
+                int record = ref - 1;
+                int keyChars = data.getInt(record + KEY_LENGTH_OFFSET);
+                char[] key = new char[keyChars];
+                for (int c = 0; c < keyChars; c++) {
+                    key[c] = data.getChar(record + HEADER_BYTES + c * 2);
+                }
+                long version = data.getLong(record + VERSION_OFFSET);
+                if (data.getInt(record + VALUE_TYPE_OFFSET) == TYPE_LONG) {
+                    visitor.visit(new String(key), null, data.getLong(valueStart(record)), version);
+                } else {
+                    visitor.visit(new String(key), readString(record), 0, version);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (int i = 0; i <= slotMask; i++) {
+                slots.putLong(i << 3, EMPTY);
+            }
+            usedSlots = 0;
+            liveEntries = 0;
+            dataEnd = 0;
+            garbageBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            slots = null;
+            data = null;
+            usedSlots = 0;
+            liveEntries = 0;
+            dataEnd = 0;
+            garbageBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a string value, reusing the existing record if the value fits. Caller must
+     * hold the write lock.
+     */
+    private void storeString(String key, String value, long version) {
+        int valueBytes = value.length() * 2;
+        int record = prepareRecord(key, valueBytes);
+        data.putLong(record + VERSION_OFFSET, version);
+        data.putInt(record + VALUE_TYPE_OFFSET, TYPE_STRING);
+        data.putInt(record + VALUE_LENGTH_OFFSET, valueBytes);
+        int valueStart = valueStart(record);
+        for (int i = 0; i < value.length(); i++) {
+            data.putChar(valueStart + i * 2, value.charAt(i));
+        }
+    }
+
+    /**
+     * Stores a long value into a primitive slot. Caller must hold the write lock.
+     */
+    private void storeLong(String key, long value, long version) {
+        int record = prepareRecord(key, 8);
+        data.putLong(record + VERSION_OFFSET, version);
+        data.putInt(record + VALUE_TYPE_OFFSET, TYPE_LONG);
+        data.putInt(record + VALUE_LENGTH_OFFSET, 8);
+        data.putLong(valueStart(record), value);
+    }
+
+    /**
+     * Returns the offset of a record for the key that can hold valueBytes bytes, creating or
+     * relocating the record if necessary. Caller must hold the write lock.
+     */
+    private int prepareRecord(String key, int valueBytes) {
+        int hash = hash(key);
+        int existing = findSlot(key, hash);
+        if (existing >= 0) {
+            int record = recordOf(existing);
+            if (data.getInt(record + VALUE_CAPACITY_OFFSET) >= valueBytes) {
+                return record;
+            }
+        } else {
+            ensureSlotCapacity();
+        }
+        // Growing or compacting invalidates slot indices and record offsets, so the slot is
+        // looked up again afterwards.
+        ensureDataCapacity(recordSize(key.length(), valueBytes));
+
+        int index = hash & slotMask;
+        int firstTombstone = -1;
+        while (true) {
+            long slot = slots.getLong(index << 3);
+            if (slot == EMPTY) {
+                break;
+            }
+            int ref = (int) slot;
+            if (ref == 0) {
+                if (firstTombstone < 0) {
+                    firstTombstone = index;
+                }
+            } else if ((int) (slot >>> 32) == hash && keyEquals(ref - 1, key)) {
+                garbageBytes += recordSize(ref - 1);
+                int relocated = appendRecord(key, valueBytes);
+                slots.putLong(index << 3, encodeSlot(hash, relocated));
+                return relocated;
+            }
+            index = (index + 1) & slotMask;
+        }
+
+        int record = appendRecord(key, valueBytes);
+        if (firstTombstone >= 0) {
+            index = firstTombstone;
+        } else {
+            usedSlots++;
+        }
+        slots.putLong(index << 3, encodeSlot(hash, record));
+        liveEntries++;
+        return record;
+    }
+
+    private int appendRecord(String key, int valueBytes) {
+        int record = dataEnd;
+        int valueCapacity = align8(valueBytes);
+        data.putInt(record + KEY_LENGTH_OFFSET, key.length());
+        data.putInt(record + VALUE_CAPACITY_OFFSET, valueCapacity);
+        int keyStart = record + HEADER_BYTES;
+        for (int i = 0; i < key.length(); i++) {
+            data.putChar(keyStart + i * 2, key.charAt(i));
+        }
+        dataEnd += recordSize(record);
+        return record;
+    }
+
+    private int findSlot(String key, int hash) {
+        int index = hash & slotMask;
+        while (true) {
+            long slot = slots.getLong(index << 3);
+            if (slot == EMPTY) {
+                return -1;
+            }
+            int ref = (int) slot;
+            if (ref != 0 && (int) (slot >>> 32) == hash && keyEquals(ref - 1, key)) {
+                return index;
+            }
+            index = (index + 1) & slotMask;
+        }
+    }
+
+    private boolean keyEquals(int record, String key) {
+        if (data.getInt(record + KEY_LENGTH_OFFSET) != key.length()) {
+            return false;
+        }
+        int keyStart = record + HEADER_BYTES;
+        for (int i = 0; i < key.length(); i++) {
+            if (data.getChar(keyStart + i * 2) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString(int record) {
+        int valueChars = data.getInt(record + VALUE_LENGTH_OFFSET) / 2;
+        int valueStart = valueStart(record);
+        char[] chars = new char[valueChars];
+        for (int i = 0; i < valueChars; i++) {
+            chars[i] = data.getChar(valueStart + i * 2);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reads a value as long, parsing string values in place without creating a String.
+     */
+    private long readLong(int record) {
+        int valueStart = valueStart(record);
+        if (data.getInt(record + VALUE_TYPE_OFFSET) == TYPE_LONG) {
+            return data.getLong(valueStart);
+        }
+        int valueChars = data.getInt(record + VALUE_LENGTH_OFFSET) / 2;
+        boolean negative = valueChars > 1 && data.getChar(valueStart) == '-';
+        int i = negative ? 1 : 0;
+        // Up to 18 digits can't overflow, everything else is left to Long.parseLong
+        if (i >= valueChars || valueChars - i > 18) {
+            return Long.parseLong(readString(record));
+        }
+        long result = 0;
+        for (; i < valueChars; i++) {
+            int digit = data.getChar(valueStart + i * 2) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(readString(record));
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    private void ensureSlotCapacity() {
+        if (usedSlots + 1 <= (slotMask + 1) * MAX_LOAD_FACTOR) {
+            return;
+        }
+        int slotCount = slotMask + 1;
+        // Only grow if live entries fill the table, otherwise rehashing purges the tombstones
+        if (liveEntries + 1 > slotCount * MAX_LOAD_FACTOR / 2) {
+            if (slotCount >= MAX_SLOTS) {
+                throw new IllegalStateException("Off-heap store exceeded " + MAX_SLOTS + " slots");
+            }
+            slotCount <<= 1;
+        }
+        rebuild(slotCount, data.capacity());
+    }
+
+    private void ensureDataCapacity(int bytesNeeded) {
+        long required = (long) dataEnd + bytesNeeded;
+        if (required <= data.capacity()) {
+            return;
+        }
+        long liveBytes = dataEnd - garbageBytes;
+        if (garbageBytes >= data.capacity() / 2 && liveBytes + bytesNeeded <= data.capacity()) {
+            rebuild(slotMask + 1, data.capacity());
+            return;
+        }
+        long capacity = Math.max((long) data.capacity() * 2, liveBytes + bytesNeeded);
+        if (capacity > MAX_DATA_BYTES) {
+            if (liveBytes + bytesNeeded > MAX_DATA_BYTES) {
+                throw new IllegalStateException("Off-heap store exceeded " + MAX_DATA_BYTES + " bytes");
+            }
+            capacity = MAX_DATA_BYTES;
+        }
+        if (garbageBytes == 0) {
+            // Nothing to reclaim, a plain copy keeps all offsets valid
+            ByteBuffer grown = allocate((int) capacity);
+            ByteBuffer source = data.duplicate();
+            source.position(0).limit(dataEnd);
+            grown.put(source);
+            data = grown;
+        } else {
+            rebuild(slotMask + 1, (int) capacity);
+        }
+    }
+
+    /**
+     * Copies all live records into fresh regions of the given sizes, dropping tombstones
+     * and the space of replaced or removed records.
+     */
+    private void rebuild(int slotCount, int dataCapacity) {
+        ByteBuffer oldSlots = slots;
+        int oldSlotCount = slotMask + 1;
+        ByteBuffer oldData = data;
+
+        slots = allocate(slotCount * 8);
+        slotMask = slotCount - 1;
+        data = allocate(dataCapacity);
+        dataEnd = 0;
+        garbageBytes = 0;
+        usedSlots = 0;
+
+        for (int i = 0; i < oldSlotCount; i++) {
+            long slot = oldSlots.getLong(i << 3);
+            int ref = (int) slot;
+            if (ref == 0) {
+                continue;
+            }
+            int oldRecord = ref - 1;
+            int size = recordSize(oldData, oldRecord);
+            int record = dataEnd;
+            for (int b = 0; b < size; b += 8) {
+                data.putLong(record + b, oldData.getLong(oldRecord + b));
+            }
+            dataEnd += size;
+
+            int hash = (int) (slot >>> 32);
+            int index = hash & slotMask;
+            while (slots.getLong(index << 3) != EMPTY) {
+                index = (index + 1) & slotMask;
+            }
+            slots.putLong(index << 3, encodeSlot(hash, record));
+            usedSlots++;
+        }
+    }
+
+    /**
+     * @return The size of the data region in bytes, for tests
+     */
+    int dataCapacity() {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return data.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int recordOf(int index) {
+        return (int) slots.getLong(index << 3) - 1;
+    }
+
+    private int recordSize(int record) {
+        return recordSize(data, record);
+    }
+
+    private static int recordSize(ByteBuffer buffer, int record) {
+        return align8(HEADER_BYTES + buffer.getInt(record + KEY_LENGTH_OFFSET) * 2)
+                + buffer.getInt(record + VALUE_CAPACITY_OFFSET);
+    }
+
+    private static int recordSize(int keyChars, int valueBytes) {
+        return align8(HEADER_BYTES + keyChars * 2) + align8(valueBytes);
+    }
+
+    private int valueStart(int record) {
+        return record + align8(HEADER_BYTES + data.getInt(record + KEY_LENGTH_OFFSET) * 2);
+    }
+
+    private void ensureOpen() {
+        if (slots == null) {
+            throw new IllegalStateException("Off-heap store has been closed");
+        }
+    }
+
+    private static long encodeSlot(int hash, int record) {
+        return ((long) hash << 32) | ((record + 1) & 0xFFFF_FFFFL);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int align8(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
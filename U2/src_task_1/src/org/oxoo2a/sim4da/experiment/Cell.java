@@ -0,0 +1,71 @@
+package org.oxoo2a.sim4da.experiment;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * One point of a {@link ParameterGrid}: a value for every axis.
+ */
+public final class Cell {
+    private final int index;
+    private final Map<String, Object> values;
+
+    Cell(int index, Map<String, Object> values) {
+        this.index = index;
+        this.values = values;
+    }
+
+    /**
+     * @return Position of the cell in {@link ParameterGrid#cells()}
+     */
+    public int index() {
+        return index;
+    }
+
+    public Map<String, Object> values() {
+        return values;
+    }
+
+    public Object get(String name) {
+        Object value = values.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown parameter " + name);
+        }
+        return value;
+    }
+
+    public int getInt(String name) {
+        return ((Number) get(name)).intValue();
+    }
+
+    public long getLong(String name) {
+        return ((Number) get(name)).longValue();
+    }
+
+    public double getDouble(String name) {
+        return ((Number) get(name)).doubleValue();
+    }
+
+    public String getString(String name) {
+        return String.valueOf(get(name));
+    }
+
+    public <E extends Enum<E>> E getEnum(String name, Class<E> type) {
+        Object value = get(name);
+        return type.isInstance(value) ? type.cast(value) : Enum.valueOf(type, value.toString());
+    }
+
+    /**
+     * @return A readable id like "n=16,k=3,p=0.5"
+     */
+    public String id() {
+        return values.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining(","));
+    }
+
+    @Override
+    public String toString() {
+        return id();
+    }
+}
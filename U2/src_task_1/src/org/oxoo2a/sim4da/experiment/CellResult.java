@@ -0,0 +1,57 @@
+package org.oxoo2a.sim4da.experiment;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated results of all repetitions of one {@link Cell}.
+ */
+public class CellResult {
+    private final Cell cell;
+    private final Map<String, Summary> metrics = new TreeMap<>();
+    private int trials = 0;
+    private int failures = 0;
+
+    CellResult(Cell cell) {
+        this.cell = cell;
+    }
+
+    synchronized void record(Map<String, Double> measurements) {
+        trials++;
+        for (Map.Entry<String, Double> m : measurements.entrySet()) {
+            metrics.computeIfAbsent(m.getKey(), k -> new Summary()).add(m.getValue());
+        }
+    }
+
+    synchronized void fail() {
+        trials++;
+        failures++;
+    }
+
+    public Cell cell() {
+        return cell;
+    }
+
+    /**
+     * @return The number of finished repetitions, including failed ones
+     */
+    public synchronized int trials() {
+        return trials;
+    }
+
+    public synchronized int failures() {
+        return failures;
+    }
+
+    /**
+     * @return The summary of every metric reported by the experiment, sorted by name
+     */
+    public synchronized Map<String, Summary> metrics() {
+        return Collections.unmodifiableMap(new TreeMap<>(metrics));
+    }
+
+    public synchronized Summary metric(String name) {
+        return metrics.get(name);
+    }
+}
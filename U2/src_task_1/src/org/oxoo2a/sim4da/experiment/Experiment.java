@@ -0,0 +1,25 @@
+package org.oxoo2a.sim4da.experiment;
+
+import org.oxoo2a.sim4da.SimulationContext;
+
+import java.util.Map;
+
+/**
+ * One trial of a sweep: sets up a simulation for a cell, runs it and reports measurements.
+ *
+ * The {@link SweepRunner} calls {@link #run} on a worker thread with a fresh
+ * {@link SimulationContext} as current context, so nodes created inside belong to this
+ * trial only. The runner shuts the context's simulator down after the trial returns.
+ */
+@FunctionalInterface
+public interface Experiment {
+
+    /**
+     * @param cell The parameters of this trial
+     * @param repetition Number of the repetition, starting at 1
+     * @param context The context of this trial
+     * @return The measurements of this trial by metric name; every metric is aggregated per cell
+     * @throws Exception Counts the trial as failed
+     */
+    Map<String, Double> run(Cell cell, int repetition, SimulationContext context) throws Exception;
+}
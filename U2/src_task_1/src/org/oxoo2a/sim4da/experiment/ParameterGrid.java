@@ -0,0 +1,113 @@
+package org.oxoo2a.sim4da.experiment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parameters of a sweep: named axes with the values to try on each axis.
+ *
+ * The grid is the cartesian product of all axes, for example
+ * <pre>
+ * ParameterGrid grid = new ParameterGrid()
+ *         .axis("n", 16, 64, 128)
+ *         .axis("dsm", DSMFactory.DSMType.values())
+ *         .axis("faults", "none", "partition-every-15s");
+ * </pre>
+ * has 3 * 3 * 2 = 18 cells. Values can be of any type; the {@link Experiment} interprets them.
+ */
+public class ParameterGrid {
+    private final Map<String, List<Object>> axes = new LinkedHashMap<>();
+
+    /**
+     * Adds an axis. The order of the axes determines the order of the cells and of the
+     * parameter columns in the result CSV.
+     *
+     * @param name Name of the parameter
+     * @param values Values of the parameter, at least one
+     * @return This grid
+     */
+    public ParameterGrid axis(String name, Object... values) {
+        return axis(name, Arrays.asList(values));
+    }
+
+    /**
+     * Adds an axis with the given list of values.
+     *
+     * @see #axis(String, Object...)
+     */
+    public ParameterGrid axis(String name, List<?> values) {
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("Axis " + name + " needs at least one value");
+        }
+        if (axes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate axis " + name);
+        }
+        axes.put(name, List.copyOf(values));
+        return this;
+    }
+
+    /**
+     * Adds an axis from a comma separated list of integers, e.g. "16,64,128".
+     */
+    public ParameterGrid intAxis(String name, String values) {
+        List<Object> parsed = new ArrayList<>();
+        for (String value : values.split(",")) {
+            parsed.add(Integer.parseInt(value.trim()));
+        }
+        return axis(name, parsed);
+    }
+
+    /**
+     * Adds an axis from a comma separated list of doubles, e.g. "0.25,0.5".
+     */
+    public ParameterGrid doubleAxis(String name, String values) {
+        List<Object> parsed = new ArrayList<>();
+        for (String value : values.split(",")) {
+            parsed.add(Double.parseDouble(value.trim()));
+        }
+        return axis(name, parsed);
+    }
+
+    public List<String> names() {
+        return List.copyOf(axes.keySet());
+    }
+
+    /**
+     * @return The number of cells in the grid
+     */
+    public int size() {
+        int size = 1;
+        for (List<Object> values : axes.values()) {
+            size *= values.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return All cells, the last axis varying fastest
+     */
+    public List<Cell> cells() {
+        List<String> names = names();
+        List<Cell> cells = new ArrayList<>(size());
+        int[] position = new int[names.size()];
+        for (int index = 0; index < size(); index++) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (int axis = 0; axis < names.size(); axis++) {
+                values.put(names.get(axis), axes.get(names.get(axis)).get(position[axis]));
+            }
+            cells.add(new Cell(index, Collections.unmodifiableMap(values)));
+            // Advance the mixed-radix counter
+            for (int axis = names.size() - 1; axis >= 0; axis--) {
+                if (++position[axis] < axes.get(names.get(axis)).size()) {
+                    break;
+                }
+                position[axis] = 0;
+            }
+        }
+        return cells;
+    }
+}
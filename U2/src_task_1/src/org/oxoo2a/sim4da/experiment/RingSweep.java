@@ -0,0 +1,64 @@
+package org.oxoo2a.sim4da.experiment;
+
+import org.oxoo2a.sim4da.SimulatedProcessNode;
+import org.oxoo2a.sim4da.SimulationContext;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sweeps the firework token ring ({@link SimulatedProcessNode}) over ring size, termination
+ * threshold k and initial firework probability p.
+ *
+ * All settings are system properties:
+ * <pre>
+ * -Dsweep.n=4,8,16,32      ring sizes
+ * -Dsweep.k=3              rounds without firework before termination
+ * -Dsweep.p=0.5            initial firework probability
+ * -Dsweep.repetitions=30   trials per cell
+ * -Dsweep.workers=&lt;cores/2&gt; parallel trials
+ * -Dsweep.csv=ring_sweep.csv
+ * </pre>
+ */
+public class RingSweep {
+
+    public static void main(String[] args) throws Exception {
+        ParameterGrid grid = new ParameterGrid()
+                .intAxis("n", System.getProperty("sweep.n", "4,8,16,32"))
+                .intAxis("k", System.getProperty("sweep.k", "3"))
+                .doubleAxis("p", System.getProperty("sweep.p", "0.5"));
+        int repetitions = Integer.getInteger("sweep.repetitions", 30);
+        int workers = Integer.getInteger("sweep.workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        Path csv = Path.of(System.getProperty("sweep.csv", "ring_sweep.csv"));
+
+        List<CellResult> results = new SweepRunner(grid, repetitions, workers).run(RingSweep::runRing, csv);
+        long failures = results.stream().mapToInt(CellResult::failures).sum();
+        System.out.println("Sweep finished, " + failures + " failed trials. Summary written to " + csv);
+    }
+
+    /**
+     * One ring run: creates the nodes in the trial's context and simulates until the ring terminates.
+     */
+    static Map<String, Double> runRing(Cell cell, int repetition, SimulationContext context) {
+        int n = cell.getInt("n");
+        int k = cell.getInt("k");
+        double p = cell.getDouble("p");
+        for (int i = 0; i < n; i++) {
+            new SimulatedProcessNode(i, n, k, p);
+        }
+        long start = System.nanoTime();
+        context.getSimulator().simulate();
+        double wallMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+        SimulatedProcessNode.RunState state = SimulatedProcessNode.runState(context);
+        SimulatedProcessNode p0 = state.getP0();
+        List<Double> roundTimes = p0.getRoundTimesMillis();
+        double meanRound = roundTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+        return Map.of(
+                "rounds", (double) p0.getTotalRoundsCompleted(),
+                "fireworks", (double) state.getTotalFireworks(),
+                "round_ms", meanRound,
+                "wall_ms", wallMillis);
+    }
+}
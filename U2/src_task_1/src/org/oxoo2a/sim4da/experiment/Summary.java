@@ -0,0 +1,112 @@
+package org.oxoo2a.sim4da.experiment;
+
+import java.util.Arrays;
+
+/**
+ * Summary statistics of one metric over the repetitions of a cell.
+ *
+ * Mean and variance are updated incrementally with Welford's algorithm, so they stay exact
+ * for many repetitions without summing large numbers. The samples are kept as well
+ * (8 bytes each) to report exact percentiles.
+ */
+public class Summary {
+    // Two-sided 97.5% quantiles of Student's t distribution for 1 to 30 degrees of freedom
+    private static final double[] T_975 = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+    private static final double Z_975 = 1.959964;
+
+    private long count = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double[] samples = new double[8];
+    private boolean sorted = true;
+
+    public synchronized void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (count > samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[(int) count - 1] = value;
+        sorted = false;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized double mean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return The sample variance, NaN for fewer than two samples
+     */
+    public synchronized double variance() {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    public double stddev() {
+        return Math.sqrt(variance());
+    }
+
+    public synchronized double min() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public synchronized double max() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Half width of the 95% confidence interval of the mean, based on Student's t distribution.
+     *
+     * @return The half width, NaN for fewer than two samples
+     */
+    public synchronized double confidenceHalfWidth() {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        return tQuantile(count - 1) * Math.sqrt(m2 / (count - 1) / count);
+    }
+
+    /**
+     * Returns the percentile with linear interpolation between the closest ranks.
+     *
+     * @param percentile The percentile in the range [0, 100]
+     * @return The value, NaN if nothing was recorded
+     */
+    public synchronized double percentile(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (!sorted) {
+            Arrays.sort(samples, 0, (int) count);
+            sorted = true;
+        }
+        double rank = percentile / 100.0 * (count - 1);
+        int lower = (int) Math.floor(rank);
+        int upper = (int) Math.ceil(rank);
+        return samples[lower] + (rank - lower) * (samples[upper] - samples[lower]);
+    }
+
+    // Uses the table for small samples and a Cornish-Fisher expansion around the normal quantile beyond
+    static double tQuantile(long degreesOfFreedom) {
+        if (degreesOfFreedom <= T_975.length) {
+            return T_975[(int) degreesOfFreedom - 1];
+        }
+        double z = Z_975;
+        double df = degreesOfFreedom;
+        return z + (z * z * z + z) / (4 * df)
+                + (5 * Math.pow(z, 5) + 16 * z * z * z + 3 * z) / (96 * df * df);
+    }
+}
@@ -0,0 +1,188 @@
+package org.oxoo2a.sim4da.experiment;
+
+import org.oxoo2a.sim4da.SimulationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every cell of a {@link ParameterGrid} a number of times and aggregates the results.
+ *
+ * Trials run in parallel on a fixed pool of worker threads, each in its own
+ * {@link SimulationContext}. Trials are submitted cell by cell, so cells complete one after
+ * another; as soon as all repetitions of a cell are done its summary is logged and appended
+ * to the CSV file. The file uses one row per cell and metric:
+ * <pre>
+ * &lt;parameters&gt;,metric,trials,failures,mean,stddev,ci95_low,ci95_high,p50,p99,min,max
+ * </pre>
+ *
+ * Keep in mind that every node of a trial is a thread; the number of workers times the
+ * nodes per trial should stay within what the machine can schedule.
+ */
+public class SweepRunner {
+    private final ParameterGrid grid;
+    private final int repetitions;
+    private final int workers;
+    private final Logger logger = LoggerFactory.getLogger(SweepRunner.class);
+
+    /**
+     * @param grid The parameters to sweep
+     * @param repetitions Trials per cell
+     * @param workers Maximum number of trials running at the same time
+     */
+    public SweepRunner(ParameterGrid grid, int repetitions, int workers) {
+        if (repetitions < 1 || workers < 1) {
+            throw new IllegalArgumentException("repetitions and workers must be positive");
+        }
+        this.grid = grid;
+        this.repetitions = repetitions;
+        this.workers = workers;
+    }
+
+    /**
+     * Runs the sweep without writing a file.
+     *
+     * @return The results in the order of {@link ParameterGrid#cells()}
+     */
+    public List<CellResult> run(Experiment experiment) throws InterruptedException {
+        try {
+            return run(experiment, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Can't happen without a file
+        }
+    }
+
+    /**
+     * Runs the sweep and streams the cell summaries to a CSV file.
+     *
+     * @param csv The file to write (truncated), or null
+     * @return The results in the order of {@link ParameterGrid#cells()}
+     * @throws IOException If the file can't be written
+     */
+    public List<CellResult> run(Experiment experiment, Path csv) throws IOException, InterruptedException {
+        List<Cell> cells = grid.cells();
+        List<CellResult> results = new ArrayList<>(cells.size());
+        for (Cell cell : cells) {
+            results.add(new CellResult(cell));
+        }
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "sweep-worker-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Trial> completion = new ExecutorCompletionService<>(pool);
+        long start = System.nanoTime();
+        logger.info("Sweeping {} cells x {} repetitions on {} workers", cells.size(), repetitions, workers);
+
+        try (BufferedWriter writer = csv != null ? Files.newBufferedWriter(csv, StandardCharsets.UTF_8) : null) {
+            if (writer != null) {
+                writer.write(String.join(",", grid.names()) + ",metric,trials,failures,mean,stddev,ci95_low,ci95_high,p50,p99,min,max");
+                writer.newLine();
+                writer.flush();
+            }
+            for (Cell cell : cells) {
+                for (int repetition = 1; repetition <= repetitions; repetition++) {
+                    int rep = repetition;
+                    completion.submit(() -> runTrial(experiment, cell, rep));
+                }
+            }
+            int completedCells = 0;
+            for (int i = 0; i < cells.size() * repetitions; i++) {
+                Trial trial = take(completion);
+                CellResult result = results.get(trial.cell.index());
+                if (trial.measurements != null) {
+                    result.record(trial.measurements);
+                } else {
+                    logger.warn("Trial {} #{} failed: {}", trial.cell, trial.repetition, trial.error.toString());
+                    result.fail();
+                }
+                if (result.trials() == repetitions) {
+                    completedCells++;
+                    logCell(result, completedCells, cells.size(), start);
+                    if (writer != null) {
+                        writeCell(writer, result);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    private Trial runTrial(Experiment experiment, Cell cell, int repetition) {
+        SimulationContext context = new SimulationContext(cell.id() + "#" + repetition);
+        try {
+            return new Trial(cell, repetition, context.call(() -> experiment.run(cell, repetition, context)), null);
+        } catch (Exception e) {
+            return new Trial(cell, repetition, null, e);
+        } finally {
+            context.getSimulator().shutdown();
+        }
+    }
+
+    private static Trial take(CompletionService<Trial> completion) throws InterruptedException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            // runTrial catches exceptions, only errors end up here
+            throw new IllegalStateException("Trial aborted", e.getCause());
+        }
+    }
+
+    private void logCell(CellResult result, int completed, int total, long start) {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Summary> m : result.metrics().entrySet()) {
+            Summary s = m.getValue();
+            line.append(String.format(Locale.US, " %s=%.3f±%.3f", m.getKey(), s.mean(), s.confidenceHalfWidth()));
+        }
+        logger.info("Cell {}/{} [{}] done after {} s, {} failures:{}", completed, total, result.cell(),
+                (System.nanoTime() - start) / 1_000_000_000L, result.failures(), line);
+    }
+
+    private void writeCell(BufferedWriter writer, CellResult result) throws IOException {
+        StringBuilder parameters = new StringBuilder();
+        for (Object value : result.cell().values().values()) {
+            parameters.append(csvField(String.valueOf(value))).append(',');
+        }
+        for (Map.Entry<String, Summary> m : result.metrics().entrySet()) {
+            Summary s = m.getValue();
+            double half = s.confidenceHalfWidth();
+            writer.write(parameters + csvField(m.getKey()) + "," + result.trials() + "," + result.failures()
+                    + "," + s.mean() + "," + s.stddev() + "," + (s.mean() - half) + "," + (s.mean() + half)
+                    + "," + s.percentile(50) + "," + s.percentile(99) + "," + s.min() + "," + s.max());
+            writer.newLine();
+        }
+        if (result.metrics().isEmpty()) {
+            writer.write(parameters + "," + result.trials() + "," + result.failures() + ",,,,,,,,");
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private record Trial(Cell cell, int repetition, Map<String, Double> measurements, Exception error) {}
+}
@@ -0,0 +1,81 @@
+package org.oxoo2a.sim4da.failure;
+
+/**
+ * The intervals between the last heartbeats one node received from another, and the
+ * suspicion level phi derived from them (Hayashibara et al., "The phi accrual failure
+ * detector"). The intervals are kept in a ring buffer with a running sum and sum of
+ * squares, so both a heartbeat and a phi query cost O(1).
+ */
+final class HeartbeatHistory {
+
+    /**
+     * @param window Number of intervals the mean and deviation are computed from
+     * @param expectedIntervalNanos Heartbeat interval the history starts out with, before real heartbeats arrived
+     * @param minDeviationNanos Lower bound of the deviation, so that a very regular history doesn't make phi jump
+     * @param acceptablePauseNanos Added to the mean, a pause this long does not raise phi noticeably
+     * @param now Time the monitoring starts, it counts as the first heartbeat
+     */
+    HeartbeatHistory(int window, long expectedIntervalNanos, long minDeviationNanos, long acceptablePauseNanos, long now) {
+        this.intervals = new double[window];
+        this.minDeviation = minDeviationNanos / 1e6;
+        this.acceptablePause = acceptablePauseNanos / 1e6;
+        // Start with a deviation of a quarter interval, like a history that has seen a bit of jitter
+        double expected = expectedIntervalNanos / 1e6;
+        add(expected - expected / 4);
+        add(expected + expected / 4);
+        this.last = now;
+    }
+
+    synchronized void heartbeat(long now) {
+        add((now - last) / 1e6);
+        last = now;
+    }
+
+    /**
+     * @return -log10 of the probability that a heartbeat arrives even later than {@code now},
+     * under a normal distribution of the intervals seen so far
+     */
+    synchronized double phi(long now) {
+        double sinceLast = (now - last) / 1e6;
+        double mean = sum / count;
+        double deviation = Math.max(Math.sqrt(Math.max(squares / count - mean * mean, 0)), minDeviation);
+        double y = (sinceLast - mean - acceptablePause) / deviation;
+        // Logistic approximation of the normal distribution's CDF
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (sinceLast > mean + acceptablePause)
+            return -Math.log10(e / (1.0 + e));
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    // Changes the suspicion state, true if it changed
+    synchronized boolean suspect(boolean suspected) {
+        if (this.suspected == suspected)
+            return false;
+        this.suspected = suspected;
+        return true;
+    }
+
+    private void add(double interval) {
+        if (count == intervals.length) {
+            double oldest = intervals[next];
+            sum -= oldest;
+            squares -= oldest * oldest;
+        }
+        else
+            count++;
+        intervals[next] = interval;
+        next = (next + 1) % intervals.length;
+        sum += interval;
+        squares += interval * interval;
+    }
+
+    private final double[] intervals;
+    private final double minDeviation;
+    private final double acceptablePause;
+    private int count = 0;
+    private int next = 0;
+    private double sum = 0;
+    private double squares = 0;
+    private long last;
+    private boolean suspected = false;
+}
@@ -0,0 +1,197 @@
+package org.oxoo2a.sim4da.failure;
+
+import org.oxoo2a.sim4da.Network;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heartbeat-based phi accrual failure detector of a simulation. Every node that is
+ * monitored by some other node sends a heartbeat to its observers once per interval;
+ * a heartbeat arrives if the sending node is running and the network can currently
+ * deliver a message from it to the observer. Instead of a fixed timeout, each observer
+ * keeps the history of arrival intervals and computes phi, the suspicion level, from
+ * the time since the last heartbeat; a node is suspected while phi is at or above the
+ * threshold.
+ * <p>
+ * Heartbeats are handled by the detector's own thread and never enter the mailboxes,
+ * so a node that is busy or waits for a reply is not suspected by the others. Nodes
+ * of other processes are not monitored and never suspected.
+ * <p>
+ * The defaults, a heartbeat every 100ms and a threshold of 8, suspect a node roughly
+ * 350ms after its last heartbeat. They can be set with -Dsim4da.fd.interval=&lt;ms&gt; and
+ * -Dsim4da.fd.threshold=&lt;phi&gt;.
+ */
+public class PhiAccrualFailureDetector {
+
+    public static final double DEFAULT_THRESHOLD = 8.0;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+    // Intervals the mean and deviation are computed from
+    private static final int WINDOW = 64;
+
+    public PhiAccrualFailureDetector(String name, Network network, MetricsRegistry metrics) {
+        this.name = name;
+        this.network = network;
+        this.heartbeats = metrics.counter("failure.heartbeats");
+        this.suspicions = metrics.counter("failure.suspicions");
+        this.threshold = Double.parseDouble(System.getProperty("sim4da.fd.threshold", String.valueOf(DEFAULT_THRESHOLD)));
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("sim4da.fd.interval", DEFAULT_INTERVAL_MILLIS));
+    }
+
+    /**
+     * @param threshold Suspicion level from which on a node is suspected; 8 means a
+     *                  chance of about 1e-8 that the node is still alive and its heartbeat just late
+     */
+    public void setThreshold(double threshold) {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("Threshold must be positive, is " + threshold);
+        this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets how often nodes send heartbeats; applies to monitoring started afterwards.
+     */
+    public void setHeartbeatInterval(long interval, TimeUnit unit) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("Heartbeat interval must be positive, is " + interval);
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Starts monitoring the nodes from the point of view of {@code observer}. Monitoring
+     * also starts with the first query about a node, but a node that is unreachable from
+     * the start is only suspected once monitoring it started.
+     */
+    public void monitor(String observer, Collection<String> nodes) {
+        for (String node : nodes)
+            history(observer, node);
+    }
+
+    /**
+     * @return The suspicion level of {@code node} as seen by {@code observer}, 0 for nodes that are not monitored
+     */
+    public double phi(String observer, String node) {
+        HeartbeatHistory h = history(observer, node);
+        return h == null ? 0 : h.phi(System.nanoTime());
+    }
+
+    /**
+     * @return true if {@code observer} suspects {@code node} to have crashed or to be unreachable
+     */
+    public boolean isSuspected(String observer, String node) {
+        HeartbeatHistory h = history(observer, node);
+        if (h == null)
+            return false;
+        double phi = h.phi(System.nanoTime());
+        boolean suspected = phi >= threshold;
+        if (h.suspect(suspected)) {
+            if (suspected) {
+                suspicions.increment();
+                logger.debug("{} suspects {} (phi={})", observer, node, String.format("%.1f", phi));
+            }
+            else
+                logger.debug("{} no longer suspects {}", observer, node);
+        }
+        return suspected;
+    }
+
+    /**
+     * @return The nodes {@code observer} monitors and currently suspects
+     */
+    public List<String> suspects(String observer) {
+        List<String> suspects = new ArrayList<>();
+        for (String node : monitored.keySet())
+            if (!node.equals(observer) && monitored.get(node).containsKey(observer) && isSuspected(observer, node))
+                suspects.add(node);
+        return suspects;
+    }
+
+    /**
+     * Stops the heartbeats; afterwards every monitored node becomes suspected.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t != null)
+            t.interrupt();
+    }
+
+    // The history of node's heartbeats at observer, null if node can't be monitored
+    private HeartbeatHistory history(String observer, String node) {
+        if (observer.equals(node) || !network.hosts(node))
+            return null;
+        Map<String, HeartbeatHistory> observers = monitored.computeIfAbsent(node, n -> new ConcurrentHashMap<>());
+        HeartbeatHistory h = observers.get(observer);
+        if (h == null) {
+            long interval = intervalNanos;
+            h = observers.computeIfAbsent(observer,
+                    o -> new HeartbeatHistory(WINDOW, interval, interval / 4, interval, System.nanoTime()));
+            ensureStarted();
+        }
+        return h;
+    }
+
+    private synchronized void ensureStarted() {
+        if (thread != null)
+            return;
+        thread = new Thread(null, this::run, "heartbeat-" + name, 0, false);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                next += intervalNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                beat();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void beat() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, ConcurrentHashMap<String, HeartbeatHistory>> e : monitored.entrySet()) {
+            String node = e.getKey();
+            if (!network.isRunning(node))
+                continue;
+            for (Map.Entry<String, HeartbeatHistory> o : e.getValue().entrySet()) {
+                if (network.isReachable(node, o.getKey())) {
+                    o.getValue().heartbeat(now);
+                    heartbeats.increment();
+                }
+            }
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(PhiAccrualFailureDetector.class);
+    private final String name;
+    private final Network network;
+    private final Counter heartbeats;
+    private final Counter suspicions;
+    // Monitored node -> observer -> heartbeats of the node arriving at the observer
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, HeartbeatHistory>> monitored = new ConcurrentHashMap<>();
+    private volatile double threshold;
+    private volatile long intervalNanos;
+    private Thread thread = null;
+}
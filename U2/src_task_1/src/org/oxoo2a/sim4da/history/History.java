@@ -0,0 +1,103 @@
+package org.oxoo2a.sim4da.history;
+
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.dsm.DSM;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the operations the nodes of a simulation perform on a DSM, for a
+ * {@link HistoryChecker} to verify afterwards:
+ * <pre>
+ * DSM dsm = History.of(getContext()).record(NodeName(), getDSM(DSMFactory.DSMType.CP));
+ * ...
+ * HistoryChecker.Result result = HistoryChecker.check(History.of(context), HistoryChecker.Consistency.LINEARIZABLE);
+ * </pre>
+ * Every operation is stored with the times it was invoked and completed. Values are kept
+ * as longs: numbers as they are, other strings as ids, absent keys as {@link #ABSENT}.
+ * Operations that failed may still have taken effect; writes and adds among them are
+ * kept as indeterminate, failed reads are dropped.
+ */
+public class History {
+
+    /**
+     * Value of a key that was never written.
+     */
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    private final Map<String, NodeHistory> nodes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final Map<String, Long> valueIds = new ConcurrentHashMap<>();
+    private final AtomicInteger processes = new AtomicInteger();
+    private final AtomicLong values = new AtomicLong(ABSENT);
+
+    /**
+     * @return The history of the simulation, created on first use
+     */
+    public static History of(SimulationContext context) {
+        return context.attribute(History.class, History::new);
+    }
+
+    /**
+     * @return A DSM that performs its operations on {@code dsm} and records them as operations of {@code node}
+     */
+    public DSM record(String node, DSM dsm) {
+        return new RecordingDSM(dsm, node(node), this);
+    }
+
+    /**
+     * @return The buffer of the node, created on first use
+     */
+    public NodeHistory node(String node) {
+        return nodes.computeIfAbsent(node, n -> new NodeHistory(n, processes.getAndIncrement()));
+    }
+
+    public List<NodeHistory> nodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    /**
+     * @return The number of operations recorded
+     */
+    public long size() {
+        long size = 0;
+        for (NodeHistory h : nodes.values())
+            size += h.size();
+        return size;
+    }
+
+    int keyId(String key) {
+        Integer id = keyIds.get(key);
+        if (id != null)
+            return id;
+        synchronized (keys) {
+            return keyIds.computeIfAbsent(key, k -> {
+                keys.add(k);
+                return keys.size() - 1;
+            });
+        }
+    }
+
+    String keyName(int id) {
+        synchronized (keys) {
+            return keys.get(id);
+        }
+    }
+
+    long encode(String value) {
+        if (value == null)
+            return ABSENT;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Ids count up from just above ABSENT, far from the numbers programs write
+            return valueIds.computeIfAbsent(value, v -> values.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.oxoo2a.sim4da.history;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Checks a {@link History} against the sequential specification of a register: a read
+ * returns the last value written, an add returns the last value plus its delta.
+ * <p>
+ * Both consistency models are local, a history satisfies them if the operations on each
+ * key do, so every key is checked on its own and the keys are checked in parallel on the
+ * common fork/join pool.
+ * <ul>
+ * <li>{@link Consistency#LINEARIZABLE}: the search of Wing and Gong, with the cache of
+ * configurations Lowe added: operations are linearized in a total order that respects
+ * real time, backtracking when an operation returns before it could be placed, and
+ * never visiting a set of linearized operations with the same state twice. The set is
+ * identified by a Zobrist hash, so a configuration is one cache entry of two longs;
+ * two different sets collide with a probability of about 2^-64.</li>
+ * <li>{@link Consistency#SEQUENTIAL}: the same search, where an operation may be placed
+ * as soon as the earlier operations of its node on the key are, whatever their times.</li>
+ * </ul>
+ * Both searches are exponential in the worst case, in the number of operations that
+ * overlap in time respectively in the number of nodes. Histories of DSMs that order their
+ * operations need little backtracking, but proving that no order exists can take long,
+ * mostly for sequential consistency; a key whose search visits more configurations than
+ * the budget is reported as undecided.
+ */
+public final class HistoryChecker {
+
+    public enum Consistency { LINEARIZABLE, SEQUENTIAL }
+
+    /**
+     * Configurations a search may visit per key before giving up.
+     */
+    public static final int DEFAULT_BUDGET = 2_000_000;
+
+    /**
+     * @param violations Keys whose operations violate the model, in alphabetical order
+     * @param undecided  Keys whose search exceeded the budget, in alphabetical order
+     */
+    public record Result(Consistency consistency, long operations, int keys, List<String> violations,
+                         List<String> undecided, long millis) {
+        /**
+         * @return true if every key was shown to satisfy the model
+         */
+        public boolean isValid() {
+            return violations.isEmpty() && undecided.isEmpty();
+        }
+    }
+
+    private enum Verdict { VALID, VIOLATED, UNDECIDED }
+
+    private static final class Op {
+        final int id;
+        final int process;
+        final byte kind;
+        final long arg;
+        final long result;
+        final long invoke;
+        final long complete;
+        // Sequential consistency: a write that was placed or skipped in the current order
+        boolean decided = false;
+
+        Op(int id, int process, byte kind, long arg, long result, long invoke, long complete) {
+            this.id = id;
+            this.process = process;
+            this.kind = kind;
+            this.arg = arg;
+            this.result = result;
+            this.invoke = invoke;
+            this.complete = complete;
+        }
+    }
+
+    private record Config(long ops, long state) {
+    }
+
+    private HistoryChecker() {
+    }
+
+    public static Result check(History history, Consistency consistency) {
+        return check(history, consistency, DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget Configurations a search may visit per key
+     */
+    public static Result check(History history, Consistency consistency, int budget) {
+        long start = System.nanoTime();
+        List<NodeHistory> nodes = history.nodes();
+        Map<Integer, List<Op>> byKey = new HashMap<>();
+        long operations = 0;
+        for (NodeHistory node : nodes) {
+            for (int i = 0; i < node.size(); i++) {
+                List<Op> ops = byKey.computeIfAbsent(node.key(i), k -> new ArrayList<>());
+                ops.add(new Op(ops.size(), node.process(), node.kind(i), node.arg(i), node.result(i),
+                        node.invoked(i), node.completed(i)));
+            }
+            operations += node.size();
+        }
+        Map<Verdict, List<String>> verdicts = byKey.entrySet().parallelStream()
+                .collect(Collectors.groupingByConcurrent(e -> consistency == Consistency.LINEARIZABLE
+                                ? linearizable(e.getValue(), budget)
+                                : sequentiallyConsistent(e.getValue(), nodes.size(), budget),
+                        Collectors.mapping(e -> history.keyName(e.getKey()), Collectors.toList())));
+        return new Result(consistency, operations, byKey.size(), sorted(verdicts.get(Verdict.VIOLATED)),
+                sorted(verdicts.get(Verdict.UNDECIDED)), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        if (keys == null)
+            return List.of();
+        List<String> sorted = new ArrayList<>(keys);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    private static boolean allows(long state, Op op) {
+        switch (op.kind) {
+            case NodeHistory.READ:
+                return op.result == state;
+            case NodeHistory.ADD:
+                return op.complete == NodeHistory.INDETERMINATE || op.result == base(state) + op.arg;
+            default:
+                return true;
+        }
+    }
+
+    private static long apply(long state, Op op) {
+        switch (op.kind) {
+            case NodeHistory.WRITE:
+                return op.arg;
+            case NodeHistory.ADD:
+                return base(state) + op.arg;
+            default:
+                return state;
+        }
+    }
+
+    // Adds treat a key that was never written as 0
+    private static long base(long state) {
+        return state == History.ABSENT ? 0 : state;
+    }
+
+    private static long[] zobrist(int n, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] z = new long[n];
+        for (int i = 0; i < n; i++)
+            z[i] = random.nextLong();
+        return z;
+    }
+
+    // An invocation or a response, in a doubly linked list ordered by time
+    private static final class Entry {
+        final Op op;
+        final boolean call;
+        final long time;
+        Entry match;
+        Entry prev;
+        Entry next;
+
+        Entry(Op op, boolean call, long time) {
+            this.op = op;
+            this.call = call;
+            this.time = time;
+        }
+    }
+
+    private record Frame(Entry entry, long state) {
+    }
+
+    private static Verdict linearizable(List<Op> ops, int budget) {
+        Entry[] events = new Entry[ops.size() * 2];
+        for (Op op : ops) {
+            Entry call = new Entry(op, true, op.invoke);
+            Entry response = new Entry(op, false, op.complete);
+            call.match = response;
+            events[2 * op.id] = call;
+            events[2 * op.id + 1] = response;
+        }
+        // At equal times invocations come first, so the operations count as concurrent
+        Arrays.sort(events, Comparator.comparingLong((Entry e) -> e.time).thenComparing(e -> !e.call));
+        Entry head = new Entry(null, false, Long.MIN_VALUE);
+        Entry last = head;
+        for (Entry e : events) {
+            last.next = e;
+            e.prev = last;
+            last = e;
+        }
+
+        long[] z = zobrist(ops.size(), 0x5eed);
+        Set<Config> cache = new HashSet<>();
+        ArrayDeque<Frame> calls = new ArrayDeque<>();
+        long state = History.ABSENT;
+        long linearized = 0;
+        Entry entry = head.next;
+        while (head.next != null) {
+            if (entry.call) {
+                Op op = entry.op;
+                if (allows(state, op)) {
+                    long next = apply(state, op);
+                    if (cache.add(new Config(linearized ^ z[op.id], next))) {
+                        if (cache.size() > budget)
+                            return Verdict.UNDECIDED;
+                        calls.push(new Frame(entry, state));
+                        state = next;
+                        linearized ^= z[op.id];
+                        lift(entry);
+                        entry = head.next;
+                        continue;
+                    }
+                }
+                entry = entry.next;
+            } else {
+                // Only failed operations are left, they just never took effect
+                if (entry.time == NodeHistory.INDETERMINATE)
+                    return Verdict.VALID;
+                // The operation returned before any order could place it: undo the last choice
+                if (calls.isEmpty())
+                    return Verdict.VIOLATED;
+                Frame top = calls.pop();
+                entry = top.entry;
+                state = top.state;
+                linearized ^= z[entry.op.id];
+                unlift(entry);
+                entry = entry.next;
+            }
+        }
+        return Verdict.VALID;
+    }
+
+    // Removes a linearized operation from the list
+    private static void lift(Entry call) {
+        call.prev.next = call.next;
+        call.next.prev = call.prev;
+        Entry response = call.match;
+        response.prev.next = response.next;
+        if (response.next != null)
+            response.next.prev = response.prev;
+    }
+
+    private static void unlift(Entry call) {
+        Entry response = call.match;
+        response.prev.next = response;
+        if (response.next != null)
+            response.next.prev = response;
+        call.prev.next = call;
+        call.next.prev = call;
+    }
+
+    private static Verdict sequentiallyConsistent(List<Op> ops, int processes, int budget) {
+        // The operations of every node in the order it invoked them
+        List<List<Op>> lanes = new ArrayList<>();
+        for (int p = 0; p < processes; p++)
+            lanes.add(new ArrayList<>());
+        for (Op op : ops)
+            lanes.get(op.process).add(op);
+        lanes.removeIf(List::isEmpty);
+        int n = lanes.size();
+        Op[][] lane = new Op[n][];
+        for (int p = 0; p < n; p++)
+            lane[p] = lanes.get(p).toArray(new Op[0]);
+
+        // With unique written values and no adds, a read can only be placed while the state is
+        // the value of its write; once that write is placed and overwritten, or skipped, the
+        // read's node is stuck and the order can be abandoned right away
+        Map<Long, Op> writes = new HashMap<>();
+        boolean unique = true;
+        for (Op op : ops) {
+            if (op.kind == NodeHistory.ADD || (op.kind == NodeHistory.WRITE && writes.put(op.arg, op) != null))
+                unique = false;
+        }
+
+        // A configuration is the number of placed operations per node, hashed as the sum of pos[p] * z[p]
+        long[] z = zobrist(n, 0x5eed);
+        int[] pos = new int[n];
+        Set<Config> visited = new HashSet<>();
+        // Choice 2p places the next operation of node p, 2p + 1 skips it if it failed
+        ArrayDeque<long[]> choices = new ArrayDeque<>();
+        long state = History.ABSENT;
+        long placed = 0;
+        int remaining = ops.size();
+        int from = 0;
+        while (remaining > 0) {
+            int chosen = -1;
+            long next = state;
+            for (int c = from; c < 2 * n && chosen < 0; c++) {
+                int p = c >> 1;
+                if (pos[p] == lane[p].length)
+                    continue;
+                Op op = lane[p][pos[p]];
+                if ((c & 1) == 1) {
+                    if (op.complete != NodeHistory.INDETERMINATE)
+                        continue;
+                    next = state;
+                } else {
+                    if (!allows(state, op))
+                        continue;
+                    next = apply(state, op);
+                }
+                op.decided = op.kind == NodeHistory.WRITE;
+                pos[p]++;
+                boolean stuck = unique && stuck(lane, pos, next, writes);
+                pos[p]--;
+                if (!stuck && visited.add(new Config(placed + z[p], next)))
+                    chosen = c;
+                else
+                    op.decided = false;
+            }
+            if (visited.size() > budget)
+                return Verdict.UNDECIDED;
+            if (chosen >= 0) {
+                choices.push(new long[] { chosen, state });
+                int p = chosen >> 1;
+                pos[p]++;
+                placed += z[p];
+                state = next;
+                remaining--;
+                from = 0;
+            } else {
+                if (choices.isEmpty())
+                    return Verdict.VIOLATED;
+                long[] top = choices.pop();
+                int p = (int) top[0] >> 1;
+                pos[p]--;
+                lane[p][pos[p]].decided = false;
+                placed -= z[p];
+                state = top[1];
+                remaining++;
+                from = (int) top[0] + 1;
+            }
+        }
+        return Verdict.VALID;
+    }
+
+    // True if the next operation of some node is a read that can never be placed any more
+    private static boolean stuck(Op[][] lane, int[] pos, long state, Map<Long, Op> writes) {
+        for (int q = 0; q < lane.length; q++) {
+            if (pos[q] == lane[q].length)
+                continue;
+            Op read = lane[q][pos[q]];
+            if (read.kind != NodeHistory.READ || read.result == state)
+                continue;
+            if (read.result == History.ABSENT)
+                return true;
+            Op write = writes.get(read.result);
+            if (write == null || write.decided)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package org.oxoo2a.sim4da.history;
+
+import java.util.Arrays;
+
+/**
+ * The operations of one node, in the order the node invoked them. The buffer only grows
+ * and stores every field in a primitive array, so recording an operation is a few array
+ * writes. It is written by the node's thread only and read after the run.
+ */
+public final class NodeHistory {
+    static final byte READ = 0;
+    static final byte WRITE = 1;
+    static final byte ADD = 2;
+
+    /**
+     * Completion time of an operation that failed and may or may not have taken effect.
+     */
+    static final long INDETERMINATE = Long.MAX_VALUE;
+
+    private final String node;
+    private final int process;
+    private int size = 0;
+    private int[] keys = new int[64];
+    private byte[] kinds = new byte[64];
+    private long[] args = new long[64];
+    private long[] results = new long[64];
+    private long[] invoked = new long[64];
+    private long[] completed = new long[64];
+
+    NodeHistory(String node, int process) {
+        this.node = node;
+        this.process = process;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int process() {
+        return process;
+    }
+
+    /**
+     * @param arg    Value written, or delta added
+     * @param result Value read, or value after the add
+     */
+    void add(int key, byte kind, long arg, long result, long invoke, long complete) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            args = Arrays.copyOf(args, capacity);
+            results = Arrays.copyOf(results, capacity);
+            invoked = Arrays.copyOf(invoked, capacity);
+            completed = Arrays.copyOf(completed, capacity);
+        }
+        keys[size] = key;
+        kinds[size] = kind;
+        args[size] = arg;
+        results[size] = result;
+        invoked[size] = invoke;
+        completed[size] = complete;
+        size++;
+    }
+
+    int key(int i) {
+        return keys[i];
+    }
+
+    byte kind(int i) {
+        return kinds[i];
+    }
+
+    long arg(int i) {
+        return args[i];
+    }
+
+    long result(int i) {
+        return results[i];
+    }
+
+    long invoked(int i) {
+        return invoked[i];
+    }
+
+    long completed(int i) {
+        return completed[i];
+    }
+}
@@ -0,0 +1,81 @@
+package org.oxoo2a.sim4da.history;
+
+import org.oxoo2a.sim4da.dsm.DSM;
+import org.oxoo2a.sim4da.dsm.DSMException;
+
+// Performs the operations on a DSM and records them in the node's history
+final class RecordingDSM implements DSM {
+    private final DSM dsm;
+    private final NodeHistory history;
+    private final History owner;
+
+    RecordingDSM(DSM dsm, NodeHistory history, History owner) {
+        this.dsm = dsm;
+        this.history = history;
+        this.owner = owner;
+    }
+
+    @Override
+    public void write(String key, String value) throws DSMException {
+        long invoke = System.nanoTime();
+        try {
+            dsm.write(key, value);
+        } catch (DSMException | RuntimeException e) {
+            history.add(owner.keyId(key), NodeHistory.WRITE, owner.encode(value), 0, invoke, NodeHistory.INDETERMINATE);
+            throw e;
+        }
+        history.add(owner.keyId(key), NodeHistory.WRITE, owner.encode(value), 0, invoke, System.nanoTime());
+    }
+
+    @Override
+    public String read(String key) throws DSMException {
+        long invoke = System.nanoTime();
+        String value = dsm.read(key);
+        history.add(owner.keyId(key), NodeHistory.READ, 0, owner.encode(value), invoke, System.nanoTime());
+        return value;
+    }
+
+    @Override
+    public void writeLong(String key, long value) throws DSMException {
+        long invoke = System.nanoTime();
+        try {
+            dsm.writeLong(key, value);
+        } catch (DSMException | RuntimeException e) {
+            history.add(owner.keyId(key), NodeHistory.WRITE, value, 0, invoke, NodeHistory.INDETERMINATE);
+            throw e;
+        }
+        history.add(owner.keyId(key), NodeHistory.WRITE, value, 0, invoke, System.nanoTime());
+    }
+
+    @Override
+    public long readLong(String key, long defaultValue) throws DSMException {
+        long invoke = System.nanoTime();
+        long value = dsm.readLong(key, History.ABSENT);
+        history.add(owner.keyId(key), NodeHistory.READ, 0, value, invoke, System.nanoTime());
+        return value == History.ABSENT ? defaultValue : value;
+    }
+
+    @Override
+    public long addLong(String key, long delta) throws DSMException {
+        long invoke = System.nanoTime();
+        long value;
+        try {
+            value = dsm.addLong(key, delta);
+        } catch (DSMException | RuntimeException e) {
+            history.add(owner.keyId(key), NodeHistory.ADD, delta, 0, invoke, NodeHistory.INDETERMINATE);
+            throw e;
+        }
+        history.add(owner.keyId(key), NodeHistory.ADD, delta, value, invoke, System.nanoTime());
+        return value;
+    }
+
+    @Override
+    public void initialize(String nodeName) {
+        dsm.initialize(nodeName);
+    }
+
+    @Override
+    public void shutdown() {
+        dsm.shutdown();
+    }
+}
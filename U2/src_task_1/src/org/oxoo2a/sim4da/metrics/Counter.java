@@ -0,0 +1,30 @@
+package org.oxoo2a.sim4da.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic event counter. Backed by a {@link LongAdder}, so concurrent increments
+ * from many node threads don't contend on a single cache line.
+ */
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * @return The current count (not an atomic snapshot while increments are in flight)
+     */
+    public long get() {
+        return count.sum();
+    }
+
+    void reset() {
+        count.reset();
+    }
+}
@@ -0,0 +1,104 @@
+package org.oxoo2a.sim4da.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically appends snapshots of a {@link MetricsRegistry} to a CSV file.
+ *
+ * The file uses a long format with one row per metric and snapshot, because the set of
+ * metrics grows while the simulation runs (new nodes, new message types):
+ * <pre>
+ * timestamp_ms,metric,kind,value,count,mean_ns,p50_ns,p90_ns,p99_ns,max_ns
+ * </pre>
+ * Counters and gauges only fill the value column, histograms only the remaining ones.
+ */
+public class CsvMetricsExporter implements AutoCloseable {
+    private static final String HEADER = "timestamp_ms,metric,kind,value,count,mean_ns,p50_ns,p90_ns,p99_ns,max_ns";
+
+    private final MetricsRegistry registry;
+    private final BufferedWriter writer;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger = LoggerFactory.getLogger(CsvMetricsExporter.class);
+
+    /**
+     * Creates the file (truncating an existing one) and starts exporting.
+     *
+     * @param registry The registry to export
+     * @param file The CSV file to write
+     * @param periodMillis Interval between two snapshots
+     * @throws IOException If the file can't be created
+     */
+    public static CsvMetricsExporter start(MetricsRegistry registry, Path file, long periodMillis) throws IOException {
+        CsvMetricsExporter exporter = new CsvMetricsExporter(registry, file);
+        exporter.scheduler.scheduleAtFixedRate(exporter::export, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return exporter;
+    }
+
+    private CsvMetricsExporter(MetricsRegistry registry, Path file) throws IOException {
+        this.registry = registry;
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.newLine();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-csv-exporter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Writes one snapshot immediately.
+     */
+    public synchronized void export() {
+        MetricsSnapshot snapshot = registry.snapshot();
+        long ts = snapshot.timestampMillis();
+        try {
+            for (Map.Entry<String, Long> e : snapshot.counters().entrySet()) {
+                writer.write(ts + "," + e.getKey() + ",counter," + e.getValue() + ",,,,,,");
+                writer.newLine();
+            }
+            for (Map.Entry<String, Long> e : snapshot.gauges().entrySet()) {
+                writer.write(ts + "," + e.getKey() + ",gauge," + e.getValue() + ",,,,,,");
+                writer.newLine();
+            }
+            for (Map.Entry<String, HistogramSnapshot> e : snapshot.histograms().entrySet()) {
+                HistogramSnapshot h = e.getValue();
+                writer.write(ts + "," + e.getKey() + ",histogram,," + h.count() + ","
+                        + Math.round(h.mean()) + "," + h.percentile(50) + "," + h.percentile(90) + ","
+                        + h.percentile(99) + "," + h.max());
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            logger.warn("Failed to write metrics snapshot: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the periodic export, writes a final snapshot and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            export();
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.oxoo2a.sim4da.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Publishes a {@link MetricsRegistry} as a read-only JMX MBean, so a running simulation
+ * can be watched with jconsole or VisualVM.
+ *
+ * Every counter and gauge becomes a long attribute with the metric name. Every histogram
+ * becomes the attributes {@code <name>.count}, {@code .p50}, {@code .p99} and {@code .max}
+ * (in nanoseconds). The attribute set is rebuilt from a fresh snapshot whenever a JMX
+ * client asks for it, so metrics created later show up on the next refresh.
+ */
+public class JmxMetricsExporter implements DynamicMBean, AutoCloseable {
+    public static final String DEFAULT_OBJECT_NAME = "org.oxoo2a.sim4da:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private final ObjectName objectName;
+    private final MBeanServer server;
+
+    /**
+     * Registers the registry with the platform MBean server under {@link #DEFAULT_OBJECT_NAME}.
+     *
+     * @throws JMException If an MBean with the same name is already registered
+     */
+    public static JmxMetricsExporter register(MetricsRegistry registry) throws JMException {
+        return register(registry, new ObjectName(DEFAULT_OBJECT_NAME));
+    }
+
+    public static JmxMetricsExporter register(MetricsRegistry registry, ObjectName objectName) throws JMException {
+        JmxMetricsExporter exporter = new JmxMetricsExporter(registry, objectName);
+        exporter.server.registerMBean(exporter, objectName);
+        return exporter;
+    }
+
+    private JmxMetricsExporter(MetricsRegistry registry, ObjectName objectName) {
+        this.registry = registry;
+        this.objectName = objectName;
+        this.server = ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static Map<String, Long> flatten(MetricsSnapshot snapshot) {
+        Map<String, Long> values = new TreeMap<>(snapshot.counters());
+        values.putAll(snapshot.gauges());
+        snapshot.histograms().forEach((name, h) -> {
+            values.put(name + ".count", h.count());
+            values.put(name + ".p50", h.percentile(50));
+            values.put(name + ".p99", h.percentile(99));
+            values.put(name + ".max", h.max());
+        });
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = flatten(registry.snapshot()).get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> values = flatten(registry.snapshot());
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations on metrics: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : flatten(registry.snapshot()).keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "sim4da metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    /**
+     * Unregisters the MBean.
+     */
+    @Override
+    public void close() throws JMException {
+        server.unregisterMBean(objectName);
+    }
+}
@@ -0,0 +1,121 @@
+package org.oxoo2a.sim4da.metrics;
+
+import org.oxoo2a.sim4da.SimulationContext;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Central registry for all counters, gauges and latency histograms of a simulation.
+ *
+ * Metrics are identified by dot-separated names, e.g. {@code dsm.CP.write} or
+ * {@code node.Node_3.mailbox.depth}. Lookups create the metric on first use; callers on
+ * the hot path should look a metric up once and keep the reference, recording itself is
+ * lock-free.
+ */
+public class MetricsRegistry {
+    /**
+     * Direction of a message for the per-node, per-type message counters.
+     */
+    public enum Direction {
+        SENT, RECEIVED;
+
+        final String label = name().toLowerCase();
+    }
+
+    private static final String UNTYPED = "untyped";
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    // node -> message type -> counter, so counting a message doesn't build a name string
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> sentByNode = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> receivedByNode = new ConcurrentHashMap<>();
+
+    /**
+     * @return The registry of the current {@link SimulationContext}
+     */
+    public static MetricsRegistry getInstance() {
+        return SimulationContext.current().getMetrics();
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if necessary.
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge that is sampled whenever a snapshot is taken. A gauge registered
+     * under an existing name replaces the previous one.
+     *
+     * @param name The metric name
+     * @param gauge Supplier of the current value; must be cheap and thread-safe
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Returns the counter for messages of the given type sent or received by a node.
+     *
+     * @param direction Whether the node sent or received the message
+     * @param node The node name
+     * @param type The value of the message's "type" payload field, may be null
+     * @return The counter, exported as {@code node.<node>.<direction>.<type>}
+     */
+    public Counter messageCounter(Direction direction, String node, String type) {
+        String messageType = type != null ? type : UNTYPED;
+        ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> byNode =
+                direction == Direction.SENT ? sentByNode : receivedByNode;
+        ConcurrentHashMap<String, Counter> byType = byNode.get(node);
+        if (byType == null) {
+            byType = byNode.computeIfAbsent(node, n -> new ConcurrentHashMap<>());
+        }
+        Counter counter = byType.get(messageType);
+        if (counter == null) {
+            counter = byType.computeIfAbsent(messageType,
+                    t -> counter("node." + node + "." + direction.label + "." + t));
+        }
+        return counter;
+    }
+
+    /**
+     * Samples all metrics. Counter and gauge values are read individually, so the
+     * snapshot is not atomic across metrics.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.get()));
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.getAsLong()));
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+        return new MetricsSnapshot(System.currentTimeMillis(), counterValues, gaugeValues, histogramValues);
+    }
+
+    /**
+     * Resets all counters and histograms to zero and drops all gauges. References held
+     * by instrumented code stay valid.
+     */
+    public void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+        gauges.clear();
+    }
+}
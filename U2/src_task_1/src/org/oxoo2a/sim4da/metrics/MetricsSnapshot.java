@@ -0,0 +1,39 @@
+package org.oxoo2a.sim4da.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Values of all metrics of a {@link MetricsRegistry} at one point in time.
+ * All maps are sorted by metric name.
+ */
+public final class MetricsSnapshot {
+    private final long timestampMillis;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long timestampMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, HistogramSnapshot> histograms) {
+        this.timestampMillis = timestampMillis;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public long timestampMillis() {
+        return timestampMillis;
+    }
+
+    public Map<String, Long> counters() {
+        return counters;
+    }
+
+    public Map<String, Long> gauges() {
+        return gauges;
+    }
+
+    public Map<String, HistogramSnapshot> histograms() {
+        return histograms;
+    }
+}
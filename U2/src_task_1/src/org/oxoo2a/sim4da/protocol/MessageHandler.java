@@ -0,0 +1,11 @@
+package org.oxoo2a.sim4da.protocol;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * Handles received messages of one type, called on the receiving node's thread.
+ */
+@FunctionalInterface
+public interface MessageHandler {
+    void handle(Message message);
+}
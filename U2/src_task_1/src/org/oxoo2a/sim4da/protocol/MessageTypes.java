@@ -0,0 +1,50 @@
+package org.oxoo2a.sim4da.protocol;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide numbering of message types. Every distinct value of the "type" field gets a
+ * small integer id the first time it is seen; ids are dense, so they can index arrays.
+ */
+public final class MessageTypes {
+
+    /** Id of messages without a type. */
+    public static final int NONE = -1;
+
+    private static final ConcurrentHashMap<String,Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static int count = 0;
+
+    private MessageTypes() {
+    }
+
+    public static int idOf(String type) {
+        if (type == null)
+            return NONE;
+        Integer id = ids.get(type);
+        return id != null ? id : assign(type);
+    }
+
+    public static String nameOf(int id) {
+        return id >= 0 && id < count() ? names[id] : null;
+    }
+
+    /**
+     * @return The number of types that have an id, ids are 0..count()-1
+     */
+    public static synchronized int count() {
+        return count;
+    }
+
+    private static synchronized int assign(String type) {
+        Integer id = ids.get(type);
+        if (id != null)
+            return id;
+        if (count == names.length)
+            names = Arrays.copyOf(names, count * 2);
+        names[count] = type;
+        ids.put(type, count);
+        return count++;
+    }
+}
@@ -0,0 +1,15 @@
+package org.oxoo2a.sim4da.protocol;
+
+/**
+ * A protocol that runs on a node next to others, such as a DSM implementation. It owns
+ * the message types it registers handlers for.
+ */
+public interface Protocol {
+
+    /**
+     * Registers a handler for every message type this protocol processes.
+     *
+     * @param registry The registry of the node this protocol runs on
+     */
+    void registerHandlers(ProtocolRegistry registry);
+}
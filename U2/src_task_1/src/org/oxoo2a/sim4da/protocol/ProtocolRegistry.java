@@ -0,0 +1,93 @@
+package org.oxoo2a.sim4da.protocol;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The message handlers of one node, indexed by {@link MessageTypes} id, so dispatching a
+ * received message is a single array lookup. Every type has at most one handler; a second
+ * registration for the same type is an error, which keeps protocols from stealing each
+ * other's messages.
+ */
+public class ProtocolRegistry {
+
+    /**
+     * Registers a handler that does not belong to a protocol.
+     *
+     * @throws IllegalStateException If the type already has a handler
+     */
+    public synchronized void on(String type, MessageHandler handler) {
+        int id = MessageTypes.idOf(type);
+        MessageHandler[] h = handlers;
+        if (id >= h.length)
+            h = Arrays.copyOf(h, Math.max(id + 1, h.length * 2));
+        else if (h[id] != null)
+            throw new IllegalStateException("Message type " + type + " already has a handler");
+        else
+            h = h.clone();
+        h[id] = handler;
+        handlers = h;
+        if (registering != null)
+            owned.get(registering).add(id);
+    }
+
+    /**
+     * Registers the handlers of a protocol; {@link #remove(Protocol)} takes them away again.
+     */
+    public synchronized void add(Protocol protocol) {
+        if (owned.containsKey(protocol))
+            return;
+        owned.put(protocol, new ArrayList<>());
+        registering = protocol;
+        try {
+            protocol.registerHandlers(this);
+        } finally {
+            registering = null;
+        }
+    }
+
+    public synchronized void remove(Protocol protocol) {
+        List<Integer> ids = owned.remove(protocol);
+        if (ids == null)
+            return;
+        MessageHandler[] h = handlers.clone();
+        for (int id : ids)
+            h[id] = null;
+        handlers = h;
+    }
+
+    public synchronized void remove(String type) {
+        int id = MessageTypes.idOf(type);
+        if (id < handlers.length && handlers[id] != null) {
+            MessageHandler[] h = handlers.clone();
+            h[id] = null;
+            handlers = h;
+            for (List<Integer> ids : owned.values())
+                ids.remove(Integer.valueOf(id));
+        }
+    }
+
+    /**
+     * Hands the message to the handler of its type.
+     *
+     * @return false if there is no handler for the type
+     */
+    public boolean dispatch(Message message) {
+        int id = message.typeId();
+        MessageHandler[] h = handlers;
+        if (id < 0 || id >= h.length || h[id] == null)
+            return false;
+        h[id].handle(message);
+        return true;
+    }
+
+    // Copied on every change, dispatch reads it without locking
+    private volatile MessageHandler[] handlers = new MessageHandler[16];
+    private final Map<Protocol,List<Integer>> owned = new IdentityHashMap<>();
+    private Protocol registering = null;
+}
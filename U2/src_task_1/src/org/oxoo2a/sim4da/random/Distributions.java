@@ -0,0 +1,156 @@
+package org.oxoo2a.sim4da.random;
+
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Random distributions as primitive {@link DoubleSupplier}s. Each distribution transforms
+ * uniform values from a source; without an explicit source that is
+ * {@link ScheduleJournal#random()}, which draws from the calling thread's stream of
+ * {@link RandomStreams} and is journaled on node threads.
+ * <p>
+ * The suppliers keep no state between draws, so one supplier can be shared by all nodes.
+ */
+public final class Distributions {
+
+    private static final DoubleSupplier JOURNALED = ScheduleJournal::random;
+
+    private Distributions() {
+    }
+
+    /**
+     * Uniform in [0, 1).
+     */
+    public static DoubleSupplier uniform() {
+        return JOURNALED;
+    }
+
+    /**
+     * Uniform in [min, max).
+     */
+    public static DoubleSupplier uniform(double min, double max) {
+        return uniform(min, max, JOURNALED);
+    }
+
+    public static DoubleSupplier uniform(double min, double max, DoubleSupplier source) {
+        if (max < min)
+            throw new IllegalArgumentException("Invalid range " + min + ".." + max);
+        double range = max - min;
+        return () -> min + source.getAsDouble() * range;
+    }
+
+    public static DoubleSupplier normal(double mean, double stdDev) {
+        return normal(mean, stdDev, JOURNALED);
+    }
+
+    /**
+     * Normal distribution by the polar form of the Box-Muller transform; the second value
+     * of each pair is discarded to keep the supplier stateless.
+     */
+    public static DoubleSupplier normal(double mean, double stdDev, DoubleSupplier source) {
+        if (stdDev < 0)
+            throw new IllegalArgumentException("Standard deviation must not be negative, is " + stdDev);
+        return () -> {
+            double u, v, s;
+            do {
+                u = source.getAsDouble() * 2 - 1;
+                v = source.getAsDouble() * 2 - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            return mean + stdDev * u * Math.sqrt(-2.0 * Math.log(s) / s);
+        };
+    }
+
+    public static DoubleSupplier exponential(double mean) {
+        return exponential(mean, JOURNALED);
+    }
+
+    /**
+     * Exponential distribution, e.g. for the times between events of a Poisson process.
+     */
+    public static DoubleSupplier exponential(double mean, DoubleSupplier source) {
+        positive("Mean", mean);
+        return () -> -mean * Math.log(1 - source.getAsDouble());
+    }
+
+    public static DoubleSupplier pareto(double scale, double shape) {
+        return pareto(scale, shape, JOURNALED);
+    }
+
+    /**
+     * Pareto distribution: values of at least {@code scale}, with a heavy tail that gets
+     * heavier as {@code shape} gets smaller.
+     */
+    public static DoubleSupplier pareto(double scale, double shape, DoubleSupplier source) {
+        positive("Scale", scale);
+        positive("Shape", shape);
+        double exponent = -1 / shape;
+        return () -> scale * Math.pow(1 - source.getAsDouble(), exponent);
+    }
+
+    public static DoubleSupplier zipf(int n, double theta) {
+        return zipf(n, theta, JOURNALED);
+    }
+
+    /**
+     * Zipfian ranks 0..n-1, rank i being drawn with a probability proportional to
+     * 1 / (i + 1)^theta. Uses the method of Gray et al., "Quickly Generating Billion-Record
+     * Synthetic Databases", which takes O(n) once to compute the normalization and O(1)
+     * per draw.
+     *
+     * @param theta Skew, in (0, 1); the workloads of YCSB use 0.99
+     */
+    public static DoubleSupplier zipf(int n, double theta, DoubleSupplier source) {
+        positive("Number of ranks", n);
+        if (theta <= 0 || theta >= 1)
+            throw new IllegalArgumentException("Zipf skew must be in (0, 1), is " + theta);
+        double zetan = 0;
+        for (int i = 1; i <= n; i++)
+            zetan += 1 / Math.pow(i, theta);
+        double zeta2 = 1 + 1 / Math.pow(2, theta);
+        double alpha = 1 / (1 - theta);
+        double eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        double second = 1 + Math.pow(0.5, theta);
+        double z = zetan;
+        return () -> {
+            double u = source.getAsDouble();
+            double uz = u * z;
+            if (uz < 1)
+                return 0;
+            if (uz < second)
+                return Math.min(1, n - 1);
+            return Math.min((long) (n * Math.pow(eta * u - eta + 1, alpha)), n - 1);
+        };
+    }
+
+    public static DoubleSupplier empirical(double... samples) {
+        return empirical(JOURNALED, samples);
+    }
+
+    /**
+     * The distribution of observed samples, e.g. measured latencies: draws interpolate
+     * linearly between the sorted samples, so every value between the smallest and the
+     * largest sample can occur. O(1) per draw.
+     */
+    public static DoubleSupplier empirical(DoubleSupplier source, double... samples) {
+        if (samples.length == 0)
+            throw new IllegalArgumentException("Empirical distribution needs at least one sample");
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int last = sorted.length - 1;
+        return () -> {
+            double position = source.getAsDouble() * last;
+            int i = (int) position;
+            if (i >= last)
+                return sorted[last];
+            return sorted[i] + (position - i) * (sorted[i + 1] - sorted[i]);
+        };
+    }
+
+    private static void positive(String what, double value) {
+        if (!(value > 0))
+            throw new IllegalArgumentException(what + " must be positive, is " + value);
+    }
+}
@@ -0,0 +1,206 @@
+package org.oxoo2a.sim4da.random;
+
+import org.oxoo2a.sim4da.SimulationContext;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The random number streams of one simulation, all derived from one master seed.
+ * <p>
+ * Every node thread draws from a stream of its own, seeded from the master seed and the
+ * node's name, so a node's draws don't depend on when other nodes draw and no thread
+ * contends with another for a shared generator. A thread started by a thread with a stream
+ * gets the stream {@code <parent>/<n>} for the n-th thread that parent started, e.g. the
+ * helper threads of a node's protocols; a thread without such an ancestor gets a stream
+ * {@code thread-<n>} in the order the threads first draw. Tasks run on shared timer and pool
+ * threads, which don't inherit streams, get a child stream of the thread that scheduled them
+ * (see {@link org.oxoo2a.sim4da.TaskBinding}). Thread names, which depend on how
+ * many threads the JVM has created, never name a stream. Running a simulation again with the same seed repeats
+ * every node's sequence of draws; whether the whole run repeats depends on the order in
+ * which messages arrive, which the {@link org.oxoo2a.sim4da.replay.ScheduleJournal} fixes.
+ * <p>
+ * The seed is taken from the system property {@code sim4da.seed}, or chosen at random
+ * and logged when the simulation starts.
+ */
+public final class RandomStreams {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The stream a thread draws from, see {@link #child}. Only the thread bound to it
+     * touches it, except for creating children.
+     */
+    public static final class Binding {
+        private final RandomStreams streams;
+        private final String name;
+        private final long seed;
+        private SplittableRandom random;
+        private int children;
+
+        private Binding(RandomStreams streams, String name, long seed, SplittableRandom random) {
+            this.streams = streams;
+            this.name = name;
+            this.seed = seed;
+            this.random = random;
+        }
+
+        // The stream of the next thread or task started from this one, created on first draw
+        private Binding child() {
+            String name = this.name + "/" + (++children);
+            return new Binding(streams, name, streams.seed, null);
+        }
+    }
+
+    // Runs on the parent thread when it creates a thread, so children are numbered in creation order
+    private static final InheritableThreadLocal<Binding> bound = new InheritableThreadLocal<>() {
+        @Override
+        protected Binding childValue(Binding parent) {
+            return parent != null ? parent.child() : null;
+        }
+    };
+
+    private volatile long seed;
+    private final AtomicInteger roots = new AtomicInteger();
+
+    public RandomStreams() {
+        this(Long.getLong("sim4da.seed", ThreadLocalRandom.current().nextLong()));
+    }
+
+    public RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Changes the master seed. Threads switch to the streams of the new seed with their
+     * next draw, starting them from the beginning.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return A new generator for the stream with the given name, at its beginning
+     */
+    public SplittableRandom stream(String name) {
+        return new SplittableRandom(mix(seed + GOLDEN_GAMMA * hash(name)));
+    }
+
+    /**
+     * Binds the calling thread to the stream of a node of the current simulation. Called
+     * when a node's thread starts.
+     */
+    public static void attach(String node) {
+        RandomStreams streams = SimulationContext.current().getRandom();
+        long seed = streams.seed;
+        bound.set(new Binding(streams, node, seed, streams.stream(node)));
+    }
+
+    /**
+     * The stream a thread started now by the calling thread would get, for a task that runs
+     * on a shared thread on behalf of the calling thread, see {@link org.oxoo2a.sim4da.TaskBinding}.
+     * A calling thread without a stream gets a new {@code thread-<n>} stream.
+     *
+     * @return The stream, to be bound with {@link #bind} while the task runs
+     */
+    public static Binding child() {
+        Binding b = bound.get();
+        if (b != null) {
+            return b.child();
+        }
+        RandomStreams streams = SimulationContext.current().getRandom();
+        return new Binding(streams, streams.rootName(), streams.seed, null);
+    }
+
+    /**
+     * Binds the calling thread to a stream, or unbinds it for null.
+     *
+     * @return The previous binding of the calling thread, to restore it afterwards
+     */
+    public static Binding bind(Binding binding) {
+        Binding previous = bound.get();
+        bound.set(binding);
+        return previous;
+    }
+
+    /**
+     * @return The generator of the calling thread's stream
+     */
+    public static SplittableRandom current() {
+        Binding b = bound.get();
+        if (b == null || b.seed != b.streams.seed) {
+            RandomStreams streams = b != null ? b.streams : SimulationContext.current().getRandom();
+            String name = b != null ? b.name : streams.rootName();
+            long seed = streams.seed;
+            Binding fresh = new Binding(streams, name, seed, streams.stream(name));
+            if (b != null) {
+                fresh.children = b.children;
+            }
+            b = fresh;
+            bound.set(b);
+        } else if (b.random == null) {
+            b.random = b.streams.stream(b.name);
+        }
+        return b.random;
+    }
+
+    /**
+     * Continues the calling thread's stream from a seed drawn from it, so its position can
+     * be saved in a checkpoint: {@link #restore} with the returned seed makes another thread
+     * draw the same values from here on.
+     *
+     * @return The seed the stream continues from
+     */
+    public static long fork() {
+        long state = current().nextLong();
+        restore(state);
+        return state;
+    }
+
+    /**
+     * Binds the calling thread to the stream position saved by {@link #fork}.
+     */
+    public static void restore(long state) {
+        Binding b = bound.get();
+        RandomStreams streams = b != null ? b.streams : SimulationContext.current().getRandom();
+        String name = b != null ? b.name : streams.rootName();
+        Binding restored = new Binding(streams, name, streams.seed, new SplittableRandom(state));
+        if (b != null) {
+            restored.children = b.children;
+        }
+        bound.set(restored);
+    }
+
+    /**
+     * @return A uniformly distributed value in [0, 1) from the calling thread's stream
+     */
+    public static double nextDouble() {
+        return current().nextDouble();
+    }
+
+    private String rootName() {
+        return "thread-" + roots.incrementAndGet();
+    }
+
+    // 64-bit FNV-1a, so that similar names give unrelated seeds after mixing
+    private static long hash(String name) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            h ^= name.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // The finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,172 @@
+package org.oxoo2a.sim4da.replay;
+
+import java.util.Arrays;
+
+/**
+ * The decisions of one node, or of one thread a node started, in the order it made them.
+ *
+ * Entries are a tag byte followed by the data: {@link #RECEIVE} stores the stream that
+ * sent the message (as an index into the journal's name table), the message's number in
+ * that stream and the mailbox index it was taken from, all as unsigned LEB128 varints. {@link #RANDOM}
+ * stores the 8 bytes of a random double. {@link #NOTHING} has no data and stands for a
+ * receive with a timeout that took no message. A typical receive entry takes 4 to 6 bytes.
+ *
+ * A stream is either being written (record mode) or read (replay mode). Once the replayed
+ * run diverges from the recording, the stream stops forcing decisions.
+ */
+final class JournalStream {
+    static final byte RECEIVE = 1;
+    static final byte RANDOM = 2;
+    static final byte NOTHING = 3;
+
+    /**
+     * A receive decision; origin -1 for a receive that took nothing.
+     */
+    record Receive(int origin, long sequence, int index) {
+        static final Receive NONE = new Receive(-1, 0, 0);
+
+        boolean tookNothing() {
+            return origin < 0;
+        }
+    }
+
+    private byte[] data;
+    private int length;     // bytes written (record) or available (replay)
+    private int position;   // read cursor (replay)
+    private boolean diverged = false;
+
+    JournalStream() {
+        data = new byte[256];
+    }
+
+    JournalStream(byte[] recorded) {
+        data = recorded;
+        length = recorded.length;
+    }
+
+    // ---- Recording ----
+
+    synchronized void writeReceive(int origin, long sequence, int index) {
+        ensureCapacity(1 + 3 * 10);
+        data[length++] = RECEIVE;
+        writeVarint(origin);
+        writeVarint(sequence);
+        writeVarint(index);
+    }
+
+    synchronized void writeNothing() {
+        ensureCapacity(1);
+        data[length++] = NOTHING;
+    }
+
+    synchronized void writeRandom(double value) {
+        ensureCapacity(9);
+        data[length++] = RANDOM;
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            data[length++] = (byte) (bits >>> (8 * i));
+        }
+    }
+
+    synchronized byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    // ---- Replay ----
+
+    synchronized boolean isForcing() {
+        return !diverged && position < length;
+    }
+
+    synchronized void diverge() {
+        diverged = true;
+    }
+
+    /**
+     * Looks ahead past pending random draws for the next receive decision.
+     *
+     * @return The next receive, or null if there is none or the stream has diverged
+     */
+    synchronized Receive peekReceive() {
+        if (diverged) {
+            return null;
+        }
+        int p = position;
+        while (p < length && data[p] == RANDOM) {
+            p += 9;
+        }
+        if (p < length && data[p] == NOTHING) {
+            return Receive.NONE;
+        }
+        if (p >= length || data[p] != RECEIVE) {
+            return null;
+        }
+        int[] cursor = {p + 1};
+        return new Receive((int) readVarint(cursor), readVarint(cursor), (int) readVarint(cursor));
+    }
+
+    /**
+     * Consumes the next receive decision. Random draws recorded before it that were not
+     * replayed are skipped.
+     *
+     * @return false if the skipped draws show that the run diverged
+     */
+    synchronized boolean consumeReceive() {
+        boolean skipped = false;
+        while (position < length && data[position] == RANDOM) {
+            position += 9;
+            skipped = true;
+        }
+        if (position < length && data[position] == RECEIVE) {
+            int[] cursor = {position + 1};
+            readVarint(cursor);
+            readVarint(cursor);
+            readVarint(cursor);
+            position = cursor[0];
+        } else if (position < length && data[position] == NOTHING) {
+            position++;
+        }
+        return !skipped;
+    }
+
+    /**
+     * @return The next recorded random draw, or NaN if the next decision isn't a draw
+     */
+    synchronized double nextRandom() {
+        if (diverged || position >= length || data[position] != RANDOM) {
+            return Double.NaN;
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits |= (data[position + 1 + i] & 0xFFL) << (8 * i);
+        }
+        position += 9;
+        return Double.longBitsToDouble(bits);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    private long readVarint(int[] cursor) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[cursor[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,407 @@
+package org.oxoo2a.sim4da.replay;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.random.RandomStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the nondeterministic decisions of a simulation run and forces them in a later run.
+ * Every {@code SimulationContext} owns its journal, so parallel simulations record and
+ * replay independently.
+ *
+ * Per node, the journal keeps the order in which messages were taken from the mailbox
+ * (identified by the header {@link #SEQUENCE_HEADER}, which the network attaches while the
+ * journal is active) and the receives with a timeout that took none, the mailbox index picked by
+ * {@code SimulationBehavior.selectMessageInQueue}, and every random number drawn through
+ * {@link #random()} on the node's thread. Together these capture both the delivery
+ * interleaving and the random choices of the run.
+ *
+ * Threads started by a node's thread journal their draws into a stream of their own named
+ * {@code <node>/<n>} for the n-th thread started, and number the messages they send
+ * separately from the node's thread. Tasks a node's thread hands to shared timer and pool
+ * threads, e.g. the propagation of the AP DSM or RPC retransmissions, count as such threads
+ * (see {@link org.oxoo2a.sim4da.TaskBinding}). Their draws and messages are replayed like
+ * the node's.
+ *
+ * In replay mode a node waits until the recorded next message is in its mailbox and takes
+ * that one, and random draws return the recorded values. A receive with a timeout that took
+ * no message in the recorded run, e.g. a poll of the mailbox, waits out its timeout and
+ * takes nothing again, even if messages are waiting. If a node waits longer than
+ * {@link #REPLAY_TIMEOUT_MS} for a message, or its decisions stop matching the recording,
+ * the node's stream is marked as diverged and the node continues freely.
+ *
+ * Messages that don't pass through the network's send, like snapshot markers, mailbox
+ * notices and messages from other processes, are numbered when they enter the mailbox
+ * (see {@link #arrivalSequence}); their order relative to each other is forced as long as
+ * they arrive in the same order per sender.
+ *
+ * Not covered: draws and messages of threads that weren't started from a node's thread
+ * and of tasks such threads scheduled, and messages a thread sends on behalf of another
+ * node. Both are numbered per sender, so their order isn't forced.
+ */
+public final class ScheduleJournal {
+    public enum Mode { OFF, RECORD, REPLAY }
+
+    /**
+     * Header field identifying a message: the journal stream of the sending thread and
+     * the number of the message in that stream, as {@code <stream>#<n>}.
+     */
+    public static final String SEQUENCE_HEADER = "seq";
+
+    /**
+     * How long a replaying node waits for the recorded next message before giving up.
+     */
+    public static final long REPLAY_TIMEOUT_MS = 5000;
+
+    private static final int MAGIC = 0x53344444; // "S4DJ"
+    private static final byte VERSION = 3;
+
+    private volatile Mode mode = Mode.OFF;
+    private Path recordFile = null;
+    private final Map<String, JournalStream> streams = new ConcurrentHashMap<>();
+    private final Map<String, Integer> nameIds = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, AtomicLong> sent = new ConcurrentHashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleJournal.class);
+
+    /**
+     * The journal stream of a thread, see {@link #child}. Only the thread bound to it
+     * touches it.
+     */
+    public static final class Binding {
+        private final ScheduleJournal journal;
+        private final String node;
+        private final String name;
+        private int children;
+        private JournalStream stream;
+        private AtomicLong sequence;
+
+        private Binding(ScheduleJournal journal, String node, String name) {
+            this.journal = journal;
+            this.node = node;
+            this.name = name;
+        }
+
+        private Binding child() {
+            return new Binding(journal, node, name + "/" + (++children));
+        }
+    }
+
+    // Runs on the parent thread when it creates a thread, so children are numbered in creation order
+    private static final InheritableThreadLocal<Binding> bound = new InheritableThreadLocal<>() {
+        @Override
+        protected Binding childValue(Binding parent) {
+            return parent != null ? parent.child() : null;
+        }
+    };
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Starts recording. The journal is written to the file by {@link #stop()}.
+     */
+    public synchronized void startRecording(Path file) {
+        reset();
+        recordFile = file;
+        mode = Mode.RECORD;
+        logger.info("Recording schedule to {}", file);
+    }
+
+    /**
+     * Loads a journal and starts replaying it. Must be called before the simulation starts.
+     *
+     * @throws IOException If the file can't be read or isn't a schedule journal
+     */
+    public synchronized void startReplay(Path file) throws IOException {
+        reset();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a sim4da schedule journal: " + file);
+            }
+            int nameCount = in.readInt();
+            for (int i = 0; i < nameCount; i++) {
+                nameId(in.readUTF());
+            }
+            int streamCount = in.readInt();
+            for (int i = 0; i < streamCount; i++) {
+                String node = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                streams.put(node, new JournalStream(data));
+            }
+        }
+        mode = Mode.REPLAY;
+        logger.info("Replaying schedule of {} nodes from {}", streams.size(), file);
+    }
+
+    /**
+     * Ends recording or replay. In record mode the journal is written to its file.
+     */
+    public synchronized void stop() throws IOException {
+        Mode previous = mode;
+        mode = Mode.OFF;
+        if (previous == Mode.RECORD) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(recordFile)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                synchronized (names) {
+                    out.writeInt(names.size());
+                    for (String name : names) {
+                        out.writeUTF(name);
+                    }
+                }
+                out.writeInt(streams.size());
+                for (Map.Entry<String, JournalStream> entry : streams.entrySet()) {
+                    byte[] data = entry.getValue().toByteArray();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(data.length);
+                    out.write(data);
+                }
+            }
+            logger.info("Schedule of {} nodes written to {}", streams.size(), recordFile);
+        }
+    }
+
+    /**
+     * Binds the calling thread to the journal stream of a node, so that its random draws
+     * are journaled. Called when a node's thread starts.
+     */
+    public void attach(String node) {
+        bound.set(mode == Mode.OFF ? null : new Binding(this, node, node));
+    }
+
+    /**
+     * The journal stream a thread started now by the calling thread would get, for a task
+     * that runs on a shared thread on behalf of the calling thread, see
+     * {@link org.oxoo2a.sim4da.TaskBinding}.
+     *
+     * @return The stream, to be bound with {@link #bind} while the task runs, or null if the
+     *         calling thread isn't journaled
+     */
+    public static Binding child() {
+        Binding binding = bound.get();
+        return binding != null ? binding.child() : null;
+    }
+
+    /**
+     * Binds the calling thread to a journal stream, or unbinds it for null.
+     *
+     * @return The previous binding of the calling thread, to restore it afterwards
+     */
+    public static Binding bind(Binding binding) {
+        Binding previous = bound.get();
+        bound.set(binding);
+        return previous;
+    }
+
+    /**
+     * Journaled replacement for {@link Math#random()}, drawing from the calling thread's
+     * stream of {@link RandomStreams}. Behaves exactly like {@link RandomStreams#nextDouble()}
+     * when the journal is off or the calling thread isn't a node thread.
+     */
+    public static double random() {
+        Binding binding = bound.get();
+        if (binding == null) {
+            return RandomStreams.nextDouble();
+        }
+        if (binding.stream == null) {
+            binding.stream = binding.journal.stream(binding.name);
+        }
+        return binding.journal.draw(binding.stream);
+    }
+
+    /**
+     * Numbers a message sent while the journal is active. Messages a node's threads send
+     * are numbered per thread, other messages per sender.
+     *
+     * @param sender The node the message is sent from
+     * @return The value of the {@link #SEQUENCE_HEADER} of the message
+     */
+    public String nextSequence(String sender) {
+        Binding binding = bound.get();
+        if (binding != null && binding.journal == this && binding.node.equals(sender)) {
+            if (binding.sequence == null) {
+                binding.sequence = sent.computeIfAbsent(binding.name, n -> new AtomicLong());
+            }
+            return binding.name + '#' + binding.sequence.incrementAndGet();
+        }
+        return sender + '#' + sent.computeIfAbsent(sender, n -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Numbers a message that enters a mailbox without a {@link #SEQUENCE_HEADER}: snapshot
+     * markers and resumed messages injected by the network, mailbox notices, and messages
+     * from other processes. They are numbered per receiver and sender in the order they
+     * arrive, in a stream named {@code <sender>><receiver>}.
+     *
+     * @param sender The node the message comes from, empty if none
+     * @return The value of the {@link #SEQUENCE_HEADER} of the message
+     */
+    public String arrivalSequence(String receiver, String sender) {
+        String origin = sender + '>' + receiver;
+        return origin + '#' + sent.computeIfAbsent(origin, n -> new AtomicLong()).incrementAndGet();
+    }
+
+    private double draw(JournalStream stream) {
+        Mode mode = this.mode;
+        if (mode == Mode.OFF) {
+            return RandomStreams.nextDouble();
+        }
+        if (mode == Mode.RECORD) {
+            double value = RandomStreams.nextDouble();
+            stream.writeRandom(value);
+            return value;
+        }
+        if (!stream.isForcing()) {
+            return RandomStreams.nextDouble();
+        }
+        double value = stream.nextRandom();
+        if (Double.isNaN(value)) {
+            diverged(stream, "expected a receive, but the node drew a random number");
+            return RandomStreams.nextDouble();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the message a replaying node has to take next.
+     *
+     * @return The expected origin and sequence number, an expectation that
+     *         {@link Expectation#takesNothing() takes nothing} for a receive that timed out in
+     *         the recorded run, or null if the node may pick freely
+     */
+    public Expectation expectedReceive(String node) {
+        if (mode != Mode.REPLAY) {
+            return null;
+        }
+        JournalStream stream = streams.get(node);
+        JournalStream.Receive receive = stream != null ? stream.peekReceive() : null;
+        if (receive == null) {
+            return null;
+        }
+        if (receive.tookNothing()) {
+            return new Expectation(node, null, 0);
+        }
+        return new Expectation(node, names.get(receive.origin()), receive.sequence());
+    }
+
+    /**
+     * Records (or, when replaying, confirms) that a node took a message from its mailbox.
+     *
+     * @param node The receiving node
+     * @param message The message taken, carrying the sequence header
+     * @param index The mailbox index the message was taken from
+     */
+    public void onReceive(String node, Message message, int index) {
+        if (mode == Mode.RECORD) {
+            String sequence = message.queryHeader(SEQUENCE_HEADER);
+            int separator = sequence != null ? sequence.lastIndexOf('#') : -1;
+            if (separator < 0) {
+                stream(node).writeReceive(nameId(message.queryHeader("sender")), 0, index);
+            } else {
+                stream(node).writeReceive(nameId(sequence.substring(0, separator)),
+                        Long.parseLong(sequence.substring(separator + 1)), index);
+            }
+        } else if (mode == Mode.REPLAY) {
+            JournalStream stream = streams.get(node);
+            if (stream != null && stream.isForcing() && !stream.consumeReceive()) {
+                diverged(stream, node + " drew fewer random numbers than recorded before a receive");
+            }
+        }
+    }
+
+    /**
+     * Records (or, when replaying, confirms) that a receive with a timeout took no message.
+     */
+    public void onNothingReceived(String node) {
+        if (mode == Mode.RECORD) {
+            stream(node).writeNothing();
+        } else if (mode == Mode.REPLAY) {
+            JournalStream stream = streams.get(node);
+            if (stream != null && stream.isForcing() && !stream.consumeReceive()) {
+                diverged(stream, node + " drew fewer random numbers than recorded before a receive");
+            }
+        }
+    }
+
+    /**
+     * Gives up forcing the schedule of a node, e.g. because the expected message never arrived.
+     */
+    public void giveUp(Expectation expectation, String reason) {
+        JournalStream stream = streams.get(expectation.node());
+        if (stream != null) {
+            diverged(stream, reason);
+        }
+    }
+
+    private static void diverged(JournalStream stream, String reason) {
+        stream.diverge();
+        logger.warn("Replay diverged from the recorded schedule: {}. The node continues without replay.", reason);
+    }
+
+    private JournalStream stream(String node) {
+        return streams.computeIfAbsent(node, n -> new JournalStream());
+    }
+
+    private int nameId(String name) {
+        String key = name != null ? name : "";
+        Integer id = nameIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            return nameIds.computeIfAbsent(key, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    private void reset() {
+        streams.clear();
+        nameIds.clear();
+        sent.clear();
+        synchronized (names) {
+            names.clear();
+        }
+    }
+
+    /**
+     * The message a replaying node has to take next, identified by the journal stream
+     * that sent it and its number in that stream; no origin if the node took no message.
+     */
+    public record Expectation(String node, String origin, long sequence) {
+        /**
+         * @return true if the recorded receive timed out without taking a message
+         */
+        public boolean takesNothing() {
+            return origin == null;
+        }
+
+        public boolean matches(Message message) {
+            if (origin == null) {
+                return false;
+            }
+            String header = message.queryHeader(SEQUENCE_HEADER);
+            return header != null && header.length() > origin.length()
+                    && header.startsWith(origin) && header.charAt(origin.length()) == '#'
+                    && Long.toString(sequence).equals(header.substring(origin.length() + 1));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.oxoo2a.sim4da.rpc;
+
+/**
+ * How long a call waits for its replies and how often the request is sent again to the
+ * nodes that have not replied yet. With a fixed timeout, a call gives up after
+ * (retries + 1) * timeoutMillis. An adaptive call waits as long as the round-trip times
+ * measured so far suggest, see {@link RttEstimator}, doubles the wait with every
+ * retransmission and never waits longer than timeoutMillis for one transmission.
+ *
+ * @param timeoutMillis Time to wait for the replies to one transmission of the request, the upper bound if adaptive
+ * @param retries       Number of retransmissions before the call fails
+ * @param adaptive      true if the timeout follows the measured round-trip times
+ */
+public record CallOptions(long timeoutMillis, int retries, boolean adaptive) {
+
+    public static final CallOptions DEFAULT = new CallOptions(5000, 0);
+
+    public CallOptions {
+        if (timeoutMillis <= 0 || retries < 0)
+            throw new IllegalArgumentException("Invalid call options: timeout " + timeoutMillis + " ms, " + retries + " retries");
+    }
+
+    public CallOptions(long timeoutMillis, int retries) {
+        this(timeoutMillis, retries, false);
+    }
+
+    /**
+     * @return Options whose timeout follows the round-trip times, bounded by {@code maxTimeoutMillis}
+     */
+    public static CallOptions adaptive(long maxTimeoutMillis, int retries) {
+        return new CallOptions(maxTimeoutMillis, retries, true);
+    }
+}
@@ -0,0 +1,457 @@
+package org.oxoo2a.sim4da.rpc;
+
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.TaskBinding;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request/response calls of one node. A request carries a numeric correlation id in its
+ * {@link #CALL_HEADER} header, the reply echoes it in {@link #REPLY_HEADER}; the pending
+ * calls live in a preallocated table indexed by the low bits of the id, and their timeouts
+ * on the shared {@link TimerWheel}. The timer only updates the table: retransmissions,
+ * hedged requests and timeouts are sent and reported by a sender thread of the endpoint, so
+ * a node blocked on a full mailbox delays its own calls, not the timeouts of every node. The
+ * sender runs its tasks with a {@link TaskBinding} captured by {@link #attach} on the node's
+ * thread, so they draw and are journaled like a thread of the node however often the sender
+ * thread comes and goes.
+ * <p>
+ * {@link #call} waits for one reply, {@link #quorum} for replies from {@code required} of
+ * several nodes, {@link #hedged} sends to a backup node as well if the first node is slower
+ * than usual. All return futures; {@link #await} waits for one on the node's thread
+ * while the node keeps processing incoming messages, so two nodes waiting for each other's
+ * replies don't deadlock.
+ * <p>
+ * Every reply to a request that was sent once is a round-trip sample for the
+ * {@link RttEstimator}, which sets the timeouts of adaptive calls and the hedging delay.
+ */
+public class Rpc {
+
+    public static final String CALL_HEADER = "rpc_call";
+    public static final String REPLY_HEADER = "rpc_reply";
+    public static final String ERROR_HEADER = "rpc_error";
+
+    // How long await() receives before checking the future again
+    private static final long PUMP_MILLIS = 10;
+
+    // How long the sender thread stays around without work; its tasks don't depend on the thread
+    private static final long SENDER_IDLE_SECONDS = 5;
+
+    public Rpc(RpcHost host, MetricsRegistry metrics) {
+        this.host = host;
+        this.callLatency = metrics.histogram("rpc.call");
+        this.retries = metrics.counter("rpc.retries");
+        this.timeouts = metrics.counter("rpc.timeouts");
+        this.hedges = metrics.counter("rpc.hedges");
+        this.sender = new ThreadPoolExecutor(1, 1, SENDER_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(null, r, "rpc-sender-" + host.name(), 0, false);
+            t.setDaemon(true);
+            return t;
+        });
+        sender.allowCoreThreadTimeOut(true);
+        this.table = new PendingCall[64];
+        for (int i = 0; i < table.length; i++)
+            table[i] = new PendingCall();
+    }
+
+    /**
+     * Binds the sender's tasks to a child of the calling thread, like a thread it started.
+     * Called on the node's thread when it starts; until then the tasks run unbound.
+     */
+    public void attach() {
+        binding = TaskBinding.capture();
+    }
+
+    /**
+     * Sends a request to one node.
+     *
+     * @return The reply, or an {@link RpcException} if the call times out or the node answers with an error
+     */
+    public CompletableFuture<Message> call(String to, Message request, CallOptions options) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        start(new String[] { to }, 1, 1, request, options, future, null);
+        return future;
+    }
+
+    /**
+     * Sends a request to {@code primary}, and to {@code backup} as well if no reply arrived
+     * after the 95th percentile of the primary's recent round trips. The first reply
+     * completes the call, so both nodes must be able to answer the request.
+     *
+     * @return The first reply, or an {@link RpcException} if the call times out or a node answers with an error
+     */
+    public CompletableFuture<Message> hedged(String primary, String backup, Message request, CallOptions options) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        start(new String[] { primary, backup }, 1, 1, request, options, future, null);
+        return future;
+    }
+
+    /**
+     * Sends a request to several nodes and completes as soon as {@code required} of them replied.
+     *
+     * @return The first {@code required} replies in the order they arrived
+     */
+    public CompletableFuture<List<Message>> quorum(Collection<String> to, Message request, int required, CallOptions options) {
+        CompletableFuture<List<Message>> future = new CompletableFuture<>();
+        if (required > to.size()) {
+            future.completeExceptionally(new RpcException("Quorum of " + required + " out of " + to.size() + " nodes is impossible", 0, required, false));
+            return future;
+        }
+        if (required <= 0) {
+            future.complete(new ArrayList<>());
+            return future;
+        }
+        String[] targets = to.toArray(new String[0]);
+        start(targets, targets.length, required, request, options, null, future);
+        return future;
+    }
+
+    /**
+     * Sends the reply to a request back to its sender.
+     */
+    public void reply(Message request, Message response) {
+        response.addHeader(REPLY_HEADER, request.queryHeader(CALL_HEADER));
+        host.send(response, request.queryHeader("sender"));
+    }
+
+    /**
+     * Answers a request with an error; the call fails with an {@link RpcException} carrying the text.
+     */
+    public void fail(Message request, Message response, String error) {
+        response.addHeader(ERROR_HEADER, error != null ? error : "unknown error");
+        reply(request, response);
+    }
+
+    /**
+     * Completes the call a reply belongs to. Replies to calls that already completed,
+     * duplicates from retransmissions and replies from nodes that were not asked are dropped.
+     *
+     * @return true if the message is a reply
+     */
+    public boolean onReceive(Message message) {
+        String reply_to = message.queryHeader(REPLY_HEADER);
+        if (reply_to == null)
+            return false;
+        long id = Long.parseLong(reply_to);
+        String sender = message.queryHeader("sender");
+        String error = message.queryHeader(ERROR_HEADER);
+        CompletableFuture<Message> single = null;
+        CompletableFuture<List<Message>> quorum = null;
+        List<Message> replies = null;
+        RpcException failure = null;
+        long started = 0;
+        synchronized (this) {
+            PendingCall c = table[(int) (id & (table.length - 1))];
+            if (c.id != id)
+                return true;
+            int target = c.indexOf(sender);
+            if (target < 0 || c.replied[target])
+                return true;
+            c.replied[target] = true;
+            if (c.sent[target] > 0)
+                rtt.sample(sender, System.nanoTime() - c.sent[target]);
+            if (error != null)
+                failure = new RpcException("Node " + sender + " failed: " + error, c.replies.size(), c.required, false);
+            else
+                c.replies.add(message);
+            if (failure == null && c.replies.size() < c.required)
+                return true;
+            single = c.single;
+            quorum = c.quorum;
+            replies = c.replies;
+            started = c.started;
+            c.release();
+        }
+        callLatency.recordSince(started);
+        if (failure != null) {
+            if (single != null)
+                single.completeExceptionally(failure);
+            else
+                quorum.completeExceptionally(failure);
+        }
+        else if (single != null)
+            single.complete(replies.get(0));
+        else
+            quorum.complete(replies);
+        return true;
+    }
+
+    /**
+     * Waits for a call. On the node's thread, the node receives and processes messages
+     * meanwhile; messages nobody handled are returned by the node's next receive().
+     */
+    public <T> T await(CompletableFuture<T> future) throws RpcException {
+        try {
+            while (!future.isDone()) {
+                if (!host.pump(PUMP_MILLIS))
+                    return future.get();
+                if (Thread.currentThread().isInterrupted())
+                    throw new RpcException("Interrupted while waiting for a reply", 0, 0, false);
+            }
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcException("Interrupted while waiting for a reply", 0, 0, false);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RpcException rpc)
+                throw rpc;
+            throw new RpcException(String.valueOf(e.getCause()), 0, 0, false);
+        }
+    }
+
+    /**
+     * @return The round-trip times measured by this endpoint
+     */
+    public RttEstimator getRttEstimator() {
+        return rtt;
+    }
+
+    /**
+     * @return The number of calls waiting for replies
+     */
+    public synchronized int pending() {
+        return pending;
+    }
+
+    // Sends to the first {@code initial} targets now, and to the others when the hedging delay passed
+    private void start(String[] targets, int initial, int required, Message request, CallOptions options,
+                       CompletableFuture<Message> single, CompletableFuture<List<Message>> quorum) {
+        Message stamped;
+        long id;
+        synchronized (this) {
+            id = ++lastId;
+            PendingCall c = slotFor(id);
+            stamped = new Message(request).addHeader(CALL_HEADER, String.valueOf(id));
+            long timeout = options.adaptive() ? Math.min(options.timeoutMillis(), adaptiveTimeout(targets, required)) : options.timeoutMillis();
+            c.start(id, targets, required, stamped, options, timeout, single, quorum);
+            pending++;
+            long now = System.nanoTime();
+            for (int i = 0; i < initial; i++)
+                c.sent[i] = now;
+            c.timeout = TimerWheel.shared().schedule(() -> expire(id), timeout);
+            if (initial < targets.length) {
+                long delay = rtt.hedgeDelayMillis(targets[0]);
+                if (delay < timeout)
+                    c.hedge = TimerWheel.shared().schedule(() -> hedge(id), delay);
+            }
+        }
+        for (int i = 0; i < initial; i++)
+            host.send(stamped, targets[i]);
+    }
+
+    // A quorum of k is complete with the k-th fastest reply, so it waits for the k-th shortest timeout
+    private long adaptiveTimeout(String[] targets, int required) {
+        if (targets.length == 1)
+            return rtt.timeoutMillis(targets[0]);
+        long[] timeouts = new long[targets.length];
+        for (int i = 0; i < targets.length; i++)
+            timeouts[i] = rtt.timeoutMillis(targets[i]);
+        Arrays.sort(timeouts);
+        return timeouts[required - 1];
+    }
+
+    // Called on the timer thread: the call took longer than usual, the sender asks the targets held back as well
+    private void hedge(long id) {
+        List<String> backups = new ArrayList<>();
+        Message request;
+        synchronized (this) {
+            PendingCall c = table[(int) (id & (table.length - 1))];
+            if (c.id != id)
+                return;
+            long now = System.nanoTime();
+            for (int i = 0; i < c.targets.length; i++) {
+                if (c.sent[i] == 0) {
+                    c.sent[i] = now;
+                    backups.add(c.targets[i]);
+                }
+            }
+            request = c.request;
+            c.hedge = null;
+        }
+        hedges.add(backups.size());
+        runOnSender(() -> {
+            for (String target : backups)
+                host.send(request, target);
+        });
+    }
+
+    // A free slot for the call, the table doubles while the slot of the id is busy
+    private PendingCall slotFor(long id) {
+        while (table[(int) (id & (table.length - 1))].id != 0)
+            table = grown(table.length * 2);
+        return table[(int) (id & (table.length - 1))];
+    }
+
+    private PendingCall[] grown(int size) {
+        retry:
+        while (true) {
+            PendingCall[] grown = new PendingCall[size];
+            for (PendingCall c : table) {
+                if (c.id == 0)
+                    continue;
+                int i = (int) (c.id & (size - 1));
+                if (grown[i] != null) {
+                    size *= 2;
+                    continue retry;
+                }
+                grown[i] = c;
+            }
+            for (int i = 0; i < size; i++)
+                if (grown[i] == null)
+                    grown[i] = new PendingCall();
+            return grown;
+        }
+    }
+
+    // Called on the timer thread: the sender retransmits to the nodes that haven't replied, or the call fails
+    private void expire(long id) {
+        List<String> resend = null;
+        Message request = null;
+        RpcException failure = null;
+        CompletableFuture<Message> single = null;
+        CompletableFuture<List<Message>> quorum = null;
+        synchronized (this) {
+            PendingCall c = table[(int) (id & (table.length - 1))];
+            if (c.id != id)
+                return;
+            if (c.retriesLeft > 0) {
+                c.retriesLeft--;
+                resend = new ArrayList<>();
+                for (int i = 0; i < c.targets.length; i++) {
+                    if (!c.replied[i]) {
+                        resend.add(c.targets[i]);
+                        // Replies can't be told apart from replies to the first transmission any more
+                        c.sent[i] = -1;
+                    }
+                }
+                request = c.request;
+                if (c.adaptive)
+                    c.timeoutMillis = Math.min(2 * c.timeoutMillis, c.maxTimeoutMillis);
+                c.timeout = TimerWheel.shared().schedule(() -> expire(id), c.timeoutMillis);
+            }
+            else {
+                failure = new RpcException("Call " + id + " timed out with " + c.replies.size() + " of " + c.required + " replies",
+                        c.replies.size(), c.required, true);
+                single = c.single;
+                quorum = c.quorum;
+                c.release();
+            }
+        }
+        if (resend != null) {
+            retries.add(resend.size());
+            List<String> targets = resend;
+            Message message = request;
+            runOnSender(() -> {
+                for (String target : targets)
+                    host.send(message, target);
+            });
+            return;
+        }
+        timeouts.increment();
+        // Whatever waits for the call may send right away, which must not happen on the timer thread
+        RpcException error = failure;
+        CompletableFuture<Message> failedSingle = single;
+        CompletableFuture<List<Message>> failedQuorum = quorum;
+        runOnSender(() -> {
+            if (failedSingle != null)
+                failedSingle.completeExceptionally(error);
+            else
+                failedQuorum.completeExceptionally(error);
+        });
+    }
+
+    // Runs a task on the sender thread, with the node's binding once the node attached
+    private void runOnSender(Runnable task) {
+        TaskBinding b = binding;
+        sender.execute(b != null ? b.wrap(task) : task);
+    }
+
+    // An entry of the call table; the entries are reused, id 0 marks a free one
+    private final class PendingCall {
+        long id = 0;
+        String[] targets;
+        boolean[] replied = new boolean[8];
+        // When the request was sent to each target, 0 if not yet and -1 if it was sent again
+        long[] sent = new long[8];
+        List<Message> replies;
+        int required;
+        int retriesLeft;
+        long timeoutMillis;
+        long maxTimeoutMillis;
+        boolean adaptive;
+        long started;
+        Message request;
+        CompletableFuture<Message> single;
+        CompletableFuture<List<Message>> quorum;
+        TimerWheel.Timeout timeout;
+        TimerWheel.Timeout hedge;
+
+        void start(long id, String[] targets, int required, Message request, CallOptions options, long timeoutMillis,
+                   CompletableFuture<Message> single, CompletableFuture<List<Message>> quorum) {
+            this.id = id;
+            this.targets = targets;
+            if (replied.length < targets.length) {
+                replied = new boolean[targets.length];
+                sent = new long[targets.length];
+            }
+            this.replies = new ArrayList<>(required);
+            this.required = required;
+            this.retriesLeft = options.retries();
+            this.timeoutMillis = timeoutMillis;
+            this.maxTimeoutMillis = options.timeoutMillis();
+            this.adaptive = options.adaptive();
+            this.started = System.nanoTime();
+            this.request = request;
+            this.single = single;
+            this.quorum = quorum;
+        }
+
+        int indexOf(String node) {
+            for (int i = 0; i < targets.length; i++)
+                if (targets[i].equals(node))
+                    return i;
+            return -1;
+        }
+
+        void release() {
+            if (timeout != null)
+                timeout.cancel();
+            if (hedge != null)
+                hedge.cancel();
+            Arrays.fill(replied, 0, targets.length, false);
+            Arrays.fill(sent, 0, targets.length, 0);
+            id = 0;
+            targets = null;
+            request = null;
+            replies = null;
+            single = null;
+            quorum = null;
+            timeout = null;
+            hedge = null;
+            pending--;
+        }
+    }
+
+    private final RpcHost host;
+    private final ThreadPoolExecutor sender;
+    private volatile TaskBinding binding = null;
+    private final LatencyHistogram callLatency;
+    private final Counter retries;
+    private final Counter timeouts;
+    private final Counter hedges;
+    private final RttEstimator rtt = new RttEstimator();
+    private PendingCall[] table;
+    private long lastId = 0;
+    private int pending = 0;
+}
@@ -0,0 +1,37 @@
+package org.oxoo2a.sim4da.rpc;
+
+/**
+ * A call that failed, either because it ran out of time or because a node answered with an error.
+ */
+public class RpcException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int replies;
+    private final int required;
+    private final boolean timeout;
+
+    public RpcException(String message, int replies, int required, boolean timeout) {
+        super(message);
+        this.replies = replies;
+        this.required = required;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The number of replies that had arrived when the call failed
+     */
+    public int getReplies() {
+        return replies;
+    }
+
+    public int getRequired() {
+        return required;
+    }
+
+    /**
+     * @return true if the call timed out, false if a node replied with an error
+     */
+    public boolean isTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,22 @@
+package org.oxoo2a.sim4da.rpc;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * The node an {@link Rpc} endpoint sends and receives through.
+ */
+public interface RpcHost {
+
+    String name();
+
+    void send(Message message, String to);
+
+    /**
+     * Receives and processes the messages that arrive within the timeout, so replies get to
+     * the pending calls while the node's thread waits for them. Messages that are not handled
+     * on the way are kept for the application.
+     *
+     * @return false if the calling thread is not the node's thread and can't receive
+     */
+    boolean pump(long timeoutMillis);
+}
@@ -0,0 +1,97 @@
+package org.oxoo2a.sim4da.rpc;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip times to the nodes one endpoint calls. Per node, a smoothed RTT and its mean
+ * deviation are kept as in TCP (RFC 6298), and give the retransmission timeout
+ * srtt + 4 * rttvar; the last {@code WINDOW} samples give the delay after which a hedged
+ * request goes to a backup node.
+ * <p>
+ * Only replies to requests that were sent once are sampled (Karn's algorithm), a reply to
+ * a retransmitted request can't be matched to the transmission it answers.
+ */
+public final class RttEstimator {
+
+    /** Timeout for nodes without samples yet. */
+    public static final long INITIAL_TIMEOUT_MILLIS = 1000;
+    /** Lower bound of the timeout, a few ticks of the {@link TimerWheel}. */
+    public static final long MIN_TIMEOUT_MILLIS = 50;
+
+    private static final int WINDOW = 32;
+    // Samples needed before the percentile is trusted over the timeout
+    private static final int MIN_SAMPLES = 8;
+    private static final long GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+
+    public void sample(String node, long rttNanos) {
+        peers.computeIfAbsent(node, n -> new Peer()).sample(rttNanos);
+    }
+
+    /**
+     * @return How long to wait for a reply from the node before retransmitting
+     */
+    public long timeoutMillis(String node) {
+        Peer p = peers.get(node);
+        return p == null ? INITIAL_TIMEOUT_MILLIS : p.timeoutMillis();
+    }
+
+    /**
+     * @return The 95th percentile of the node's recent round trips, its timeout while there are few samples
+     */
+    public long hedgeDelayMillis(String node) {
+        Peer p = peers.get(node);
+        return p == null ? INITIAL_TIMEOUT_MILLIS : p.percentileMillis(0.95);
+    }
+
+    /**
+     * @return The smoothed round-trip time to the node in nanoseconds, -1 without samples
+     */
+    public long smoothedNanos(String node) {
+        Peer p = peers.get(node);
+        return p == null ? -1 : p.smoothed();
+    }
+
+    private static final class Peer {
+        private long srtt = -1;
+        private long rttvar;
+        private final long[] recent = new long[WINDOW];
+        private int samples = 0;
+
+        synchronized void sample(long rtt) {
+            if (srtt < 0) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+            }
+            else {
+                rttvar = rttvar - rttvar / 4 + Math.abs(srtt - rtt) / 4;
+                srtt = srtt - srtt / 8 + rtt / 8;
+            }
+            recent[samples++ % WINDOW] = rtt;
+        }
+
+        synchronized long smoothed() {
+            return srtt;
+        }
+
+        synchronized long timeoutMillis() {
+            long rto = srtt + Math.max(GRANULARITY_NANOS, 4 * rttvar);
+            return Math.max(MIN_TIMEOUT_MILLIS, TimeUnit.NANOSECONDS.toMillis(rto));
+        }
+
+        long percentileMillis(double p) {
+            long[] sorted;
+            synchronized (this) {
+                if (samples < MIN_SAMPLES)
+                    return timeoutMillis();
+                sorted = Arrays.copyOf(recent, Math.min(samples, WINDOW));
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(index, 0)]));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.oxoo2a.sim4da.rpc;
+
+import org.oxoo2a.sim4da.TaskBinding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timer wheel: timeouts are put into one of {@code BUCKETS} buckets by their due
+ * tick, and one daemon thread visits a bucket per tick. Scheduling and cancelling are
+ * O(1), which matters with thousands of calls in flight that almost all get their reply
+ * before the timeout. Timeouts fire up to one tick late.
+ * <p>
+ * The thread serves every simulation of the process, so it inherits nothing from the thread
+ * that starts it; a task runs with the {@link TaskBinding} of the thread that scheduled it.
+ */
+public final class TimerWheel {
+
+    /** A scheduled task, cancelled when the call it guards completes. */
+    public static final class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long rounds) {
+            this.task = task;
+            this.rounds = rounds;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final int BUCKETS = 512;
+    private static final TimerWheel shared = new TimerWheel(5);
+
+    private final long tickMillis;
+    private final List<List<Timeout>> buckets = new ArrayList<>(BUCKETS);
+    private long tick = 0;
+    private long start;
+    private Thread thread = null;
+
+    public TimerWheel(long tickMillis) {
+        this.tickMillis = tickMillis;
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.add(new ArrayList<>());
+    }
+
+    /**
+     * @return The wheel shared by all RPC endpoints of the process, ticking every 5 ms
+     */
+    public static TimerWheel shared() {
+        return shared;
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        return schedule(TaskBinding.capture(), task, delayMillis);
+    }
+
+    private synchronized Timeout schedule(TaskBinding binding, Runnable task, long delayMillis) {
+        if (thread == null) {
+            start = System.nanoTime();
+            thread = new Thread(null, this::run, "rpc-timer", 0, false);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        // Ticks are counted from the one being processed, round up so timeouts never fire early
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(binding.wrap(task), (ticks - 1) / BUCKETS);
+        buckets.get((int) ((tick + ticks) % BUCKETS)).add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        List<Timeout> due = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                long next = start + (tick + 1) * tickMillis * 1_000_000L;
+                long wait;
+                while ((wait = next - System.nanoTime()) > 0) {
+                    try {
+                        wait(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                tick++;
+                List<Timeout> bucket = buckets.get((int) (tick % BUCKETS));
+                for (int i = bucket.size() - 1; i >= 0; i--) {
+                    Timeout t = bucket.get(i);
+                    if (t.cancelled) {
+                        bucket.set(i, bucket.get(bucket.size() - 1));
+                        bucket.remove(bucket.size() - 1);
+                    } else if (t.rounds > 0) {
+                        t.rounds--;
+                    } else {
+                        due.add(t);
+                        bucket.set(i, bucket.get(bucket.size() - 1));
+                        bucket.remove(bucket.size() - 1);
+                    }
+                }
+            }
+            for (Timeout t : due) {
+                if (!t.cancelled)
+                    t.task.run();
+            }
+            due.clear();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.oxoo2a.sim4da.snapshot;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * State that is saved in checkpoints and restored when a simulation resumes from one,
+ * e.g. the store and clock of a DSM instance.
+ */
+public interface Checkpointable {
+
+    /**
+     * Writes the state; called on the owning node's thread.
+     */
+    void checkpoint(DataOutput out) throws IOException;
+
+    /**
+     * Restores the state written by {@link #checkpoint}, before the node starts.
+     */
+    void restore(DataInput in) throws IOException;
+}
@@ -0,0 +1,114 @@
+package org.oxoo2a.sim4da.snapshot;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A consistent cut read back from a file written by {@link SnapshotWriter}: the recorded
+ * state of every node and the messages that were in flight between them.
+ *
+ * @param id       The snapshot id
+ * @param states   The recorded state per node
+ * @param channels The messages in flight, in the order each receiver recorded them
+ * @param parts    The binary state per node and part name, only in checkpoints; the parts of the simulation as a whole are under the empty node name
+ * @param complete false if the file was cut short, e.g. because the simulation ended before every node recorded its state
+ */
+public record GlobalSnapshot(long id, Map<String, Map<String, String>> states, List<InFlight> channels,
+                             Map<String, Map<String, byte[]>> parts, boolean complete) {
+
+    /**
+     * A message sent before its sender recorded its state and received after its receiver did.
+     */
+    public record InFlight(String from, String to, Message message) {
+    }
+
+    /**
+     * @return The messages in flight from {@code from} to {@code to}, in the order they were sent on a FIFO link
+     */
+    public List<Message> channel(String from, String to) {
+        List<Message> messages = new ArrayList<>();
+        for (InFlight m : channels) {
+            if (m.from().equals(from) && m.to().equals(to)) {
+                messages.add(m.message());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return true if the snapshot was taken as a checkpoint, with the binary state of the nodes
+     */
+    public boolean isCheckpoint() {
+        return !parts.isEmpty();
+    }
+
+    public static GlobalSnapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != SnapshotWriter.MAGIC) {
+                throw new IOException(file + " is not a snapshot file");
+            }
+            byte version = in.readByte();
+            if (version != SnapshotWriter.VERSION) {
+                throw new IOException("Unsupported snapshot file version " + version);
+            }
+            long id = in.readLong();
+            Map<String, Map<String, String>> states = new LinkedHashMap<>();
+            List<InFlight> channels = new ArrayList<>();
+            Map<String, Map<String, byte[]>> parts = new HashMap<>();
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) {
+                    return new GlobalSnapshot(id, states, channels, parts, false);
+                }
+                try {
+                    switch (tag) {
+                        case SnapshotWriter.TAG_STATE -> {
+                            String node = in.readUTF();
+                            int n = in.readInt();
+                            Map<String, String> state = new HashMap<>();
+                            for (int i = 0; i < n; i++) {
+                                state.put(in.readUTF(), in.readUTF());
+                            }
+                            states.put(node, state);
+                        }
+                        case SnapshotWriter.TAG_MESSAGE -> {
+                            String from = in.readUTF();
+                            String to = in.readUTF();
+                            byte[] json = new byte[in.readInt()];
+                            in.readFully(json);
+                            channels.add(new InFlight(from, to, Message.fromJson(new String(json, StandardCharsets.UTF_8))));
+                        }
+                        case SnapshotWriter.TAG_PART -> {
+                            String node = in.readUTF();
+                            String name = in.readUTF();
+                            byte[] bytes = new byte[in.readInt()];
+                            in.readFully(bytes);
+                            parts.computeIfAbsent(node, n -> new HashMap<>()).put(name, bytes);
+                        }
+                        case SnapshotWriter.TAG_END -> {
+                            in.readInt();
+                            in.readLong();
+                            return new GlobalSnapshot(id, states, channels, parts, true);
+                        }
+                        default -> throw new IOException("Unknown record tag " + tag + " in " + file);
+                    }
+                } catch (EOFException e) {
+                    // The last record was cut short
+                    return new GlobalSnapshot(id, states, channels, parts, false);
+                }
+            }
+        }
+    }
+}
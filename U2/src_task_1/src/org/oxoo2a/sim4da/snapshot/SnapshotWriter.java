@@ -0,0 +1,135 @@
+package org.oxoo2a.sim4da.snapshot;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Writes a snapshot file while the snapshot is taken, one record per recorded node state
+ * and per message found in a channel, so no snapshot is ever held in memory as a whole.
+ *
+ * Layout: the magic {@link #MAGIC}, a format version byte and the snapshot id as long,
+ * then a sequence of records starting with a tag byte. {@link #TAG_STATE} records hold
+ * {@code UTF node, int n} and n pairs of {@code UTF key, UTF value}; {@link #TAG_MESSAGE}
+ * records hold {@code UTF from, UTF to, int length} and the message as JSON in UTF-8.
+ * Checkpoints add {@link #TAG_PART} records with binary state, {@code UTF node, UTF name,
+ * int length} and the bytes; parts of the simulation as a whole have an empty node name.
+ * A complete snapshot ends with a {@link #TAG_END} record holding {@code int nodes,
+ * long messages}; a file without it was cut short.
+ */
+public final class SnapshotWriter implements AutoCloseable {
+    static final int MAGIC = 0x53344453; // "S4DS"
+    static final byte VERSION = 2;
+    static final byte TAG_STATE = 1;
+    static final byte TAG_MESSAGE = 2;
+    static final byte TAG_END = 3;
+    static final byte TAG_PART = 4;
+
+    private final Path file;
+    private final DataOutputStream out;
+    private int nodes = 0;
+    private long messages = 0;
+    private boolean closed = false;
+
+    public SnapshotWriter(Path file, long id) throws IOException {
+        this.file = file;
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(id);
+    }
+
+    public synchronized void state(String node, Map<String, String> state) {
+        if (closed) {
+            return;
+        }
+        try {
+            out.writeByte(TAG_STATE);
+            out.writeUTF(node);
+            out.writeInt(state.size());
+            for (Map.Entry<String, String> e : state.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(String.valueOf(e.getValue()));
+            }
+            nodes++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void message(String from, String to, Message message) {
+        if (closed) {
+            return;
+        }
+        try {
+            byte[] json = message.toJson().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TAG_MESSAGE);
+            out.writeUTF(from);
+            out.writeUTF(to);
+            out.writeInt(json.length);
+            out.write(json);
+            messages++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void part(String node, String name, byte[] bytes) {
+        if (closed) {
+            return;
+        }
+        try {
+            out.writeByte(TAG_PART);
+            out.writeUTF(node);
+            out.writeUTF(name);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ends the file with the {@link #TAG_END} record and closes it.
+     */
+    public synchronized void finish() throws IOException {
+        if (closed) {
+            return;
+        }
+        out.writeByte(TAG_END);
+        out.writeInt(nodes);
+        out.writeLong(messages);
+        close();
+    }
+
+    /**
+     * Closes the file; without {@link #finish()} it reads back as incomplete.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.close();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized int getNodes() {
+        return nodes;
+    }
+
+    public synchronized long getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,90 @@
+package org.oxoo2a.sim4da.termination;
+
+import org.oxoo2a.sim4da.Message;
+
+/**
+ * Per-node state of Safra's termination detection algorithm (Dijkstra's EWD 998).
+ *
+ * Every node counts the basic messages it sends and receives; a node that received a
+ * message since it last forwarded the token is black. A token travels around a ring of all
+ * nodes and sums up the counters. When the token is back at the initiator, the system is
+ * quiescent (no basic message in flight, none delivered since the probe passed) if the token
+ * and the initiator are white and the counters add up to zero. Otherwise the initiator
+ * starts another probe.
+ *
+ * Control messages (the token itself, shutdown messages) must not be counted. The detector
+ * adds its fields to the token message, so any protocol with a ring token can carry it:
+ * <pre>
+ * // initiator, when sending the token
+ * sendBlindly(detector.startProbe(new Message().add("type", "TOKEN")), next);
+ * // other nodes, when forwarding the token
+ * sendBlindly(detector.forward(token), next);
+ * // initiator, when the token returns
+ * if (detector.isQuiescent(token)) ...
+ * </pre>
+ * The state is confined to its node, but methods are synchronized so that helper threads of
+ * a node may count messages as well.
+ */
+public class SafraTerminationDetector {
+    public static final String COUNT_KEY = "safra_count";
+    public static final String BLACK_KEY = "safra_black";
+
+    private long counter = 0;
+    private boolean black = false;
+
+    /**
+     * Counts basic messages sent, e.g. {@code n - 1} for a broadcast.
+     */
+    public synchronized void onSend(int messages) {
+        counter += messages;
+    }
+
+    /**
+     * Counts one basic message received.
+     */
+    public synchronized void onReceive() {
+        counter--;
+        black = true;
+    }
+
+    /**
+     * Initializes a new probe on the initiator: resets the token to white with count zero
+     * and whitens the initiator.
+     *
+     * @param token The token message to send
+     * @return The token
+     */
+    public synchronized Message startProbe(Message token) {
+        black = false;
+        return token.add(COUNT_KEY, 0L).add(BLACK_KEY, 0);
+    }
+
+    /**
+     * Adds this node's counter and color to a token before it is passed on, then whitens the node.
+     *
+     * @param token The token received from the predecessor
+     * @return A new token message for the successor
+     */
+    public synchronized Message forward(Message token) {
+        Message next = new Message();
+        token.getPayload().forEach(next::add);
+        next.add(COUNT_KEY, token.queryLong(COUNT_KEY) + counter);
+        next.add(BLACK_KEY, black || token.queryInteger(BLACK_KEY) != 0 ? 1 : 0);
+        black = false;
+        return next;
+    }
+
+    /**
+     * Evaluates a token that returned to the initiator.
+     *
+     * @param token The returned token
+     * @return true if no basic message is in flight and none was delivered unnoticed during the probe
+     */
+    public synchronized boolean isQuiescent(Message token) {
+        return !black && token.queryInteger(BLACK_KEY) == 0 && token.queryLong(COUNT_KEY) + counter == 0;
+    }
+
+    public synchronized long counter() {
+        return counter;
+    }
+}
@@ -0,0 +1,70 @@
+package org.oxoo2a.sim4da.trace;
+
+/**
+ * Fixed-size buffer of trace events owned by one thread. Events are stored in parallel
+ * primitive arrays, so recording allocates nothing. Events are appended until the buffer
+ * is full, then the owning thread hands it to the {@link TraceWriter} as a whole and
+ * starts over; unlike a ring, no event is overwritten before it has been written.
+ */
+final class SpanBuffer {
+    private final Thread owner;
+    private final byte[] kind;
+    private final long[] timestamp;
+    private final long[] traceId;
+    private final long[] spanId;
+    private final long[] parentSpanId;
+    private final int[] node;
+    private final int[] peer;
+    private final int[] name;
+    private int size = 0;
+
+    SpanBuffer(Thread owner, int capacity) {
+        this.owner = owner;
+        kind = new byte[capacity];
+        timestamp = new long[capacity];
+        traceId = new long[capacity];
+        spanId = new long[capacity];
+        parentSpanId = new long[capacity];
+        node = new int[capacity];
+        peer = new int[capacity];
+        name = new int[capacity];
+    }
+
+    /**
+     * @return true if the buffer is full after adding the event
+     */
+    synchronized boolean add(byte eventKind, long ts, long trace, long span, long parent,
+                             int nodeId, int peerId, int nameId) {
+        kind[size] = eventKind;
+        timestamp[size] = ts;
+        traceId[size] = trace;
+        spanId[size] = span;
+        parentSpanId[size] = parent;
+        node[size] = nodeId;
+        peer[size] = peerId;
+        name[size] = nameId;
+        size++;
+        return size == kind.length;
+    }
+
+    /**
+     * Writes all buffered events and empties the buffer.
+     */
+    synchronized void drainTo(TraceWriter writer) {
+        for (int i = 0; i < size; i++) {
+            writer.writeEvent(kind[i], timestamp[i], traceId[i], spanId[i], parentSpanId[i], node[i], peer[i], name[i]);
+        }
+        size = 0;
+    }
+
+    /**
+     * @return true once the owning thread has ended, so no events are added any more
+     */
+    boolean isOrphaned() {
+        return !owner.isAlive();
+    }
+
+    synchronized void clear() {
+        size = 0;
+    }
+}
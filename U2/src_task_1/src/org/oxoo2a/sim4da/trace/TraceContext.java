@@ -0,0 +1,51 @@
+package org.oxoo2a.sim4da.trace;
+
+/**
+ * Identifies a span within a trace. Travels with a message as a single compact header
+ * field, {@code <traceId>:<spanId>} in hex, so untraced messages carry no extra data.
+ */
+public final class TraceContext {
+    private final long traceId;
+    private final long spanId;
+
+    TraceContext(long traceId, long spanId) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+    }
+
+    public long traceId() {
+        return traceId;
+    }
+
+    public long spanId() {
+        return spanId;
+    }
+
+    String encode() {
+        return Long.toHexString(traceId) + ":" + Long.toHexString(spanId);
+    }
+
+    /**
+     * @return The decoded context, or null if the header is absent or malformed
+     */
+    static TraceContext decode(String header) {
+        if (header == null) {
+            return null;
+        }
+        int separator = header.indexOf(':');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            return new TraceContext(Long.parseUnsignedLong(header, 0, separator, 16),
+                    Long.parseUnsignedLong(header, separator + 1, header.length(), 16));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -0,0 +1,17 @@
+package org.oxoo2a.sim4da.trace;
+
+/**
+ * One entry of a trace file.
+ *
+ * @param kind One of the {@code Tracer} event kinds
+ * @param timestampNanos {@link System#nanoTime()} when the event was recorded
+ * @param traceId The trace the span belongs to
+ * @param spanId The span
+ * @param parentSpanId The span that caused this one, 0 for the root of a trace
+ * @param node The node that recorded the event
+ * @param peer The other node of a message hop (receiver for SEND, sender for RECEIVE), or null
+ * @param name The message type or local operation name
+ */
+public record TraceEvent(byte kind, long timestampNanos, long traceId, long spanId, long parentSpanId,
+                         String node, String peer, String name) {
+}
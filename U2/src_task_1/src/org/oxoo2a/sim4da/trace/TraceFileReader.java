@@ -0,0 +1,119 @@
+package org.oxoo2a.sim4da.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads trace files written by the {@link Tracer}.
+ *
+ * Running this class prints every trace in a file as a list of message hops with
+ * their network latency (SEND to RECEIVE), which shows e.g. which ACK of a slow CP
+ * write arrived late:
+ * <pre>
+ * java org.oxoo2a.sim4da.trace.TraceFileReader trace.bin
+ * </pre>
+ */
+public final class TraceFileReader {
+    private TraceFileReader() {
+    }
+
+    /**
+     * @return All events of the file, in file order (not necessarily in time order)
+     */
+    public static List<TraceEvent> read(Path file) throws IOException {
+        List<TraceEvent> events = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != TraceWriter.MAGIC) {
+                throw new IOException("Not a sim4da trace file: " + file);
+            }
+            byte version = in.readByte();
+            if (version != TraceWriter.VERSION) {
+                throw new IOException("Unsupported trace file version " + version);
+            }
+            names.add(null);
+            while (true) {
+                int tag;
+                try {
+                    tag = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (tag == TraceWriter.TAG_NAME) {
+                    int id = in.readInt();
+                    String name = in.readUTF();
+                    while (names.size() <= id) {
+                        names.add(null);
+                    }
+                    names.set(id, name);
+                } else if (tag == TraceWriter.TAG_EVENT) {
+                    byte kind = in.readByte();
+                    long ts = in.readLong();
+                    long traceId = in.readLong();
+                    long spanId = in.readLong();
+                    long parentSpanId = in.readLong();
+                    String node = names.get(in.readInt());
+                    String peer = names.get(in.readInt());
+                    String name = names.get(in.readInt());
+                    events.add(new TraceEvent(kind, ts, traceId, spanId, parentSpanId, node, peer, name));
+                } else {
+                    throw new IOException("Corrupt trace file, unknown record tag " + tag);
+                }
+            }
+        }
+        return events;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: TraceFileReader <trace file>");
+            return;
+        }
+        Map<Long, List<TraceEvent>> traces = new TreeMap<>();
+        for (TraceEvent event : read(Path.of(args[0]))) {
+            traces.computeIfAbsent(event.traceId(), id -> new ArrayList<>()).add(event);
+        }
+        for (Map.Entry<Long, List<TraceEvent>> trace : traces.entrySet()) {
+            List<TraceEvent> events = trace.getValue();
+            events.sort(Comparator.comparingLong(TraceEvent::timestampNanos));
+            long origin = events.get(0).timestampNanos();
+            System.out.printf("trace %016x (%d events)%n", trace.getKey(), events.size());
+            Map<Long, TraceEvent> sends = new HashMap<>();
+            Map<Long, TraceEvent> localStarts = new HashMap<>();
+            for (TraceEvent event : events) {
+                long at = (event.timestampNanos() - origin) / 1000;
+                switch (event.kind()) {
+                    case Tracer.SEND -> sends.put(event.spanId(), event);
+                    case Tracer.LOCAL_START -> localStarts.put(event.spanId(), event);
+                    case Tracer.RECEIVE -> {
+                        TraceEvent send = sends.get(event.spanId());
+                        String latency = send != null
+                                ? ((event.timestampNanos() - send.timestampNanos()) / 1000) + "us"
+                                : "?";
+                        System.out.printf("  %8dus  %s -> %s  %s  (in flight %s)%n",
+                                at, event.peer(), event.node(), event.name(), latency);
+                    }
+                    case Tracer.LOCAL_END -> {
+                        TraceEvent start = localStarts.get(event.spanId());
+                        String duration = start != null
+                                ? ((event.timestampNanos() - start.timestampNanos()) / 1000) + "us"
+                                : "?";
+                        System.out.printf("  %8dus  %s  %s done (took %s)%n", at, event.node(), event.name(), duration);
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.oxoo2a.sim4da.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the binary trace file.
+ *
+ * Layout: the magic {@link #MAGIC}, a format version byte, then a sequence of records
+ * starting with a tag byte. {@link #TAG_NAME} records define a string (node name or
+ * message type) as {@code int id, UTF string}; {@link #TAG_EVENT} records hold
+ * {@code byte kind, long timestamp, long traceId, long spanId, long parentSpanId,
+ * int node, int peer, int name}. Names are always defined before the first event
+ * that refers to them. Id 0 stands for "no name".
+ */
+final class TraceWriter {
+    static final int MAGIC = 0x53344454; // "S4DT"
+    static final byte VERSION = 1;
+    static final byte TAG_NAME = 1;
+    static final byte TAG_EVENT = 2;
+
+    private final DataOutputStream out;
+    private final ConcurrentHashMap<String, Integer> nameIds = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int namesWritten = 0;
+    private boolean closed = false;
+
+    TraceWriter(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        names.add(null);
+        namesWritten = 1;
+    }
+
+    int nameId(String name) {
+        if (name == null) {
+            return 0;
+        }
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            return nameIds.computeIfAbsent(name, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    synchronized void flush(SpanBuffer buffer) {
+        if (closed) {
+            // Late events of a thread that raced with Tracer.stop()
+            buffer.clear();
+            return;
+        }
+        try {
+            writeNewNames();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.drainTo(this);
+    }
+
+    // Called by SpanBuffer.drainTo while this writer's lock is held
+    void writeEvent(byte kind, long ts, long traceId, long spanId, long parentSpanId, int node, int peer, int name) {
+        try {
+            out.writeByte(TAG_EVENT);
+            out.writeByte(kind);
+            out.writeLong(ts);
+            out.writeLong(traceId);
+            out.writeLong(spanId);
+            out.writeLong(parentSpanId);
+            out.writeInt(node);
+            out.writeInt(peer);
+            out.writeInt(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeNewNames() throws IOException {
+        synchronized (names) {
+            while (namesWritten < names.size()) {
+                out.writeByte(TAG_NAME);
+                out.writeInt(namesWritten);
+                out.writeUTF(names.get(namesWritten));
+                namesWritten++;
+            }
+        }
+    }
+
+    synchronized void close() throws IOException {
+        closed = true;
+        writeNewNames();
+        out.close();
+    }
+}
@@ -0,0 +1,245 @@
+package org.oxoo2a.sim4da.trace;
+
+import org.oxoo2a.sim4da.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampled causal tracing of messages.
+ *
+ * Every message hop is a span: {@code Network.send} records a SEND event and tags the
+ * delivered copy with the span's context, {@code Node.receive} records the matching
+ * RECEIVE event and makes the context current for the receiving thread. Messages sent
+ * while handling a traced message become child spans, so a CP write shows up as one
+ * trace containing every request and every ACK, with the node and time of each hop.
+ *
+ * A message sent without a current context starts a new trace with probability
+ * {@code sampleRate}. Events are buffered per thread (see {@link SpanBuffer}) and written
+ * to a binary trace file (see {@link TraceWriter}), which {@link TraceFileReader} turns
+ * back into events. The buffers of threads that have ended are written and dropped.
+ *
+ * Every {@code SimulationContext} owns a tracer, so parallel simulations trace into
+ * their own files and stopping one doesn't end the tracing of another.
+ *
+ * When tracing is off, every hook returns after a single volatile read.
+ */
+public final class Tracer {
+    /**
+     * Header field carrying the {@link TraceContext} of a traced message.
+     */
+    public static final String HEADER = "trace";
+
+    public static final byte SEND = 1;
+    public static final byte RECEIVE = 2;
+    public static final byte LOCAL_START = 3;
+    public static final byte LOCAL_END = 4;
+
+    private static final int BUFFER_CAPACITY = 1024;
+
+    private volatile boolean enabled = false;
+    private volatile double sampleRate = 0.0;
+    private volatile TraceWriter writer = null;
+    private final Queue<SpanBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<SpanBuffer> threadBuffer = new ThreadLocal<>();
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<>();
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+    /**
+     * Starts tracing into the given file. Restarts tracing if it is already running.
+     *
+     * @param file The trace file to create
+     * @param rate Probability in [0, 1] that a message sent outside of any trace starts a new one
+     * @throws IOException If the file can't be created
+     */
+    public synchronized void start(Path file, double rate) throws IOException {
+        if (enabled) {
+            stop();
+        }
+        writer = new TraceWriter(file);
+        sampleRate = rate;
+        enabled = true;
+        logger.info("Tracing {} of the messages to {}", rate, file);
+    }
+
+    /**
+     * Stops tracing and writes all buffered events. Threads that are still recording
+     * while this runs may lose their last events.
+     */
+    public synchronized void stop() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        TraceWriter w = writer;
+        writer = null;
+        for (SpanBuffer buffer : buffers) {
+            w.flush(buffer);
+        }
+        buffers.removeIf(SpanBuffer::isOrphaned);
+        w.close();
+        logger.info("Tracing stopped");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The context of the span the calling thread is working on, or null
+     */
+    public TraceContext current() {
+        return enabled ? current.get() : null;
+    }
+
+    /**
+     * Called by the network for every copy of a message that is about to be delivered.
+     */
+    public void onSend(Message copy, String sender, String receiver) {
+        if (!enabled) {
+            return;
+        }
+        TraceContext parent = current.get();
+        long traceId;
+        long parentSpanId;
+        if (parent != null) {
+            traceId = parent.traceId();
+            parentSpanId = parent.spanId();
+        } else if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            traceId = newId();
+            parentSpanId = 0;
+        } else {
+            return;
+        }
+        TraceContext span = new TraceContext(traceId, newId());
+        copy.addHeader(HEADER, span.encode());
+        record(SEND, span, parentSpanId, sender, receiver, copy.query("type"));
+    }
+
+    /**
+     * Called when a node takes a message from its mailbox. Makes the message's context
+     * (or none) the current context of the calling thread.
+     */
+    public void onReceive(Message message, String receiver) {
+        if (!enabled) {
+            return;
+        }
+        TraceContext span = TraceContext.decode(message.queryHeader(HEADER));
+        current.set(span);
+        if (span != null) {
+            record(RECEIVE, span, 0, receiver, message.queryHeader("sender"), message.query("type"));
+        }
+    }
+
+    /**
+     * Opens a span for a local operation, e.g. a DSM write, so that the messages it
+     * sends are grouped under it. Without a current context the operation is sampled
+     * like a message. Must be closed on the same thread.
+     *
+     * @param name Name of the operation
+     * @param node Node executing the operation
+     * @return The scope to close when the operation is done
+     */
+    public Scope startSpan(String name, String node) {
+        if (!enabled) {
+            return Scope.NOOP;
+        }
+        TraceContext parent = current.get();
+        TraceContext span;
+        if (parent != null) {
+            span = new TraceContext(parent.traceId(), newId());
+        } else if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            span = new TraceContext(newId(), newId());
+        } else {
+            return Scope.NOOP;
+        }
+        record(LOCAL_START, span, parent != null ? parent.spanId() : 0, node, null, name);
+        current.set(span);
+        return new Scope(this, span, parent, node, name);
+    }
+
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    private void record(byte kind, TraceContext span, long parentSpanId, String node, String peer, String name) {
+        TraceWriter w = writer;
+        if (w == null) {
+            return;
+        }
+        SpanBuffer buffer = threadBuffer.get();
+        if (buffer == null) {
+            flushOrphans(w);
+            buffer = new SpanBuffer(Thread.currentThread(), BUFFER_CAPACITY);
+            threadBuffer.set(buffer);
+            buffers.add(buffer);
+        }
+        boolean full = buffer.add(kind, System.nanoTime(), span.traceId(), span.spanId(), parentSpanId,
+                w.nameId(node), w.nameId(peer), w.nameId(name));
+        if (full) {
+            w.flush(buffer);
+        }
+    }
+
+    /**
+     * Writes and drops the buffers of threads that have ended. Runs whenever a thread
+     * records its first event, so short-lived threads, e.g. the ones broadcasting CA
+     * updates, don't pile up buffers.
+     */
+    private void flushOrphans(TraceWriter w) {
+        for (Iterator<SpanBuffer> it = buffers.iterator(); it.hasNext(); ) {
+            SpanBuffer buffer = it.next();
+            if (buffer.isOrphaned()) {
+                w.flush(buffer);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The number of thread buffers kept, for tests
+     */
+    int bufferCount() {
+        return buffers.size();
+    }
+
+    /**
+     * Scope of a local span, see {@link #startSpan}.
+     */
+    public static final class Scope implements AutoCloseable {
+        static final Scope NOOP = new Scope(null, null, null, null, null);
+
+        private final Tracer tracer;
+        private final TraceContext span;
+        private final TraceContext parent;
+        private final String node;
+        private final String name;
+
+        private Scope(Tracer tracer, TraceContext span, TraceContext parent, String node, String name) {
+            this.tracer = tracer;
+            this.span = span;
+            this.parent = parent;
+            this.node = node;
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            if (span == null || !tracer.enabled) {
+                return;
+            }
+            tracer.record(LOCAL_END, span, parent != null ? parent.spanId() : 0, node, null, name);
+            current.set(parent);
+        }
+    }
+}
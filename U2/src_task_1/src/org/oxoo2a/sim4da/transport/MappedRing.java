@@ -0,0 +1,147 @@
+package org.oxoo2a.sim4da.transport;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer in a (memory-mapped) direct buffer.
+ *
+ * Layout: the producer's tail position at offset 0 and the consumer's head position at
+ * offset 64 (separate cache lines), followed by the data area of a power-of-two size.
+ * Positions grow monotonically; the data index is {@code position & mask}. Records are
+ * {@code int length} followed by the payload, padded to 8 bytes, and never wrap: if a
+ * record doesn't fit before the end of the data area, a padding marker is written and the
+ * record starts at index 0. Payloads can therefore be encoded and decoded in place.
+ *
+ * The tail is published with a release store after the record is written and read with an
+ * acquire load by the consumer (and vice versa for the head), which is all the
+ * synchronization needed between the two processes sharing the mapping.
+ */
+final class MappedRing {
+    static final int HEADER_SIZE = 128;
+    private static final int TAIL_OFFSET = 0;
+    private static final int HEAD_OFFSET = 64;
+    private static final int PADDING = -1;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+
+    // Producer side state
+    private long tail;
+    private long cachedHead;
+    private long claimedEnd = -1;
+
+    // Consumer side state
+    private long head;
+    private long cachedTail;
+    private long pendingHead = -1;
+
+    /**
+     * @param buffer Direct buffer of HEADER_SIZE + capacity bytes, zeroed on first use
+     * @param capacity Size of the data area, a power of two
+     */
+    MappedRing(ByteBuffer buffer, int capacity) {
+        if (Integer.bitCount(capacity) != 1 || capacity < 64) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.tail = (long) LONGS.getAcquire(this.buffer, TAIL_OFFSET);
+        this.cachedHead = (long) LONGS.getAcquire(this.buffer, HEAD_OFFSET);
+        this.head = cachedHead;
+        this.cachedTail = tail;
+    }
+
+    /**
+     * @return The largest payload a record can have
+     */
+    int maxPayload() {
+        return capacity - 8;
+    }
+
+    // ---- Producer ----
+
+    /**
+     * Reserves space for a record. The returned buffer covers exactly the payload and must be
+     * filled before calling {@link #publish()}.
+     *
+     * @return The payload area, or null if the ring is currently too full
+     */
+    ByteBuffer claim(int length) {
+        if (length > maxPayload()) {
+            throw new IllegalArgumentException("Record of " + length + " bytes exceeds ring capacity");
+        }
+        int recordSize = align(4 + length);
+        int index = (int) (tail & mask);
+        int padding = index + recordSize > capacity ? capacity - index : 0;
+        long needed = padding + recordSize;
+        if (capacity - (tail - cachedHead) < needed) {
+            cachedHead = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+            if (capacity - (tail - cachedHead) < needed) {
+                return null;
+            }
+        }
+        if (padding > 0) {
+            buffer.putInt(HEADER_SIZE + index, PADDING);
+            tail += padding;
+            index = 0;
+        }
+        buffer.putInt(HEADER_SIZE + index, length);
+        claimedEnd = tail + recordSize;
+        return buffer.slice(HEADER_SIZE + index + 4, length).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Makes the record of the last {@link #claim} visible to the consumer.
+     */
+    void publish() {
+        tail = claimedEnd;
+        claimedEnd = -1;
+        LONGS.setRelease(buffer, TAIL_OFFSET, tail);
+    }
+
+    // ---- Consumer ----
+
+    /**
+     * Returns the payload of the next record without consuming it. The buffer is only valid
+     * until {@link #release()} is called.
+     *
+     * @return The payload, or null if the ring is empty
+     */
+    ByteBuffer poll() {
+        while (true) {
+            if (head == cachedTail) {
+                cachedTail = (long) LONGS.getAcquire(buffer, TAIL_OFFSET);
+                if (head == cachedTail) {
+                    return null;
+                }
+            }
+            int index = (int) (head & mask);
+            int length = buffer.getInt(HEADER_SIZE + index);
+            if (length == PADDING) {
+                head += capacity - index;
+                continue;
+            }
+            pendingHead = head + align(4 + length);
+            return buffer.slice(HEADER_SIZE + index + 4, length).order(ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    /**
+     * Consumes the record returned by the last {@link #poll()}, handing its space back to the producer.
+     */
+    void release() {
+        head = pendingHead;
+        pendingHead = -1;
+        LONGS.setRelease(buffer, HEAD_OFFSET, head);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,224 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link Message}s for transports between JVMs.
+ *
+ * Layout: the number of categories, then per category its name, the number of entries
+ * and the entries as key/value pairs, followed by the number of typed numbers of
+ * {@link Message#addLong} and each as key and ZigZag varint. Counts are unsigned LEB128
+ * varints; strings are a varint of (byte length + 1), 0 meaning null, followed by the
+ * UTF-8 bytes. Encoding writes characters directly into the target buffer without
+ * intermediate byte arrays.
+ *
+ * Compared to the JSON form of {@link Message#toJson()} a typical DSM message is about
+ * half the size and an order of magnitude cheaper to produce.
+ */
+public final class MessageCodec {
+    private MessageCodec() {
+    }
+
+    /**
+     * @return The exact number of bytes {@link #encode} writes for the message
+     */
+    public static int encodedSize(Message message) {
+        int size = varintSize(message.categories().size());
+        for (String category : message.categories()) {
+            Map<String, String> entries = message.queryCategory(category);
+            size += stringSize(category) + varintSize(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                size += stringSize(entry.getKey()) + stringSize(entry.getValue());
+            }
+        }
+        size += varintSize(message.longCount());
+        for (int i = 0; i < message.longCount(); i++) {
+            size += stringSize(message.longKey(i)) + varintSize(zigzag(message.longValue(i)));
+        }
+        return size;
+    }
+
+    /**
+     * Writes the message at the buffer's position.
+     *
+     * @throws java.nio.BufferOverflowException If the buffer has less than {@link #encodedSize} bytes left
+     */
+    public static void encode(Message message, ByteBuffer out) {
+        writeVarint(out, message.categories().size());
+        for (String category : message.categories()) {
+            Map<String, String> entries = message.queryCategory(category);
+            writeString(out, category);
+            writeVarint(out, entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+        writeVarint(out, message.longCount());
+        for (int i = 0; i < message.longCount(); i++) {
+            writeString(out, message.longKey(i));
+            writeVarint(out, zigzag(message.longValue(i)));
+        }
+    }
+
+    public static byte[] encode(Message message) {
+        ByteBuffer out = ByteBuffer.allocate(encodedSize(message));
+        encode(message, out);
+        return out.array();
+    }
+
+    /**
+     * Reads a message from the buffer's position and advances the position past it.
+     *
+     * @throws IllegalArgumentException If the data isn't a valid encoding
+     */
+    public static Message decode(ByteBuffer in) {
+        Message message = new Message();
+        int categories = (int) readVarint(in);
+        for (int c = 0; c < categories; c++) {
+            String category = readString(in);
+            if (category == null) {
+                throw new IllegalArgumentException("Message category without name");
+            }
+            if (message.queryCategory(category) == null) {
+                message.addCategory(category);
+            }
+            int entries = (int) readVarint(in);
+            for (int e = 0; e < entries; e++) {
+                message.addWithCategory(category, readString(in), readString(in));
+            }
+        }
+        int numbers = (int) readVarint(in);
+        for (int n = 0; n < numbers; n++) {
+            String key = readString(in);
+            if (key == null) {
+                throw new IllegalArgumentException("Message number without name");
+            }
+            long encoded = readVarint(in);
+            message.addLong(key, (encoded >>> 1) ^ -(encoded & 1));
+        }
+        return message;
+    }
+
+    public static Message decode(byte[] data) {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    // ---- Primitives, shared with the transports' frame formats ----
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // Maps small negative numbers to small varints
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static int stringSize(String s) {
+        if (s == null) {
+            return 1;
+        }
+        int length = utf8Length(s);
+        return varintSize(length + 1L) + length;
+    }
+
+    static void writeString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.put((byte) 0);
+            return;
+        }
+        writeVarint(out, utf8Length(s) + 1L);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                // Unpaired surrogates are written like any other BMP character
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        long encoded = readVarint(in);
+        if (encoded == 0) {
+            return null;
+        }
+        int length = (int) (encoded - 1);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds message");
+        }
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,452 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.oxoo2a.sim4da.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TCP transport between sim4da processes on the same machine, or on other hosts if it is
+ * bound to an address they can reach.
+ *
+ * Every process listens on a port and connects to the peers it is configured with;
+ * connections are used in both directions, so it's enough if one side of each pair lists
+ * the other. A single selector thread does all socket I/O. Node threads only encode the
+ * message into a frame and append it to the connection's outbox; the selector thread
+ * drains the outbox with gathering writes of up to {@value #MAX_BATCH} frames, so bursts
+ * of small messages cost one system call instead of one per message.
+ *
+ * Frames are {@code int length, byte type, body}. ANNOUNCE frames carry the sender's
+ * process id and node names, MESSAGE frames the receiver name (null for broadcasts) and
+ * the message in {@link MessageCodec} format. Connections to configured peers that are
+ * not up yet are retried every {@value #RECONNECT_INTERVAL_MS} ms.
+ *
+ * A frame that can't be decoded drops the connection it came on; the peer reconnects if
+ * it is configured to.
+ *
+ * Usage, with one such line in each process before its nodes are created:
+ * <pre>
+ * Network.getInstance().setTransport(new NioTransport(7001, List.of(new InetSocketAddress("localhost", 7002))));
+ * </pre>
+ */
+public class NioTransport implements Transport {
+    private static final byte ANNOUNCE = 1;
+    private static final byte MESSAGE = 2;
+    private static final int MAX_BATCH = 64;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long RECONNECT_INTERVAL_MS = 200;
+
+    private final InetSocketAddress bindAddress;
+    private final List<InetSocketAddress> peers;
+    private final long processId = ThreadLocalRandom.current().nextLong();
+    private final Set<String> localNodes = new CopyOnWriteArraySet<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final RemoteDirectory<Connection> directory = new RemoteDirectory<>();
+    private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Reconnect> reconnects = new ArrayDeque<>(); // selector thread only
+    private final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Receiver receiver;
+    private Thread eventLoop;
+    private volatile boolean running = false;
+
+    /**
+     * Listens on the loopback address, for processes on the same machine.
+     *
+     * @param port The local port to listen on, 0 for any free port
+     * @param peers The processes to connect to
+     */
+    public NioTransport(int port, List<InetSocketAddress> peers) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), peers);
+    }
+
+    /**
+     * @param bindAddress The local address and port to listen on, e.g. the wildcard address
+     *                    to be reachable from other hosts; port 0 for any free port
+     * @param peers The processes to connect to
+     */
+    public NioTransport(InetSocketAddress bindAddress, List<InetSocketAddress> peers) {
+        this.bindAddress = bindAddress;
+        this.peers = new ArrayList<>(peers);
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        this.receiver = receiver;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(bindAddress);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        for (InetSocketAddress peer : peers) {
+            reconnects.add(new Reconnect(peer, 0));
+        }
+        running = true;
+        eventLoop = new Thread(null, this::runEventLoop, "sim4da-nio-transport", 0, false);
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+        logger.info("NIO transport listening on {}", server.getLocalAddress());
+    }
+
+    /**
+     * @return The address this transport listens on
+     */
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    @Override
+    public void announce(String localNodeName) {
+        if (localNodes.add(localNodeName)) {
+            ByteBuffer frame = announceFrame(List.of(localNodeName));
+            for (Connection c : connections) {
+                c.enqueue(frame.duplicate());
+            }
+        }
+    }
+
+    @Override
+    public boolean hosts(String nodeName) {
+        return directory.peerOf(nodeName) != null;
+    }
+
+    @Override
+    public Set<String> remoteNodes() {
+        return directory.nodeNames();
+    }
+
+    @Override
+    public void send(String receiverName, Message message) {
+        Connection c = directory.peerOf(receiverName);
+        if (c == null) {
+            logger.warn("Dropping message to unknown remote node {}", receiverName);
+            return;
+        }
+        c.enqueue(messageFrame(receiverName, message));
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        ByteBuffer frame = messageFrame(null, message);
+        for (Connection c : directory.peers()) {
+            c.enqueue(frame.duplicate());
+        }
+    }
+
+    @Override
+    public boolean awaitRemoteNodes(int count, long timeoutMs) throws InterruptedException {
+        return directory.awaitNodes(count, timeoutMs);
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            eventLoop.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection c : connections) {
+            closeQuietly(c);
+        }
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Error closing NIO transport: {}", e.getMessage());
+        }
+        logger.info("NIO transport closed");
+    }
+
+    // ---- Frames ----
+
+    private ByteBuffer announceFrame(Iterable<String> nodeNames) {
+        List<String> names = new ArrayList<>();
+        nodeNames.forEach(names::add);
+        int body = 1 + 8 + MessageCodec.varintSize(names.size());
+        for (String name : names) {
+            body += MessageCodec.stringSize(name);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + body);
+        frame.putInt(body).put(ANNOUNCE).putLong(processId);
+        MessageCodec.writeVarint(frame, names.size());
+        for (String name : names) {
+            MessageCodec.writeString(frame, name);
+        }
+        return frame.flip();
+    }
+
+    private static ByteBuffer messageFrame(String receiverName, Message message) {
+        int body = 1 + MessageCodec.stringSize(receiverName) + MessageCodec.encodedSize(message);
+        ByteBuffer frame = ByteBuffer.allocate(4 + body);
+        frame.putInt(body).put(MESSAGE);
+        MessageCodec.writeString(frame, receiverName);
+        MessageCodec.encode(message, frame);
+        return frame.flip();
+    }
+
+    private void handleFrame(Connection c, ByteBuffer frame) {
+        byte type = frame.get();
+        if (type == ANNOUNCE) {
+            long peerId = frame.getLong();
+            directory.addPeer(peerId, c);
+            int count = (int) MessageCodec.readVarint(frame);
+            for (int i = 0; i < count; i++) {
+                directory.addNode(MessageCodec.readString(frame), c);
+            }
+        } else if (type == MESSAGE) {
+            String receiverName = MessageCodec.readString(frame);
+            Message message = MessageCodec.decode(frame);
+            try {
+                receiver.deliver(receiverName, message);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to deliver remote message to {}: {}", receiverName, e.getMessage());
+            }
+        } else {
+            logger.error("Unknown frame type {}, dropping connection", type);
+            closeConnection(c);
+        }
+    }
+
+    // ---- Selector thread ----
+
+    private void runEventLoop() {
+        while (running) {
+            try {
+                selector.select(RECONNECT_INTERVAL_MS);
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    flushSafely(pending);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    if (key.isConnectable()) {
+                        finishConnect(c);
+                    } else {
+                        if (key.isReadable()) {
+                            read(c);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flushSafely(c);
+                        }
+                    }
+                }
+                connectDuePeers();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("NIO transport event loop error: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection c = new Connection(channel, null);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+        connections.add(c);
+        c.enqueue(announceFrame(localNodes));
+    }
+
+    private void connectDuePeers() {
+        long now = System.currentTimeMillis();
+        int n = reconnects.size();
+        for (int i = 0; i < n; i++) {
+            Reconnect r = reconnects.poll();
+            if (r.due > now) {
+                reconnects.add(r);
+                continue;
+            }
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection c = new Connection(channel, r.address);
+                c.key = channel.register(selector, SelectionKey.OP_CONNECT, c);
+                connections.add(c);
+                if (channel.connect(r.address)) {
+                    finishConnect(c);
+                }
+            } catch (IOException e) {
+                reconnects.add(new Reconnect(r.address, now + RECONNECT_INTERVAL_MS));
+            }
+        }
+    }
+
+    private void finishConnect(Connection c) {
+        try {
+            c.channel.finishConnect();
+            c.key.interestOps(SelectionKey.OP_READ);
+            logger.debug("Connected to peer {}", c.reconnectTo);
+            c.enqueue(announceFrame(localNodes));
+            flushSafely(c);
+        } catch (IOException e) {
+            // Peer not up (yet), try again later
+            closeConnection(c);
+        }
+    }
+
+    private void read(Connection c) {
+        try {
+            if (c.channel.read(c.in) < 0) {
+                closeConnection(c);
+                return;
+            }
+        } catch (IOException e) {
+            closeConnection(c);
+            return;
+        }
+        c.in.flip();
+        while (c.in.remaining() >= 4) {
+            int length = c.in.getInt(c.in.position());
+            if (c.in.remaining() < 4 + length) {
+                if (4 + length > c.in.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * c.in.capacity(), 4 + length));
+                    larger.put(c.in);
+                    c.in = larger;
+                    return;
+                }
+                break;
+            }
+            int start = c.in.position() + 4;
+            try {
+                c.in.position(start + length);
+                handleFrame(c, c.in.slice(start, length));
+            } catch (RuntimeException e) {
+                // Malformed frame: the rest of the stream can't be trusted either
+                logger.warn("Undecodable frame from {}, dropping connection: {}", c.channel.socket().getRemoteSocketAddress(), e.toString());
+                closeConnection(c);
+            }
+            if (!c.channel.isOpen()) {
+                return;
+            }
+        }
+        c.in.compact();
+    }
+
+    private void flushSafely(Connection c) {
+        try {
+            flush(c);
+        } catch (IOException e) {
+            closeConnection(c);
+        }
+    }
+
+    private void flush(Connection c) throws IOException {
+        if (!c.channel.isConnected() || !c.key.isValid()) {
+            return; // flushed as soon as the connection is established
+        }
+        while (true) {
+            ByteBuffer frame;
+            while (c.inFlight.size() < MAX_BATCH && (frame = c.outbox.poll()) != null) {
+                c.inFlight.add(frame);
+            }
+            if (c.inFlight.isEmpty()) {
+                c.writeScheduled.set(false);
+                // A frame enqueued after the poll above found writeScheduled still set; take it now
+                if (c.outbox.isEmpty() || !c.writeScheduled.compareAndSet(false, true)) {
+                    c.key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                continue;
+            }
+            int n = c.inFlight.size();
+            c.inFlight.toArray(c.batch);
+            c.channel.write(c.batch, 0, n);
+            while (!c.inFlight.isEmpty() && !c.inFlight.peek().hasRemaining()) {
+                c.inFlight.poll();
+            }
+            if (!c.inFlight.isEmpty()) {
+                // Socket buffer is full, continue when the channel becomes writable
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    private void closeConnection(Connection c) {
+        closeQuietly(c);
+        connections.remove(c);
+        directory.removePeer(c);
+        if (running && c.reconnectTo != null) {
+            reconnects.add(new Reconnect(c.reconnectTo, System.currentTimeMillis() + RECONNECT_INTERVAL_MS));
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        if (c.key != null) {
+            c.key.cancel();
+        }
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private record Reconnect(InetSocketAddress address, long due) {}
+
+    private final class Connection {
+        final SocketChannel channel;
+        final InetSocketAddress reconnectTo; // null for accepted connections
+        final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+        // Owned by the selector thread
+        final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>();
+        final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        SelectionKey key;
+
+        Connection(SocketChannel channel, InetSocketAddress reconnectTo) {
+            this.channel = channel;
+            this.reconnectTo = reconnectTo;
+        }
+
+        void enqueue(ByteBuffer frame) {
+            outbox.add(frame);
+            if (writeScheduled.compareAndSet(false, true)) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.oxoo2a.sim4da.transport;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps remote node names to the peer (connection, ring, ...) that hosts them, and
+ * tracks the distinct peers for broadcasts. Shared by the transport implementations.
+ *
+ * @param <P> The transport's handle for a peer process
+ */
+final class RemoteDirectory<P> {
+    private final ConcurrentHashMap<String, P> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, P> peers = new ConcurrentHashMap<>();
+
+    P peerOf(String nodeName) {
+        return nodes.get(nodeName);
+    }
+
+    Set<String> nodeNames() {
+        return Collections.unmodifiableSet(nodes.keySet());
+    }
+
+    Collection<P> peers() {
+        return peers.values();
+    }
+
+    void addPeer(long peerId, P peer) {
+        peers.put(peerId, peer);
+    }
+
+    synchronized void addNode(String nodeName, P peer) {
+        nodes.put(nodeName, peer);
+        notifyAll();
+    }
+
+    /**
+     * Forgets a peer and all its nodes, e.g. after its process exited.
+     */
+    synchronized void removePeer(P peer) {
+        peers.values().removeIf(p -> p == peer);
+        nodes.values().removeIf(p -> p == peer);
+    }
+
+    synchronized boolean awaitNodes(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (nodes.size() < count) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,266 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.oxoo2a.sim4da.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transport between sim4da processes on the same machine through memory-mapped files.
+ *
+ * The processes of a run are numbered 0 to processCount - 1. For every pair of processes
+ * there is one file {@code <runId>-<i>-<j>.ring} (i &lt; j) in the shared directory, holding
+ * two {@link MappedRing}s, one per direction. Both processes create the file if necessary
+ * and map it, so the start order doesn't matter; the run id keeps files of different runs
+ * apart. On Linux, a directory under /dev/shm keeps the pages out of the disk cache.
+ *
+ * Senders encode the message directly into the mapped ring and publish it with a release
+ * store; nothing is copied and no system call is made. A single poller thread per process
+ * reads all incoming rings and decodes in place. It spins for a while after the last
+ * message before backing off to short parks, which keeps hand-off latency well below a
+ * microsecond under load without burning a core when the simulation is idle.
+ *
+ * Records use the same frame bodies as {@link NioTransport}: ANNOUNCE with the sending
+ * process and its node names, MESSAGE with the receiver (null for broadcasts) and the
+ * {@link MessageCodec} encoding of the message.
+ */
+public class SharedMemoryTransport implements Transport {
+    public static final int DEFAULT_RING_CAPACITY = 4 * 1024 * 1024;
+
+    private static final byte ANNOUNCE = 1;
+    private static final byte MESSAGE = 2;
+    private static final int SPIN_LIMIT = 10_000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Path directory;
+    private final String runId;
+    private final int processIndex;
+    private final int processCount;
+    private final int ringCapacity;
+    private final Set<String> localNodes = new CopyOnWriteArraySet<>();
+    private final RemoteDirectory<Peer> remote = new RemoteDirectory<>();
+    private final List<Peer> peers = new ArrayList<>();
+    private final Logger logger = LoggerFactory.getLogger(SharedMemoryTransport.class);
+
+    private Receiver receiver;
+    private Thread poller;
+    private volatile boolean running = false;
+
+    public SharedMemoryTransport(Path directory, String runId, int processIndex, int processCount) {
+        this(directory, runId, processIndex, processCount, DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param directory Directory shared by all processes of the run
+     * @param runId Identifies the run; all processes must use the same id
+     * @param processIndex Index of this process, 0 &lt;= processIndex &lt; processCount
+     * @param processCount Number of processes in the run
+     * @param ringCapacity Size of each ring in bytes, a power of two
+     */
+    public SharedMemoryTransport(Path directory, String runId, int processIndex, int processCount, int ringCapacity) {
+        if (processIndex < 0 || processIndex >= processCount) {
+            throw new IllegalArgumentException("Process index " + processIndex + " out of range");
+        }
+        this.directory = directory;
+        this.runId = runId;
+        this.processIndex = processIndex;
+        this.processCount = processCount;
+        this.ringCapacity = ringCapacity;
+    }
+
+    @Override
+    public void start(Receiver receiver) throws IOException {
+        this.receiver = receiver;
+        Files.createDirectories(directory);
+        long ringSize = MappedRing.HEADER_SIZE + (long) ringCapacity;
+        for (int other = 0; other < processCount; other++) {
+            if (other == processIndex) {
+                continue;
+            }
+            int low = Math.min(processIndex, other);
+            int high = Math.max(processIndex, other);
+            Path file = directory.resolve(runId + "-" + low + "-" + high + ".ring");
+            MappedByteBuffer mapping;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2 * ringSize);
+            }
+            // The first ring carries messages from the lower to the higher process index
+            MappedRing lowToHigh = new MappedRing(mapping.slice(0, (int) ringSize), ringCapacity);
+            MappedRing highToLow = new MappedRing(mapping.slice((int) ringSize, (int) ringSize), ringCapacity);
+            boolean isLow = processIndex == low;
+            peers.add(new Peer(other, file, isLow ? lowToHigh : highToLow, isLow ? highToLow : lowToHigh));
+        }
+        running = true;
+        for (Peer peer : peers) {
+            write(peer, ANNOUNCE, null, null);
+        }
+        poller = new Thread(null, this::poll, "sim4da-shm-transport", 0, false);
+        poller.setDaemon(true);
+        poller.start();
+        logger.info("Shared memory transport started as process {} of {} in {}", processIndex, processCount, directory);
+    }
+
+    @Override
+    public void announce(String localNodeName) {
+        if (localNodes.add(localNodeName) && running) {
+            for (Peer peer : peers) {
+                write(peer, ANNOUNCE, null, null);
+            }
+        }
+    }
+
+    @Override
+    public boolean hosts(String nodeName) {
+        return remote.peerOf(nodeName) != null;
+    }
+
+    @Override
+    public Set<String> remoteNodes() {
+        return remote.nodeNames();
+    }
+
+    @Override
+    public void send(String receiverName, Message message) {
+        Peer peer = remote.peerOf(receiverName);
+        if (peer == null) {
+            logger.warn("Dropping message to unknown remote node {}", receiverName);
+            return;
+        }
+        write(peer, MESSAGE, receiverName, message);
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        for (Peer peer : remote.peers()) {
+            write(peer, MESSAGE, null, message);
+        }
+    }
+
+    @Override
+    public boolean awaitRemoteNodes(int count, long timeoutMs) throws InterruptedException {
+        return remote.awaitNodes(count, timeoutMs);
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            poller.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The lower process of each pair cleans up; the mapping stays valid for the other side
+        for (Peer peer : peers) {
+            if (processIndex < peer.index) {
+                try {
+                    Files.deleteIfExists(peer.file);
+                } catch (IOException e) {
+                    logger.warn("Cannot delete ring file {}: {}", peer.file, e.getMessage());
+                }
+            }
+        }
+        logger.info("Shared memory transport closed");
+    }
+
+    // Producers of a process are serialized per ring, so each ring has a single producer
+    private void write(Peer peer, byte type, String receiverName, Message message) {
+        List<String> names = type == ANNOUNCE ? new ArrayList<>(localNodes) : null;
+        int length = 1;
+        if (type == ANNOUNCE) {
+            length += 4 + MessageCodec.varintSize(names.size());
+            for (String name : names) {
+                length += MessageCodec.stringSize(name);
+            }
+        } else {
+            length += MessageCodec.stringSize(receiverName) + MessageCodec.encodedSize(message);
+        }
+        synchronized (peer.out) {
+            ByteBuffer record;
+            int spins = 0;
+            while ((record = peer.out.claim(length)) == null) {
+                // Ring full: the other process is behind (or not started yet)
+                if (!running) {
+                    return;
+                }
+                if (++spins < SPIN_LIMIT) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            record.put(type);
+            if (type == ANNOUNCE) {
+                record.putInt(processIndex);
+                MessageCodec.writeVarint(record, names.size());
+                for (String name : names) {
+                    MessageCodec.writeString(record, name);
+                }
+            } else {
+                MessageCodec.writeString(record, receiverName);
+                MessageCodec.encode(message, record);
+            }
+            peer.out.publish();
+        }
+    }
+
+    private void poll() {
+        int idle = 0;
+        while (running) {
+            boolean received = false;
+            for (Peer peer : peers) {
+                ByteBuffer record;
+                while ((record = peer.in.poll()) != null) {
+                    received = true;
+                    try {
+                        handle(peer, record);
+                    } catch (RuntimeException e) {
+                        logger.warn("Failed to handle record from process {}: {}", peer.index, e.getMessage());
+                    }
+                    peer.in.release();
+                }
+            }
+            if (received) {
+                idle = 0;
+            } else if (++idle < SPIN_LIMIT) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private void handle(Peer peer, ByteBuffer record) {
+        byte type = record.get();
+        if (type == ANNOUNCE) {
+            remote.addPeer(record.getInt(), peer);
+            int count = (int) MessageCodec.readVarint(record);
+            for (int i = 0; i < count; i++) {
+                remote.addNode(MessageCodec.readString(record), peer);
+            }
+        } else if (type == MESSAGE) {
+            String receiverName = MessageCodec.readString(record);
+            receiver.deliver(receiverName, MessageCodec.decode(record));
+        } else {
+            logger.error("Unknown record type {} from process {}", type, peer.index);
+        }
+    }
+
+    private record Peer(int index, Path file, MappedRing out, MappedRing in) {}
+}
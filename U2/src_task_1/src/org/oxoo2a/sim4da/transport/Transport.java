@@ -0,0 +1,68 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.oxoo2a.sim4da.Message;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Carries messages between the {@code Network}s of several sim4da processes.
+ *
+ * Nodes in the same JVM are still delivered to directly by the network; the transport
+ * is only used for nodes that live in another process. Every transport keeps a directory
+ * of remote nodes, filled by the announcements of its peers.
+ */
+public interface Transport extends AutoCloseable {
+    /**
+     * Callback for messages arriving from other processes.
+     */
+    @FunctionalInterface
+    interface Receiver {
+        /**
+         * @param receiverName The local node the message is addressed to, or null for a broadcast
+         * @param message The message, with the sender header already set by the sending network
+         */
+        void deliver(String receiverName, Message message);
+    }
+
+    /**
+     * Opens the transport. Incoming messages are passed to the receiver on a transport thread.
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Makes a node of this process known to all peers.
+     */
+    void announce(String localNodeName);
+
+    /**
+     * @return true if the node lives in another process reachable through this transport
+     */
+    boolean hosts(String nodeName);
+
+    /**
+     * @return The names of all currently known remote nodes
+     */
+    Set<String> remoteNodes();
+
+    /**
+     * Sends a message to a remote node. Delivery is asynchronous; messages to the same
+     * node arrive in the order they were sent.
+     */
+    void send(String receiverName, Message message);
+
+    /**
+     * Sends a message to every node of every other process.
+     */
+    void broadcast(Message message);
+
+    /**
+     * Waits until at least the given number of remote nodes are known.
+     *
+     * @return true if they are known, false on timeout
+     */
+    boolean awaitRemoteNodes(int count, long timeoutMs) throws InterruptedException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,132 @@
+package org.oxoo2a.sim4da.workload;
+
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.dsm.DSMFactory;
+import org.oxoo2a.sim4da.experiment.Cell;
+import org.oxoo2a.sim4da.experiment.CellResult;
+import org.oxoo2a.sim4da.experiment.ParameterGrid;
+import org.oxoo2a.sim4da.experiment.SweepRunner;
+import org.oxoo2a.sim4da.history.History;
+import org.oxoo2a.sim4da.history.HistoryChecker;
+import org.oxoo2a.sim4da.metrics.HistogramSnapshot;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the DSM implementations under identical load: every trial runs one YCSB-style
+ * {@link Workload} on n nodes against one DSM type and reports
+ * <ul>
+ * <li>throughput: successful operations per second, over all nodes</li>
+ * <li>p50_ms, p95_ms, p99_ms, max_ms: operation latency</li>
+ * <li>failure_rate: fraction of operations the DSM failed</li>
+ * <li>convergence_p50_ms, convergence_p99_ms, stale_reads, staleness_p99_ms: for AP, how long
+ * writes take to reach every replica, the fraction of reads that missed a newer version,
+ * and how old the oldest missed version was (see {@link org.oxoo2a.sim4da.dsm.ConvergenceTracker})</li>
+ * <li>violating_keys, undecided_keys, check_ms: with a consistency check, the keys whose
+ * history violates the model, those the check could not decide, and how long it took</li>
+ * </ul>
+ * Settings are system properties:
+ * <pre>
+ * -Dbench.dsm=AP,CP,CA            DSM types
+ * -Dbench.workloads=a,b,c,f       YCSB core workloads, see {@link Workload#ycsb}
+ * -Dbench.n=5                     node counts
+ * -Dbench.keys=1000               key space size
+ * -Dbench.keychoice=zipfian       zipfian or latest, see {@link Workload.KeyChoice}
+ * -Dbench.theta=0.99              Zipf skew of the key choice, 0 for uniform
+ * -Dbench.rate=0                  operations per second and node, 0 for a closed loop
+ * -Dbench.duration=10 -Dbench.warmup=1   seconds
+ * -Dbench.check=none              linearizable or sequential records the operations and checks them
+ * -Dbench.repetitions=3 -Dbench.workers=1 -Dbench.csv=dsm_benchmark.csv
+ * </pre>
+ */
+public class DSMBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        List<Object> types = new ArrayList<>();
+        for (String type : System.getProperty("bench.dsm", "AP,CP,CA").split(","))
+            types.add(DSMFactory.DSMType.valueOf(type.trim()));
+        ParameterGrid grid = new ParameterGrid()
+                .axis("dsm", types)
+                .axis("workload", List.of(System.getProperty("bench.workloads", "a,b,c,f").split(",")))
+                .intAxis("n", System.getProperty("bench.n", "5"))
+                .doubleAxis("theta", System.getProperty("bench.theta", "0.99"))
+                .doubleAxis("rate", System.getProperty("bench.rate", "0"));
+        int repetitions = Integer.getInteger("bench.repetitions", 3);
+        int workers = Integer.getInteger("bench.workers", 1);
+        Path csv = Path.of(System.getProperty("bench.csv", "dsm_benchmark.csv"));
+
+        List<CellResult> results = new SweepRunner(grid, repetitions, workers).run(DSMBenchmark::runTrial, csv);
+        for (CellResult result : results) {
+            System.out.printf("%-48s %10.1f ops/s   p50 %8.2f ms   p99 %8.2f ms   failures %.4f%n",
+                    result.cell(), result.metric("throughput").mean(), result.metric("p50_ms").mean(),
+                    result.metric("p99_ms").mean(), result.metric("failure_rate").mean());
+        }
+    }
+
+    static Workload workload(Cell cell) {
+        double theta = cell.getDouble("theta");
+        Workload.KeyChoice keyChoice = theta > 0
+                ? Workload.KeyChoice.valueOf(System.getProperty("bench.keychoice", "zipfian").trim().toUpperCase())
+                : Workload.KeyChoice.UNIFORM;
+        return Workload.ycsb(cell.getString("workload"))
+                .withKeys(Integer.getInteger("bench.keys", 1000), keyChoice, theta)
+                .withRate(cell.getDouble("rate"))
+                .withDuration(Long.getLong("bench.duration", 10) * 1000, Long.getLong("bench.warmup", 1) * 1000);
+    }
+
+    static Map<String, Double> runTrial(Cell cell, int repetition, SimulationContext context) throws InterruptedException {
+        int n = cell.getInt("n");
+        DSMFactory.DSMType type = cell.getEnum("dsm", DSMFactory.DSMType.class);
+        Workload workload = workload(cell);
+
+        WorkloadRun run = new WorkloadRun(context, workload, n);
+        String check = System.getProperty("bench.check", "none");
+        if (!check.equals("none"))
+            run.recordHistory(History.of(context));
+        for (int i = 0; i < n; i++) {
+            new WorkloadNode("Node_" + i, i, type, run);
+        }
+        Thread simulation = new Thread(context.getSimulator()::simulate, context.getName() + "-simulate");
+        simulation.start();
+        try {
+            // Setting up the DSMs and the last operations may take a while beyond the duration
+            run.finished().get(workload.durationMillis() + 30_000, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException("Workload did not finish: " + e);
+        } finally {
+            context.getSimulator().shutdown();
+            simulation.join();
+        }
+
+        HistogramSnapshot latency = run.latency();
+        Map<String, Double> measurements = new HashMap<>(Map.of(
+                "throughput", run.throughput(),
+                "p50_ms", latency.percentile(50) / 1e6,
+                "p95_ms", latency.percentile(95) / 1e6,
+                "p99_ms", latency.percentile(99) / 1e6,
+                "max_ms", latency.max() / 1e6,
+                "failure_rate", run.failureRate()));
+        if (type == DSMFactory.DSMType.AP) {
+            HistogramSnapshot convergence = context.getMetrics().histogram("dsm.AP.convergence").snapshot();
+            HistogramSnapshot staleness = context.getMetrics().histogram("dsm.AP.staleness.time").snapshot();
+            long reads = context.getMetrics().histogram("dsm.AP.staleness.versions").snapshot().count();
+            measurements.put("convergence_p50_ms", convergence.percentile(50) / 1e6);
+            measurements.put("convergence_p99_ms", convergence.percentile(99) / 1e6);
+            measurements.put("stale_reads", reads == 0 ? 0 : (double) staleness.count() / reads);
+            measurements.put("staleness_p99_ms", staleness.percentile(99) / 1e6);
+        }
+        if (run.getHistory() != null) {
+            HistoryChecker.Result result = HistoryChecker.check(run.getHistory(),
+                    HistoryChecker.Consistency.valueOf(check.toUpperCase()));
+            measurements.put("violating_keys", (double) result.violations().size());
+            measurements.put("undecided_keys", (double) result.undecided().size());
+            measurements.put("check_ms", (double) result.millis());
+        }
+        return measurements;
+    }
+}
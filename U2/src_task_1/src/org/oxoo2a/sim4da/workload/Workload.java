@@ -0,0 +1,101 @@
+package org.oxoo2a.sim4da.workload;
+
+/**
+ * The load a {@link WorkloadNode} puts on a DSM, in the style of the Yahoo! Cloud Serving
+ * Benchmark: operations on a fixed key space, mixed in fixed proportions.
+ *
+ * @param keys           Number of keys, named "k0" to "k&lt;keys - 1&gt;"
+ * @param keyChoice      How operations pick their key
+ * @param zipfTheta      Skew of a Zipfian or latest key choice, in (0, 1); ignored for uniform
+ * @param readProportion Fraction of reads
+ * @param rmwProportion  Fraction of read-modify-writes (an {@code addLong}); the rest are writes
+ * @param opsPerSecond   Open loop: operations per second and node, arriving as a Poisson
+ *                       process whether or not earlier ones completed. 0 for a closed loop,
+ *                       where each node starts the next operation when the last completed
+ * @param durationMillis How long the nodes issue operations
+ * @param warmupMillis   Operations started in this first part of the duration are not measured
+ */
+public record Workload(int keys, KeyChoice keyChoice, double zipfTheta, double readProportion, double rmwProportion,
+                       double opsPerSecond, long durationMillis, long warmupMillis) {
+
+    public enum Operation { READ, WRITE, RMW }
+
+    /**
+     * The key choices of YCSB:
+     * <ul>
+     * <li>UNIFORM: every key equally likely</li>
+     * <li>ZIPFIAN: key k0 the most popular, then k1 and so on</li>
+     * <li>LATEST: Zipfian by recency, the key the node wrote last the most popular, then
+     * the keys next to it. YCSB counts recency in insertion order, here in key order from
+     * the last written key down</li>
+     * </ul>
+     */
+    public enum KeyChoice { UNIFORM, ZIPFIAN, LATEST }
+
+    public Workload {
+        if (keys < 1)
+            throw new IllegalArgumentException("Workload needs at least one key, has " + keys);
+        if (keyChoice == null)
+            throw new IllegalArgumentException("Workload needs a key choice");
+        if (keyChoice != KeyChoice.UNIFORM && (zipfTheta <= 0 || zipfTheta >= 1))
+            throw new IllegalArgumentException("Zipf skew must be in (0, 1), is " + zipfTheta);
+        if (readProportion < 0 || rmwProportion < 0 || readProportion + rmwProportion > 1)
+            throw new IllegalArgumentException("Invalid operation mix: read " + readProportion + ", rmw " + rmwProportion);
+        if (opsPerSecond < 0)
+            throw new IllegalArgumentException("Rate must not be negative, is " + opsPerSecond);
+        if (durationMillis <= 0 || warmupMillis < 0 || warmupMillis >= durationMillis)
+            throw new IllegalArgumentException("Invalid duration " + durationMillis + " ms with warmup " + warmupMillis + " ms");
+    }
+
+    /**
+     * One of the YCSB core workloads, closed loop on 1000 Zipfian keys for 10 seconds:
+     * <ul>
+     * <li>a: update heavy, 50% reads and 50% writes</li>
+     * <li>b: read mostly, 95% reads</li>
+     * <li>c: read only</li>
+     * <li>f: 50% reads and 50% read-modify-writes</li>
+     * </ul>
+     * Workloads d and e need inserts and scans, which DSMs don't offer.
+     */
+    public static Workload ycsb(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "a":
+                return new Workload(1000, KeyChoice.ZIPFIAN, 0.99, 0.5, 0, 0, 10_000, 1_000);
+            case "b":
+                return new Workload(1000, KeyChoice.ZIPFIAN, 0.99, 0.95, 0, 0, 10_000, 1_000);
+            case "c":
+                return new Workload(1000, KeyChoice.ZIPFIAN, 0.99, 1, 0, 0, 10_000, 1_000);
+            case "f":
+                return new Workload(1000, KeyChoice.ZIPFIAN, 0.99, 0.5, 0.5, 0, 10_000, 1_000);
+            default:
+                throw new IllegalArgumentException("Unknown YCSB workload " + name);
+        }
+    }
+
+    public double writeProportion() {
+        return 1 - readProportion - rmwProportion;
+    }
+
+    public boolean isOpenLoop() {
+        return opsPerSecond > 0;
+    }
+
+    /**
+     * @param zipfTheta 0 for a uniform key choice, otherwise the skew of a Zipfian one
+     */
+    public Workload withKeys(int keys, double zipfTheta) {
+        return withKeys(keys, zipfTheta > 0 ? KeyChoice.ZIPFIAN : KeyChoice.UNIFORM, zipfTheta);
+    }
+
+    public Workload withKeys(int keys, KeyChoice keyChoice, double zipfTheta) {
+        return new Workload(keys, keyChoice, zipfTheta, readProportion, rmwProportion, opsPerSecond, durationMillis, warmupMillis);
+    }
+
+    public Workload withRate(double opsPerSecond) {
+        return new Workload(keys, keyChoice, zipfTheta, readProportion, rmwProportion, opsPerSecond, durationMillis, warmupMillis);
+    }
+
+    public Workload withDuration(long durationMillis, long warmupMillis) {
+        return new Workload(keys, keyChoice, zipfTheta, readProportion, rmwProportion, opsPerSecond, durationMillis, warmupMillis);
+    }
+}
@@ -0,0 +1,73 @@
+package org.oxoo2a.sim4da.workload;
+
+import org.oxoo2a.sim4da.random.Distributions;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Draws the operations of a {@link Workload}. The draws come from the journaled random
+ * stream of the calling thread, so a node's operation sequence repeats with the seed of
+ * the simulation.
+ */
+public class WorkloadGenerator {
+    private final Workload workload;
+    private final String[] keys;
+    private final DoubleSupplier uniform;
+    private final DoubleSupplier keyRank;
+    private final DoubleSupplier interarrival;
+    private Workload.Operation operation = Workload.Operation.READ;
+    private int latest;
+
+    public WorkloadGenerator(Workload workload) {
+        this(workload, Distributions.uniform());
+    }
+
+    /**
+     * @param source Uniform in [0, 1), all draws come from it
+     */
+    WorkloadGenerator(Workload workload, DoubleSupplier source) {
+        this.workload = workload;
+        this.uniform = source;
+        this.keys = new String[workload.keys()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = "k" + i;
+        int n = workload.keys();
+        this.keyRank = workload.keyChoice() == Workload.KeyChoice.UNIFORM
+                ? () -> Math.min((int) (source.getAsDouble() * n), n - 1)
+                : Distributions.zipf(n, workload.zipfTheta(), source);
+        this.interarrival = workload.isOpenLoop()
+                ? Distributions.exponential(1e9 / workload.opsPerSecond(), source)
+                : () -> 0;
+    }
+
+    public Workload.Operation nextOperation() {
+        double u = uniform.getAsDouble();
+        if (u < workload.readProportion())
+            operation = Workload.Operation.READ;
+        else if (u < workload.readProportion() + workload.rmwProportion())
+            operation = Workload.Operation.RMW;
+        else
+            operation = Workload.Operation.WRITE;
+        return operation;
+    }
+
+    /**
+     * @return The key of the operation last drawn by {@link #nextOperation}
+     */
+    public String nextKey() {
+        int rank = (int) keyRank.getAsDouble();
+        if (workload.keyChoice() != Workload.KeyChoice.LATEST)
+            return keys[rank];
+        int key = Math.floorMod(latest - rank, keys.length);
+        if (operation != Workload.Operation.READ)
+            latest = key;
+        return keys[key];
+    }
+
+    /**
+     * @return Nanoseconds from the start of the last operation to the start of the next, 0 in a closed loop
+     */
+    public long nextInterarrivalNanos() {
+        return (long) interarrival.getAsDouble();
+    }
+}
@@ -0,0 +1,93 @@
+package org.oxoo2a.sim4da.workload;
+
+import org.oxoo2a.sim4da.Node;
+import org.oxoo2a.sim4da.dsm.DSM;
+import org.oxoo2a.sim4da.dsm.DSMException;
+import org.oxoo2a.sim4da.dsm.DSMFactory;
+import org.oxoo2a.sim4da.rpc.RpcException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A node that issues the operations of a {@link WorkloadRun} against one DSM. Writes
+ * store values unique to the node and operation. Between operations, and after its last
+ * one until all nodes are done, the node keeps processing the requests of the others.
+ */
+public class WorkloadNode extends Node {
+    private final DSMFactory.DSMType type;
+    private final WorkloadRun run;
+    private final int nodeId;
+
+    public WorkloadNode(String name, int nodeId, DSMFactory.DSMType type, WorkloadRun run) {
+        super(name);
+        this.nodeId = nodeId;
+        this.type = type;
+        this.run = run;
+    }
+
+    @Override
+    protected void engage() {
+        Workload workload = run.getWorkload();
+        WorkloadGenerator generator = new WorkloadGenerator(workload);
+        try {
+            DSM dsm = getDSM(type);
+            if (run.getHistory() != null)
+                dsm = run.getHistory().record(NodeName(), dsm);
+            run.arrive();
+            long start = getRpc().await(run.started());
+            long end = start + TimeUnit.MILLISECONDS.toNanos(workload.durationMillis());
+            long measured = start + TimeUnit.MILLISECONDS.toNanos(workload.warmupMillis());
+            long due = start;
+            long sequence = 0;
+            while (true) {
+                if (workload.isOpenLoop()) {
+                    due += generator.nextInterarrivalNanos();
+                    if (due >= end)
+                        break;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0)
+                        getRpc().await(new CompletableFuture<Void>().completeOnTimeout(null, wait, TimeUnit.NANOSECONDS));
+                } else {
+                    // Local operations never wait, replication and requests of other nodes are served here
+                    processPending();
+                    due = System.nanoTime();
+                    if (due >= end)
+                        break;
+                }
+                Workload.Operation op = generator.nextOperation();
+                boolean succeeded = execute(dsm, op, generator.nextKey(), ((long) nodeId << 40) | sequence++);
+                if (due >= measured)
+                    run.record(op, succeeded, System.nanoTime() - due);
+            }
+        } catch (RpcException e) {
+            getLogger().warn("Workload of {} interrupted: {}", NodeName(), e.getMessage());
+        } finally {
+            run.depart();
+        }
+        try {
+            getRpc().await(run.finished());
+        } catch (RpcException e) {
+            // The simulation is shutting down
+        }
+    }
+
+    private static boolean execute(DSM dsm, Workload.Operation op, String key, long value) {
+        try {
+            switch (op) {
+                case READ:
+                    dsm.readLong(key, 0);
+                    break;
+                case WRITE:
+                    dsm.writeLong(key, value);
+                    break;
+                case RMW:
+                    dsm.addLong(key, 1);
+                    break;
+            }
+            return true;
+        } catch (DSMException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.oxoo2a.sim4da.workload;
+
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.history.History;
+import org.oxoo2a.sim4da.metrics.Counter;
+import org.oxoo2a.sim4da.metrics.HistogramSnapshot;
+import org.oxoo2a.sim4da.metrics.LatencyHistogram;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One run of a {@link Workload} on a group of {@link WorkloadNode}s: starts the nodes
+ * together once all have set up their DSM, keeps them serving requests until the last
+ * one is done, and collects the measurements.
+ * <p>
+ * Latencies are measured from the time an operation was due, which in an open loop may
+ * lie before the time it could start, so queueing behind slow operations counts.
+ * Measurements go to the metrics of the simulation as histograms
+ * {@code workload.<op>.latency} and counters {@code workload.<op>.ok} and
+ * {@code workload.<op>.failed}.
+ */
+public class WorkloadRun {
+    private final Workload workload;
+    private final int nodes;
+    private final AtomicInteger arrived = new AtomicInteger();
+    private final AtomicInteger departed = new AtomicInteger();
+    private final CompletableFuture<Long> started = new CompletableFuture<>();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private final LatencyHistogram all;
+    private final Map<Workload.Operation, LatencyHistogram> latency = new EnumMap<>(Workload.Operation.class);
+    private final Map<Workload.Operation, Counter> ok = new EnumMap<>(Workload.Operation.class);
+    private final Map<Workload.Operation, Counter> failed = new EnumMap<>(Workload.Operation.class);
+    private volatile History history = null;
+
+    public WorkloadRun(SimulationContext context, Workload workload, int nodes) {
+        this.workload = workload;
+        this.nodes = nodes;
+        MetricsRegistry metrics = context.getMetrics();
+        this.all = metrics.histogram("workload.latency");
+        for (Workload.Operation op : Workload.Operation.values()) {
+            String prefix = "workload." + op.name().toLowerCase() + ".";
+            latency.put(op, metrics.histogram(prefix + "latency"));
+            ok.put(op, metrics.counter(prefix + "ok"));
+            failed.put(op, metrics.counter(prefix + "failed"));
+        }
+    }
+
+    public Workload getWorkload() {
+        return workload;
+    }
+
+    /**
+     * Records the operations of the nodes in a history, for a consistency check after the run.
+     * Must be called before the simulation starts.
+     */
+    public void recordHistory(History history) {
+        this.history = history;
+    }
+
+    /**
+     * @return The history the operations are recorded in, null if they aren't
+     */
+    public History getHistory() {
+        return history;
+    }
+
+    /**
+     * @return Completes when every node has finished issuing operations
+     */
+    public CompletableFuture<Void> finished() {
+        return finished;
+    }
+
+    /**
+     * @return Operations per second that completed successfully in the measured part of the run, over all nodes
+     */
+    public double throughput() {
+        long completed = 0;
+        for (Counter c : ok.values())
+            completed += c.get();
+        return completed * 1000.0 / (workload.durationMillis() - workload.warmupMillis());
+    }
+
+    /**
+     * @return Fraction of the measured operations that failed
+     */
+    public double failureRate() {
+        long succeeded = 0, lost = 0;
+        for (Workload.Operation op : Workload.Operation.values()) {
+            succeeded += ok.get(op).get();
+            lost += failed.get(op).get();
+        }
+        return succeeded + lost == 0 ? 0 : (double) lost / (succeeded + lost);
+    }
+
+    /**
+     * @return Latencies of all measured operations
+     */
+    public HistogramSnapshot latency() {
+        return all.snapshot();
+    }
+
+    public HistogramSnapshot latency(Workload.Operation op) {
+        return latency.get(op).snapshot();
+    }
+
+    // Called by a node whose DSM is ready; the run starts with the last one
+    void arrive() {
+        if (arrived.incrementAndGet() == nodes)
+            started.complete(System.nanoTime());
+    }
+
+    CompletableFuture<Long> started() {
+        return started;
+    }
+
+    // Called by a node that issued its last operation, or failed
+    void depart() {
+        if (departed.incrementAndGet() == nodes)
+            finished.complete(null);
+    }
+
+    void record(Workload.Operation op, boolean succeeded, long nanos) {
+        if (succeeded) {
+            ok.get(op).increment();
+            latency.get(op).record(nanos);
+            all.record(nanos);
+        } else
+            failed.get(op).increment();
+    }
+}
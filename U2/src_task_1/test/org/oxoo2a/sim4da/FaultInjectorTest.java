@@ -0,0 +1,110 @@
+package org.oxoo2a.sim4da;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FaultInjectorTest {
+
+    private static Message numbered(int i) {
+        return new Message().add("type", "N").add("i", i);
+    }
+
+    @Test
+    void partitionsAndCutsDropMessagesBetweenTheGroups() throws UnknownNodeException {
+        SimulationContext context = new SimulationContext("faults-partition");
+        Network network = context.getNetwork();
+        NetworkConnection a = new NetworkConnection(context, "a");
+        NetworkConnection b = new NetworkConnection(context, "b");
+        NetworkConnection c = new NetworkConnection(context, "c");
+        FaultInjector faults = network.getFaults();
+
+        faults.partition(List.of("a", "b"), List.of("c"));
+        network.send(numbered(1), a, "c");
+        network.send(numbered(2), a, "b");
+        assertNull(c.receive(0));
+        assertEquals(2, b.receive(0).queryInteger("i"));
+        assertFalse(network.isReachable("c", "a"));
+
+        faults.heal();
+        faults.cut("a", "c");
+        network.send(numbered(3), a, "c");
+        network.send(numbered(4), c, "a");
+        assertNull(c.receive(0));
+        assertEquals(4, a.receive(0).queryInteger("i"));
+        assertTrue(faults.isCut("a", "c"));
+        assertFalse(faults.isCut("c", "a"));
+        assertEquals(2, context.getMetrics().counter("network.faults.cut").get());
+
+        // A misspelt name is rejected and cuts nothing
+        faults.heal();
+        assertThrows(IllegalArgumentException.class, () -> faults.partition(List.of("a"), List.of("b", "x")));
+        assertThrows(IllegalArgumentException.class, () -> faults.isolate("x"));
+        assertThrows(IllegalArgumentException.class, () -> faults.pause("x"));
+        assertFalse(faults.isCut("a", "b"));
+        assertFalse(faults.isPaused("x"));
+    }
+
+    @Test
+    void ratesDropAndDuplicateMessages() throws UnknownNodeException {
+        SimulationContext context = new SimulationContext("faults-rates");
+        Network network = context.getNetwork();
+        NetworkConnection a = new NetworkConnection(context, "a");
+        NetworkConnection b = new NetworkConnection(context, "b");
+        FaultInjector faults = network.getFaults();
+
+        faults.setDuplicateRate(1);
+        network.send(numbered(1), a, "b");
+        assertEquals(1, b.receive(0).queryInteger("i"));
+        assertEquals(1, b.receive(0).queryInteger("i"));
+
+        faults.setDropRate(1);
+        network.send(numbered(2), a, "b");
+        assertNull(b.receive(0));
+
+        faults.clear();
+        faults.setDelay(1, 100, 100, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        network.send(numbered(3), a, "b");
+        assertEquals(3, b.receive(5000).queryInteger("i"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        network.shutdown();
+    }
+
+    @Test
+    void timelinePausesAndResumesANode() throws InterruptedException {
+        SimulationContext context = new SimulationContext("faults-timeline");
+        Network network = context.getNetwork();
+        NetworkConnection a = new NetworkConnection(context, "a");
+        NetworkConnection b = new NetworkConnection(context, "b");
+        b.engage(() -> {});
+        AtomicReference<Long> received = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        a.engage(() -> {
+            Message m = a.receive();
+            if (m != null)
+                received.set(System.nanoTime());
+            done.countDown();
+        });
+        FaultInjector faults = network.getFaults();
+        faults.pause("a");
+        faults.at(300, TimeUnit.MILLISECONDS, f -> f.resume("a"));
+        Thread simulation = new Thread(() -> context.getSimulator().simulate(10));
+        simulation.setDaemon(true);
+        long start = System.nanoTime();
+        simulation.start();
+        try {
+            b.sendBlindly(numbered(1), "a");
+            assertFalse(network.isRunning("a"));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(received.get() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+        } finally {
+            context.getSimulator().shutdown();
+        }
+    }
+}
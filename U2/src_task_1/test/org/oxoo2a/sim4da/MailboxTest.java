@@ -0,0 +1,119 @@
+package org.oxoo2a.sim4da;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.oxoo2a.sim4da.replay.ScheduleJournal;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailboxTest {
+
+    private static Message numbered(int i) {
+        return new Message().add("type", "N").add("i", i);
+    }
+
+    @Test
+    void dropPoliciesKeepTheMailboxBounded() {
+        SimulationContext context = new SimulationContext("mailbox-drop");
+        NodeProxy newest = new NodeProxy(new NetworkConnection(context, "a"));
+        newest.setLimit(2, OverflowPolicy.DROP_NEWEST);
+        NodeProxy oldest = new NodeProxy(new NetworkConnection(context, "b"));
+        oldest.setLimit(2, OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i <= 2, newest.deliver(numbered(i), null));
+            assertTrue(oldest.deliver(numbered(i), null));
+        }
+        assertEquals(1, newest.receive().queryInteger("i"));
+        assertEquals(2, newest.receive().queryInteger("i"));
+        assertEquals(2, oldest.receive().queryInteger("i"));
+        assertEquals(3, oldest.receive().queryInteger("i"));
+        assertEquals(1, context.getMetrics().counter("node.a.mailbox.dropped").get());
+        assertEquals(1, context.getMetrics().counter("node.b.mailbox.dropped").get());
+    }
+
+    @Test
+    void blockedSenderContinuesOnceThereIsSpace() throws InterruptedException {
+        SimulationContext context = new SimulationContext("mailbox-block");
+        NodeProxy mailbox = new NodeProxy(new NetworkConnection(context, "a"));
+        mailbox.setLimit(1, OverflowPolicy.BLOCK);
+        mailbox.deliver(numbered(1), null);
+        AtomicBoolean delivered = new AtomicBoolean();
+        Thread sender = new Thread(() -> delivered.set(mailbox.deliver(numbered(2), null)));
+        sender.start();
+        sender.join(200);
+        assertTrue(sender.isAlive());
+        assertEquals(1, mailbox.receive().queryInteger("i"));
+        sender.join(5000);
+        assertTrue(delivered.get());
+        assertEquals(2, mailbox.receive().queryInteger("i"));
+    }
+
+    @Test
+    void rejectedSenderIsTold() throws UnknownNodeException {
+        SimulationContext context = new SimulationContext("mailbox-reject");
+        Network network = context.getNetwork();
+        network.setMailboxLimit(1, OverflowPolicy.REJECT);
+        NetworkConnection a = new NetworkConnection(context, "a");
+        new NetworkConnection(context, "b");
+        network.send(numbered(1), a, "b");
+        network.send(numbered(2), a, "b");
+        Message notice = a.receive();
+        assertEquals(OverflowPolicy.REJECTED_TYPE, notice.query("type"));
+        assertEquals("b", notice.query("receiver"));
+        assertEquals("N", notice.query("rejected_type"));
+        assertEquals(1, context.getMetrics().counter("node.b.mailbox.rejected").get());
+    }
+
+    @Test
+    void injectedMessagesAreReplayedInTheirRecordedOrder(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("injected.bin");
+        SimulationContext recording = new SimulationContext("mailbox-inject-record");
+        recording.getJournal().startRecording(file);
+        NetworkConnection receiver = new NetworkConnection(recording, "r");
+        NetworkConnection a = new NetworkConnection(recording, "a");
+        recording.getJournal().attach("r");
+        recording.getNetwork().inject("r", numbered(1), null);
+        recording.getNetwork().send(numbered(2), a, "r");
+        assertEquals(1, receiver.receive().queryInteger("i"));
+        assertEquals(2, receiver.receive().queryInteger("i"));
+        recording.getJournal().stop();
+        recording.getNetwork().shutdown();
+
+        SimulationContext replaying = new SimulationContext("mailbox-inject-replay");
+        replaying.getJournal().startReplay(file);
+        receiver = new NetworkConnection(replaying, "r");
+        a = new NetworkConnection(replaying, "a");
+        replaying.getJournal().attach("r");
+        replaying.getNetwork().send(numbered(2), a, "r");
+        replaying.getNetwork().inject("r", numbered(1), null);
+        long start = System.nanoTime();
+        assertEquals(1, receiver.receive().queryInteger("i"));
+        assertEquals(2, receiver.receive().queryInteger("i"));
+        // Forced, not given up after the replay timeout
+        assertTrue(System.nanoTime() - start < ScheduleJournal.REPLAY_TIMEOUT_MS * 1_000_000L / 2);
+        replaying.getJournal().stop();
+        replaying.getNetwork().shutdown();
+    }
+
+    @Test
+    void closingReleasesReceiversAndBlockedSenders() throws InterruptedException {
+        SimulationContext context = new SimulationContext("mailbox-close");
+        NodeProxy full = new NodeProxy(new NetworkConnection(context, "a"));
+        full.setLimit(1, OverflowPolicy.BLOCK);
+        full.deliver(numbered(1), null);
+        NodeProxy empty = new NodeProxy(new NetworkConnection(context, "b"));
+        Thread sender = new Thread(() -> full.deliver(numbered(2), null));
+        Thread receiver = new Thread(empty::receive);
+        sender.start();
+        receiver.start();
+        full.close();
+        empty.close();
+        sender.join(5000);
+        receiver.join(5000);
+        assertFalse(sender.isAlive());
+        assertFalse(receiver.isAlive());
+    }
+}
@@ -48,4 +48,25 @@ class MessageTest {
         assertEquals(message.getPayload(), deserialized.getPayload());
         assertEquals(message.getHeader(), deserialized.getHeader());
     }
-}
\ No newline at end of file
+
+    @Test
+    void typedNumbers() throws Exception {
+        Message m = new Message().add("type", "COUNTER").addLong("value", -42).addLong("timestamp", Long.MAX_VALUE);
+        assertTrue(m.hasLong("value"));
+        assertFalse(m.hasLong("type"));
+        assertEquals(-42, m.queryLong("value"));
+        assertEquals("-42", m.query("value"));
+        m.addLong("value", 7);
+        assertEquals(2, m.longCount());
+
+        Message copy = new Message(m);
+        m.addLong("value", 8);
+        assertEquals(7, copy.queryLong("value"));
+
+        Message deserialized = Message.fromJson(copy.toJson());
+        assertEquals(7, deserialized.queryLong("value"));
+        assertEquals(Long.MAX_VALUE, deserialized.queryLong("timestamp"));
+        assertTrue(deserialized.hasLong("timestamp"));
+        assertFalse(new Message().toJson().contains("numbers"));
+    }
+}
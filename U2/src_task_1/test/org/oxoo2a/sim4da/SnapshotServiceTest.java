@@ -0,0 +1,185 @@
+package org.oxoo2a.sim4da;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.oxoo2a.sim4da.dsm.DSMException;
+import org.oxoo2a.sim4da.dsm.DSMFactory;
+import org.oxoo2a.sim4da.random.RandomStreams;
+import org.oxoo2a.sim4da.snapshot.GlobalSnapshot;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotServiceTest {
+
+    private static final int NODES = 4;
+    private static final int START_BALANCE = 100;
+
+    // Keeps passing money on to random other nodes, so that some is always in flight
+    private static class Bank extends Node {
+        private final int banks;
+        private long balance = START_BALANCE;
+        // What a resumed bank found when it started again
+        private volatile long opened = -1;
+        private volatile long firstDraw = 0;
+
+        Bank(SimulationContext context, String name, int banks) {
+            super(context, name);
+            this.banks = banks;
+            setSnapshotState(() -> Map.of("balance", String.valueOf(balance)));
+            onMessage("MONEY", m -> {
+                balance += m.queryLong("amount");
+                transfer(3);
+            });
+        }
+
+        private void transfer(long amount) {
+            if (balance < amount)
+                return;
+            int other = ThreadLocalRandom.current().nextInt(banks - 1);
+            String to = "bank" + (other >= Integer.parseInt(NodeName().substring(4)) ? other + 1 : other);
+            balance -= amount;
+            sendBlindly(new Message().add("type", "MONEY").add("amount", amount), to);
+        }
+
+        @Override
+        protected void engage() {
+            Map<String, String> restored = getRestoredState();
+            try {
+                if (restored != null) {
+                    balance = Long.parseLong(restored.get("balance"));
+                    firstDraw = RandomStreams.current().nextLong();
+                    opened = getDSM(DSMFactory.DSMType.AP).readLong("opened_" + NodeName(), -1);
+                } else {
+                    getDSM(DSMFactory.DSMType.AP).writeLong("opened_" + NodeName(), 1);
+                    for (int i = 0; i < 5; i++)
+                        transfer(10);
+                }
+            } catch (DSMException e) {
+                opened = -2;
+            }
+            while (receive() != null) {
+            }
+        }
+    }
+
+    @Test
+    void snapshotsAreConsistentCuts(@TempDir Path dir) throws Exception {
+        SimulationContext context = new SimulationContext("snapshot-banks");
+        for (int i = 0; i < NODES; i++)
+            new Bank(context, "bank" + i, NODES);
+        SnapshotService snapshots = context.getNetwork().getSnapshots();
+        Thread simulation = new Thread(() -> context.getSimulator().simulate(30));
+        simulation.setDaemon(true);
+        simulation.start();
+        try {
+            Thread.sleep(200);
+            for (int s = 1; s <= 3; s++) {
+                Path file = dir.resolve("cut" + s + ".snapshot");
+                SnapshotService.Summary summary = snapshots.take("bank" + (s % NODES), file).get(10, TimeUnit.SECONDS);
+                assertEquals(s, summary.id());
+                assertEquals(NODES, summary.nodes());
+                assertFalse(snapshots.isActive());
+
+                GlobalSnapshot cut = GlobalSnapshot.read(file);
+                assertTrue(cut.complete());
+                assertFalse(cut.isCheckpoint());
+                assertEquals(NODES, cut.states().size());
+                assertEquals(summary.messages(), cut.channels().size());
+                // No money is created or lost across a consistent cut
+                assertEquals((long) NODES * START_BALANCE, money(cut));
+            }
+            assertEquals(3, context.getMetrics().counter("snapshot.taken").get());
+        } finally {
+            context.getSimulator().shutdown();
+        }
+    }
+
+    @Test
+    void checkpointsResumeInNewSimulations(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("banks.checkpoint");
+        SimulationContext original = new SimulationContext("checkpoint-original");
+        for (int i = 0; i < NODES; i++)
+            new Bank(original, "bank" + i, NODES);
+        Thread simulation = new Thread(() -> original.getSimulator().simulate(30));
+        simulation.setDaemon(true);
+        simulation.start();
+        try {
+            Thread.sleep(200);
+            original.getNetwork().getSnapshots().checkpoint("bank1", file).get(10, TimeUnit.SECONDS);
+        } finally {
+            original.getSimulator().shutdown();
+        }
+
+        // Resuming twice from the same checkpoint forks the run
+        long[] draws = new long[2];
+        for (int r = 0; r < 2; r++) {
+            SimulationContext resumed = new SimulationContext("checkpoint-resumed-" + r);
+            Bank[] banks = new Bank[NODES];
+            for (int i = 0; i < NODES; i++)
+                banks[i] = new Bank(resumed, "bank" + i, NODES);
+            SnapshotService snapshots = resumed.getNetwork().getSnapshots();
+            GlobalSnapshot checkpoint = snapshots.resume(file);
+            assertTrue(checkpoint.isCheckpoint());
+            assertEquals((long) NODES * START_BALANCE, money(checkpoint));
+            Thread resumedSimulation = new Thread(() -> resumed.getSimulator().simulate(30));
+            resumedSimulation.setDaemon(true);
+            resumedSimulation.start();
+            try {
+                Thread.sleep(200);
+                Path after = dir.resolve("after" + r + ".snapshot");
+                SnapshotService.Summary summary = snapshots.take("bank2", after).get(10, TimeUnit.SECONDS);
+                assertTrue(summary.id() > checkpoint.id());
+                // Balances and the money in flight came back, and the DSM store with them
+                assertEquals((long) NODES * START_BALANCE, money(GlobalSnapshot.read(after)));
+                for (Bank bank : banks)
+                    assertEquals(1, bank.opened);
+                draws[r] = banks[0].firstDraw;
+            } finally {
+                resumed.getSimulator().shutdown();
+            }
+        }
+        assertEquals(draws[0], draws[1]);
+    }
+
+    private static long money(GlobalSnapshot cut) {
+        long total = 0;
+        for (Map<String, String> state : cut.states().values())
+            total += Long.parseLong(state.get("balance"));
+        // Replication of the AP store may be in flight as well
+        for (GlobalSnapshot.InFlight m : cut.channels())
+            if ("MONEY".equals(m.message().query("type")))
+                total += m.message().queryLong("amount");
+        return total;
+    }
+
+    @Test
+    void snapshotFailsWhenTheSimulationEnds(@TempDir Path dir) throws Exception {
+        SimulationContext context = new SimulationContext("snapshot-shutdown");
+        Network network = context.getNetwork();
+        new Bank(context, "bank0", 2);
+        // A node whose thread never receives holds the snapshot up
+        new Node(context, "bank1") {
+            @Override
+            protected void engage() {
+            }
+        };
+        Thread simulation = new Thread(() -> context.getSimulator().simulate(30));
+        simulation.setDaemon(true);
+        simulation.start();
+        Path file = dir.resolve("cut.snapshot");
+        var pending = network.getSnapshots().take("bank0", file);
+        assertThrows(IllegalStateException.class, () -> network.getSnapshots().take("bank0", dir.resolve("other")));
+        Thread.sleep(200);
+        assertFalse(pending.isDone());
+        context.getSimulator().shutdown();
+        assertTrue(pending.isCompletedExceptionally());
+        GlobalSnapshot cut = GlobalSnapshot.read(file);
+        assertFalse(cut.complete());
+        assertTrue(cut.states().containsKey("bank0"));
+    }
+}
@@ -0,0 +1,124 @@
+package org.oxoo2a.sim4da;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopologyTest {
+
+    private static List<String> names(int n) {
+        List<String> names = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            names.add("Node_" + i);
+        return names;
+    }
+
+    @Test
+    void ringRoutesTheShortWayAround() {
+        Topology ring = Topology.ring(names(10));
+        assertEquals(List.of("Node_1", "Node_9"), ring.neighbors("Node_0"));
+        assertEquals(List.of("Node_0", "Node_9", "Node_8"), ring.route("Node_0", "Node_8"));
+        assertEquals(5, ring.hops(0, 5));
+        assertEquals(5, ring.pathCost(0, 5));
+    }
+
+    @Test
+    void torusAndTreeHaveTheExpectedShape() {
+        Topology torus = Topology.torus(names(16), 4);
+        for (int i = 0; i < torus.size(); i++)
+            assertEquals(4, torus.degree(i));
+        // Opposite corner of a 4x4 torus is two steps in each direction
+        assertEquals(4, torus.hops(0, 10));
+
+        Topology tree = Topology.tree(names(15), 2);
+        assertEquals(2, tree.degree(0));
+        assertEquals(3, tree.degree(1));
+        assertEquals(1, tree.degree(14));
+        assertEquals(List.of("Node_7", "Node_3", "Node_1", "Node_4", "Node_9"), tree.route("Node_7", "Node_9"));
+    }
+
+    @Test
+    void randomGraphsAreReproducible() {
+        Topology regular = Topology.randomRegular(names(100), 3, 42);
+        for (int i = 0; i < regular.size(); i++) {
+            assertEquals(3, regular.degree(i));
+            assertFalse(regular.linked(i, i));
+        }
+        Topology again = Topology.randomRegular(names(100), 3, 42);
+        for (int i = 0; i < regular.size(); i++)
+            assertEquals(regular.neighbors("Node_" + i), again.neighbors("Node_" + i));
+
+        Topology smallWorld = Topology.smallWorld(names(200), 4, 0.1, 7);
+        int links = 0;
+        for (int i = 0; i < smallWorld.size(); i++)
+            links += smallWorld.degree(i);
+        // Rewiring moves links but keeps their number
+        assertEquals(200 * 4, links);
+        // Shortcuts make the diameter much smaller than the lattice's 50
+        assertTrue(smallWorld.hops(0, 100) < 50);
+    }
+
+    @Test
+    void costsDivertRoutesAroundExpensiveLinks() {
+        Topology ring = Topology.ring(names(6)).withLinkCosts((i, j) -> i == 0 && j == 1 ? 10 : 1);
+        assertEquals(List.of("Node_0", "Node_5", "Node_4", "Node_3", "Node_2", "Node_1"), ring.route("Node_0", "Node_1"));
+        assertEquals(5, ring.pathCost(0, 1));
+
+        Topology complete = Topology.complete(names(4)).withLinkCosts((i, j) -> i == 0 && j == 3 ? 5 : 1);
+        assertEquals(2, complete.pathCost(0, 3));
+        assertEquals(1, Topology.complete(names(4)).pathCost(0, 3));
+    }
+
+    @Test
+    void disconnectedNodesHaveNoRoute() {
+        Topology islands = new GraphTopology.Builder(names(4)).link(0, 1).link(2, 3).build();
+        assertEquals(-1, islands.nextHop(0, 3));
+        assertEquals(-1, islands.pathCost(0, 3));
+        assertTrue(islands.route("Node_1", "Node_2").isEmpty());
+        assertEquals(1, islands.hops(2, 3));
+    }
+
+    @Test
+    void networkDelaysByPathCostAndBroadcastsToNeighbors() {
+        SimulationContext context = new SimulationContext("topology-test");
+        Network network = context.getNetwork();
+        // Node_0 - Node_1 - Node_2
+        network.setTopology(Topology.tree(names(3), 1));
+        network.setLinkDelay(20, TimeUnit.MILLISECONDS);
+        network.setNeighborBroadcast(true);
+        Map<String,String> received = new ConcurrentHashMap<>();
+        long[] elapsed = new long[1];
+        context.run(() -> {
+            new Node("Node_0") {
+                @Override
+                protected void engage() {
+                    broadcast(new Message().add("type", "HELLO").add("sent", System.nanoTime()));
+                    sendBlindly(new Message().add("type", "DIRECT").add("sent", System.nanoTime()), "Node_2");
+                }
+            };
+            for (int i = 1; i <= 2; i++) {
+                new Node("Node_" + i) {
+                    @Override
+                    protected void engage() {
+                        Message m = receive();
+                        received.put(NodeName(), m.query("type"));
+                        if (NodeName().equals("Node_2"))
+                            elapsed[0] = System.nanoTime() - m.queryLong("sent");
+                    }
+                };
+            }
+        });
+        context.getSimulator().simulate();
+        context.getSimulator().shutdown();
+
+        assertEquals("HELLO", received.get("Node_1"));
+        assertEquals("DIRECT", received.get("Node_2"));
+        assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(40), "two hops of 20 ms, took " + elapsed[0] + " ns");
+    }
+}
@@ -0,0 +1,110 @@
+package org.oxoo2a.sim4da.delivery;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.OverwriteDistributionFunctionException;
+import org.oxoo2a.sim4da.RandomValues;
+import org.oxoo2a.sim4da.SimulationBehavior;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeliveryPolicyTest {
+
+    private long sequence = 0;
+
+    private Envelope envelope(String sender, int i) {
+        return new Envelope(new Message().add("i", i), sender, sequence, sequence++);
+    }
+
+    private static List<Integer> drain(MailboxQueue q) {
+        List<Integer> order = new ArrayList<>();
+        while (!q.isEmpty())
+            order.add(q.take().message().queryInteger("i"));
+        return order;
+    }
+
+    @Test
+    void fifoAndLifoKeepArrivalOrder() {
+        MailboxQueue fifo = DeliveryPolicy.fifo().newQueue("r");
+        MailboxQueue lifo = DeliveryPolicy.lifo().newQueue("r");
+        for (int i = 0; i < 4; i++) {
+            fifo.add(envelope("s", i));
+            lifo.add(envelope("s", i));
+        }
+        assertEquals(0, lifo.removeOldest().message().queryInteger("i"));
+        assertEquals(List.of(0, 1, 2, 3), drain(fifo));
+        assertEquals(List.of(3, 2, 1), drain(lifo));
+    }
+
+    @Test
+    void perSenderFifoKeepsTheOrderOfEachSender() {
+        MailboxQueue q = DeliveryPolicy.perSenderFifo().newQueue("r");
+        for (int i = 0; i < 300; i++)
+            q.add(envelope("s" + (i % 3), i));
+        assertEquals(0, q.removeOldest().message().queryInteger("i"));
+        int[] last = { -3, -2, -1 };
+        for (int i : drain(q)) {
+            assertTrue(i > last[i % 3]);
+            last[i % 3] = i;
+        }
+    }
+
+    @Test
+    void indexedQueueSelectsAcrossCompactions() {
+        // Always the second waiting message, so the array gets gaps and has to be compacted
+        MailboxQueue q = DeliveryPolicy.indexed(n -> Math.min(1, n - 1)).newQueue("r");
+        List<Integer> expected = new ArrayList<>();
+        List<Integer> taken = new ArrayList<>();
+        List<Integer> waiting = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            q.add(envelope("s", i));
+            waiting.add(i);
+            if (i % 3 == 2) {
+                expected.add(waiting.remove(1));
+                taken.add(q.take().message().queryInteger("i"));
+            }
+        }
+        assertEquals(expected, taken);
+        assertEquals(waiting.size(), q.size());
+        assertEquals(waiting.get(0), q.removeOldest().message().queryInteger("i"));
+        assertEquals(waiting.get(2), q.take().message().queryInteger("i"));
+    }
+
+    @Test
+    void delaySortedOvertakesSlowLinks() {
+        Map<String, Long> latency = Map.of("slow", 10L, "fast", 0L);
+        MailboxQueue q = DeliveryPolicy.delaySorted((from, to) -> latency.get(from)).newQueue("r");
+        q.add(envelope("slow", 0));
+        q.add(envelope("fast", 1));
+        q.add(envelope("fast", 2));
+        q.add(envelope("slow", 3));
+        assertEquals(0, q.removeOldest().message().queryInteger("i"));
+        assertEquals(List.of(1, 2, 3), drain(q));
+    }
+
+    @Test
+    void adversarialHoldsBackLowRatedMessages() {
+        MailboxQueue q = DeliveryPolicy.adversarial(m -> m.queryInteger("i") % 2 == 0 ? 0 : 1).newQueue("r");
+        for (int i = 0; i < 6; i++)
+            q.add(envelope("s", i));
+        assertNotNull(q.remove(m -> m.queryInteger("i") == 3));
+        assertEquals(List.of(1, 5, 0, 2, 4), drain(q));
+    }
+
+    @Test
+    void behaviorChoosesPoliciesPerNode() throws OverwriteDistributionFunctionException {
+        SimulationBehavior behavior = new SimulationBehavior();
+        DeliveryPolicy lifo = DeliveryPolicy.lifo();
+        behavior.setDeliveryPolicy("a", lifo);
+        assertSame(lifo, behavior.getDeliveryPolicy("a"));
+        assertNotSame(lifo, behavior.getDeliveryPolicy("b"));
+
+        behavior.setQueueSelectionDistributionFunction(RandomValues.getUniformDistribution());
+        assertThrows(OverwriteDistributionFunctionException.class,
+                () -> behavior.setQueueSelectionDistributionFunction(RandomValues.getUniformDistribution()));
+    }
+}
@@ -0,0 +1,274 @@
+package org.oxoo2a.sim4da.dissemination;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.experiment.CellResult;
+import org.oxoo2a.sim4da.experiment.ParameterGrid;
+import org.oxoo2a.sim4da.experiment.SweepRunner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DisseminationTest {
+
+    private static final String TYPE = "T";
+
+    // Disseminators of n nodes connected by an in-memory network, delivered on the test thread
+    private static class Cluster {
+        record InFlight(Message message, String to) {}
+
+        final Map<String, Disseminator> nodes = new LinkedHashMap<>();
+        final BlockingQueue<InFlight> inFlight = new LinkedBlockingQueue<>();
+        final Map<String, AtomicInteger> deliveries = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> sentByKind = new ConcurrentHashMap<>();
+        volatile Predicate<InFlight> drop = m -> false;
+        // Sends of these nodes block until released, like sends to a full mailbox
+        volatile Predicate<String> blocking = name -> false;
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Cluster(int n, DisseminationStrategy strategy) {
+            for (int i = 0; i < n; i++) {
+                String name = "n" + i;
+                nodes.put(name, strategy.create(host(name), TYPE));
+            }
+        }
+
+        private DisseminationHost host(String name) {
+            return new DisseminationHost() {
+                @Override
+                public String name() {
+                    return name;
+                }
+
+                @Override
+                public List<String> peers() {
+                    List<String> peers = new ArrayList<>(nodes.keySet());
+                    peers.remove(name);
+                    return peers;
+                }
+
+                @Override
+                public void send(Message message, String to) {
+                    if (blocking.test(name)) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    InFlight m = new InFlight(new Message(message).addHeader("sender", name), to);
+                    sentByKind.computeIfAbsent(Dissemination.kind(message), k -> new AtomicInteger()).incrementAndGet();
+                    if (!drop.test(m)) {
+                        inFlight.add(m);
+                    }
+                }
+
+                @Override
+                public void sendToAll(Message message) {
+                    for (String peer : peers()) {
+                        send(message, peer);
+                    }
+                }
+            };
+        }
+
+        void start() throws InterruptedException {
+            for (Disseminator d : nodes.values()) {
+                d.start();
+            }
+            // Plumtree's NEIGHBOR messages, gossip pulls go on in the background
+            InFlight m;
+            while ((m = inFlight.poll()) != null) {
+                deliver(m);
+            }
+        }
+
+        void broadcast(int seq) {
+            nodes.get("n0").broadcast(new Message().add("type", TYPE).add("seq", seq));
+        }
+
+        // Delivers until nothing was sent for a while, long enough for IHAVE batches and grafts; not for gossip
+        void deliverUntilQuiet() throws InterruptedException {
+            InFlight m;
+            while ((m = inFlight.poll(300, TimeUnit.MILLISECONDS)) != null) {
+                deliver(m);
+            }
+        }
+
+        boolean deliverUntil(BooleanSupplier done) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!done.getAsBoolean() && System.currentTimeMillis() < deadline) {
+                InFlight m = inFlight.poll(10, TimeUnit.MILLISECONDS);
+                if (m != null) {
+                    deliver(m);
+                }
+            }
+            return done.getAsBoolean();
+        }
+
+        private void deliver(InFlight m) {
+            if (nodes.get(m.to()).accept(m.message())) {
+                deliveries.computeIfAbsent(m.to() + "/" + m.message().query("seq"), k -> new AtomicInteger()).incrementAndGet();
+            }
+        }
+
+        // Every node except the origin got every broadcast up to seq exactly once
+        boolean complete(int broadcasts) {
+            for (String node : nodes.keySet()) {
+                for (int seq = 0; seq < broadcasts && !node.equals("n0"); seq++) {
+                    AtomicInteger count = deliveries.get(node + "/" + seq);
+                    if (count == null || count.get() != 1) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        int sent(String kind) {
+            AtomicInteger count = sentByKind.get(kind);
+            return count != null ? count.get() : 0;
+        }
+
+        int eagerLinks() {
+            int links = 0;
+            for (Disseminator d : nodes.values()) {
+                links += ((Plumtree) d).eagerPeerCount();
+            }
+            return links;
+        }
+
+        void close() {
+            release.countDown();
+            for (Disseminator d : nodes.values()) {
+                d.close();
+            }
+        }
+    }
+
+    @Test
+    void everyStrategyReachesAllNodesExactlyOnce() throws Exception {
+        ParameterGrid grid = new ParameterGrid().axis("n", 64).axis("strategy", "direct", "gossip", "plumtree");
+        List<CellResult> results = new SweepRunner(grid, 1, 3).run(DisseminationBenchmark::runTrial);
+        for (CellResult result : results) {
+            String id = result.cell().id();
+            assertEquals(0, result.failures(), id);
+            // Duplicates are filtered, so full coverage means exactly one delivery per node and message
+            assertEquals(1.0, result.metric("coverage").mean(), 1e-9, id);
+        }
+        assertEquals(1.0, results.get(0).metric("max_hops").mean(), 1e-9);
+        assertEquals(63.0, results.get(0).metric("messages_per_broadcast").mean(), 1e-9);
+        assertTrue(results.get(1).metric("max_hops").mean() > 1);
+        assertTrue(results.get(2).metric("max_hops").mean() > 1);
+    }
+
+    @Test
+    void gossipAndPlumtreeDeliverEveryBroadcastOnce() throws Exception {
+        for (DisseminationStrategy strategy : List.of(DisseminationStrategy.gossip(3, 50), DisseminationStrategy.plumtree(3, 50))) {
+            Cluster cluster = new Cluster(32, strategy);
+            try {
+                cluster.start();
+                for (int seq = 0; seq < 5; seq++) {
+                    cluster.broadcast(seq);
+                }
+                assertTrue(cluster.deliverUntil(() -> cluster.complete(5)), "deliveries " + cluster.deliveries);
+            } finally {
+                cluster.close();
+            }
+        }
+    }
+
+    @Test
+    void plumtreePrunesDuplicateLinksToASpanningTree() throws Exception {
+        int n = 16;
+        Cluster cluster = new Cluster(n, DisseminationStrategy.plumtree(4, 50));
+        try {
+            cluster.start();
+            cluster.broadcast(0);
+            cluster.deliverUntilQuiet();
+            assertTrue(cluster.complete(1));
+            assertTrue(cluster.sent(Plumtree.PRUNE) > 0);
+            // Every node keeps the link it first got the message on, both ends count it
+            assertEquals(2 * (n - 1), cluster.eagerLinks());
+
+            int data = cluster.sent(Dissemination.DATA);
+            cluster.broadcast(1);
+            cluster.deliverUntilQuiet();
+            assertTrue(cluster.complete(2));
+            assertEquals(n - 1, cluster.sent(Dissemination.DATA) - data);
+            assertEquals(0, cluster.sent(Plumtree.GRAFT));
+        } finally {
+            cluster.close();
+        }
+    }
+
+    @Test
+    void plumtreeGraftsMessagesLostOnTheTree() throws Exception {
+        int n = 8;
+        // Everybody starts as everybody's eager peer, so every node has lazy peers after pruning
+        Cluster cluster = new Cluster(n, DisseminationStrategy.plumtree(n - 1, 50));
+        try {
+            cluster.start();
+            cluster.broadcast(0);
+            cluster.deliverUntilQuiet();
+
+            // The tree link to n5 loses the next message
+            cluster.drop = m -> m.to().equals("n5") && Dissemination.DATA.equals(Dissemination.kind(m.message()))
+                    && cluster.sent(Plumtree.GRAFT) == 0;
+            cluster.broadcast(1);
+            cluster.deliverUntilQuiet();
+            assertTrue(cluster.sent(Plumtree.GRAFT) > 0);
+            assertTrue(cluster.complete(2), "deliveries " + cluster.deliveries);
+            // The grafted link replaced the lossy one, which the old parent pruned: still a tree
+            assertEquals(2 * (n - 1), cluster.eagerLinks());
+        } finally {
+            cluster.close();
+        }
+    }
+
+    @Test
+    void closedDisseminatorsStopTheirTimers() throws Exception {
+        Cluster cluster = new Cluster(8, DisseminationStrategy.gossip(2, 5));
+        cluster.start();
+        cluster.broadcast(0);
+        assertTrue(cluster.deliverUntil(() -> cluster.sent(PushPullGossip.DIGEST) > 0));
+        cluster.close();
+        int digests = cluster.sent(PushPullGossip.DIGEST);
+        Thread.sleep(100);
+        assertEquals(digests, cluster.sent(PushPullGossip.DIGEST));
+    }
+
+    @Test
+    void blockedSendsDontHoldUpTheTimersOfOtherNodes() throws Exception {
+        Cluster cluster = new Cluster(8, DisseminationStrategy.gossip(2, 5));
+        try {
+            cluster.blocking = name -> name.equals("n0") || name.equals("n1");
+            AtomicInteger others = new AtomicInteger();
+            cluster.drop = m -> {
+                String sender = m.message().queryHeader("sender");
+                if (PushPullGossip.DIGEST.equals(Dissemination.kind(m.message())) && !sender.equals("n0") && !sender.equals("n1")) {
+                    others.incrementAndGet();
+                }
+                return true;
+            };
+            cluster.start();
+            // n0 and n1 block in their first pull, the six others keep pulling every 5 ms
+            Thread.sleep(300);
+            assertTrue(others.get() > 6 * 10, "digests of the other nodes " + others.get());
+        } finally {
+            cluster.close();
+        }
+    }
+}
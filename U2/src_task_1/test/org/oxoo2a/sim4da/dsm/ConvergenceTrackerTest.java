@@ -0,0 +1,81 @@
+package org.oxoo2a.sim4da.dsm;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConvergenceTrackerTest {
+
+    private static ConvergenceTracker tracker(MetricsRegistry metrics, int capacity, int replicas) {
+        ConvergenceTracker tracker = new ConvergenceTracker(metrics, capacity);
+        for (int i = 0; i < replicas; i++)
+            tracker.addReplica();
+        return tracker;
+    }
+
+    @Test
+    void readsCountTheNewerVersionsWrittenElsewhere() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConvergenceTracker tracker = tracker(metrics, 16, 3);
+        for (long ts = 1; ts <= 3; ts++)
+            tracker.written("x", ts, "Node_0");
+
+        tracker.read("x", 1);
+        tracker.read("x", 3);
+        tracker.read("unknown", 0);
+        assertEquals(1, metrics.counter("dsm.AP.reads.stale").get());
+        assertEquals(3, metrics.histogram("dsm.AP.staleness.versions").snapshot().count());
+        assertEquals(2, metrics.histogram("dsm.AP.staleness.versions").snapshot().max());
+        assertEquals(1, metrics.histogram("dsm.AP.staleness.time").snapshot().count());
+
+        // Only the last versions are kept, a read further behind counts as that many behind
+        for (long ts = 4; ts <= 100; ts++)
+            tracker.written("x", ts, "Node_0");
+        tracker.read("x", 0);
+        assertEquals(ConvergenceTracker.RECENT_VERSIONS, metrics.histogram("dsm.AP.staleness.versions").snapshot().max());
+    }
+
+    @Test
+    void aSingleReplicaIsNeverBehind() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConvergenceTracker tracker = tracker(metrics, 16, 1);
+        tracker.written("x", 1, "Node_0");
+        tracker.written("x", 2, "Node_0");
+        tracker.read("x", 1);
+        assertEquals(0, tracker.trackedKeys());
+        assertEquals(0, metrics.counter("dsm.AP.reads.stale").get());
+        assertEquals(0, metrics.histogram("dsm.AP.convergence").snapshot().count());
+    }
+
+    @Test
+    void keysAreDroppedWhenTheirWritesConverge() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConvergenceTracker tracker = tracker(metrics, 16, 3);
+        tracker.written("x", 1, "Node_0");
+        tracker.written("x", 2, "Node_1");
+        tracker.applied("x", 1, "Node_0");
+        tracker.applied("x", 1, "Node_0");
+        assertEquals(1, tracker.trackedKeys());
+        tracker.applied("x", 2, "Node_1");
+        assertEquals(1, tracker.trackedKeys());
+        tracker.applied("x", 2, "Node_1");
+        assertEquals(0, tracker.trackedKeys());
+        assertEquals(2, metrics.histogram("dsm.AP.convergence").snapshot().count());
+
+        // Every replica has the last version, so nobody can read a stale one
+        tracker.read("x", 2);
+        assertEquals(0, metrics.counter("dsm.AP.reads.stale").get());
+    }
+
+    @Test
+    void writesThatNeverConvergeAreEvictedWithTheirKeys() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ConvergenceTracker tracker = tracker(metrics, 4, 2);
+        for (int i = 0; i < 10_000; i++)
+            tracker.written("key_" + i, 1, "Node_0");
+        assertEquals(4, tracker.trackedKeys());
+        assertEquals(10_000 - 4, metrics.counter("dsm.AP.convergence.evicted").get());
+        assertEquals(0, metrics.histogram("dsm.AP.convergence").snapshot().count());
+    }
+}
@@ -0,0 +1,149 @@
+package org.oxoo2a.sim4da.dsm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapKeyValueStoreTest {
+
+    @Test
+    void putAndGet() {
+        KeyValueStore store = new OffHeapKeyValueStore();
+        assertNull(store.get("counter_0"));
+        assertEquals(KeyValueStore.NO_VERSION, store.version("counter_0"));
+        store.put("counter_0", "42", 7);
+        assertEquals("42", store.get("counter_0"));
+        assertEquals(7, store.version("counter_0"));
+        store.put("counter_0", "a much longer value that needs a new record", 8);
+        assertEquals("a much longer value that needs a new record", store.get("counter_0"));
+        store.put("counter_0", "", 9);
+        assertEquals("", store.get("counter_0"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void entriesSurviveACopyThroughTheBinaryForm() throws IOException {
+        KeyValueStore store = new OffHeapKeyValueStore();
+        store.put("name", "value", 3);
+        store.putLong("counter", -17, 9);
+        store.put("removed", "gone", 1);
+        store.remove("removed");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.writeTo(new DataOutputStream(bytes));
+
+        for (KeyValueStore copy : new KeyValueStore[] { new OffHeapKeyValueStore(), new HeapKeyValueStore() }) {
+            copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            assertEquals(2, copy.size());
+            assertEquals("value", copy.get("name"));
+            assertEquals(3, copy.version("name"));
+            assertEquals(-17, copy.getLong("counter", 0));
+            assertEquals(9, copy.version("counter"));
+            Map<String, Long> numbers = new HashMap<>();
+            copy.forEach((key, value, number, version) -> {
+                if (value == null)
+                    numbers.put(key, number);
+            });
+            assertEquals(Map.of("counter", -17L), numbers);
+        }
+    }
+
+    @Test
+    void valuesOver64KbSurviveTheBinaryForm() throws IOException {
+        String large = "ä".repeat(40_000);
+        KeyValueStore store = new HeapKeyValueStore();
+        store.put("large", large, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.writeTo(new DataOutputStream(bytes));
+
+        KeyValueStore copy = new OffHeapKeyValueStore();
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(large, copy.get("large"));
+        assertEquals(1, copy.version("large"));
+    }
+
+    @Test
+    void lastWriteWins() {
+        KeyValueStore store = new OffHeapKeyValueStore();
+        assertTrue(store.putIfNewer("key", "v5", 5));
+        assertFalse(store.putIfNewer("key", "v3", 3));
+        assertFalse(store.putIfNewer("key", "v5b", 5));
+        assertEquals("v5", store.get("key"));
+        assertTrue(store.putIfNewer("key", "v6", 6));
+        assertEquals("v6", store.get("key"));
+    }
+
+    @Test
+    void primitiveLongSlots() {
+        KeyValueStore store = new OffHeapKeyValueStore();
+        assertEquals(-1, store.getLong("counter", -1));
+        assertEquals(5, store.addLong("counter", 5, 1));
+        assertEquals(3, store.addLong("counter", -2, 2));
+        assertEquals(3, store.getLong("counter", -1));
+        assertEquals("3", store.get("counter"));
+        assertEquals(2, store.version("counter"));
+        assertFalse(store.putLongIfNewer("counter", 99, 2));
+        assertTrue(store.putLongIfNewer("counter", Long.MIN_VALUE, 3));
+        assertEquals(Long.MIN_VALUE, store.getLong("counter", 0));
+
+        // Decimal strings are parsed in place, including ones that need Long.parseLong
+        store.put("legacy", "-1234", 0);
+        assertEquals(-1234, store.getLong("legacy", 0));
+        assertEquals(-1233, store.addLong("legacy", 1, 0));
+        store.put("legacy", String.valueOf(Long.MAX_VALUE), 0);
+        assertEquals(Long.MAX_VALUE, store.getLong("legacy", 0));
+        store.put("legacy", "not a number", 0);
+        assertThrows(NumberFormatException.class, () -> store.getLong("legacy", 0));
+    }
+
+    @Test
+    void overwritesThatFitStayInPlace() {
+        OffHeapKeyValueStore store = new OffHeapKeyValueStore(16, 256);
+        // Four records of 56 bytes leave no room for a fifth
+        for (int i = 0; i < 4; i++) {
+            store.put("key_" + i, "value", i);
+        }
+        int capacity = store.dataCapacity();
+        for (int i = 0; i < 10_000; i++) {
+            store.put("key_0", "value" + (i % 10), i);
+            store.putLong("key_1", i, i);
+        }
+        assertEquals(capacity, store.dataCapacity());
+        assertEquals("value9", store.get("key_0"));
+        assertEquals(9_999, store.getLong("key_1", 0));
+    }
+
+    @Test
+    void growsCompactsAndMatchesHeapStore() {
+        KeyValueStore offHeap = new OffHeapKeyValueStore(16, 256);
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 50_000; i++) {
+            String key = "key_" + random.nextInt(5_000);
+            if (random.nextInt(10) == 0) {
+                assertEquals(expected.remove(key) != null, offHeap.remove(key));
+            } else {
+                String value = "value_" + "x".repeat(random.nextInt(40)) + i;
+                offHeap.put(key, value, i);
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), offHeap.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), offHeap.get(entry.getKey()));
+        }
+        offHeap.clear();
+        assertEquals(0, offHeap.size());
+        assertNull(offHeap.get("key_1"));
+        offHeap.close();
+        assertThrows(IllegalStateException.class, () -> offHeap.get("key_1"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.oxoo2a.sim4da.experiment;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SweepRunnerTest {
+
+    @Test
+    void gridIsCartesianProduct() {
+        ParameterGrid grid = new ParameterGrid().intAxis("n", "4,8").axis("mode", "a", "b", "c");
+        List<Cell> cells = grid.cells();
+        assertEquals(6, cells.size());
+        assertEquals("n=4,mode=a", cells.get(0).id());
+        assertEquals("n=4,mode=c", cells.get(2).id());
+        assertEquals("n=8,mode=a", cells.get(3).id());
+        assertEquals(8, cells.get(5).getInt("n"));
+        assertThrows(IllegalArgumentException.class, () -> cells.get(0).get("k"));
+    }
+
+    @Test
+    void summaryStatistics() {
+        Summary summary = new Summary();
+        for (int i = 1; i <= 10; i++) {
+            summary.add(i);
+        }
+        assertEquals(5.5, summary.mean(), 1e-12);
+        assertEquals(55.0 / 6.0, summary.variance(), 1e-12);
+        assertEquals(5.5, summary.percentile(50), 1e-12);
+        assertEquals(10.0, summary.percentile(100), 1e-12);
+        assertEquals(1.0, summary.min());
+        // t(0.975, 9) = 2.262
+        assertEquals(2.262 * Math.sqrt(55.0 / 6.0 / 10), summary.confidenceHalfWidth(), 1e-9);
+        assertEquals(1.984, Summary.tQuantile(100), 0.001);
+    }
+
+    @Test
+    void aggregatesTrialsAndStreamsCsv(@TempDir Path dir) throws Exception {
+        ParameterGrid grid = new ParameterGrid().axis("x", 1, 2);
+        Path csv = dir.resolve("sweep.csv");
+        List<CellResult> results = new SweepRunner(grid, 5, 3).run((cell, repetition, context) -> {
+            if (cell.getInt("x") == 2 && repetition == 3) {
+                throw new IllegalStateException("boom");
+            }
+            return Map.of("value", cell.getInt("x") * 10.0 + repetition);
+        }, csv);
+
+        assertEquals(5, results.get(0).trials());
+        assertEquals(0, results.get(0).failures());
+        assertEquals(13.0, results.get(0).metric("value").mean(), 1e-12);
+        assertEquals(1, results.get(1).failures());
+        assertEquals(4, results.get(1).metric("value").count());
+
+        List<String> lines = Files.readAllLines(csv);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("x,metric,trials,failures,mean"));
+    }
+
+    @Test
+    void ringTrialsRunInParallelContexts() throws Exception {
+        ParameterGrid grid = new ParameterGrid().axis("n", 3, 4).axis("k", 2).axis("p", 0.5);
+        List<CellResult> results = new SweepRunner(grid, 2, 4).run(RingSweep::runRing);
+        for (CellResult result : results) {
+            assertEquals(0, result.failures(), result.cell().id());
+            assertTrue(result.metric("rounds").min() >= 2);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.oxoo2a.sim4da.failure;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.GraphTopology;
+import org.oxoo2a.sim4da.NetworkConnection;
+import org.oxoo2a.sim4da.SimulationContext;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhiAccrualFailureDetectorTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void phiGrowsWithTheTimeSinceTheLastHeartbeat() {
+        HeartbeatHistory history = new HeartbeatHistory(16, 100 * MS, 10 * MS, 0, 0);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 100 * MS;
+            history.heartbeat(now);
+        }
+        assertTrue(history.phi(now + 50 * MS) < 1);
+        double later = history.phi(now + 150 * MS);
+        assertTrue(later > history.phi(now + 110 * MS));
+        assertTrue(history.phi(now + 1000 * MS) > PhiAccrualFailureDetector.DEFAULT_THRESHOLD);
+    }
+
+    @Test
+    void suspectsUnreachableAndStoppedNodes() throws InterruptedException {
+        SimulationContext context = new SimulationContext("fd-test");
+        CountDownLatch stopB = new CountDownLatch(1);
+        NetworkConnection a = new NetworkConnection(context, "a");
+        NetworkConnection b = new NetworkConnection(context, "b");
+        NetworkConnection c = new NetworkConnection(context, "c");
+        a.engage(() -> a.receive());
+        b.engage(() -> {
+            try {
+                stopB.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        c.engage(() -> c.receive());
+        // c has no link to anyone
+        context.getNetwork().setTopology(new GraphTopology.Builder(List.of("a", "b", "c")).link(0, 1).build());
+        PhiAccrualFailureDetector detector = context.getFailureDetector();
+        detector.setHeartbeatInterval(20, TimeUnit.MILLISECONDS);
+        Thread simulation = new Thread(() -> context.getSimulator().simulate(30));
+        simulation.setDaemon(true);
+        simulation.start();
+        try {
+            detector.monitor("a", List.of("b", "c"));
+            assertTrue(awaitSuspicion(detector, "a", "c"));
+            assertFalse(detector.isSuspected("a", "b"));
+            assertEquals(List.of("c"), detector.suspects("a"));
+
+            stopB.countDown();
+            assertTrue(awaitSuspicion(detector, "a", "b"));
+            assertTrue(context.getMetrics().counter("failure.suspicions").get() >= 2);
+        } finally {
+            context.getSimulator().shutdown();
+        }
+    }
+
+    private static boolean awaitSuspicion(PhiAccrualFailureDetector detector, String observer, String node) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (detector.isSuspected(observer, node))
+                return true;
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
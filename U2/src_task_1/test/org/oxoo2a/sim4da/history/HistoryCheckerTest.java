@@ -0,0 +1,103 @@
+package org.oxoo2a.sim4da.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCheckerTest {
+
+    private static void write(History h, String node, String key, long value, long invoke, long complete) {
+        h.node(node).add(h.keyId(key), NodeHistory.WRITE, value, 0, invoke, complete);
+    }
+
+    private static void read(History h, String node, String key, long value, long invoke, long complete) {
+        h.node(node).add(h.keyId(key), NodeHistory.READ, 0, value, invoke, complete);
+    }
+
+    private static boolean linearizable(History h) {
+        return HistoryChecker.check(h, HistoryChecker.Consistency.LINEARIZABLE).isValid();
+    }
+
+    private static boolean sequential(History h) {
+        return HistoryChecker.check(h, HistoryChecker.Consistency.SEQUENTIAL).isValid();
+    }
+
+    @Test
+    void concurrentOperationsMayTakeEffectInEitherOrder() {
+        History h = new History();
+        write(h, "a", "x", 1, 0, 10);
+        write(h, "b", "x", 2, 5, 15);
+        // Write 2 took effect first, write 1 second
+        read(h, "c", "x", 2, 6, 7);
+        read(h, "c", "x", 1, 8, 9);
+        assertTrue(linearizable(h));
+
+        read(h, "c", "x", 1, 16, 17);
+        assertTrue(linearizable(h));
+        read(h, "c", "x", 2, 18, 19);
+        assertFalse(linearizable(h));
+    }
+
+    @Test
+    void staleReadIsSequentiallyConsistentButNotLinearizable() {
+        History h = new History();
+        write(h, "a", "x", 1, 0, 1);
+        read(h, "b", "x", History.ABSENT, 2, 3);
+        read(h, "b", "y", History.ABSENT, 4, 5);
+        HistoryChecker.Result result = HistoryChecker.check(h, HistoryChecker.Consistency.LINEARIZABLE);
+        assertEquals(List.of("x"), result.violations());
+        assertEquals(3, result.operations());
+        assertTrue(sequential(h));
+
+        // Reading 1 and then the initial value breaks the order of b's own operations
+        read(h, "b", "x", 1, 6, 7);
+        read(h, "b", "x", History.ABSENT, 8, 9);
+        assertFalse(sequential(h));
+    }
+
+    @Test
+    void failedOperationsMayOrMayNotTakeEffect() {
+        History h = new History();
+        write(h, "a", "x", 1, 0, NodeHistory.INDETERMINATE);
+        read(h, "b", "x", History.ABSENT, 2, 3);
+        read(h, "b", "x", 1, 4, 5);
+        assertTrue(linearizable(h));
+        assertTrue(sequential(h));
+
+        write(h, "a", "y", 1, 0, NodeHistory.INDETERMINATE);
+        read(h, "b", "y", History.ABSENT, 6, 7);
+        assertTrue(linearizable(h));
+        assertTrue(sequential(h));
+    }
+
+    @Test
+    void addsReturnTheNewValue() {
+        History h = new History();
+        h.node("a").add(h.keyId("c"), NodeHistory.ADD, 1, 1, 0, 10);
+        h.node("b").add(h.keyId("c"), NodeHistory.ADD, 1, 2, 0, 10);
+        assertTrue(linearizable(h));
+        // A lost update: both adds returned 1
+        h.node("a").add(h.keyId("d"), NodeHistory.ADD, 1, 1, 0, 10);
+        h.node("b").add(h.keyId("d"), NodeHistory.ADD, 1, 1, 0, 10);
+        assertFalse(linearizable(h));
+        assertFalse(sequential(h));
+    }
+
+    @Test
+    void longSequentialHistoriesCheckQuickly() {
+        History h = new History();
+        long t = 0;
+        for (int i = 0; i < 100_000; i++) {
+            String node = "n" + (i % 4);
+            write(h, node, "k" + (i % 10), i, t, t + 3);
+            read(h, node, "k" + (i % 10), i, t + 4, t + 5);
+            t += 6;
+        }
+        HistoryChecker.Result result = HistoryChecker.check(h, HistoryChecker.Consistency.LINEARIZABLE);
+        assertTrue(result.isValid());
+        assertEquals(10, result.keys());
+        assertTrue(HistoryChecker.check(h, HistoryChecker.Consistency.SEQUENTIAL).isValid());
+    }
+}
@@ -0,0 +1,72 @@
+package org.oxoo2a.sim4da.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsAreContiguous() {
+        long previousUpper = -1;
+        for (int i = 0; i < 5_000; i++) {
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            if (upper < 0 || upper == Long.MAX_VALUE) {
+                assertEquals(Long.MAX_VALUE, upper);
+                assertEquals(i, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+                return;
+            }
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpper + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            previousUpper = upper;
+        }
+        fail("Long.MAX_VALUE not reached");
+    }
+
+    @Test
+    void percentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.count());
+        assertEquals(values[0], snapshot.min());
+        assertEquals(values[values.length - 1], snapshot.max());
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long reported = snapshot.percentile(p);
+            assertTrue(reported >= exact, "p" + p);
+            assertTrue(reported <= exact + exact / LatencyHistogram.SUB_BUCKETS + 1, "p" + p);
+        }
+    }
+
+    @Test
+    void registryCountsMessagesPerNodeAndType() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.messageCounter(MetricsRegistry.Direction.SENT, "Node_0", "token").increment();
+        registry.messageCounter(MetricsRegistry.Direction.SENT, "Node_0", "token").increment();
+        registry.messageCounter(MetricsRegistry.Direction.RECEIVED, "Node_1", null).increment();
+        registry.registerGauge("node.Node_1.mailbox.depth", () -> 3);
+        registry.histogram("dsm.AP.read").record(1_000);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(2L, snapshot.counters().get("node.Node_0.sent.token"));
+        assertEquals(1L, snapshot.counters().get("node.Node_1.received.untyped"));
+        assertEquals(3L, snapshot.gauges().get("node.Node_1.mailbox.depth"));
+        assertEquals(1, snapshot.histograms().get("dsm.AP.read").count());
+
+        registry.reset();
+        snapshot = registry.snapshot();
+        assertEquals(0L, snapshot.counters().get("node.Node_0.sent.token"));
+        assertTrue(snapshot.gauges().isEmpty());
+        assertEquals(0, snapshot.histograms().get("dsm.AP.read").count());
+    }
+}
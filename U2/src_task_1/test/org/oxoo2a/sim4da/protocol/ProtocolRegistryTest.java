@@ -0,0 +1,57 @@
+package org.oxoo2a.sim4da.protocol;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProtocolRegistryTest {
+
+    @Test
+    void typesGetStableDenseIds() throws Exception {
+        int ping = MessageTypes.idOf("PROTOCOL_TEST_PING");
+        assertEquals(ping, MessageTypes.idOf("PROTOCOL_TEST_PING"));
+        assertEquals("PROTOCOL_TEST_PING", MessageTypes.nameOf(ping));
+        assertTrue(ping < MessageTypes.count());
+
+        Message m = new Message().add("type", "PROTOCOL_TEST_PING");
+        assertEquals(ping, m.typeId());
+        assertEquals(ping, new Message(m).typeId());
+        assertEquals(ping, Message.fromJson(m.toJson()).typeId());
+        assertEquals(MessageTypes.NONE, new Message().typeId());
+    }
+
+    @Test
+    void protocolsCoexistAndLeaveCleanly() {
+        List<String> seen = new ArrayList<>();
+        Protocol a = registry -> registry.on("PROTOCOL_TEST_A", m -> seen.add("a:" + m.query("v")));
+        Protocol b = registry -> registry.on("PROTOCOL_TEST_B", m -> seen.add("b:" + m.query("v")));
+        ProtocolRegistry registry = new ProtocolRegistry();
+        registry.add(a);
+        registry.add(b);
+
+        assertTrue(registry.dispatch(new Message().add("type", "PROTOCOL_TEST_A").add("v", "1")));
+        assertTrue(registry.dispatch(new Message().add("type", "PROTOCOL_TEST_B").add("v", "2")));
+        assertFalse(registry.dispatch(new Message().add("type", "PROTOCOL_TEST_C")));
+        assertFalse(registry.dispatch(new Message()));
+        assertEquals(List.of("a:1", "b:2"), seen);
+
+        registry.remove(a);
+        assertFalse(registry.dispatch(new Message().add("type", "PROTOCOL_TEST_A").add("v", "3")));
+        assertTrue(registry.dispatch(new Message().add("type", "PROTOCOL_TEST_B").add("v", "4")));
+        // The type is free again
+        registry.on("PROTOCOL_TEST_A", m -> seen.add("handler"));
+        registry.dispatch(new Message().add("type", "PROTOCOL_TEST_A"));
+        assertEquals(List.of("a:1", "b:2", "b:4", "handler"), seen);
+    }
+
+    @Test
+    void aTypeHasOnlyOneHandler() {
+        ProtocolRegistry registry = new ProtocolRegistry();
+        registry.on("PROTOCOL_TEST_D", m -> { });
+        assertThrows(IllegalStateException.class, () -> registry.on("PROTOCOL_TEST_D", m -> { }));
+    }
+}
@@ -0,0 +1,142 @@
+package org.oxoo2a.sim4da.random;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.RandomValues;
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.rpc.TimerWheel;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistributionsTest {
+
+    private static DoubleSupplier seeded(long seed) {
+        return new SplittableRandom(seed)::nextDouble;
+    }
+
+    @Test
+    void streamsRepeatForTheSameSeedAndDifferPerName() {
+        RandomStreams a = new RandomStreams(42);
+        RandomStreams b = new RandomStreams(42);
+        assertEquals(a.stream("Node_1").nextLong(), b.stream("Node_1").nextLong());
+        assertNotEquals(a.stream("Node_1").nextLong(), a.stream("Node_2").nextLong());
+        b.setSeed(43);
+        assertNotEquals(a.stream("Node_1").nextLong(), b.stream("Node_1").nextLong());
+    }
+
+    @Test
+    void helperThreadsDrawFromStreamsDerivedFromTheirNode() throws Exception {
+        SimulationContext context = new SimulationContext("random-helpers");
+        context.getRandom().setSeed(42);
+        AtomicLong first = new AtomicLong();
+        AtomicLong second = new AtomicLong();
+        Thread node = new Thread(() -> context.run(() -> {
+            RandomStreams.attach("Node_0");
+            try {
+                // Named like threads of other runs would be; the name must not matter
+                Thread helper = new Thread(() -> first.set(RandomStreams.current().nextLong()), "Thread-17");
+                helper.start();
+                helper.join();
+                helper = new Thread(() -> second.set(RandomStreams.current().nextLong()));
+                helper.start();
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        node.start();
+        node.join();
+        assertEquals(context.getRandom().stream("Node_0/1").nextLong(), first.get());
+        assertEquals(context.getRandom().stream("Node_0/2").nextLong(), second.get());
+    }
+
+    @Test
+    void sharedTimerTasksDrawFromTheStreamOfTheirScheduler() throws Exception {
+        SimulationContext a = new SimulationContext("random-timer-a");
+        SimulationContext b = new SimulationContext("random-timer-b");
+        a.getRandom().setSeed(1);
+        b.getRandom().setSeed(2);
+        AtomicReference<SimulationContext> seen = new AtomicReference<>();
+        AtomicLong drawn = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(2);
+        // Whichever node starts the timer thread first, it must not pass on its bindings
+        for (SimulationContext context : List.of(a, b)) {
+            Thread node = new Thread(() -> context.run(() -> {
+                RandomStreams.attach("Node_0");
+                TimerWheel.shared().schedule(() -> {
+                    if (SimulationContext.current() == b) {
+                        seen.set(SimulationContext.current());
+                        drawn.set(RandomStreams.current().nextLong());
+                    }
+                    done.countDown();
+                }, 1);
+            }));
+            node.start();
+            node.join();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(b, seen.get());
+        assertEquals(b.getRandom().stream("Node_0/1").nextLong(), drawn.get());
+    }
+
+    @Test
+    void distributionsHaveTheirMeans() {
+        int n = 200_000;
+        double exponential = 0, normal = 0, pareto = 0;
+        DoubleSupplier e = Distributions.exponential(5, seeded(1));
+        DoubleSupplier g = Distributions.normal(10, 2, seeded(2));
+        DoubleSupplier p = Distributions.pareto(1, 3, seeded(3));
+        for (int i = 0; i < n; i++) {
+            exponential += e.getAsDouble();
+            normal += g.getAsDouble();
+            double v = p.getAsDouble();
+            assertTrue(v >= 1);
+            pareto += v;
+        }
+        assertEquals(5, exponential / n, 0.1);
+        assertEquals(10, normal / n, 0.05);
+        // Mean of Pareto is scale * shape / (shape - 1)
+        assertEquals(1.5, pareto / n, 0.05);
+    }
+
+    @Test
+    void zipfFavorsLowRanks() {
+        int n = 1000;
+        int[] counts = new int[n];
+        DoubleSupplier z = Distributions.zipf(n, 0.99, seeded(4));
+        for (int i = 0; i < 100_000; i++) {
+            double rank = z.getAsDouble();
+            assertTrue(rank >= 0 && rank < n && rank == Math.floor(rank));
+            counts[(int) rank]++;
+        }
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10] && counts[10] > counts[500]);
+        // Rank 0 gets 1 / zeta(1000, 0.99), about 13%
+        assertEquals(0.13, counts[0] / 100_000.0, 0.02);
+    }
+
+    @Test
+    void empiricalInterpolatesBetweenSamples() {
+        DoubleSupplier d = Distributions.empirical(seeded(5), 30, 10, 20);
+        for (int i = 0; i < 1000; i++) {
+            double v = d.getAsDouble();
+            assertTrue(v >= 10 && v <= 30);
+        }
+        assertEquals(20, Distributions.empirical(() -> 0.5, 30, 10, 20).getAsDouble());
+        assertEquals(15, Distributions.empirical(() -> 0.25, 30, 10, 20).getAsDouble());
+    }
+
+    @Test
+    void randomValuesUseTheDistributionFunction() {
+        assertEquals(7.5, new RandomValues(() -> 0.25).getDouble(5, 15));
+        assertEquals(3, new RandomValues(() -> 0.99).getLong(0, 3));
+        assertEquals(0, new RandomValues(() -> 0.0).getLong(0, 3));
+        assertThrows(IllegalStateException.class, () -> new RandomValues(() -> 2.0).getDouble(0, 1));
+    }
+}
@@ -0,0 +1,188 @@
+package org.oxoo2a.sim4da.replay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.NetworkConnection;
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.UnknownNodeException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScheduleJournalTest {
+
+    @Test
+    void replayForcesRecordedOrderAndRandomDraws(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("schedule.bin");
+
+        SimulationContext recording = new SimulationContext("journal-record");
+        ScheduleJournal journal = recording.getJournal();
+        journal.startRecording(file);
+        NetworkConnection receiver = new NetworkConnection(recording, "R");
+        NetworkConnection a = new NetworkConnection(recording, "A");
+        NetworkConnection b = new NetworkConnection(recording, "B");
+        journal.attach("R");
+        a.send(new Message().add("text", "a1"), "R");
+        b.send(new Message().add("text", "b1"), "R");
+        a.send(new Message().add("text", "a2"), "R");
+        b.send(new Message().add("text", "b2"), "R");
+        List<String> recorded = new ArrayList<>();
+        List<Double> recordedDraws = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            recorded.add(receiver.receive().query("text"));
+            recordedDraws.add(ScheduleJournal.random());
+        }
+        journal.stop();
+        recording.getNetwork().shutdown();
+        assertEquals(List.of("a1", "b1", "a2", "b2"), recorded);
+
+        // Same nodes, but the messages arrive in a different order
+        SimulationContext replaying = new SimulationContext("journal-replay");
+        journal = replaying.getJournal();
+        journal.startReplay(file);
+        receiver = new NetworkConnection(replaying, "R");
+        a = new NetworkConnection(replaying, "A");
+        b = new NetworkConnection(replaying, "B");
+        journal.attach("R");
+        b.send(new Message().add("text", "b1"), "R");
+        b.send(new Message().add("text", "b2"), "R");
+        a.send(new Message().add("text", "a1"), "R");
+        a.send(new Message().add("text", "a2"), "R");
+        List<String> replayed = new ArrayList<>();
+        List<Double> replayedDraws = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            replayed.add(receiver.receive().query("text"));
+            replayedDraws.add(ScheduleJournal.random());
+        }
+        journal.stop();
+        replaying.getNetwork().shutdown();
+        assertEquals(recorded, replayed);
+        assertEquals(recordedDraws, replayedDraws);
+    }
+
+    @Test
+    void threadsStartedByANodeAreJournaledLikeTheNode(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("helpers.bin");
+        double[] draws = new double[2];
+
+        SimulationContext recording = new SimulationContext("journal-helpers-record");
+        recording.getJournal().startRecording(file);
+        List<String> recorded = runWithHelper(recording, false, draws, 0);
+        recording.getJournal().stop();
+        recording.getNetwork().shutdown();
+        assertEquals(List.of("node", "helper"), recorded);
+
+        // The helper now sends first, but the receiver takes the messages in the recorded order
+        SimulationContext replaying = new SimulationContext("journal-helpers-replay");
+        replaying.getJournal().startReplay(file);
+        List<String> replayed = runWithHelper(replaying, true, draws, 1);
+        replaying.getJournal().stop();
+        replaying.getNetwork().shutdown();
+        assertEquals(recorded, replayed);
+        assertEquals(draws[0], draws[1]);
+    }
+
+    // Node A sends to R from its own thread and from a thread it starts, which also draws a number
+    private static List<String> runWithHelper(SimulationContext context, boolean helperFirst, double[] draws, int run)
+            throws InterruptedException {
+        NetworkConnection receiver = new NetworkConnection(context, "R");
+        NetworkConnection a = new NetworkConnection(context, "A");
+        Thread node = new Thread(() -> {
+            context.getJournal().attach("A");
+            Thread helper = new Thread(() -> {
+                draws[run] = ScheduleJournal.random();
+                sendToR(a, "helper");
+            });
+            if (!helperFirst)
+                sendToR(a, "node");
+            helper.start();
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (helperFirst)
+                sendToR(a, "node");
+        });
+        node.start();
+        node.join();
+        context.getJournal().attach("R");
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            received.add(receiver.receive().query("text"));
+        }
+        return received;
+    }
+
+    private static void sendToR(NetworkConnection from, String text) {
+        try {
+            from.send(new Message().add("text", text), "R");
+        } catch (UnknownNodeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void pollsThatFoundNothingFindNothingAgain(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("polls.bin");
+
+        SimulationContext recording = new SimulationContext("journal-polls-record");
+        recording.getJournal().startRecording(file);
+        NetworkConnection receiver = new NetworkConnection(recording, "R");
+        NetworkConnection a = new NetworkConnection(recording, "A");
+        recording.getJournal().attach("R");
+        assertNull(receiver.receive(0));
+        sendToR(a, "a1");
+        assertEquals("a1", receiver.receive(0).query("text"));
+        recording.getJournal().stop();
+        recording.getNetwork().shutdown();
+
+        // The message is there before the first poll, which still finds nothing
+        SimulationContext replaying = new SimulationContext("journal-polls-replay");
+        replaying.getJournal().startReplay(file);
+        receiver = new NetworkConnection(replaying, "R");
+        a = new NetworkConnection(replaying, "A");
+        replaying.getJournal().attach("R");
+        sendToR(a, "a1");
+        long start = System.nanoTime();
+        assertNull(receiver.receive(50));
+        assertTrue(System.nanoTime() - start < ScheduleJournal.REPLAY_TIMEOUT_MS * 1_000_000L / 2);
+        assertEquals("a1", receiver.receive(0).query("text"));
+        assertNull(replaying.getJournal().expectedReceive("R"));
+        replaying.getJournal().stop();
+        replaying.getNetwork().shutdown();
+    }
+
+    @Test
+    void contextsKeepTheirOwnJournal(@TempDir Path dir) throws Exception {
+        ScheduleJournal first = new SimulationContext("journal-first").getJournal();
+        ScheduleJournal second = new SimulationContext("journal-second").getJournal();
+        first.startRecording(dir.resolve("first.bin"));
+        second.startRecording(dir.resolve("second.bin"));
+
+        first.stop();
+        assertEquals(ScheduleJournal.Mode.RECORD, second.mode());
+        second.stop();
+        assertTrue(Files.exists(dir.resolve("first.bin")));
+        assertTrue(Files.exists(dir.resolve("second.bin")));
+
+        // A journal can record again after it was stopped
+        first.startRecording(dir.resolve("again.bin"));
+        assertEquals(ScheduleJournal.Mode.RECORD, first.mode());
+        first.stop();
+    }
+
+    @Test
+    void journalIsInactiveByDefault() {
+        ScheduleJournal journal = new ScheduleJournal();
+        assertEquals(ScheduleJournal.Mode.OFF, journal.mode());
+        assertNull(journal.expectedReceive("R"));
+        double value = ScheduleJournal.random();
+        assertTrue(value >= 0 && value < 1);
+    }
+}
@@ -0,0 +1,252 @@
+package org.oxoo2a.sim4da.rpc;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+import org.oxoo2a.sim4da.Node;
+import org.oxoo2a.sim4da.SimulationContext;
+import org.oxoo2a.sim4da.metrics.MetricsRegistry;
+import org.oxoo2a.sim4da.random.RandomStreams;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RpcTest {
+
+    // Answers PING with PONG, fails on BAD, ignores the first DROP it sees from each call; s1 answers SLOW late
+    private static class Server extends Node {
+        private final Map<String, Boolean> dropped = new ConcurrentHashMap<>();
+
+        Server(SimulationContext context, String name) {
+            super(context, name);
+            onMessage("PING", m -> getRpc().reply(m, new Message().add("type", "PONG").add("from", NodeName())));
+            onMessage("BAD", m -> getRpc().fail(m, new Message().add("type", "PONG"), "bad request"));
+            onMessage("SLOW", m -> {
+                try {
+                    if (name.equals("s1"))
+                        Thread.sleep(400);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                getRpc().reply(m, new Message().add("type", "PONG").add("from", NodeName()));
+            });
+            onMessage("DROP", m -> {
+                if (dropped.putIfAbsent(m.queryHeader(Rpc.CALL_HEADER), true) != null)
+                    getRpc().reply(m, new Message().add("type", "PONG"));
+            });
+        }
+
+        @Override
+        protected void engage() {
+            while (receive() != null) {
+            }
+        }
+    }
+
+    private static class Client extends Node {
+        private final Map<String, Object> results;
+        private final CountDownLatch done;
+
+        Client(SimulationContext context, Map<String, Object> results, CountDownLatch done) {
+            super(context, "client");
+            this.results = results;
+            this.done = done;
+        }
+
+        @Override
+        protected void engage() {
+            Rpc rpc = getRpc();
+            List<String> servers = List.of("s1", "s2", "s3");
+            try {
+                results.put("call", rpc.await(rpc.call("s1", new Message().add("type", "PING"), CallOptions.DEFAULT)).query("from"));
+                results.put("quorum", rpc.await(rpc.quorum(servers, new Message().add("type", "PING"), 2, CallOptions.DEFAULT)).size());
+                results.put("retried", rpc.await(rpc.call("s2", new Message().add("type", "DROP"), new CallOptions(50, 2))).query("type"));
+                try {
+                    rpc.await(rpc.call("s3", new Message().add("type", "BAD"), CallOptions.DEFAULT));
+                } catch (RpcException e) {
+                    results.put("error", e);
+                }
+                try {
+                    rpc.await(rpc.quorum(List.of("s1", "silent"), new Message().add("type", "PING"), 2, new CallOptions(50, 1)));
+                } catch (RpcException e) {
+                    results.put("timeout", e);
+                }
+                // Fast round trips to s1 make the adaptive timeout and the hedging delay short
+                for (int i = 0; i < 10; i++)
+                    rpc.await(rpc.call("s1", new Message().add("type", "PING"), CallOptions.adaptive(5000, 0)));
+                results.put("timeout_s1", rpc.getRttEstimator().timeoutMillis("s1"));
+                results.put("hedged", rpc.await(rpc.hedged("s1", "s2", new Message().add("type", "SLOW"), CallOptions.adaptive(5000, 2))).query("from"));
+                results.put("pending", rpc.pending());
+            } catch (RpcException e) {
+                results.put("unexpected", e);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    @Test
+    void callsQuorumsRetriesAndFailures() throws InterruptedException {
+        SimulationContext context = new SimulationContext("rpc-test");
+        Map<String, Object> results = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(1);
+        context.run(() -> {
+            for (String name : List.of("s1", "s2", "s3"))
+                new Server(context, name);
+            // Never answers
+            new Node(context, "silent") {
+                @Override
+                protected void engage() {
+                    while (receive() != null) {
+                    }
+                }
+            };
+            new Client(context, results, done);
+        });
+        Thread simulation = new Thread(() -> context.getSimulator().simulate(30));
+        simulation.setDaemon(true);
+        simulation.start();
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        context.getSimulator().shutdown();
+
+        assertNull(results.get("unexpected"));
+        assertEquals("s1", results.get("call"));
+        assertEquals(2, results.get("quorum"));
+        assertEquals("PONG", results.get("retried"));
+        RpcException error = (RpcException) results.get("error");
+        assertFalse(error.isTimeout());
+        assertTrue(error.getMessage().contains("bad request"));
+        RpcException timeout = (RpcException) results.get("timeout");
+        assertTrue(timeout.isTimeout());
+        assertEquals(1, timeout.getReplies());
+        assertTrue((Long) results.get("timeout_s1") < RttEstimator.INITIAL_TIMEOUT_MILLIS);
+        // s1 takes 400ms, s2 answers as soon as the hedge reaches it
+        assertEquals("s2", results.get("hedged"));
+        assertEquals(1, context.getMetrics().counter("rpc.hedges").get());
+        assertEquals(0, results.get("pending"));
+        assertTrue(context.getMetrics().counter("rpc.retries").get() >= 2);
+    }
+
+    // A host whose retransmissions block until released, like a sender stuck on a full mailbox
+    private static RpcHost host(String name, CountDownLatch release) {
+        AtomicInteger sends = new AtomicInteger();
+        return new RpcHost() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void send(Message message, String to) {
+                if (sends.incrementAndGet() > 1 && release != null) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public boolean pump(long timeoutMillis) {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    void blockedRetransmissionsDontDelayOtherTimeouts() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        CountDownLatch release = new CountDownLatch(1);
+        Rpc blocked = new Rpc(host("blocked", release), metrics);
+        Rpc other = new Rpc(host("other", null), metrics);
+        try {
+            CompletableFuture<Message> stuck = blocked.call("x", new Message().add("type", "PING"), new CallOptions(20, 1));
+            Thread.sleep(100);
+            CompletableFuture<Message> call = other.call("y", new Message().add("type", "PING"), new CallOptions(50, 0));
+            ExecutionException e = assertThrows(ExecutionException.class, () -> call.get(2, TimeUnit.SECONDS));
+            assertTrue(((RpcException) e.getCause()).isTimeout());
+            assertFalse(stuck.isDone());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void retransmissionsDrawFromAStreamOfTheNode() throws Exception {
+        SimulationContext context = new SimulationContext("rpc-streams");
+        context.getRandom().setSeed(7);
+        List<SimulationContext> contexts = new CopyOnWriteArrayList<>();
+        List<Long> draws = new CopyOnWriteArrayList<>();
+        CountDownLatch retransmitted = new CountDownLatch(1);
+        Rpc rpc = new Rpc(new RpcHost() {
+            @Override
+            public String name() {
+                return "Node_0";
+            }
+
+            @Override
+            public void send(Message message, String to) {
+                contexts.add(SimulationContext.current());
+                draws.add(RandomStreams.current().nextLong());
+                if (draws.size() == 2)
+                    retransmitted.countDown();
+            }
+
+            @Override
+            public boolean pump(long timeoutMillis) {
+                return false;
+            }
+        }, new MetricsRegistry());
+        Thread node = new Thread(() -> context.run(() -> {
+            RandomStreams.attach("Node_0");
+            rpc.attach();
+            rpc.call("Node_1", new Message().add("type", "PING"), new CallOptions(20, 1));
+        }));
+        node.start();
+        node.join();
+        assertTrue(retransmitted.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(context, context), contexts);
+        assertEquals(context.getRandom().stream("Node_0").nextLong(), draws.get(0));
+        assertEquals(context.getRandom().stream("Node_0/1").nextLong(), draws.get(1));
+    }
+
+    @Test
+    void estimatorFollowsTheRoundTrips() {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(RttEstimator.INITIAL_TIMEOUT_MILLIS, estimator.timeoutMillis("a"));
+        for (int i = 0; i < 20; i++)
+            estimator.sample("a", TimeUnit.MILLISECONDS.toNanos(i % 2 == 0 ? 80 : 120));
+        long timeout = estimator.timeoutMillis("a");
+        assertTrue(timeout > 120 && timeout < 400, "timeout " + timeout);
+        assertEquals(120, estimator.hedgeDelayMillis("a"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), estimator.smoothedNanos("a"), TimeUnit.MILLISECONDS.toNanos(25));
+    }
+
+    @Test
+    void timerWheelFiresAfterTheDelay() throws InterruptedException {
+        TimerWheel wheel = new TimerWheel(1);
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        long start = System.nanoTime();
+        wheel.schedule(fired::countDown, 30);
+        wheel.schedule(cancelledRuns::incrementAndGet, 10).cancel();
+        // Longer than one turn of the wheel
+        CountDownLatch late = new CountDownLatch(1);
+        wheel.schedule(late::countDown, 600);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertFalse(late.await(300, TimeUnit.MILLISECONDS));
+        assertTrue(late.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(600));
+        assertEquals(0, cancelledRuns.get());
+    }
+}
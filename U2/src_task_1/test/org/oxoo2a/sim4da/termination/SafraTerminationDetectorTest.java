@@ -0,0 +1,57 @@
+package org.oxoo2a.sim4da.termination;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SafraTerminationDetectorTest {
+
+    // Passes a token from the initiator around the other detectors and back
+    private static Message lap(SafraTerminationDetector initiator, SafraTerminationDetector... others) {
+        Message token = initiator.startProbe(new Message().add("type", "TOKEN"));
+        for (SafraTerminationDetector node : others) {
+            token = node.forward(token);
+        }
+        return token;
+    }
+
+    @Test
+    void detectsMessageInFlight() {
+        SafraTerminationDetector p0 = new SafraTerminationDetector();
+        SafraTerminationDetector p1 = new SafraTerminationDetector();
+        SafraTerminationDetector p2 = new SafraTerminationDetector();
+        assertTrue(p0.isQuiescent(lap(p0, p1, p2)));
+
+        // p1 broadcasts to p0 and p2, only p2 has received it when the token returns
+        p1.onSend(2);
+        p2.onReceive();
+        assertFalse(p0.isQuiescent(lap(p0, p1, p2)));
+
+        // The last message arrives; startProbe whitens p0 again, so the next lap is clean
+        p0.onReceive();
+        assertTrue(p0.isQuiescent(lap(p0, p1, p2)));
+    }
+
+    @Test
+    void receiveBehindTheTokenMakesItBlack() {
+        SafraTerminationDetector p0 = new SafraTerminationDetector();
+        SafraTerminationDetector p1 = new SafraTerminationDetector();
+        SafraTerminationDetector p2 = new SafraTerminationDetector();
+
+        Message token = p0.startProbe(new Message().add("type", "TOKEN"));
+        token = p1.forward(token);
+        // p2 sends to p1 before the token arrives, p1 has already been visited: counts balance but p1 is black
+        p2.onSend(1);
+        p1.onReceive();
+        token = p2.forward(token);
+        assertEquals(1, token.queryLong(SafraTerminationDetector.COUNT_KEY));
+        assertFalse(p0.isQuiescent(token));
+
+        // The next probe collects p1's receive but p1 is still black, only the third one is clean
+        Message second = lap(p0, p1, p2);
+        assertEquals(0, second.queryLong(SafraTerminationDetector.COUNT_KEY));
+        assertFalse(p0.isQuiescent(second));
+        assertTrue(p0.isQuiescent(lap(p0, p1, p2)));
+    }
+}
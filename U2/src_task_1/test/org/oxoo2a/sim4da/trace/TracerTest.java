@@ -0,0 +1,105 @@
+package org.oxoo2a.sim4da.trace;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.oxoo2a.sim4da.Message;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TracerTest {
+
+    @Test
+    void contextRoundTrip() {
+        TraceContext context = new TraceContext(-5L, 0x1234L);
+        TraceContext decoded = TraceContext.decode(context.encode());
+        assertEquals(-5L, decoded.traceId());
+        assertEquals(0x1234L, decoded.spanId());
+        assertNull(TraceContext.decode(null));
+        assertNull(TraceContext.decode("garbage"));
+    }
+
+    @Test
+    void disabledTracerLeavesMessagesUntouched() {
+        Tracer tracer = new Tracer();
+        Message message = new Message().add("type", "token");
+        tracer.onSend(message, "A", "B");
+        assertNull(message.queryHeader(Tracer.HEADER));
+        assertNull(tracer.current());
+    }
+
+    @Test
+    void childSpansAreLinkedToTheMessageThatCausedThem(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("trace.bin");
+        Tracer tracer = new Tracer();
+        tracer.start(file, 1.0);
+        try {
+            Message request = new Message().add("type", "DSM_CP_WRITE_REQUEST").addHeader("sender", "A");
+            tracer.onSend(request, "A", "B");
+            assertNotNull(request.queryHeader(Tracer.HEADER));
+
+            tracer.onReceive(request, "B");
+            Message ack = new Message().add("type", "DSM_CP_WRITE_ACK").addHeader("sender", "B");
+            tracer.onSend(ack, "B", "A");
+            tracer.onReceive(ack, "A");
+            tracer.onReceive(new Message().add("type", "untraced"), "A");
+            assertNull(tracer.current());
+        } finally {
+            tracer.stop();
+        }
+
+        List<TraceEvent> events = TraceFileReader.read(file);
+        assertEquals(4, events.size());
+        TraceEvent requestSend = events.get(0);
+        TraceEvent ackSend = events.get(2);
+        assertEquals(Tracer.SEND, requestSend.kind());
+        assertEquals("A", requestSend.node());
+        assertEquals("B", requestSend.peer());
+        assertEquals("DSM_CP_WRITE_REQUEST", requestSend.name());
+        assertEquals(0, requestSend.parentSpanId());
+        assertEquals(Tracer.RECEIVE, events.get(1).kind());
+        assertEquals(requestSend.spanId(), events.get(1).spanId());
+        assertEquals(requestSend.traceId(), ackSend.traceId());
+        assertEquals(requestSend.spanId(), ackSend.parentSpanId());
+        assertEquals("A", events.get(3).node());
+    }
+
+    @Test
+    void buffersOfEndedThreadsAreWrittenAndDropped(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("trace.bin");
+        Tracer tracer = new Tracer();
+        tracer.start(file, 1.0);
+        try {
+            for (int i = 0; i < 50; i++) {
+                Thread t = new Thread(() -> tracer.startSpan("DSM_AP_UPDATE", "Node_0").close());
+                t.start();
+                t.join();
+            }
+            // Only the buffer of the last thread is left
+            assertTrue(tracer.bufferCount() <= 1, "buffers kept: " + tracer.bufferCount());
+        } finally {
+            tracer.stop();
+        }
+        assertEquals(100, TraceFileReader.read(file).size());
+    }
+
+    @Test
+    void stoppingOneTracerLeavesOthersRunning(@TempDir Path dir) throws Exception {
+        Tracer first = new Tracer();
+        Tracer second = new Tracer();
+        first.start(dir.resolve("first.bin"), 1.0);
+        second.start(dir.resolve("second.bin"), 1.0);
+        first.stop();
+        try {
+            assertTrue(second.isEnabled());
+            Message message = new Message().add("type", "token");
+            second.onSend(message, "A", "B");
+            assertNotNull(message.queryHeader(Tracer.HEADER));
+        } finally {
+            second.stop();
+        }
+        assertEquals(1, TraceFileReader.read(dir.resolve("second.bin")).size());
+    }
+}
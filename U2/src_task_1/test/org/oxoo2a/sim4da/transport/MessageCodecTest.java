@@ -0,0 +1,49 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    @Test
+    void roundTrip() {
+        Message m = new Message()
+                .add("type", "DSM_CP_WRITE_REQUEST")
+                .add("value", "Grüße 🎆 €")
+                .add("empty", "")
+                .add("absent", (String) null)
+                .addHeader("sender", "Node_7");
+        m.addCategory("Custom");
+        m.addWithCategory("Custom", "k", "v");
+        m.addLong("counter", -3).addLong("timestamp", Long.MIN_VALUE);
+
+        byte[] encoded = MessageCodec.encode(m);
+        assertEquals(MessageCodec.encodedSize(m), encoded.length);
+        Message decoded = MessageCodec.decode(encoded);
+        assertEquals(m.getPayload(), decoded.getPayload());
+        assertEquals(m.getHeader(), decoded.getHeader());
+        assertEquals("v", decoded.queryWithCategory("Custom", "k"));
+        assertNull(decoded.query("absent"));
+        assertTrue(decoded.getPayload().containsKey("absent"));
+        assertTrue(decoded.hasLong("counter"));
+        assertEquals(-3, decoded.queryLong("counter"));
+        assertEquals(Long.MIN_VALUE, decoded.queryLong("timestamp"));
+    }
+
+    @Test
+    void decodesFromDirectBuffer() {
+        Message m = new Message().add("type", "TOKEN").add("round", 12);
+        ByteBuffer direct = ByteBuffer.allocateDirect(MessageCodec.encodedSize(m) + 8);
+        direct.putInt(42);
+        MessageCodec.encode(m, direct);
+        direct.flip();
+        assertEquals(42, direct.getInt());
+        Message decoded = MessageCodec.decode(direct);
+        assertEquals(12, decoded.queryInteger("round"));
+        assertEquals(0, direct.remaining());
+    }
+}
@@ -0,0 +1,89 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.Message;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioTransportTest {
+
+    private record Delivery(String receiver, Message message) {}
+
+    @Test
+    void messagesFlowBetweenTwoTransports() throws Exception {
+        BlockingQueue<Delivery> atA = new LinkedBlockingQueue<>();
+        BlockingQueue<Delivery> atB = new LinkedBlockingQueue<>();
+        NioTransport a = new NioTransport(0, List.of());
+        a.start((receiver, message) -> atA.add(new Delivery(receiver, message)));
+        NioTransport b = new NioTransport(0, List.of(a.localAddress()));
+        try {
+            b.start((receiver, message) -> atB.add(new Delivery(receiver, message)));
+            a.announce("A_0");
+            b.announce("B_0");
+            b.announce("B_1");
+            assertTrue(a.awaitRemoteNodes(2, 5000));
+            assertTrue(b.awaitRemoteNodes(1, 5000));
+            assertTrue(a.hosts("B_1"));
+            assertFalse(a.hosts("A_0"));
+
+            // Order per connection is preserved, also for bursts that get batched
+            for (int i = 0; i < 10_000; i++) {
+                b.send("A_0", new Message().add("i", i).addHeader("sender", "B_0"));
+            }
+            for (int i = 0; i < 10_000; i++) {
+                Delivery d = atA.poll(5, TimeUnit.SECONDS);
+                assertNotNull(d, "message " + i);
+                assertEquals("A_0", d.receiver());
+                assertEquals(i, d.message().queryInteger("i"));
+            }
+
+            a.broadcast(new Message().add("type", "FIREWORK"));
+            Delivery d = atB.poll(5, TimeUnit.SECONDS);
+            assertNotNull(d);
+            assertNull(d.receiver());
+            assertEquals("FIREWORK", d.message().query("type"));
+        } finally {
+            b.close();
+            a.close();
+        }
+    }
+
+    @Test
+    void aMalformedFrameOnlyDropsItsConnection() throws Exception {
+        BlockingQueue<Delivery> atA = new LinkedBlockingQueue<>();
+        NioTransport a = new NioTransport(0, List.of());
+        a.start((receiver, message) -> atA.add(new Delivery(receiver, message)));
+        try (Socket garbage = new Socket(a.localAddress().getAddress(), a.localAddress().getPort())) {
+            garbage.setSoTimeout(5000);
+            // A MESSAGE frame whose receiver name claims more bytes than the frame has
+            DataOutputStream out = new DataOutputStream(garbage.getOutputStream());
+            out.writeInt(3);
+            out.write(new byte[] { 2, 100, 'x' });
+            out.flush();
+            // Only the transport's own ANNOUNCE arrives before the connection is closed
+            assertTrue(garbage.getInputStream().readAllBytes().length > 0);
+
+            NioTransport b = new NioTransport(0, List.of(a.localAddress()));
+            try {
+                b.start((receiver, message) -> {});
+                a.announce("A_0");
+                assertTrue(b.awaitRemoteNodes(1, 5000));
+                b.send("A_0", new Message().add("i", 1));
+                Delivery d = atA.poll(5, TimeUnit.SECONDS);
+                assertNotNull(d);
+                assertEquals(1, d.message().queryInteger("i"));
+            } finally {
+                b.close();
+            }
+        } finally {
+            a.close();
+        }
+    }
+}
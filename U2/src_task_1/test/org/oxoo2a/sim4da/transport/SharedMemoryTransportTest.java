@@ -0,0 +1,72 @@
+package org.oxoo2a.sim4da.transport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.oxoo2a.sim4da.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedMemoryTransportTest {
+
+    @Test
+    void ringWrapsAroundAndKeepsOrder() {
+        MappedRing producer = new MappedRing(ByteBuffer.allocateDirect(MappedRing.HEADER_SIZE + 256), 256);
+        int written = 0;
+        int read = 0;
+        while (read < 1_000) {
+            ByteBuffer record;
+            while (written < 1_000 && (record = producer.claim(4 + written % 50)) != null) {
+                record.putInt(written++);
+                producer.publish();
+            }
+            ByteBuffer payload;
+            while ((payload = producer.poll()) != null) {
+                assertEquals(4 + read % 50, payload.remaining());
+                assertEquals(read++, payload.getInt());
+                producer.release();
+            }
+        }
+        assertNull(producer.poll());
+    }
+
+    @Test
+    void messagesFlowBetweenProcesses(@TempDir Path dir) throws Exception {
+        BlockingQueue<Message> at0 = new LinkedBlockingQueue<>();
+        BlockingQueue<Message> at1 = new LinkedBlockingQueue<>();
+        SharedMemoryTransport p0 = new SharedMemoryTransport(dir, "test", 0, 2, 4096);
+        SharedMemoryTransport p1 = new SharedMemoryTransport(dir, "test", 1, 2, 4096);
+        try {
+            p0.start((receiver, message) -> at0.add(message.add("to", receiver == null ? "*" : receiver)));
+            p1.start((receiver, message) -> at1.add(message.add("to", receiver == null ? "*" : receiver)));
+            p0.announce("Node_0");
+            p1.announce("Node_1");
+            assertTrue(p0.awaitRemoteNodes(1, 5000));
+            assertTrue(p1.awaitRemoteNodes(1, 5000));
+
+            // Far more data than fits into the 4 KiB ring, so the producer has to wait for the consumer
+            for (int i = 0; i < 20_000; i++) {
+                p0.send("Node_1", new Message().add("i", i).addHeader("sender", "Node_0"));
+            }
+            for (int i = 0; i < 20_000; i++) {
+                Message m = at1.poll(5, TimeUnit.SECONDS);
+                assertNotNull(m, "message " + i);
+                assertEquals(i, m.queryInteger("i"));
+                assertEquals("Node_1", m.query("to"));
+            }
+
+            p1.broadcast(new Message().add("type", "FIREWORK"));
+            Message m = at0.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m);
+            assertEquals("*", m.query("to"));
+        } finally {
+            p1.close();
+            p0.close();
+        }
+    }
+}
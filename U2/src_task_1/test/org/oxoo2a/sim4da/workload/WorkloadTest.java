@@ -0,0 +1,139 @@
+package org.oxoo2a.sim4da.workload;
+
+import org.junit.jupiter.api.Test;
+import org.oxoo2a.sim4da.SimulationContext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkloadTest {
+
+    private static final int DRAWS = 100_000;
+
+    private static DoubleSupplier seeded(long seed) {
+        return new SplittableRandom(seed)::nextDouble;
+    }
+
+    private static int index(String key) {
+        return Integer.parseInt(key.substring(1));
+    }
+
+    @Test
+    void operationsFollowTheMix() {
+        Workload workload = new Workload(10, Workload.KeyChoice.UNIFORM, 0, 0.6, 0.1, 0, 1000, 0);
+        WorkloadGenerator generator = new WorkloadGenerator(workload, seeded(1));
+        Map<Workload.Operation, Integer> counts = new EnumMap<>(Workload.Operation.class);
+        for (int i = 0; i < DRAWS; i++)
+            counts.merge(generator.nextOperation(), 1, Integer::sum);
+        assertEquals(0.6, counts.get(Workload.Operation.READ) / (double) DRAWS, 0.01);
+        assertEquals(0.1, counts.get(Workload.Operation.RMW) / (double) DRAWS, 0.01);
+        assertEquals(0.3, counts.get(Workload.Operation.WRITE) / (double) DRAWS, 0.01);
+
+        generator = new WorkloadGenerator(Workload.ycsb("c"), seeded(2));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Workload.Operation.READ, generator.nextOperation());
+    }
+
+    @Test
+    void drawsRepeatForTheSameSeed() {
+        Workload workload = Workload.ycsb("a").withRate(100);
+        WorkloadGenerator a = new WorkloadGenerator(workload, seeded(3));
+        WorkloadGenerator b = new WorkloadGenerator(workload, seeded(3));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.nextOperation(), b.nextOperation());
+            assertEquals(a.nextKey(), b.nextKey());
+            assertEquals(a.nextInterarrivalNanos(), b.nextInterarrivalNanos());
+        }
+        assertEquals(0, new WorkloadGenerator(Workload.ycsb("a"), seeded(3)).nextInterarrivalNanos());
+    }
+
+    @Test
+    void uniformKeysAreEquallyLikely() {
+        int n = 10;
+        int[] counts = new int[n];
+        WorkloadGenerator generator = new WorkloadGenerator(Workload.ycsb("b").withKeys(n, 0), seeded(4));
+        for (int i = 0; i < DRAWS; i++)
+            counts[index(generator.nextKey())]++;
+        for (int count : counts)
+            assertEquals(0.1, count / (double) DRAWS, 0.01);
+    }
+
+    @Test
+    void zipfianKeysFavorTheFirst() {
+        int n = 1000;
+        int[] counts = new int[n];
+        WorkloadGenerator generator = new WorkloadGenerator(Workload.ycsb("b"), seeded(5));
+        for (int i = 0; i < DRAWS; i++)
+            counts[index(generator.nextKey())]++;
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10] && counts[10] > counts[500]);
+        // k0 gets 1 / zeta(1000, 0.99), about 13%
+        assertEquals(0.13, counts[0] / (double) DRAWS, 0.02);
+    }
+
+    @Test
+    void latestKeysFavorTheLastWritten() {
+        int n = 1000;
+        int[] distances = new int[n];
+        Workload workload = Workload.ycsb("a").withKeys(n, Workload.KeyChoice.LATEST, 0.99);
+        WorkloadGenerator generator = new WorkloadGenerator(workload, seeded(6));
+        int latest = 0;
+        for (int i = 0; i < DRAWS; i++) {
+            Workload.Operation op = generator.nextOperation();
+            int key = index(generator.nextKey());
+            distances[Math.floorMod(latest - key, n)]++;
+            if (op != Workload.Operation.READ)
+                latest = key;
+        }
+        assertTrue(distances[0] > distances[1] && distances[1] > distances[10] && distances[10] > distances[500]);
+        assertEquals(0.13, distances[0] / (double) DRAWS, 0.02);
+
+        // Reads only: the node never writes, so the most popular key stays where it is
+        generator = new WorkloadGenerator(Workload.ycsb("c").withKeys(n, Workload.KeyChoice.LATEST, 0.99), seeded(7));
+        int[] counts = new int[n];
+        for (int i = 0; i < DRAWS; i++) {
+            generator.nextOperation();
+            counts[index(generator.nextKey())]++;
+        }
+        assertTrue(counts[0] > counts[n - 1] && counts[n - 1] > counts[n - 10] && counts[n - 10] > counts[500]);
+    }
+
+    @Test
+    void invalidWorkloadsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Workload(0, Workload.KeyChoice.UNIFORM, 0, 1, 0, 0, 1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Workload(10, Workload.KeyChoice.ZIPFIAN, 0, 1, 0, 0, 1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Workload(10, Workload.KeyChoice.LATEST, 1, 1, 0, 0, 1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Workload(10, Workload.KeyChoice.UNIFORM, 0, 0.7, 0.4, 0, 1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Workload(10, Workload.KeyChoice.UNIFORM, 0, 1, 0, 0, 1000, 1000));
+        assertThrows(IllegalArgumentException.class, () -> Workload.ycsb("d"));
+        assertEquals(Workload.KeyChoice.UNIFORM, Workload.ycsb("a").withKeys(10, 0).keyChoice());
+    }
+
+    @Test
+    void runsMeasureTheOperationsOfTheMeasuredPart() {
+        SimulationContext context = new SimulationContext("workload-run");
+        WorkloadRun run = new WorkloadRun(context, new Workload(10, Workload.KeyChoice.UNIFORM, 0, 0.5, 0, 0, 3000, 1000), 2);
+        run.record(Workload.Operation.READ, true, 1_000_000);
+        run.record(Workload.Operation.READ, true, 3_000_000);
+        run.record(Workload.Operation.WRITE, true, 2_000_000);
+        run.record(Workload.Operation.WRITE, false, 9_000_000);
+        // 3 operations succeeded in the 2 measured seconds
+        assertEquals(1.5, run.throughput(), 1e-9);
+        assertEquals(0.25, run.failureRate(), 1e-9);
+        assertEquals(3, run.latency().count());
+        assertEquals(2, run.latency(Workload.Operation.READ).count());
+        assertEquals(0, run.latency(Workload.Operation.RMW).count());
+        assertEquals(1, context.getMetrics().counter("workload.write.failed").get());
+
+        run.arrive();
+        assertFalse(run.started().isDone());
+        run.arrive();
+        assertTrue(run.started().isDone());
+        run.depart();
+        run.depart();
+        assertTrue(run.finished().isDone());
+    }
+}